@@ -0,0 +1,4 @@
+@echo off
+
+cd %~dp0\..
+java -cp lib/winston.jar gov.usgs.volcanoes.winston.in.ew.ReplicateWS %1 %2 %3 %4 %5 %6 %7 %8 %9
\ No newline at end of file
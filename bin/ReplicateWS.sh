@@ -0,0 +1,4 @@
+#!/bin/sh
+
+cd `dirname $0`/..
+java -cp lib/winston.jar gov.usgs.volcanoes.winston.in.ew.ReplicateWS $*
@@ -0,0 +1,101 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import gov.usgs.volcanoes.core.data.Scnl;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.data.file.FileType;
+import gov.usgs.volcanoes.core.data.file.SeismicDataFile;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.time.TimeSpan;
+
+/**
+ * Data shared by the benchmarks. Waves come from the SAC file bundled with the source, or a
+ * synthetic random walk when it is missing, so no benchmark needs a database.
+ */
+public final class BenchmarkData {
+  /** SAC file, relative to the project root */
+  public static final String SAC_FILE = "SPCP_BHZ_AV_--_20170630160000-20170630161000.sac";
+
+  /** code given to TraceBufs */
+  public static final String CODE = "SPCP$BHZ$AV$--";
+
+  /** samples per TraceBuf, one second at 100 Hz as written by most digitizers */
+  public static final int TRACEBUF_SAMPLES = 100;
+
+  private static final String[] NETWORKS = new String[] {"AV", "AK", "UW", "CC", "HV"};
+  private static final String[] CHANNELS = new String[] {"BHZ", "BHN", "BHE", "EHZ", "HHZ"};
+
+  private BenchmarkData() {}
+
+  /**
+   * Ten minutes of data.
+   *
+   * @return wave
+   */
+  public static Wave wave() {
+    final File file = new File(SAC_FILE);
+    if (file.exists()) {
+      try {
+        final SeismicDataFile sac = SeismicDataFile.getFile(SAC_FILE, FileType.SAC);
+        sac.read();
+        return sac.getWave(sac.getChannels().iterator().next());
+      } catch (final IOException e) {
+        System.err.println("Cannot read " + SAC_FILE + ", using synthetic data. " + e.getMessage());
+      }
+    }
+
+    final Random random = new Random(1);
+    final int[] samples = new int[100 * 600];
+    int sample = 0;
+    for (int i = 0; i < samples.length; i++) {
+      sample += random.nextInt(201) - 100;
+      samples[i] = sample;
+    }
+    return new Wave(samples, 0, 100);
+  }
+
+  /**
+   * A wave cut into TraceBufs.
+   *
+   * @param wave wave
+   * @return TraceBufs, with their bytes created
+   */
+  public static List<TraceBuf> traceBufs(final Wave wave) {
+    final List<TraceBuf> tbs = new ArrayList<TraceBuf>();
+    for (final Wave w : wave.split(TRACEBUF_SAMPLES)) {
+      final TraceBuf tb = new TraceBuf(CODE, w);
+      tb.createBytes();
+      tbs.add(tb);
+    }
+    return tbs;
+  }
+
+  /**
+   * Synthetic channels, as a large network's server would list them.
+   *
+   * @param count number of channels
+   * @return channels with distinct SCNLs and time spans
+   */
+  public static List<Channel> channels(final int count) {
+    final List<Channel> channels = new ArrayList<Channel>(count);
+    final long now = System.currentTimeMillis();
+    for (int i = 0; i < count; i++) {
+      final String station = String.format("S%03d", i / CHANNELS.length);
+      final Scnl scnl = new Scnl(station, CHANNELS[i % CHANNELS.length],
+          NETWORKS[(i / CHANNELS.length) % NETWORKS.length], "--");
+      final TimeSpan timeSpan = new TimeSpan(now - (i + 1) * 86400000L, now);
+      channels.add(new Channel.Builder().sid(i + 1).scnl(scnl).timeSpan(timeSpan).build());
+    }
+    return channels;
+  }
+}
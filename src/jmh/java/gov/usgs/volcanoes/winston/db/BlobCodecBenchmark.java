@@ -0,0 +1,78 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.winston.BenchmarkData;
+
+/**
+ * TraceBuf compression on ingest and decompression on every raw read, for each blob codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BlobCodecBenchmark {
+  @Param({"deflate", "delta", "lzf"})
+  public String codecName;
+
+  private BlobCodec codec;
+  private List<byte[]> tbs;
+  private List<byte[]> blobs;
+
+  /**
+   * Prepare TraceBufs and their blobs.
+   */
+  @Setup
+  public void setUp() {
+    codec = BlobCodec.forName(codecName);
+    tbs = new ArrayList<byte[]>();
+    blobs = new ArrayList<byte[]>();
+    for (final TraceBuf tb : BenchmarkData.traceBufs(BenchmarkData.wave())) {
+      tbs.add(tb.bytes);
+      blobs.add(codec.encode(tb.bytes, 0, tb.bytes.length - 1));
+    }
+  }
+
+  /**
+   * Encode ten minutes of TraceBufs, as InputEW does.
+   *
+   * @param bh sink
+   */
+  @Benchmark
+  public void encode(final Blackhole bh) {
+    for (final byte[] tb : tbs) {
+      bh.consume(codec.encode(tb, 0, tb.length - 1));
+    }
+  }
+
+  /**
+   * Decode ten minutes of blobs, as a raw read does.
+   *
+   * @param bh sink
+   * @throws IOException never
+   */
+  @Benchmark
+  public void decode(final Blackhole bh) throws IOException {
+    for (final byte[] blob : blobs) {
+      bh.consume(BlobCodec.decode(blob));
+    }
+  }
+}
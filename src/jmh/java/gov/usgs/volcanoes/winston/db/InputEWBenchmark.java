@@ -0,0 +1,77 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.winston.BenchmarkData;
+
+/**
+ * Helicorder and RSAM accumulation for ten minutes of TraceBufs, as done for each batch ImportEW
+ * writes. Rows are built in memory only; the database is never reached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InputEWBenchmark {
+  private static final String DATE = "2017_06_30";
+
+  @Param({"true", "false"})
+  public boolean computeRsam;
+
+  private WinstonDatabase winston;
+  private InputEW input;
+  private List<TraceBuf> tbs;
+  private Set<Double> modifiedRows;
+
+  /**
+   * Prepare TraceBufs and an InputEW whose database is unreachable.
+   */
+  @Setup
+  public void setUp() {
+    winston = new WinstonDatabase("com.mysql.jdbc.Driver", "jdbc:mysql://127.0.0.1:1/", null);
+    input = new InputEW(winston);
+    tbs = BenchmarkData.traceBufs(BenchmarkData.wave());
+    modifiedRows = new HashSet<Double>();
+  }
+
+  /**
+   * Close the connection.
+   */
+  @TearDown
+  public void tearDown() {
+    winston.close();
+  }
+
+  /**
+   * Update helicorder rows for every TraceBuf.
+   *
+   * @return rows touched
+   */
+  @Benchmark
+  public int updateHelicorderData() {
+    modifiedRows.clear();
+    for (final TraceBuf tb : tbs) {
+      input.updateHelicorderData(modifiedRows, BenchmarkData.CODE, DATE, tb, computeRsam, 10, 60,
+          false);
+    }
+    return modifiedRows.size();
+  }
+}
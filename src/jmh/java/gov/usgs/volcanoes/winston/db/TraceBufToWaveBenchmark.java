@@ -0,0 +1,61 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.winston.BenchmarkData;
+
+/**
+ * Wave assembly from raw TraceBufs, as done by {@link Data#getWave} once the blobs are read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraceBufToWaveBenchmark {
+  private List<byte[]> rawBufs;
+
+  /**
+   * Prepare raw TraceBufs.
+   */
+  @Setup
+  public void setUp() {
+    rawBufs = new ArrayList<byte[]>();
+    for (final TraceBuf tb : BenchmarkData.traceBufs(BenchmarkData.wave())) {
+      rawBufs.add(tb.bytes);
+    }
+  }
+
+  /**
+   * Parse ten minutes of TraceBufs and join them into a wave.
+   *
+   * @return wave
+   * @throws IOException never
+   */
+  @Benchmark
+  public Wave getWave() throws IOException {
+    final List<TraceBuf> traceBufs = new ArrayList<TraceBuf>(rawBufs.size());
+    for (final byte[] buf : rawBufs) {
+      traceBufs.add(new TraceBuf(buf));
+    }
+    final Wave wave = TraceBuf.traceBufToWave(traceBufs);
+    wave.convertToJ2K();
+    return wave;
+  }
+}
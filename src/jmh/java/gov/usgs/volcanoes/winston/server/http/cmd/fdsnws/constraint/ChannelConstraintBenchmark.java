@@ -0,0 +1,81 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.http.cmd.fdsnws.constraint;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import gov.usgs.volcanoes.winston.BenchmarkData;
+import gov.usgs.volcanoes.winston.Channel;
+import gov.usgs.volcanoes.winston.server.http.cmd.fdsnws.FdsnException;
+
+/**
+ * FDSN channel selection over the channel list of a large server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelConstraintBenchmark {
+  @Param({"5000"})
+  public int channelCount;
+
+  private List<Channel> channels;
+  private ChannelConstraint all;
+  private ChannelConstraint some;
+
+  /**
+   * Prepare channels and constraints, as {@link ChannelConstraint#build} would from a query.
+   *
+   * @throws FdsnException never
+   */
+  @Setup
+  public void setUp() throws FdsnException {
+    channels = BenchmarkData.channels(channelCount);
+    all = new ChannelConstraint(".*", ".*", ".*", ".*");
+    all.setTimeConstraint(new TimeSimpleConstraint(null, null));
+    some = new ChannelConstraint("S0.*", "BH.{1}*", "AV", ".*");
+    some.setTimeConstraint(new TimeSimpleConstraint(null, null));
+  }
+
+  private static int count(final ChannelConstraint constraint, final List<Channel> channels) {
+    int matches = 0;
+    for (final Channel chan : channels) {
+      if (constraint.matches(chan)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Match every channel against wildcards.
+   *
+   * @return matches
+   */
+  @Benchmark
+  public int matchAll() {
+    return count(all, channels);
+  }
+
+  /**
+   * Match a network's broadband channels.
+   *
+   * @return matches
+   */
+  @Benchmark
+  public int matchSome() {
+    return count(some, channels);
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.wws.cmd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.winston.BenchmarkData;
+import gov.usgs.volcanoes.winston.Channel;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Response assembly of the WWS data commands, written to an embedded channel and discarded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WwsCommandBenchmark {
+  private static final String HEADER = "1 2 SPCP BHZ AV -- F s4 1.0 100.0 ";
+  private static final int RAW_CHUNK_SIZE = 65536;
+  private static final int MENU_CHANNELS = 5000;
+
+  private Wave wave;
+  private List<byte[]> rawBufs;
+  private List<Channel> channels;
+  private EmbeddedChannel channel;
+
+  /**
+   * Prepare data and a channel.
+   */
+  @Setup
+  public void setUp() {
+    wave = BenchmarkData.wave();
+    rawBufs = new ArrayList<byte[]>();
+    for (final TraceBuf tb : BenchmarkData.traceBufs(wave)) {
+      rawBufs.add(tb.bytes);
+    }
+    channels = BenchmarkData.channels(MENU_CHANNELS);
+    channel = new EmbeddedChannel(new StringEncoder(CharsetUtil.US_ASCII),
+        new ChannelHandlerAdapter() {});
+  }
+
+  private int drain() {
+    channel.flush();
+    int bytes = 0;
+    Object msg;
+    while ((msg = channel.readOutbound()) != null) {
+      final ByteBuf buf = (ByteBuf) msg;
+      bytes += buf.readableBytes();
+      buf.release();
+    }
+    return bytes;
+  }
+
+  /**
+   * GETSCNL: ten minutes of samples as ASCII.
+   *
+   * @return bytes written
+   */
+  @Benchmark
+  public int getScnlAscii() {
+    new AsciiSampleEncoder().encode(channel.pipeline().lastContext(), HEADER, wave, "-2147483648");
+    return drain();
+  }
+
+  /**
+   * GETSCNLRAW: ten minutes of TraceBufs.
+   *
+   * @return bytes written
+   */
+  @Benchmark
+  public int getScnlRaw() {
+    GetScnlRawCommand.writeBufs(channel.pipeline().lastContext(), rawBufs, RAW_CHUNK_SIZE);
+    return drain();
+  }
+
+  /**
+   * MENU for a large server.
+   *
+   * @return menu lines
+   * @throws UtilException never
+   */
+  @Benchmark
+  public List<String> menu() throws UtilException {
+    return MenuCommand.generateMenu(channels, true);
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.Random;
+
+import gov.usgs.volcanoes.core.data.Scnl;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+/**
+ * A client issuing a mix of WWS and HTTP requests for random channels and windows until a
+ * deadline. WWS requests share one connection; HTTP requests use their own.
+ */
+public class LoadClient implements Runnable {
+  /** commands issued, in turn */
+  public static final String[] COMMANDS =
+      new String[] {"GETSCNLRAW", "GETWAVERAW", "MENU", "heli", "rsam", "gaps"};
+
+  private static final int TIMEOUT = 60000;
+
+  private final String host;
+  private final int port;
+  private final List<Scnl> channels;
+  private final double dataStart;
+  private final double dataEnd;
+  private final double window;
+  private final long deadline;
+  private final LoadStatistics statistics;
+  private final Random random;
+
+  private Socket socket;
+  private InputStream in;
+  private OutputStream out;
+  private int requestId;
+
+  /**
+   * Constructor.
+   *
+   * @param host WWS host
+   * @param port WWS port
+   * @param channels channels to request
+   * @param dataStart start of seeded data, J2K seconds
+   * @param dataEnd end of seeded data, J2K seconds
+   * @param window seconds of data requested by raw commands
+   * @param deadline System.nanoTime() after which no request is started
+   * @param statistics where results are recorded
+   * @param seed random seed
+   */
+  public LoadClient(final String host, final int port, final List<Scnl> channels,
+      final double dataStart, final double dataEnd, final double window, final long deadline,
+      final LoadStatistics statistics, final long seed) {
+    this.host = host;
+    this.port = port;
+    this.channels = channels;
+    this.dataStart = dataStart;
+    this.dataEnd = dataEnd;
+    this.window = window;
+    this.deadline = deadline;
+    this.statistics = statistics;
+    random = new Random(seed);
+  }
+
+  public void run() {
+    int i = random.nextInt(COMMANDS.length);
+    while (System.nanoTime() < deadline) {
+      final String command = COMMANDS[i++ % COMMANDS.length];
+      final Scnl scnl = channels.get(random.nextInt(channels.size()));
+      final long start = System.nanoTime();
+      try {
+        final long bytes = request(command, scnl);
+        statistics.record(command, System.nanoTime() - start, bytes);
+      } catch (final IOException e) {
+        statistics.error(command);
+        close();
+      }
+    }
+    close();
+  }
+
+  private long request(final String command, final Scnl scnl) throws IOException {
+    final double t1 = dataStart + random.nextDouble() * Math.max(0, dataEnd - dataStart - window);
+    final double t2 = Math.min(dataEnd, t1 + window);
+    final String code = scnl.toString("_");
+    if ("GETSCNLRAW".equals(command)) {
+      return getScnlRaw(scnl, t1, t2);
+    } else if ("GETWAVERAW".equals(command)) {
+      return getWaveRaw(scnl, t1, t2);
+    } else if ("MENU".equals(command)) {
+      return menu();
+    } else if ("heli".equals(command)) {
+      return http("heli?code=" + code + "&t1=-2&w=1000&h=800");
+    } else if ("rsam".equals(command)) {
+      return http("rsam?code=" + code + "&t1=-2&w=1000&h=400");
+    } else {
+      return http("gaps?code=" + code + "&t1=-2&wc=1");
+    }
+  }
+
+  private void connect() throws IOException {
+    if (socket == null) {
+      socket = new Socket(host, port);
+      socket.setSoTimeout(TIMEOUT);
+      socket.setTcpNoDelay(true);
+      in = new BufferedInputStream(socket.getInputStream());
+      out = socket.getOutputStream();
+    }
+  }
+
+  private void close() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // nothing to do
+      }
+      socket = null;
+    }
+  }
+
+  private String send(final String request) throws IOException {
+    connect();
+    final String id = Integer.toString(++requestId);
+    out.write((request.replace("{id}", id) + "\n").getBytes("US-ASCII"));
+    out.flush();
+    return id;
+  }
+
+  private String readLine() throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        throw new EOFException();
+      }
+      line.write(b);
+    }
+    return line.toString("US-ASCII").trim();
+  }
+
+  private void skip(final long bytes) throws IOException {
+    long remaining = bytes;
+    while (remaining > 0) {
+      final long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+
+  private String checkId(final String id, final String response) throws IOException {
+    if (!response.startsWith(id + " ")) {
+      throw new IOException("Unexpected response: " + response);
+    }
+    return response;
+  }
+
+  /**
+   * Header, then as many bytes as its last field, when it has data.
+   */
+  private long getScnlRaw(final Scnl scnl, final double t1, final double t2) throws IOException {
+    final String id = send(String.format("GETSCNLRAW: {id} %s %.3f %.3f", scnl.toString(" "),
+        J2kSec.asEpoch(t1) / 1000.0, J2kSec.asEpoch(t2) / 1000.0));
+    final String header = checkId(id, readLine());
+    final String[] fields = header.split(" ");
+    long bytes = header.length() + 1;
+    if (fields.length == 11 && "F".equals(fields[6])) {
+      final long length = Long.parseLong(fields[10]);
+      skip(length);
+      bytes += length;
+    }
+    return bytes;
+  }
+
+  /**
+   * Id and length, then as many bytes.
+   */
+  private long getWaveRaw(final Scnl scnl, final double t1, final double t2) throws IOException {
+    final String id =
+        send(String.format("GETWAVERAW: {id} %s %.3f %.3f 0", scnl.toString(" "), t1, t2));
+    final String header = checkId(id, readLine());
+    final long length = Long.parseLong(header.substring(id.length() + 1));
+    skip(length);
+    return header.length() + 1 + length;
+  }
+
+  /**
+   * Id, then the menu on a single line.
+   */
+  private long menu() throws IOException {
+    final String id = send("MENU: {id} SCNL");
+    return checkId(id, readLine()).length() + 1;
+  }
+
+  private long http(final String path) throws IOException {
+    final URL url = new URL("http", host, port, "/" + path);
+    final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(TIMEOUT);
+    connection.setReadTimeout(TIMEOUT);
+    try {
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException(path + ": HTTP " + connection.getResponseCode());
+      }
+      final InputStream body = connection.getInputStream();
+      final byte[] buf = new byte[8192];
+      long bytes = 0;
+      int read;
+      while ((read = body.read(buf)) > 0) {
+        bytes += read;
+      }
+      body.close();
+      return bytes;
+    } finally {
+      connection.disconnect();
+    }
+  }
+}
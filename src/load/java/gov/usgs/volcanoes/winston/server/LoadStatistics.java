@@ -0,0 +1,109 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Request latencies and sizes, kept per command.
+ */
+public class LoadStatistics {
+  private final Map<String, Command> commands;
+
+  /**
+   * Constructor.
+   */
+  public LoadStatistics() {
+    commands = new TreeMap<String, Command>();
+  }
+
+  private synchronized Command get(final String command) {
+    Command stats = commands.get(command);
+    if (stats == null) {
+      stats = new Command();
+      commands.put(command, stats);
+    }
+    return stats;
+  }
+
+  /**
+   * Record a completed request.
+   *
+   * @param command command name
+   * @param nanos time from sending the request to reading the last byte of the response
+   * @param bytes response size
+   */
+  public void record(final String command, final long nanos, final long bytes) {
+    final Command stats = get(command);
+    synchronized (stats) {
+      stats.add(nanos);
+      stats.bytes += bytes;
+    }
+  }
+
+  /**
+   * Record a failed request.
+   *
+   * @param command command name
+   */
+  public void error(final String command) {
+    final Command stats = get(command);
+    synchronized (stats) {
+      stats.errors++;
+    }
+  }
+
+  /**
+   * Format a report.
+   *
+   * @param seconds length of the run
+   * @return one line per command
+   */
+  public synchronized String report(final double seconds) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-12s %8s %6s %9s %9s %9s %9s %9s %10s%n", "command", "requests",
+        "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "MB/s"));
+    for (final Map.Entry<String, Command> entry : commands.entrySet()) {
+      final Command stats = entry.getValue();
+      synchronized (stats) {
+        final long[] sorted = Arrays.copyOf(stats.nanos, stats.count);
+        Arrays.sort(sorted);
+        sb.append(String.format("%-12s %8d %6d %9.1f %9.2f %9.2f %9.2f %9.2f %10.2f%n",
+            entry.getKey(), stats.count, stats.errors, stats.count / seconds,
+            percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+            percentile(sorted, 1), stats.bytes / seconds / (1024 * 1024)));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Nearest rank percentile.
+   */
+  private static double percentile(final long[] sorted, final double p) {
+    if (sorted.length == 0) {
+      return Double.NaN;
+    }
+    final int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.max(0, rank - 1)] / 1e6;
+  }
+
+  private static class Command {
+    long[] nanos = new long[1024];
+    int count;
+    long bytes;
+    long errors;
+
+    void add(final long t) {
+      if (count == nanos.length) {
+        nanos = Arrays.copyOf(nanos, count * 2);
+      }
+      nanos[count++] = t;
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Level;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import gov.usgs.volcanoes.core.data.Scnl;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.winston.db.Channels;
+import gov.usgs.volcanoes.winston.db.InputEW;
+import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+import gov.usgs.volcanoes.winston.in.ew.ImportEW;
+
+/**
+ * Measure WWS throughput without a MySQL install. Starts an embedded MariaDB, seeds it with
+ * synthetic channels through {@link InputEW}, launches a WWS against it, then runs concurrent
+ * clients issuing GETSCNLRAW, GETWAVERAW, MENU, heli, rsam and gaps requests. Requests per second,
+ * latency percentiles and bytes per second are reported for each command.
+ *
+ * <p>
+ * Arguments are name=value pairs:
+ * <ul>
+ * <li>channels: channels seeded, default 10</li>
+ * <li>hours: hours of 100 Hz data seeded for each channel, ending now, default 2</li>
+ * <li>clients: concurrent clients, default 8</li>
+ * <li>seconds: length of the run, default 60</li>
+ * <li>window: seconds of data requested by GETSCNLRAW and GETWAVERAW, default 600</li>
+ * <li>dbConnections: wws.dbConnections, default 5</li>
+ * <li>store: winston.store, default mysql</li>
+ * <li>url: JDBC URL of an existing server to use instead of the embedded one</li>
+ * </ul>
+ */
+public class LoadTest {
+  private static final String DRIVER = "com.mysql.jdbc.Driver";
+  private static final String PREFIX = "LOAD";
+  private static final double SAMPLE_RATE = 100;
+  private static final int TRACEBUF_SAMPLES = 100;
+  private static final int BATCH_SIZE = 600;
+  private static final int GAP_INTERVAL = 500;
+
+  private final Map<String, String> args;
+
+  /**
+   * Constructor.
+   *
+   * @param args name=value pairs
+   */
+  public LoadTest(final String[] args) {
+    this.args = new HashMap<String, String>();
+    for (final String arg : args) {
+      final int eq = arg.indexOf('=');
+      if (eq < 1) {
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      }
+      this.args.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+  }
+
+  private int getInt(final String name, final int def) {
+    return StringUtils.stringToInt(args.get(name), def);
+  }
+
+  private static int freePort() throws IOException {
+    final ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Seed channels with a random walk, leaving a one second gap every few minutes.
+   *
+   * @return channels seeded
+   */
+  private List<Scnl> seed(final String url, final double start, final double end) {
+    final WinstonDatabase winston = new WinstonDatabase(DRIVER, url, PREFIX);
+    if (!winston.checkDatabase()) {
+      throw new RuntimeException("Winston database does not exist and could not be created.");
+    }
+    final Channels channels = new Channels(winston);
+    final InputEW input = new InputEW(winston);
+    final Random random = new Random(1);
+
+    final List<Scnl> scnls = new ArrayList<Scnl>();
+    final long seedStart = System.nanoTime();
+    int count = 0;
+    for (int c = 0; c < getInt("channels", 10); c++) {
+      final Scnl scnl = new Scnl(String.format("LD%02d", c), "HHZ", "LT", "--");
+      final String code = scnl.toString("$");
+      if (!channels.channelExists(code)) {
+        channels.createChannel(code);
+      }
+      scnls.add(scnl);
+
+      final List<TraceBuf> tbs = new ArrayList<TraceBuf>(BATCH_SIZE);
+      int sample = 0;
+      int n = 0;
+      for (double t = start; t < end; t += TRACEBUF_SAMPLES / SAMPLE_RATE) {
+        final int[] samples = new int[TRACEBUF_SAMPLES];
+        for (int i = 0; i < samples.length; i++) {
+          sample += random.nextInt(201) - 100;
+          samples[i] = sample;
+        }
+        if (++n % GAP_INTERVAL == 0) {
+          continue;
+        }
+        final TraceBuf tb = new TraceBuf(code, new Wave(samples, t, SAMPLE_RATE));
+        tb.createBytes();
+        tbs.add(tb);
+        if (tbs.size() == BATCH_SIZE) {
+          input.inputTraceBufs(tbs, true, ImportEW.DEFAULT_RSAM_DELTA,
+              ImportEW.DEFAULT_RSAM_DURATION);
+          count += tbs.size();
+          tbs.clear();
+        }
+      }
+      if (!tbs.isEmpty()) {
+        input.inputTraceBufs(tbs, true, ImportEW.DEFAULT_RSAM_DELTA,
+            ImportEW.DEFAULT_RSAM_DURATION);
+        count += tbs.size();
+      }
+    }
+    final double seconds = (System.nanoTime() - seedStart) / 1e9;
+    System.out.printf("Seeded %d TraceBufs for %d channels in %.1fs, %.0f TraceBufs/s%n", count,
+        scnls.size(), seconds, count / seconds);
+    winston.close();
+    return scnls;
+  }
+
+  private File writeConfig(final String url, final int port) throws IOException {
+    final File config = File.createTempFile("WWS", ".config");
+    config.deleteOnExit();
+    final PrintWriter out = new PrintWriter(config, "US-ASCII");
+    try {
+      out.println("wws.addr=127.0.0.1");
+      out.println("wws.port=" + port);
+      out.println("wws.dbConnections=" + getInt("dbConnections", 5));
+      out.println("winston.driver=" + DRIVER);
+      out.println("winston.url=" + url);
+      out.println("winston.prefix=" + PREFIX);
+      out.println("winston.statementCacheCap=100");
+      if (args.containsKey("store")) {
+        out.println("winston.store=" + args.get("store"));
+      }
+    } finally {
+      out.close();
+    }
+    return config;
+  }
+
+  /**
+   * Seed, serve and measure.
+   *
+   * @throws Exception when things go wrong
+   */
+  public void run() throws Exception {
+    DB db = null;
+    String url = args.get("url");
+    if (url == null) {
+      final DBConfigurationBuilder dbConfig = DBConfigurationBuilder.newBuilder();
+      dbConfig.setPort(0);
+      db = DB.newEmbeddedDB(dbConfig.build());
+      db.start();
+      url = String.format("jdbc:mysql://127.0.0.1:%d/?user=root&useSSL=false",
+          db.getConfiguration().getPort());
+    }
+
+    try {
+      final double end = Math.floor(J2kSec.now());
+      final double start = end - getInt("hours", 2) * 3600;
+      final List<Scnl> channels = seed(url, start, end);
+
+      final int port = freePort();
+      final WWS wws = new WWS(writeConfig(url, port).getPath());
+      wws.launch();
+      try {
+        final int seconds = getInt("seconds", 60);
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final LoadStatistics statistics = new LoadStatistics();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < getInt("clients", 8); i++) {
+          threads.add(new Thread(new LoadClient("127.0.0.1", port, channels, start, end,
+              getInt("window", 600), deadline, statistics, i), "client-" + i));
+        }
+
+        final long runStart = System.nanoTime();
+        for (final Thread thread : threads) {
+          thread.start();
+        }
+        for (final Thread thread : threads) {
+          thread.join();
+        }
+        final double runTime = (System.nanoTime() - runStart) / 1e9;
+        System.out.printf("%d clients for %.1fs%n", threads.size(), runTime);
+        System.out.print(statistics.report(runTime));
+      } finally {
+        wws.shutdownGracefully();
+      }
+    } finally {
+      if (db != null) {
+        db.stop();
+      }
+    }
+  }
+
+  /**
+   * Run the load test.
+   *
+   * @param args name=value pairs
+   * @throws Exception when things go wrong
+   */
+  public static void main(final String[] args) throws Exception {
+    org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+    new LoadTest(args).run();
+  }
+}
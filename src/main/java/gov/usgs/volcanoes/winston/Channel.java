@@ -57,6 +57,26 @@ public class Channel implements Comparable<Channel> {
       timeSpan = DEFAULT_TIME_SPAN;
     }
 
+    /**
+     * Start with a copy of an existing channel.
+     *
+     * @param channel channel to copy
+     * @return this builder
+     */
+    public Builder channel(Channel channel) {
+      sid = channel.sid;
+      scnl = channel.scnl;
+      timeSpan = channel.timeSpan;
+      instrument = channel.instrument;
+      linearA = channel.linearA;
+      linearB = channel.linearB;
+      alias = channel.alias;
+      unit = channel.unit;
+      groups = new ArrayList<String>(channel.groups);
+      metadata = new HashMap<String, String>(channel.metadata);
+      return this;
+    }
+
     public Builder sid(int sid) {
       this.sid = sid;
       return this;
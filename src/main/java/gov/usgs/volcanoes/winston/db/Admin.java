@@ -3,6 +3,7 @@ package gov.usgs.volcanoes.winston.db;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -127,6 +128,14 @@ public class Admin {
         } else {
           status = 2;
         }
+      } else if (cmd.equals("--coverage")) {
+        final String ch;
+        if (argIndex < args.length) {
+          ch = args[argIndex++];
+        } else {
+          ch = null;
+        }
+        admin.rebuildCoverage(ch, delay);
       }
       // else if (cmd.equals("--deletewinston"))
       // {
@@ -173,7 +182,9 @@ public class Admin {
             + "                                  specified number of days where the channel\n"
             + "                                  may contain a wild card (%) anywhere\n"
             + "  --repair YYYY_MM_DD [channel]   repair all tables on given day\n"
-            + "                                  optionally, just repair the specified channel\n" +
+            + "                                  optionally, just repair the specified channel\n"
+            + "  --coverage [channel]            rebuild the coverage index used to find gaps\n"
+            + "                                  optionally, just for the specified channel\n" +
             // " --deletewinston completely deletes all Winston databases\n" +
             "");
     if (status != 0) {
@@ -425,6 +436,44 @@ public class Admin {
     }
   }
 
+  /**
+   * Rebuild the coverage index from the day tables.
+   *
+   * @param chString channel to rebuild; null for all
+   * @param delay the delay in milliseconds between channels
+   */
+  public void rebuildCoverage(final String chString, final long delay) {
+    final List<String> codes = new ArrayList<String>();
+    if (chString == null) {
+      for (final Channel ch : channels.getChannels()) {
+        codes.add(ch.scnl.toString());
+      }
+    } else {
+      codes.add(chString);
+    }
+
+    final Coverage coverage = new Coverage(winston);
+    for (int i = 0; i < codes.size(); i++) {
+      final String code = codes.get(i);
+      try {
+        if (i != 0 && delay != 0) {
+          Thread.sleep(delay);
+        }
+        if (!winston.useDatabase(code)) {
+          LOGGER.info("{} doesn't exist.", code);
+          continue;
+        }
+        System.out.print(code + "...");
+        final List<String> days = DayTableIndex.getInstance().getDays(winston, code,
+            "0000_00_00", "9999_99_99");
+        final int runs = coverage.rebuild(code, days);
+        System.out.println(days.size() + " days, " + runs + " runs.");
+      } catch (final Exception e) {
+        LOGGER.error("Failed to rebuild coverage for {}. ({})", code, e.getLocalizedMessage());
+      }
+    }
+  }
+
   /**
    * Leaving as-is for old importer.
    *
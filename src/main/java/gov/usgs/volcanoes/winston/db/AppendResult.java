@@ -0,0 +1,63 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+/**
+ * The outcome of appending a TraceBuf, or of one of the steps which follow a batch, to a
+ * {@link WaveStore}.
+ */
+public class AppendResult {
+  /**
+   * What happened.
+   */
+  public enum Code {
+    /** the TraceBuf names no channel */
+    ERROR_CHANNEL,
+    /** the store failed while writing; the write may be tried again */
+    ERROR_DATABASE,
+    /** the TraceBuf was already stored */
+    ERROR_DUPLICATE,
+    /** helicorder data could not be updated */
+    ERROR_HELICORDER,
+    /** the batch was empty or mixed channels */
+    ERROR_INPUT,
+    /** the store could not be reached */
+    ERROR_NO_WINSTON,
+    /** the TraceBuf was null */
+    ERROR_NULL_TRACEBUF,
+    /** the channel time span could not be updated */
+    ERROR_TIME_SPAN,
+    /** the write failed for some other reason */
+    ERROR_UNKNOWN,
+    /** not yet written */
+    NO_CODE,
+    /** written */
+    SUCCESS,
+    /** written, the first TraceBuf of a new day for the channel */
+    SUCCESS_NEW_DAY,
+    /** helicorder data updated */
+    SUCCESS_HELICORDER,
+    /** channel time span updated */
+    SUCCESS_TIME_SPAN
+  }
+
+  public Code code;
+  public double failedHeliJ2K;
+  public TraceBuf traceBuf;
+
+  /**
+   * Constructor.
+   *
+   * @param c outcome
+   * @param tb TraceBuf, or null for the steps which follow a batch
+   */
+  public AppendResult(final Code c, final TraceBuf tb) {
+    code = c;
+    traceBuf = tb;
+  }
+}
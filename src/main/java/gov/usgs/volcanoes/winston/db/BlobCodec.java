@@ -0,0 +1,367 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import gov.usgs.volcanoes.core.Zip;
+
+/**
+ * Encodes TraceBufs as stored in a wave table blob.
+ *
+ * <p>
+ * Deflate blobs carry no header of their own; they start with a zlib header, whose first byte is
+ * 0x78. Every other codec writes a one byte id, which is never 0x78, ahead of its data, so
+ * {@link #decode(byte[])} reads any blob, including those written before codecs were added.
+ *
+ * <p>
+ * <ul>
+ * <li>deflate: zlib at its fastest level. Any TraceBuf.</li>
+ * <li>delta: the TraceBuf header and any bytes trailing the samples, then each sample as the zigzag
+ * varint of its difference from the one before. Small differences, the common case for seismic
+ * data, take one or two bytes. Only s2, i2, s4 and i4 TraceBufs; others are deflated.</li>
+ * <li>lzf: LZF, a byte oriented LZ77 which trades ratio for speed. Any TraceBuf.</li>
+ * </ul>
+ */
+public abstract class BlobCodec {
+  /** zlib, the original encoding */
+  public static final BlobCodec DEFLATE = new DeflateCodec();
+
+  /** differences of integer samples as varints */
+  public static final BlobCodec DELTA = new DeltaCodec();
+
+  /** LZF */
+  public static final BlobCodec LZF = new LzfCodec();
+
+  /** codec used when none is configured */
+  public static final BlobCodec DEFAULT = DEFLATE;
+
+  private static final BlobCodec[] CODECS = new BlobCodec[] {DEFLATE, DELTA, LZF};
+
+  private static final byte DELTA_ID = 1;
+  private static final byte LZF_ID = 2;
+
+  private static final int TRACEBUF_HEADER_SIZE = 64;
+  private static final int DATATYPE_OFFSET = 57;
+
+  private final String name;
+
+  private BlobCodec(final String name) {
+    this.name = name;
+  }
+
+  /**
+   * Name used to select the codec in configuration.
+   *
+   * @return name
+   */
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Find a codec by name.
+   *
+   * @param name codec name, ignoring case
+   * @return codec, or null if there is none by that name
+   */
+  public static BlobCodec forName(final String name) {
+    for (final BlobCodec codec : CODECS) {
+      if (codec.name.equalsIgnoreCase(name)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Encode a TraceBuf.
+   *
+   * @param buf buffer holding the TraceBuf
+   * @param off offset of the TraceBuf
+   * @param len length of the TraceBuf
+   * @return blob
+   */
+  public abstract byte[] encode(byte[] buf, int off, int len);
+
+  /**
+   * Decode a blob written by any codec.
+   *
+   * @param blob blob
+   * @return TraceBuf
+   * @throws IOException if the blob is corrupt
+   */
+  public static byte[] decode(final byte[] blob) throws IOException {
+    if (blob.length == 0) {
+      throw new IOException("Empty blob");
+    }
+
+    try {
+      switch (blob[0]) {
+        case DELTA_ID:
+          return DeltaCodec.decodeDelta(blob);
+        case LZF_ID:
+          return LzfCodec.decodeLzf(blob);
+        default:
+          return Zip.decompress(blob, 512);
+      }
+    } catch (final IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt blob: " + e.getMessage());
+    } catch (final BufferUnderflowException e) {
+      throw new IOException("Corrupt blob: truncated");
+    }
+  }
+
+  private static class DeflateCodec extends BlobCodec {
+    DeflateCodec() {
+      super("deflate");
+    }
+
+    @Override
+    public byte[] encode(final byte[] buf, final int off, final int len) {
+      return Zip.compress(buf, Deflater.BEST_SPEED, off, len);
+    }
+  }
+
+  private static class DeltaCodec extends BlobCodec {
+    DeltaCodec() {
+      super("delta");
+    }
+
+    private static ByteOrder order(final byte type) {
+      if (type == 's') {
+        return ByteOrder.BIG_ENDIAN;
+      } else if (type == 'i') {
+        return ByteOrder.LITTLE_ENDIAN;
+      } else {
+        return null;
+      }
+    }
+
+    private static int sampleSize(final byte size) {
+      return size == '2' ? 2 : size == '4' ? 4 : 0;
+    }
+
+    @Override
+    public byte[] encode(final byte[] buf, final int off, final int len) {
+      if (len < TRACEBUF_HEADER_SIZE) {
+        return DEFLATE.encode(buf, off, len);
+      }
+      final ByteOrder order = order(buf[off + DATATYPE_OFFSET]);
+      final int size = sampleSize(buf[off + DATATYPE_OFFSET + 1]);
+      if (order == null || size == 0) {
+        return DEFLATE.encode(buf, off, len);
+      }
+
+      final ByteBuffer in = ByteBuffer.wrap(buf, off, len).slice().order(order);
+      final int samples = in.getInt(4);
+      final int extra = len - TRACEBUF_HEADER_SIZE - samples * size;
+      if (samples < 0 || extra < 0 || extra > 0xff) {
+        return DEFLATE.encode(buf, off, len);
+      }
+
+      // at most five bytes per sample
+      final byte[] out = new byte[2 + TRACEBUF_HEADER_SIZE + extra + samples * 5];
+      out[0] = DELTA_ID;
+      System.arraycopy(buf, off, out, 1, TRACEBUF_HEADER_SIZE);
+      out[1 + TRACEBUF_HEADER_SIZE] = (byte) extra;
+      System.arraycopy(buf, off + len - extra, out, 2 + TRACEBUF_HEADER_SIZE, extra);
+      int op = 2 + TRACEBUF_HEADER_SIZE + extra;
+      int last = 0;
+      for (int i = 0; i < samples; i++) {
+        final int pos = TRACEBUF_HEADER_SIZE + i * size;
+        final int sample = size == 4 ? in.getInt(pos) : in.getShort(pos);
+        final int delta = sample - last;
+        last = sample;
+
+        int zigzag = (delta << 1) ^ (delta >> 31);
+        while ((zigzag & ~0x7f) != 0) {
+          out[op++] = (byte) ((zigzag & 0x7f) | 0x80);
+          zigzag >>>= 7;
+        }
+        out[op++] = (byte) zigzag;
+      }
+      return Arrays.copyOf(out, op);
+    }
+
+    static byte[] decodeDelta(final byte[] blob) throws IOException {
+      final ByteOrder order = order(blob[1 + DATATYPE_OFFSET]);
+      final int size = sampleSize(blob[1 + DATATYPE_OFFSET + 1]);
+      if (order == null || size == 0) {
+        throw new IOException("Corrupt delta blob: bad data type");
+      }
+
+      final byte[] tb = new byte[TRACEBUF_HEADER_SIZE];
+      System.arraycopy(blob, 1, tb, 0, TRACEBUF_HEADER_SIZE);
+      final int samples = ByteBuffer.wrap(tb).order(order).getInt(4);
+      if (samples < 0) {
+        throw new IOException("Corrupt delta blob: bad sample count");
+      }
+      final int extra = blob[1 + TRACEBUF_HEADER_SIZE] & 0xff;
+      final ByteBuffer out =
+          ByteBuffer.allocate(TRACEBUF_HEADER_SIZE + samples * size + extra).order(order);
+      out.put(tb);
+
+      int ip = 2 + TRACEBUF_HEADER_SIZE + extra;
+      int last = 0;
+      for (int i = 0; i < samples; i++) {
+        int zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = blob[ip++];
+          zigzag |= (b & 0x7f) << shift;
+          shift += 7;
+        } while (b < 0);
+
+        last += (zigzag >>> 1) ^ -(zigzag & 1);
+        if (size == 4) {
+          out.putInt(last);
+        } else {
+          out.putShort((short) last);
+        }
+      }
+      out.put(blob, 2 + TRACEBUF_HEADER_SIZE, extra);
+      return out.array();
+    }
+  }
+
+  private static class LzfCodec extends BlobCodec {
+    private static final int HASH_LOG = 14;
+    private static final int MAX_LITERAL = 32;
+    private static final int MAX_OFFSET = 1 << 13;
+    private static final int MAX_MATCH = 264;
+
+    LzfCodec() {
+      super("lzf");
+    }
+
+    private static int hash(final byte[] in, final int i) {
+      final int v = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+      return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public byte[] encode(final byte[] in, final int off, final int len) {
+      final byte[] out = new byte[5 + len + len / MAX_LITERAL + 1];
+      out[0] = LZF_ID;
+      ByteBuffer.wrap(out, 1, 4).putInt(len);
+
+      // positions plus one, so zero means empty
+      final int[] table = new int[1 << HASH_LOG];
+      final int end = off + len;
+      int ip = off;
+      int op = 5;
+      int literals = 0;
+      int control = op++;
+
+      while (ip < end - 2) {
+        final int h = hash(in, ip);
+        final int ref = table[h] - 1;
+        table[h] = ip + 1;
+
+        final int distance = ip - ref - 1;
+        if (ref >= off && distance < MAX_OFFSET && in[ref] == in[ip] && in[ref + 1] == in[ip + 1]
+            && in[ref + 2] == in[ip + 2]) {
+          final int max = Math.min(MAX_MATCH, end - ip);
+          int match = 3;
+          while (match < max && in[ref + match] == in[ip + match]) {
+            match++;
+          }
+
+          if (literals > 0) {
+            out[control] = (byte) (literals - 1);
+          } else {
+            op--;
+          }
+
+          final int length = match - 2;
+          if (length < 7) {
+            out[op++] = (byte) ((length << 5) + (distance >> 8));
+          } else {
+            out[op++] = (byte) ((7 << 5) + (distance >> 8));
+            out[op++] = (byte) (length - 7);
+          }
+          out[op++] = (byte) distance;
+          ip += match;
+
+          literals = 0;
+          control = op++;
+        } else {
+          out[op++] = in[ip++];
+          if (++literals == MAX_LITERAL) {
+            out[control] = (byte) (literals - 1);
+            literals = 0;
+            control = op++;
+          }
+        }
+      }
+
+      while (ip < end) {
+        out[op++] = in[ip++];
+        if (++literals == MAX_LITERAL) {
+          out[control] = (byte) (literals - 1);
+          literals = 0;
+          control = op++;
+        }
+      }
+
+      if (literals > 0) {
+        out[control] = (byte) (literals - 1);
+      } else {
+        op--;
+      }
+      return Arrays.copyOf(out, op);
+    }
+
+    static byte[] decodeLzf(final byte[] blob) throws IOException {
+      final int len = ByteBuffer.wrap(blob, 1, 4).getInt();
+      if (len < 0) {
+        throw new IOException("Corrupt lzf blob: bad length");
+      }
+
+      final byte[] out = new byte[len];
+      int ip = 5;
+      int op = 0;
+      while (ip < blob.length) {
+        final int control = blob[ip++] & 0xff;
+        if (control < MAX_LITERAL) {
+          final int literals = control + 1;
+          System.arraycopy(blob, ip, out, op, literals);
+          ip += literals;
+          op += literals;
+        } else {
+          int length = control >> 5;
+          if (length == 7) {
+            length += blob[ip++] & 0xff;
+          }
+          int ref = op - ((control & 0x1f) << 8) - (blob[ip++] & 0xff) - 1;
+          if (ref < 0) {
+            throw new IOException("Corrupt lzf blob: bad reference");
+          }
+          for (int i = 0; i < length + 2; i++) {
+            out[op++] = out[ref++];
+          }
+        }
+      }
+
+      if (op != len) {
+        throw new IOException("Corrupt lzf blob: " + op + " of " + len + " bytes");
+      }
+      return out;
+    }
+  }
+}
@@ -213,6 +213,89 @@ public class Channels {
     return null;
   }
 
+  /**
+   * Summarize the tables behind {@link #getChannels()} other than channel times. A change in the
+   * result means groups, instruments, or metadata have been added or removed.
+   *
+   * @return summary of the catalog tables, or null on error
+   */
+  public String getCatalogSignature() {
+    if (!winston.checkConnect())
+      return null;
+
+    try {
+      winston.useRootDatabase();
+      final ResultSet rs = winston.executeQuery("SELECT (SELECT COUNT(*) FROM groupnodes), "
+          + "(SELECT COUNT(*) FROM grouplinks), (SELECT COUNT(*) FROM instruments), "
+          + "(SELECT MAX(iid) FROM instruments), (SELECT COUNT(*) FROM channelmetadata)");
+      String result = null;
+      if (rs.next()) {
+        result = String.format("%d:%d:%d:%d:%d", rs.getLong(1), rs.getLong(2), rs.getLong(3),
+            rs.getLong(4), rs.getLong(5));
+      }
+      rs.close();
+      return result;
+    } catch (final Exception e) {
+      LOGGER.error("Could not get catalog signature. ({})", e.getLocalizedMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Bring the time spans of a list of channels up to date. Only the st and et columns are read.
+   *
+   * @param current channels previously returned by {@link #getChannels()}
+   * @return current if nothing has changed, a new list if only time spans have changed, or null if
+   *         channels have been added or removed and the list must be reloaded
+   */
+  public List<Channel> updateTimeSpans(final List<Channel> current) {
+    if (!winston.checkConnect())
+      return null;
+
+    try {
+      winston.useRootDatabase();
+      final double lookBack = J2kSec.now() - winston.maxDays * Time.DAY_IN_S;
+      final Map<Integer, TimeSpan> timeSpans = new HashMap<Integer, TimeSpan>();
+      final ResultSet rs = winston.executeQuery("SELECT sid, st, et FROM channels");
+      while (rs.next()) {
+        final double et = rs.getDouble("et");
+        if (et <= lookBack) {
+          continue;
+        }
+        final double st = Math.max(rs.getDouble("st"), lookBack);
+        timeSpans.put(rs.getInt("sid"), new TimeSpan(J2kSec.asEpoch(st), J2kSec.asEpoch(et)));
+      }
+      rs.close();
+
+      if (timeSpans.size() != current.size()) {
+        return null;
+      }
+
+      List<Channel> updated = null;
+      for (int i = 0; i < current.size(); i++) {
+        final Channel channel = current.get(i);
+        final TimeSpan timeSpan = timeSpans.get(channel.sid);
+        if (timeSpan == null) {
+          return null;
+        }
+
+        if (timeSpan.startTime != channel.timeSpan.startTime
+            || timeSpan.endTime != channel.timeSpan.endTime) {
+          if (updated == null) {
+            updated = new ArrayList<Channel>(current.subList(0, i));
+          }
+          updated.add(new Channel.Builder().channel(channel).timeSpan(timeSpan).build());
+        } else if (updated != null) {
+          updated.add(channel);
+        }
+      }
+      return updated == null ? current : updated;
+    } catch (final Exception e) {
+      LOGGER.error("Could not update channel times. ({})", e.getLocalizedMessage());
+    }
+    return null;
+  }
+
   // /**
   // * Get channel ID from code
   // *
@@ -249,15 +332,8 @@ public class Channels {
       return -1;
 
     try {
-      int result = -1;
       winston.useRootDatabase();
-      String sql = String.format("SELECT sid FROM channels WHERE code='%s'",
-          DbUtils.scnlAsWinstonCode(scnl));
-      final ResultSet rs = winston.getStatement().executeQuery(sql);
-      if (rs.next())
-        result = rs.getInt(1);
-      rs.close();
-      return result;
+      return winston.getStatements().getChannelId(DbUtils.scnlAsWinstonCode(scnl));
     } catch (final Exception e) {
       LOGGER.error("Could not get channel ID. ({})", e.getLocalizedMessage());
     }
@@ -328,14 +404,8 @@ public class Channels {
       return null;
 
     try {
-      String result = null;
       winston.useRootDatabase();
-      final ResultSet rs =
-          winston.getStatement().executeQuery("SELECT code FROM channels WHERE sid=" + sid);
-      if (rs.next())
-        result = rs.getString(1);
-      rs.close();
-      return result;
+      return winston.getStatements().getChannelCode(sid);
     } catch (final Exception e) {
       LOGGER.error("Could not get channel code.");
     }
@@ -352,13 +422,8 @@ public class Channels {
     if (!winston.checkConnect())
       return false;
     try {
-      boolean result = false;
       winston.useRootDatabase();
-      final ResultSet rs =
-          winston.getStatement().executeQuery("SELECT sid FROM channels WHERE code='" + code + "'");
-      result = rs.next();
-      rs.close();
-      return result;
+      return winston.getStatements().getChannelId(code) != -1;
     } catch (final Exception e) {
       LOGGER.error("Could not determine channel existence.");
     }
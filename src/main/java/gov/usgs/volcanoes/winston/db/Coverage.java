@@ -0,0 +1,336 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index of the time each channel has data for. Each channel has a table, {@code code$$C},
+ * holding one row per contiguous run of TraceBufs. A run ends at the end of the sample period of
+ * its last sample, so TraceBufs which follow one another without missing samples join into a
+ * single run, and finding gaps in a span reads a handful of rows rather than every TraceBuf.
+ *
+ * <p>
+ * Runs are extended as TraceBufs are written and trimmed when day tables are purged. The index of
+ * a channel which held data before the index existed is filled by running
+ * {@code Admin --coverage}; until then it does not reach back to the start of the channel and
+ * readers fall back to scanning the day tables.
+ *
+ * <p>
+ * Extending a run reads, deletes and inserts rows, so writers to a channel's index take a MySQL
+ * named lock on it. Named locks hold across connections and processes whatever the table engine.
+ */
+public class Coverage {
+  /** largest separation, in seconds, between runs which are considered contiguous */
+  public static final double EPSILON = 0.01;
+
+  /** how long, in seconds, to wait for another writer to release a channel's index */
+  public static final int LOCK_TIMEOUT = 30;
+
+  // MySQL limits named locks to 64 characters
+  private static final int MAX_LOCK_NAME = 64;
+
+  private static final Set<String> CREATED =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private static final Comparator<double[]> BY_START = new Comparator<double[]>() {
+    public int compare(final double[] a, final double[] b) {
+      return Double.compare(a[0], b[0]);
+    }
+  };
+
+  private final WinstonDatabase winston;
+
+  /**
+   * Constructor.
+   *
+   * @param winston connection used for all queries
+   */
+  public Coverage(final WinstonDatabase winston) {
+    this.winston = winston;
+  }
+
+  /**
+   * Name of a coverage table.
+   *
+   * @param code channel code
+   * @return table name
+   */
+  public static String coverageTable(final String code) {
+    return code + "$$C";
+  }
+
+  /**
+   * The span covered by a TraceBuf, from its first sample through the end of the sample period of
+   * its last.
+   *
+   * @param st start time
+   * @param et time of last sample
+   * @param sr sample rate
+   * @return start and end of span
+   */
+  public static double[] span(final double st, final double et, final double sr) {
+    return new double[] {st, sr > 0 ? et + 1 / sr : et};
+  }
+
+  /**
+   * Join spans into runs.
+   *
+   * @param spans spans, in any order; the list is sorted in place
+   * @return runs in time order
+   */
+  public static List<double[]> merge(final List<double[]> spans) {
+    Collections.sort(spans, BY_START);
+    final List<double[]> runs = new ArrayList<double[]>();
+    double[] run = null;
+    for (final double[] span : spans) {
+      if (run != null && span[0] - run[1] <= EPSILON) {
+        run[1] = Math.max(run[1], span[1]);
+      } else {
+        run = new double[] {span[0], span[1]};
+        runs.add(run);
+      }
+    }
+    return runs;
+  }
+
+  private String table(final String code) {
+    return "`" + winston.databasePrefix + "_" + code + "`.`" + coverageTable(code) + "`";
+  }
+
+  private PreparedStatement prepare(final String sql) throws SQLException {
+    final PreparedStatement ps = winston.getPreparedStatement(sql);
+    if (ps == null) {
+      throw new SQLException("Cannot prepare statement: " + sql);
+    }
+    return ps;
+  }
+
+  private void createTable(final String code) throws SQLException {
+    final String key = winston.databasePrefix + "_" + code;
+    if (CREATED.contains(key)) {
+      return;
+    }
+
+    winston.getStatement().execute("CREATE TABLE IF NOT EXISTS " + table(code)
+        + " (st DOUBLE PRIMARY KEY, et DOUBLE, KEY (et)) " + winston.tableEngine);
+    CREATED.add(key);
+  }
+
+  private String lockName(final String code) {
+    final String name = winston.databasePrefix + "_" + coverageTable(code);
+    return name.length() <= MAX_LOCK_NAME ? name
+        : winston.databasePrefix + "_$$C" + Integer.toHexString(name.hashCode());
+  }
+
+  private void lock(final String code) throws SQLException {
+    final PreparedStatement ps = prepare("SELECT GET_LOCK(?, ?)");
+    ps.setString(1, lockName(code));
+    ps.setInt(2, LOCK_TIMEOUT);
+    final ResultSet rs = ps.executeQuery();
+    try {
+      if (!rs.next() || rs.getInt(1) != 1) {
+        throw new SQLException("Timed out waiting for coverage lock on " + code);
+      }
+    } finally {
+      rs.close();
+    }
+  }
+
+  private void unlock(final String code) throws SQLException {
+    final PreparedStatement ps = prepare("SELECT RELEASE_LOCK(?)");
+    ps.setString(1, lockName(code));
+    ps.executeQuery().close();
+  }
+
+  /**
+   * Add spans to the index, joining them with each other and with any runs they touch.
+   *
+   * @param code channel code
+   * @param spans spans written, in any order; the list is sorted in place
+   * @throws SQLException when things go wrong
+   */
+  public void add(final String code, final List<double[]> spans) throws SQLException {
+    if (spans.isEmpty()) {
+      return;
+    }
+    createTable(code);
+
+    lock(code);
+    try {
+      addRuns(code, merge(spans));
+    } finally {
+      unlock(code);
+    }
+  }
+
+  private void addRuns(final String code, final List<double[]> runs) throws SQLException {
+    for (final double[] run : runs) {
+      final double lo = run[0] - EPSILON;
+      final double hi = run[1] + EPSILON;
+
+      final PreparedStatement select =
+          prepare("SELECT MIN(st), MAX(et) FROM " + table(code) + " WHERE st<=? AND et>=?");
+      select.setDouble(1, hi);
+      select.setDouble(2, lo);
+      final ResultSet rs = select.executeQuery();
+      try {
+        if (rs.next()) {
+          final double st = rs.getDouble(1);
+          if (!rs.wasNull()) {
+            run[0] = Math.min(run[0], st);
+            run[1] = Math.max(run[1], rs.getDouble(2));
+          }
+        }
+      } finally {
+        rs.close();
+      }
+
+      final PreparedStatement delete =
+          prepare("DELETE FROM " + table(code) + " WHERE st<=? AND et>=?");
+      delete.setDouble(1, hi);
+      delete.setDouble(2, lo);
+      delete.executeUpdate();
+
+      final PreparedStatement insert = prepare("INSERT INTO " + table(code) + " VALUES (?,?)");
+      insert.setDouble(1, run[0]);
+      insert.setDouble(2, run[1]);
+      insert.executeUpdate();
+    }
+  }
+
+  /**
+   * Remove coverage before a time.
+   *
+   * @param code channel code
+   * @param before runs are cut off at this time
+   * @throws SQLException when things go wrong
+   */
+  public void trim(final String code, final double before) throws SQLException {
+    if (!winston.tableExists(code, coverageTable(code))) {
+      return;
+    }
+
+    lock(code);
+    try {
+      final PreparedStatement delete = prepare("DELETE FROM " + table(code) + " WHERE et<=?");
+      delete.setDouble(1, before);
+      delete.executeUpdate();
+
+      final PreparedStatement update =
+          prepare("UPDATE " + table(code) + " SET st=? WHERE st<?");
+      update.setDouble(1, before);
+      update.setDouble(2, before);
+      update.executeUpdate();
+    } finally {
+      unlock(code);
+    }
+  }
+
+  /**
+   * Rebuild a channel's index from its day tables.
+   *
+   * @param code channel code
+   * @param days days, formatted as {@link WinstonDatabase#WINSTON_TABLE_DATE_FORMAT}
+   * @return number of runs indexed
+   * @throws SQLException when things go wrong
+   */
+  public int rebuild(final String code, final List<String> days) throws SQLException {
+    createTable(code);
+    winston.getStatement().execute("DELETE FROM " + table(code));
+
+    for (final String day : days) {
+      final List<double[]> spans = new ArrayList<double[]>();
+      final ResultSet rs = winston.getStatement().executeQuery("SELECT st, et, sr FROM `"
+          + winston.databasePrefix + "_" + code + "`.`" + WinstonStatements.waveTable(code, day)
+          + "`");
+      try {
+        while (rs.next()) {
+          spans.add(span(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3)));
+        }
+      } finally {
+        rs.close();
+      }
+      add(code, spans);
+    }
+
+    final ResultSet rs =
+        winston.getStatement().executeQuery("SELECT COUNT(*) FROM " + table(code));
+    try {
+      return rs.next() ? rs.getInt(1) : 0;
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * Find the gaps in a span. The index is only used if it reaches back to the start of the span
+   * or of the channel, whichever is later.
+   *
+   * @param code channel code
+   * @param t1 start of span
+   * @param t2 end of span
+   * @return gaps, each a start and end time, or null if the index cannot answer
+   * @throws SQLException when things go wrong
+   */
+  public List<double[]> getGaps(final String code, final double t1, final double t2)
+      throws SQLException {
+    if (!winston.tableExists(code, coverageTable(code))) {
+      return null;
+    }
+
+    final double[] channelSpan = winston.getStatements().getChannelTimeSpan(code);
+    if (channelSpan == null) {
+      return null;
+    }
+
+    final ResultSet first = prepare("SELECT MIN(st) FROM " + table(code)).executeQuery();
+    try {
+      if (!first.next()) {
+        return null;
+      }
+      final double st = first.getDouble(1);
+      if (first.wasNull() || st > Math.max(t1, channelSpan[0]) + EPSILON) {
+        return null;
+      }
+    } finally {
+      first.close();
+    }
+
+    final PreparedStatement ps = prepare(
+        "SELECT st, et FROM " + table(code) + " WHERE st<=? AND et>=? ORDER BY st ASC");
+    ps.setDouble(1, t2);
+    ps.setDouble(2, t1);
+
+    final List<double[]> gaps = new ArrayList<double[]>();
+    double last = t1;
+    final ResultSet rs = ps.executeQuery();
+    try {
+      while (rs.next()) {
+        final double st = rs.getDouble(1);
+        if (st - last > EPSILON) {
+          gaps.add(new double[] {last, st});
+        }
+        last = Math.max(last, rs.getDouble(2));
+      }
+    } finally {
+      rs.close();
+    }
+
+    if (t2 - last > EPSILON) {
+      gaps.add(new double[] {last, t2});
+    }
+    return gaps;
+  }
+}
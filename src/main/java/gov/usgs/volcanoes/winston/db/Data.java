@@ -2,7 +2,6 @@ package gov.usgs.volcanoes.winston.db;
 
 import java.io.IOException;
 import java.sql.Blob;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.DateFormat;
@@ -16,7 +15,6 @@ import java.util.TimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.usgs.volcanoes.core.Zip;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Scnl;
@@ -38,6 +36,10 @@ public class Data {
   private static final Logger LOGGER = LoggerFactory.getLogger(Data.class);
 
   private static final int ONE_DAY = 60 * 60 * 24;
+
+  // most day tables read with a single statement
+  private static final int MAX_SCAN_TABLES = 31;
+
   private final WinstonDatabase winston;
   private final Channels channels;
   private final DateFormat dateFormat;
@@ -93,20 +95,18 @@ public class Data {
     if (!winston.checkConnect())
       return new double[] {0,0};
     try {
-      ResultSet rs = winston.getStatement().executeQuery("SELECT st, et FROM `"
-          + winston.databasePrefix + "_ROOT`.channels WHERE code='" + code + "'");
-      rs.next();
-      double st = rs.getDouble(1);
-      double et = rs.getDouble(2);
-      st = applyLookback(st);
+      final double[] span = winston.getStatements().getChannelTimeSpan(code);
+      if (span == null) {
+        throw new SQLException("No such channel");
+      }
+      final double st = applyLookback(span[0]);
+      final double et = span[1];
       double[] d = null;
 
       if (et > st) {
         d = new double[] {st, et};
       }
 
-      rs.close();
-
       return d;
     } catch (final Exception e) {
       LOGGER.error("Could not get time span for channel: {}. ({})", code, e.getLocalizedMessage());
@@ -153,6 +153,8 @@ public class Data {
    * Finds data gaps in a given channel between two times. Returns null
    * on a Winston error. Returns a single item list with the given time span
    * if the channel doesn't exist or if no data exist in the interval.
+   * The coverage index is used when it can answer; otherwise every
+   * TraceBuf in the span is read.
    *
    * @param code
    * @param t1
@@ -161,7 +163,7 @@ public class Data {
    */
   public List<double[]> findGaps(final String code, double t1, final double t2) {
     t1 = applyLookback(t1);
-    if (t2 >= t1) {
+    if (t1 >= t2) {
       return null;
     }
 
@@ -175,6 +177,11 @@ public class Data {
       return gaps;
     }
 
+    final List<double[]> indexed = getIndexedGaps(code, t1, t2);
+    if (indexed != null) {
+      return indexed;
+    }
+
     try {
       final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy_MM_dd");
       dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -193,8 +200,7 @@ public class Data {
         if (tst > t2)
           continue;
 
-        final ResultSet rs = winston.getStatement()
-            .executeQuery("SELECT st, et FROM `" + table + "` ORDER BY st ASC");
+        final ResultSet rs = winston.getStatements().getTraceBufTimes(code, table);
         while (rs.next()) {
           final double start = rs.getDouble(1);
           final double end = rs.getDouble(2);
@@ -271,6 +277,15 @@ public class Data {
       return gaps;
     }
 
+    final List<double[]> indexed = getIndexedGaps(code, J2kSec.fromEpoch(timeSpan.startTime),
+        J2kSec.fromEpoch(timeSpan.endTime));
+    if (indexed != null) {
+      for (final double[] gap : indexed) {
+        gaps.add(new TimeSpan(J2kSec.asEpoch(gap[0]), J2kSec.asEpoch(gap[1])));
+      }
+      return gaps;
+    }
+
     final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy_MM_dd");
     dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
     final List<String> days = daysBetween(timeSpan);
@@ -306,14 +321,27 @@ public class Data {
     return gaps;
   }
 
+  /**
+   * Find gaps with the coverage index.
+   *
+   * @return gaps, or null if the index cannot answer
+   */
+  private List<double[]> getIndexedGaps(final String code, final double t1, final double t2) {
+    try {
+      return new Coverage(winston).getGaps(code, t1, t2);
+    } catch (final SQLException e) {
+      LOGGER.debug("Cannot read coverage for {}. ({})", code, e.getMessage());
+      return null;
+    }
+  }
+
   private List<double[]> getBufTimes(String code, String table) throws SQLException {
     final List<double[]> bufs = new ArrayList<double[]>(2 * ONE_DAY);
     if (!winston.tableExists(code, table)) {
       return bufs;
     }
 
-    String sql = String.format("SELECT st, et FROM `%s` ORDER BY st ASC", table);
-    final ResultSet rs = winston.getStatement().executeQuery(sql);
+    final ResultSet rs = winston.getStatements().getTraceBufTimes(code, table);
     while (rs.next()) {
       final double start = rs.getDouble(1);
       final double end = rs.getDouble(2);
@@ -351,9 +379,7 @@ public class Data {
    */
   private byte[] getTraceBufBytes(final ResultSet rs) throws SQLException, IOException {
     final Blob b = rs.getBlob("tracebuf");
-    byte[] bs = b.getBytes(1, (int) b.length());
-    bs = Zip.decompress(bs, 512);
-    return bs;
+    return BlobCodec.decode(b.getBytes(1, (int) b.length()));
   }
 
   /**
@@ -376,90 +402,140 @@ public class Data {
       return null;
     }
 
-    int numSamplesCounter = 0;
+    final RecentDataCache cache = RecentDataCache.getInstance();
+    final boolean useCache = cache.isEnabled();
+    RecentDataCache.Lookup lookup = null;
+    if (useCache) {
+      lookup = cache.read(code, t1, t2);
+      if (lookup != null && lookup.end >= t2) {
+        return getCachedBytes(lookup.rows, maxrows);
+      }
+    }
+
     if (!winston.checkConnect() || !winston.useDatabase(code))
       return null;
     try {
-      double ct = t1;
-
-      final ArrayList<byte[]> bufs = new ArrayList<byte[]>((int) Math.ceil(t2 - t1) + 1);
-      final String endDate = dateFormat.format(J2kSec.asDate(t2));
-      boolean done = false;
-      ResultSet rs = null;
-
-      // MySQL only uses one key for optimization so selecting tracebufs
-      // that lie between st and et is prohibitively slow. By selecting
-      // the latest 1 tracebuf where the st is less than the desired time
-      // we can quickly find the tracebuf that may overlap into the
-      // desired interval. Unfortunately, this causes a problem for the
-      // edge case of selecting data right at the UTC day boundary. To
-      // fix this the query must be run against the day of the st of the
-      // desired interval plus the day before.
-      final String[] initialDates = new String[] {dateFormat.format(J2kSec.asDate(t1 - ONE_DAY)),
-          dateFormat.format(J2kSec.asDate(t1))};
-
-      for (final String date : initialDates) {
-        final String sql = "SELECT st, et, sr, datatype, tracebuf FROM `" + code + "$$" + date
-            + "` WHERE st<? ORDER BY st DESC LIMIT 1";
-        final PreparedStatement ps = winston.getPreparedStatement(sql);
-        try {
-          ps.setDouble(1, t1);
-          rs = ps.executeQuery();
-          if (rs.next()) {
-            if (t1 >= rs.getDouble(1) && t1 <= rs.getDouble(2)) {
-              final byte[] buf = getTraceBufBytes(rs);
-              numSamplesCounter += getNumSamples(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3));
-              if (maxrows > 0 && numSamplesCounter > maxrows) {
-                throw new UtilException("Max rows (" + maxrows + " rows) "
-                    + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "")
-                    + "exceeded.");
-              }
-              bufs.add(buf);
+      if (lookup != null) {
+        // re-read an overlap to catch TraceBufs written late, out of order
+        final List<RecentDataCache.Row> rows =
+            readRows(code, lookup.lastStart - cache.getOverlap(), t2, false, 0);
+        if (cache.append(code, lookup.lastStart, rows)) {
+          for (final RecentDataCache.Row row : rows) {
+            if (row.st > lookup.lastStart) {
+              lookup.rows.add(row);
             }
           }
-          rs.close();
-        } catch (final SQLException e) {
-          LOGGER.debug("No table found for {}, {}->{}", date, t1, t2);
+          return getCachedBytes(lookup.rows, maxrows);
         }
       }
 
-      // got the first tracebuf, now lets get the rest.
-      while (!done) {
-        final String date = dateFormat.format(J2kSec.asDate(ct));
-        if (date.equals(endDate))
-          done = true;
-
-        final String sql = "SELECT st, et, sr, datatype, tracebuf FROM `" + code + "$$" + date
-            + "` WHERE st>=" + t1 + " AND st<=" + t2 + " ORDER BY st ASC";
-
-        try {
-          rs = winston.getStatement().executeQuery(sql);
-        } catch (final SQLException e) {
-          // table not found
-          LOGGER.debug("No table found for {}$${})", code, date);
-          ct += ONE_DAY;
-          continue;
-        }
+      final List<RecentDataCache.Row> rows = readRows(code, t1, t2, true, maxrows);
+      if (useCache) {
+        cache.fill(code, t1, rows);
+      }
+      final List<byte[]> bufs = new ArrayList<byte[]>(rows.size());
+      for (final RecentDataCache.Row row : rows) {
+        bufs.add(row.buf);
+      }
+      return bufs;
+    } catch (final SQLException e) {
+      LOGGER.debug("Could not get TraceBuf bytes for {}, {}->{}", code, t1, t2);
+    } catch (final IOException e) {
+      LOGGER.debug("Could not get TraceBuf bytes for {}, {}->{}", code, t1, t2);
+    }
+    return null;
+
+  }
+
+  /**
+   * Read the rows starting between t1 and t2. If straddle is true, the row which overlaps t1 is
+   * included and rows starting at t1 are read; otherwise only rows starting after t1 are read.
+   *
+   * <p>
+   * Only day tables listed in the {@link DayTableIndex} are queried, up to a month of them in each
+   * statement. If a statement fails, perhaps because a table has since been purged, the index is
+   * refreshed and the read tried once more.
+   */
+  private List<RecentDataCache.Row> readRows(final String code, final double t1, final double t2,
+      final boolean straddle, final int maxrows) throws SQLException, IOException, UtilException {
+    try {
+      return scanRows(code, t1, t2, straddle, maxrows);
+    } catch (final SQLException e) {
+      LOGGER.debug("Rereading {} with fresh table list. ({})", code, e.getMessage());
+      DayTableIndex.getInstance().invalidate(winston, code);
+      return scanRows(code, t1, t2, straddle, maxrows);
+    }
+  }
+
+  private List<RecentDataCache.Row> scanRows(final String code, final double t1, final double t2,
+      final boolean straddle, final int maxrows) throws SQLException, IOException, UtilException {
+    final DayTableIndex index = DayTableIndex.getInstance();
+    final String startDate = dateFormat.format(J2kSec.asDate(t1));
+    final String endDate = dateFormat.format(J2kSec.asDate(t2));
+
+    // MySQL only uses one key for optimization so selecting tracebufs
+    // that lie between st and et is prohibitively slow. By selecting
+    // the latest 1 tracebuf where the st is less than the desired time
+    // we can quickly find the tracebuf that may overlap into the
+    // desired interval. Unfortunately, this causes a problem for the
+    // edge case of selecting data right at the UTC day boundary. To
+    // fix this the query must be run against the day of the st of the
+    // desired interval plus the day before.
+    List<String> straddleDays = new ArrayList<String>();
+    if (straddle) {
+      straddleDays = index.getDays(winston, code,
+          dateFormat.format(J2kSec.asDate(t1 - ONE_DAY)), startDate);
+    }
+    final List<String> days = index.getDays(winston, code, startDate, endDate);
+
+    final List<RecentDataCache.Row> rows = new ArrayList<RecentDataCache.Row>();
+    int numSamplesCounter = 0;
+    int first = 0;
+    while (first < days.size() || !straddleDays.isEmpty()) {
+      final int last = Math.min(days.size(), first + MAX_SCAN_TABLES);
+      final ResultSet rs = winston.getStatements().scanTraceBufs(code, straddleDays,
+          days.subList(first, last), t1, t2, !straddle);
+      straddleDays = new ArrayList<String>();
+      first = last;
+
+      try {
         while (rs.next()) {
+          final double st = rs.getDouble(1);
+          final double et = rs.getDouble(2);
+          final double sr = rs.getDouble(3);
+          if (st < t1 && et < t1) {
+            // latest row before t1 doesn't reach it
+            continue;
+          }
 
-          final byte[] buf = getTraceBufBytes(rs);
-          numSamplesCounter += getNumSamples(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3));
+          numSamplesCounter += getNumSamples(st, et, sr);
           if (maxrows > 0 && numSamplesCounter > maxrows)
             throw new UtilException("Max rows (" + maxrows + " rows) "
                 + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "") + "exceeded.");
-          bufs.add(buf);
+          rows.add(new RecentDataCache.Row(st, et, sr, getTraceBufBytes(rs)));
         }
+      } finally {
         rs.close();
-        ct += ONE_DAY;
       }
-      return bufs;
-    } catch (final SQLException e) {
-      LOGGER.debug("Could not get TraceBuf bytes for {}, {}->{}", code, t1, t2);
-    } catch (final IOException e) {
-      LOGGER.debug("Could not get TraceBuf bytes for {}, {}->{}", code, t1, t2);
     }
-    return null;
+    return rows;
+  }
 
+  /**
+   * Unpack cached rows, enforcing maxrows.
+   */
+  private List<byte[]> getCachedBytes(final List<RecentDataCache.Row> rows, final int maxrows)
+      throws UtilException {
+    int numSamplesCounter = 0;
+    final List<byte[]> bufs = new ArrayList<byte[]>(rows.size());
+    for (final RecentDataCache.Row row : rows) {
+      numSamplesCounter += getNumSamples(row.st, row.et, row.sr);
+      if (maxrows > 0 && numSamplesCounter > maxrows)
+        throw new UtilException("Max rows (" + maxrows + " rows) "
+            + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "") + "exceeded.");
+      bufs.add(row.buf);
+    }
+    return bufs;
   }
 
   /**
@@ -528,6 +604,22 @@ public class Data {
 
   public HelicorderData getHelicorderData(final Scnl scnl, double t1, final double t2,
       final int maxrows) throws UtilException {
+    return getHelicorderData(scnl, t1, t2, maxrows, 0);
+  }
+
+  /**
+   * Return helicorder data, read from the coarsest rollup tier which still resolves the plot.
+   *
+   * @param scnl channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param maxrows cap on size of result, 0 for no cap
+   * @param resolution seconds drawn in a single pixel, 0 to read one-second rows
+   * @return helicorder data or null if no data
+   * @throws UtilException if maxrows is exceeded
+   */
+  public HelicorderData getHelicorderData(final Scnl scnl, double t1, final double t2,
+      final int maxrows, final double resolution) throws UtilException {
 
     t1 = applyLookback(t1);
     if (t1 >= t2) {
@@ -538,64 +630,27 @@ public class Data {
 
     if (!winston.checkConnect() || !winston.useDatabase(code))
       return null;
-    try {
-      double ct = t1;
-      // this 'fixes' problems when a start time of 0000 UTC is asked for
-      // and that data are actually stored in the previous day. Some
-      // issues remain.
-      final String endDate = dateFormat.format(J2kSec.asDate(t2));
-      boolean done = false;
-      final ArrayList<double[]> list = new ArrayList<double[]>((int) (t2 - t1) + 2);
-      while (!done) {
-        final String date = dateFormat.format(J2kSec.asDate(ct));
-        if (date.equals(endDate))
-          done = true;
-        ct += ONE_DAY;
-        final String table = code + "$$H" + date;
-        ResultSet rs = null;
-        String sql = "SELECT j2ksec, smin, smax, rcnt FROM `" + table
-            + "` WHERE j2ksec>=? AND j2ksec<=? ORDER BY j2ksec ASC";
-
-        if (maxrows != 0) {
-          sql += " LIMIT " + (maxrows + 1);
-
-          // Check the row count for the query before running the entire thing. Can save significant
-          // time
-          // for sufficiently large queries that exceed the maxrows parameter
-          final PreparedStatement s = winston.getPreparedStatement(
-              "SELECT COUNT(*) FROM (SELECT 1 " + sql.substring(sql.indexOf("FROM")) + ") as T");
-          try {
-            s.setDouble(1, t1);
-            s.setDouble(2, t2);
-            rs = s.executeQuery();
-          } catch (final Exception e) {
-            // table not found
-            continue;
-          }
-          if (rs.next() && rs.getInt(1) > maxrows)
-            throw new UtilException("Max rows (" + maxrows + " rows) "
-                + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "") + "exceeded.");
-        }
 
-        final PreparedStatement select = winston.getPreparedStatement(sql);
-        try {
-          select.setDouble(1, t1);
-          select.setDouble(2, t2);
-          rs = select.executeQuery();
-        } catch (final Exception e) {
-          // table not found
-          continue;
-        }
+    final int tier = Rollups.getHelicorderTier(resolution);
+    if (tier > 0) {
+      final List<double[]> rows = getRollup(code, tier, t1, t2, maxrows, 0);
+      if (rows != null) {
+        return new HelicorderData(rows);
+      }
+    }
 
-        while (rs.next()) {
-          final double[] d = new double[] {rs.getDouble(1), rs.getDouble(2), rs.getDouble(3)}; // ,
-                                                                                               // rs.getInt(4)
-          // };
-          list.add(d);
-        }
-        rs.close();
+    try {
+      // intervals are aligned to multiples of their length so reads of overlapping spans agree
+      final Downsampler downsampler;
+      if (resolution >= 2) {
+        final int interval = (int) resolution;
+        downsampler = new Downsampler(Downsampler.Mode.ENVELOPE, interval,
+            Math.floor(t1 / interval) * interval);
+      } else {
+        downsampler = new Downsampler(Downsampler.Mode.NONE, 0, t1);
       }
-      return new HelicorderData(list);
+      readHelicorderRows(code, t1, t2, maxrows, false, downsampler);
+      return new HelicorderData(getDownsampledRows(downsampler, 3, maxrows));
     } catch (final SQLException e) {
       LOGGER.error("Could not get helicorder for {}, {}->{}", code, t1, t2);
     }
@@ -613,118 +668,119 @@ public class Data {
     if (!winston.checkConnect() || !winston.useDatabase(DbUtils.scnlAsWinstonCode(scnl)))
       return null;
 
-    try {
-      double ct = t1;
-      // this 'fixes' problems when a start time of 0000 UTC is asked for
-      // and that data are actually stored in the previous day. Some
-      // issues remain.
-      final String endDate = dateFormat.format(J2kSec.asDate(t2));
-      boolean done = false;
-      int numSamplesCounter = 0;
-      final ArrayList<double[]> list = new ArrayList<double[]>((int) (t2 - t1) + 2);
-      while (!done) {
-        final String date = dateFormat.format(J2kSec.asDate(ct));
-        if (date.equals(endDate))
-          done = true;
-        ct += ONE_DAY;
-        final String table = DbUtils.scnlAsWinstonCode(scnl) + "$$H" + date;
-        ResultSet rs = null;
-        String sql = "SELECT j2ksec, rsam" + " FROM `" + table + "` WHERE j2ksec>=" + t1
-            + " AND j2ksec<=" + t2 + " AND rcnt>0" + " ORDER BY j2ksec";
-        try {
-          sql = getDownsamplingSQL(sql, t1, ds, dsInt);
-        } catch (final UtilException e) {
-          throw new UtilException("Can't downsample dataset: " + e.getMessage());
-        }
-        if (maxrows != 0) {
-          sql += " LIMIT " + (maxrows + 1);
-
-          // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
-          // exceed that number prior to running the full query. This can save a decent amount of
-          // time
-          // for large queries. Note that this only applies for non-downsampled queries. This is
-          // done for
-          // two reasons: 1) If the user is downsampling, they already know they're dealing with a
-          // lot of data
-          // and 2) the way MySQL handles the multiple nested queries that would result makes it
-          // slower than
-          // just doing the full query to begin with.
-          if (ds.equals(DownsamplingType.NONE)) {
-            try {
-              rs = winston.getStatement().executeQuery("SELECT COUNT(*) FROM (SELECT 1 "
-                  + sql.substring(sql.indexOf("FROM")) + ") as T");
-            } catch (final SQLException e) {
-              // table not found
-              continue;
-            }
-            if (rs.next() && rs.getInt(1) > maxrows) {
-              throw new UtilException("Max rows (" + maxrows + " rows) "
-                  + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "")
-                  + "exceeded.");
-            }
-          }
+    if (ds.equals(DownsamplingType.MEAN)) {
+      final int tier = Rollups.getRsamTier(dsInt);
+      if (tier > 0) {
+        final List<double[]> rows =
+            getRollup(DbUtils.scnlAsWinstonCode(scnl), tier, t1, t2, maxrows, dsInt);
+        if (rows != null) {
+          return new RSAMData(rows);
         }
+      }
+    }
 
-        try {
-          rs = winston.getStatement().executeQuery(sql);
-        } catch (final Exception e) {
-          // table not found
-          continue;
-        }
+    Downsampler downsampler;
+    try {
+      final double start = dsInt > 0 ? Math.floor(t1 / dsInt) * dsInt : t1;
+      downsampler = new Downsampler(Downsampler.Mode.of(ds), dsInt, start);
+    } catch (final UtilException e) {
+      throw new UtilException("Can't downsample dataset: " + e.getMessage());
+    }
 
-        // Check for the amount of data returned in a downsampled query. Non-downsampled queries are
-        // checked above.
-        if (!ds.equals(DownsamplingType.NONE) && maxrows != 0) {
-          numSamplesCounter += getResultSetSize(rs);
-          if (numSamplesCounter > maxrows) {
+    try {
+      readHelicorderRows(DbUtils.scnlAsWinstonCode(scnl), t1, t2, maxrows, true, downsampler);
+      return new RSAMData(getDownsampledRows(downsampler, 2, maxrows));
+    } catch (final SQLException e) {
+      LOGGER.error("Could not get RSAM for {}, {}->{}", DbUtils.scnlAsWinstonCode(scnl), t1, t2);
+    }
+    return null;
+  }
+
+  /**
+   * Stream rows from the helicorder day tables between t1 and t2 into a downsampler, checking
+   * maxrows against the reduced rows as they are produced. Days without a table are skipped.
+   *
+   * @param rsam if true, add j2ksec and rsam of rows with samples; otherwise j2ksec, smin, and smax
+   */
+  private void readHelicorderRows(final String code, final double t1, final double t2,
+      final int maxrows, final boolean rsam, final Downsampler downsampler)
+      throws SQLException, UtilException {
+    final List<String> days = DayTableIndex.getInstance().getDays(winston, code,
+        dateFormat.format(J2kSec.asDate(t1)), dateFormat.format(J2kSec.asDate(t2)));
+
+    for (final String date : days) {
+      ResultSet rs;
+      try {
+        rs = winston.getStatements().getHelicorderRows(code, date, t1, t2);
+      } catch (final SQLException e) {
+        // table not found
+        LOGGER.debug("No table found for {}$$H{}", code, date);
+        continue;
+      }
+
+      try {
+        while (rs.next()) {
+          if (!rsam) {
+            downsampler.add(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3));
+          } else if (rs.getInt(4) > 0) {
+            downsampler.add(rs.getDouble(1), rs.getDouble(5));
+          }
+
+          if (maxrows > 0 && downsampler.size() > maxrows)
             throw new UtilException("Max rows (" + maxrows + " rows) "
                 + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "") + "exceeded.");
-          }
-        }
-        while (rs.next()) {
-          final double[] d = new double[] {rs.getDouble(1), rs.getDouble(2)};
-          list.add(d);
         }
+      } finally {
         rs.close();
       }
-      return new RSAMData(list);
-    } catch (final SQLException e) {
-      LOGGER.error("Could not get RSAM for {}, {}->{}", DbUtils.scnlAsWinstonCode(scnl), t1, t2);
     }
-    return null;
   }
 
   /**
-   * Version of SQLDataSource.getDownsamplingSQL which doesn't use prepared statements, so as it's
-   * not supported by
-   * Winston.
+   * Finish downsampling and check maxrows again, since the interval in progress while streaming was
+   * not yet counted.
+   */
+  private List<double[]> getDownsampledRows(final Downsampler downsampler, final int columns,
+      final int maxrows) throws UtilException {
+    final List<double[]> rows = downsampler.getRows(columns);
+    if (maxrows > 0 && rows.size() > maxrows) {
+      throw new UtilException("Max rows (" + maxrows + " rows) "
+          + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "") + "exceeded.");
+    }
+    return rows;
+  }
+
+  /**
+   * Read helicorder or averaged RSAM rows from a rollup tier.
+   *
+   * @param period RSAM averaging period, or 0 to read helicorder rows
+   * @return rows, or null if the tier cannot answer the request
    */
-  private static String getDownsamplingSQL(final String sql, final double startTime,
-      final DownsamplingType ds, final int dsInt) throws UtilException {
-    if (!ds.equals(DownsamplingType.NONE) && dsInt <= 1)
-      throw new UtilException("Downsampling interval should be more than 1");
-    if (ds.equals(DownsamplingType.NONE))
-      return sql;
-    else if (ds.equals(DownsamplingType.DECIMATE))
-      return "SELECT * FROM(SELECT fullQuery.*, @row := @row+1 AS rownum FROM (" + sql
-          + ") fullQuery, (SELECT @row:=0) r) ranked WHERE rownum % " + dsInt + " = 1";
-    else if (ds.equals(DownsamplingType.MEAN)) {
-      final String sql_select_clause = sql.substring(6, sql.toUpperCase().indexOf("FROM") - 1);
-      final String sql_from_where_clause = sql.substring(sql.toUpperCase().indexOf("FROM") - 1,
-          sql.toUpperCase().lastIndexOf("ORDER BY") - 1);
-      final String[] columns = sql_select_clause.split(",");
-      StringBuffer sb = new StringBuffer();
-      sb.append("SELECT ");
-      for (final String column : columns) {
-        sb.append("AVG(").append(column.trim()).append("), ");
+  private List<double[]> getRollup(final String code, final int tier, final double t1,
+      final double t2, final int maxrows, final int period) throws UtilException {
+    final Rollups rollups = new Rollups(winston);
+    List<double[]> rows;
+    try {
+      if (!rollups.covers(code, tier, t1)) {
+        return null;
+      }
+
+      final int limit = maxrows > 0 ? maxrows + 1 : 0;
+      if (period > 0) {
+        rows = rollups.getRsamRows(code, tier, t1, t2, period, limit);
+      } else {
+        rows = rollups.getHelicorderRows(code, tier, t1, t2, limit);
       }
-      sb.append("((j2ksec-").append(startTime).append(") DIV ").append(dsInt).append(") intNum ");
-      sb.append(sql_from_where_clause);
-      sb.append(" GROUP BY intNum");
+    } catch (final SQLException e) {
+      LOGGER.debug("Cannot read {}s rollup for {}. ({})", tier, code, e.getMessage());
+      return null;
+    }
 
-      return sb.toString();
-    } else
-      throw new UtilException("Unknown downsampling type: " + ds);
+    if (maxrows > 0 && rows.size() > maxrows) {
+      throw new UtilException("Max rows (" + maxrows + " rows) "
+          + (vdxName.length() > 0 ? ("for data source " + vdxName + " ") : "") + "exceeded.");
+    }
+    return rows;
   }
 
   public void setVdxName(final String name) {
@@ -0,0 +1,139 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A shared list of the wave day tables each channel has. Reading a span of data touches one table
+ * per day; rather than probing for each table, readers ask the index which days exist and query
+ * only those.
+ *
+ * <p>
+ * A channel's list is read with a single SHOW TABLES and reused until the refresh interval
+ * passes. A request reaching past the newest known table is checked again sooner, so a new day's
+ * table is found within seconds. Tables dropped by a purge are noticed when a query against them
+ * fails and the reader calls {@link #invalidate(WinstonDatabase, String)}.
+ */
+public class DayTableIndex {
+  private static final DayTableIndex INSTANCE = new DayTableIndex();
+
+  /** default time, in seconds, a channel's table list is reused */
+  public static final int DEFAULT_REFRESH_INTERVAL = 60;
+
+  // minimum time, in milliseconds, between lookups for a table newer than any known
+  private static final long RECHECK_INTERVAL = 1000;
+
+  private static final int DATE_LENGTH = "yyyy_MM_dd".length();
+
+  private static class Entry {
+    // never modified once the entry is published
+    final TreeSet<String> days;
+    final long loadTime;
+
+    Entry(final TreeSet<String> days, final long loadTime) {
+      this.days = days;
+      this.loadTime = loadTime;
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> channels;
+  private volatile long refreshInterval;
+
+  private DayTableIndex() {
+    channels = new ConcurrentHashMap<String, Entry>();
+    refreshInterval = DEFAULT_REFRESH_INTERVAL * 1000L;
+  }
+
+  /**
+   * Get the shared index.
+   *
+   * @return the index
+   */
+  public static DayTableIndex getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Set the refresh interval. Clears the index.
+   *
+   * @param refreshInterval seconds a channel's table list is reused, zero lists tables on every
+   *        request
+   */
+  public void configure(final int refreshInterval) {
+    this.refreshInterval = refreshInterval * 1000L;
+    channels.clear();
+  }
+
+  /**
+   * Get the days between two dates, inclusive, for which a channel has a wave table.
+   *
+   * @param winston connection used if the table list must be read
+   * @param code channel code
+   * @param first first day, formatted as {@link WinstonDatabase#WINSTON_TABLE_DATE_FORMAT}
+   * @param last last day
+   * @return days in ascending order
+   * @throws SQLException if the table list cannot be read
+   */
+  public List<String> getDays(final WinstonDatabase winston, final String code,
+      final String first, final String last) throws SQLException {
+    final String key = key(winston, code);
+    final long now = System.currentTimeMillis();
+    Entry entry = channels.get(key);
+
+    if (entry == null || now - entry.loadTime >= refreshInterval
+        || (now - entry.loadTime >= RECHECK_INTERVAL
+            && (entry.days.isEmpty() || last.compareTo(entry.days.last()) > 0))) {
+      entry = new Entry(listDays(winston, code), now);
+      channels.put(key, entry);
+    }
+
+    if (first.compareTo(last) > 0) {
+      return new ArrayList<String>();
+    }
+    return new ArrayList<String>(entry.days.subSet(first, true, last, true));
+  }
+
+  /**
+   * Forget a channel's table list, forcing it to be read again on next use.
+   *
+   * @param winston connection to the channel's database
+   * @param code channel code
+   */
+  public void invalidate(final WinstonDatabase winston, final String code) {
+    channels.remove(key(winston, code));
+  }
+
+  private static String key(final WinstonDatabase winston, final String code) {
+    return winston.databasePrefix + "_" + code;
+  }
+
+  private static TreeSet<String> listDays(final WinstonDatabase winston, final String code)
+      throws SQLException {
+    final TreeSet<String> days = new TreeSet<String>();
+    final String prefix = code + "$$";
+    final ResultSet rs = winston.getStatement()
+        .executeQuery("SHOW TABLES FROM `" + winston.databasePrefix + "_" + code + "`");
+    try {
+      while (rs.next()) {
+        final String table = rs.getString(1);
+        if (table.length() == prefix.length() + DATE_LENGTH && table.startsWith(prefix)
+            && Character.isDigit(table.charAt(prefix.length()))) {
+          days.add(table.substring(prefix.length()));
+        }
+      }
+    } finally {
+      rs.close();
+    }
+    return days;
+  }
+}
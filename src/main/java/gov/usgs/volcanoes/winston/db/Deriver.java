@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.winston.db;
 
+import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.List;
 
@@ -9,12 +10,14 @@ import org.slf4j.LoggerFactory;
 import gov.usgs.volcanoes.core.CodeTimer;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
 
 /**
- * A class to recalculate stored RSAM values
+ * A class to recalculate stored RSAM values. With rollupsOnly set, rebuilds the rollup tiers from
+ * the stored helicorder rows instead.
  *
  * @author Dan Cervelli
  * @author Tom Parker
@@ -28,6 +31,10 @@ public class Deriver {
   private static final boolean DEFAULT_RSAM_ENABLE = true;
   private static final int DEFAULT_RSAM_DELTA = 10;
   private static final int DEFAULT_RSAM_DURATION = 60;
+  private static final boolean DEFAULT_ROLLUPS_ONLY = false;
+
+  // rollups are rebuilt a day at a time
+  private static final double ROLLUP_CHUNK_SIZE = 60 * 60 * 24;
 
   private WinstonDatabase winston;
   private final InputEW input;
@@ -43,6 +50,7 @@ public class Deriver {
   private boolean rsamEnable = DEFAULT_RSAM_ENABLE;
   private int rsamDelta = DEFAULT_RSAM_DELTA;
   private int rsamDuration = DEFAULT_RSAM_DURATION;
+  private boolean rollupsOnly = DEFAULT_ROLLUPS_ONLY;
 
   private final ConfigFile config;
 
@@ -77,12 +85,19 @@ public class Deriver {
     rsamDelta = StringUtils.stringToInt(config.getString("rsam.delta"), DEFAULT_RSAM_DELTA);
     rsamDuration =
         StringUtils.stringToInt(config.getString("rsam.duration"), DEFAULT_RSAM_DURATION);
+
+    rollupsOnly =
+        StringUtils.stringToBoolean(config.getString("rollupsOnly"), DEFAULT_ROLLUPS_ONLY);
   }
 
   public void deriveAll() {
     for (final String channel : sourceChannels) {
       LOGGER.info("Working on {}", channel);
-      derive(channel, startTime, endTime);
+      if (rollupsOnly) {
+        deriveRollups(channel, startTime, endTime);
+      } else {
+        derive(channel, startTime, endTime);
+      }
     }
   }
 
@@ -115,6 +130,23 @@ public class Deriver {
     }
   }
 
+  private void deriveRollups(final String ch, final double t1, final double t2) {
+    final Rollups rollups = new Rollups(winston);
+    for (double ct = t1; ct < t2 && !quit; ct += ROLLUP_CHUNK_SIZE) {
+      final double ret = Math.min(ct + ROLLUP_CHUNK_SIZE, t2);
+      final CodeTimer timer = new CodeTimer("rollup");
+      try {
+        rollups.update(ch, ct, ret);
+      } catch (final SQLException e) {
+        LOGGER.error("Could not update rollups for {}: {}", ch, e.getMessage());
+        return;
+      }
+      timer.stop();
+      LOGGER.info(String.format("Rolled up %s to %s in %.3fms", J2kSec.toDateString(ct),
+          J2kSec.toDateString(ret), timer.getRunTimeMillis()));
+    }
+  }
+
   public static void main(final String[] args) {
     new Deriver();
   }
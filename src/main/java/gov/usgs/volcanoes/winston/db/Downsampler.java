@@ -0,0 +1,193 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.usgs.volcanoes.core.math.DownsamplingType;
+import gov.usgs.volcanoes.core.util.UtilException;
+
+/**
+ * Reduces a time ordered stream of rows as it is read. Each row is a time and one or two values;
+ * reduced rows are kept in primitive arrays until the caller asks for them.
+ *
+ * <p>
+ * DECIMATE keeps every interval-th row. MEAN and ENVELOPE divide time into intervals counted from
+ * a start time; MEAN emits the mean time and mean values of each interval, ENVELOPE emits the
+ * interval start, the least first value, and the greatest second value.
+ */
+public class Downsampler {
+  /**
+   * How rows are reduced.
+   */
+  public enum Mode {
+    NONE, DECIMATE, MEAN, ENVELOPE;
+
+    /**
+     * Mode matching a downsampling type.
+     *
+     * @param type downsampling type
+     * @return mode
+     * @throws UtilException if the type is not supported
+     */
+    public static Mode of(final DownsamplingType type) throws UtilException {
+      if (type.equals(DownsamplingType.NONE)) {
+        return NONE;
+      } else if (type.equals(DownsamplingType.DECIMATE)) {
+        return DECIMATE;
+      } else if (type.equals(DownsamplingType.MEAN)) {
+        return MEAN;
+      } else {
+        throw new UtilException("Unknown downsampling type: " + type);
+      }
+    }
+  }
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Mode mode;
+  private final int interval;
+  private final double start;
+
+  private double[] times;
+  private double[] first;
+  private double[] second;
+  private int size;
+
+  // row count for DECIMATE, current interval for MEAN and ENVELOPE
+  private long index;
+  private int count;
+  private double sumTime;
+  private double sumFirst;
+  private double sumSecond;
+  private double min;
+  private double max;
+
+  /**
+   * Constructor.
+   *
+   * @param mode how rows are reduced
+   * @param interval rows per output row for DECIMATE, seconds per output row for MEAN and ENVELOPE
+   * @param start time intervals are counted from
+   * @throws UtilException if the interval is too small to reduce anything
+   */
+  public Downsampler(final Mode mode, final int interval, final double start)
+      throws UtilException {
+    if (mode != Mode.NONE && interval <= 1) {
+      throw new UtilException("Downsampling interval should be more than 1");
+    }
+
+    this.mode = mode;
+    this.interval = interval;
+    this.start = start;
+    times = new double[INITIAL_CAPACITY];
+    first = new double[INITIAL_CAPACITY];
+    second = new double[INITIAL_CAPACITY];
+    index = -1;
+  }
+
+  /**
+   * Add a row with a single value.
+   *
+   * @param t time
+   * @param value value
+   */
+  public void add(final double t, final double value) {
+    add(t, value, value);
+  }
+
+  /**
+   * Add a row with two values.
+   *
+   * @param t time
+   * @param a first value
+   * @param b second value
+   */
+  public void add(final double t, final double a, final double b) {
+    switch (mode) {
+      case DECIMATE:
+        if (++index % interval == 0) {
+          emit(t, a, b);
+        }
+        break;
+      case MEAN:
+      case ENVELOPE: {
+        final long i = (long) Math.floor((t - start) / interval);
+        if (i != index) {
+          flushInterval();
+          index = i;
+        }
+        count++;
+        sumTime += t;
+        sumFirst += a;
+        sumSecond += b;
+        min = count == 1 ? a : Math.min(min, a);
+        max = count == 1 ? b : Math.max(max, b);
+        break;
+      }
+      default:
+        emit(t, a, b);
+    }
+  }
+
+  private void flushInterval() {
+    if (count == 0) {
+      return;
+    }
+
+    if (mode == Mode.MEAN) {
+      emit(sumTime / count, sumFirst / count, sumSecond / count);
+    } else {
+      emit(start + index * interval, min, max);
+    }
+    count = 0;
+    sumTime = 0;
+    sumFirst = 0;
+    sumSecond = 0;
+  }
+
+  private void emit(final double t, final double a, final double b) {
+    if (size == times.length) {
+      final int capacity = size * 2;
+      times = Arrays.copyOf(times, capacity);
+      first = Arrays.copyOf(first, capacity);
+      second = Arrays.copyOf(second, capacity);
+    }
+    times[size] = t;
+    first[size] = a;
+    second[size] = b;
+    size++;
+  }
+
+  /**
+   * Number of rows produced so far. The interval in progress for MEAN and ENVELOPE is not yet
+   * counted.
+   *
+   * @return row count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finish the interval in progress and return the reduced rows.
+   *
+   * @param columns 2 for rows of time and first value, 3 to include the second value
+   * @return rows
+   */
+  public List<double[]> getRows(final int columns) {
+    flushInterval();
+
+    final List<double[]> rows = new ArrayList<double[]>(size);
+    for (int i = 0; i < size; i++) {
+      rows.add(columns == 2 ? new double[] {times[i], first[i]}
+          : new double[] {times[i], first[i], second[i]});
+    }
+    return rows;
+  }
+}
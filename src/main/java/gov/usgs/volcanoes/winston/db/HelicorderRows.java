@@ -0,0 +1,240 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.util.Arrays;
+
+/**
+ * The recent one-second helicorder rows of a single channel, held in a ring buffer indexed by J2K
+ * second. Row fields are kept in parallel primitive arrays, so updating a row for each sample
+ * allocates nothing.
+ *
+ * <p>
+ * A row is evicted when a second which maps to the same slot is claimed, so the buffer holds at
+ * most the most recent capacity seconds.
+ *
+ * <p>
+ * The mean sample value over the RSAM window is kept as a running sum which follows the window as
+ * it slides forward and is adjusted as rows inside it change, so
+ * {@link #getMu(long, int, int)} costs O(1) per second for data arriving in order.
+ *
+ * <p>
+ * All methods are synchronized. Callers which make several related calls should hold the lock
+ * across them.
+ */
+class HelicorderRows {
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final int mask;
+  private final long[] seconds;
+  private final double[] smin;
+  private final double[] smax;
+  private final double[] rcnt;
+  private final double[] sum;
+  private final double[] rsam;
+  private final double[] mu;
+  private final double[] weightedRsam;
+
+  // RSAM window, windowStart inclusive to windowEnd exclusive
+  private long windowStart;
+  private long windowEnd;
+  private double windowSum;
+  private double windowCount;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity minimum number of seconds held, rounded up to a power of two
+   */
+  HelicorderRows(final int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity));
+    if (size < capacity) {
+      size <<= 1;
+    }
+
+    mask = size - 1;
+    seconds = new long[size];
+    smin = new double[size];
+    smax = new double[size];
+    rcnt = new double[size];
+    sum = new double[size];
+    rsam = new double[size];
+    mu = new double[size];
+    weightedRsam = new double[size];
+    Arrays.fill(seconds, EMPTY);
+    windowStart = EMPTY;
+  }
+
+  /**
+   * Find a row.
+   *
+   * @param second J2K second
+   * @return slot holding the row, or -1 if not held
+   */
+  synchronized int find(final long second) {
+    final int slot = (int) (second & mask);
+    return seconds[slot] == second ? slot : -1;
+  }
+
+  /**
+   * Claim a slot for an empty row, evicting whatever row the slot held.
+   *
+   * @param second J2K second
+   * @return slot of the new row
+   */
+  synchronized int create(final long second) {
+    final int slot = (int) (second & mask);
+    if (seconds[slot] != EMPTY) {
+      leaveWindow(slot);
+    }
+
+    seconds[slot] = second;
+    smin[slot] = Integer.MAX_VALUE;
+    smax[slot] = Integer.MIN_VALUE;
+    rcnt[slot] = 0;
+    sum[slot] = 0;
+    rsam[slot] = 0;
+    mu[slot] = 0;
+    weightedRsam[slot] = 0;
+    return slot;
+  }
+
+  /**
+   * Claim a slot for a row read from the database. Rows read from the database have no mean or
+   * weighted RSAM.
+   *
+   * @param second J2K second
+   * @param min minimum sample
+   * @param max maximum sample
+   * @param count number of samples
+   * @param rsamValue RSAM
+   * @return slot of the new row
+   */
+  synchronized int load(final long second, final double min, final double max,
+      final double count, final double rsamValue) {
+    final int slot = create(second);
+    smin[slot] = min;
+    smax[slot] = max;
+    rcnt[slot] = count;
+    rsam[slot] = rsamValue;
+    if (inWindow(second)) {
+      windowCount += count;
+    }
+    return slot;
+  }
+
+  /**
+   * Add a sample to a row.
+   *
+   * @param slot row
+   * @param sample sample value
+   * @param computeRsam if true, update the sample count, mean, and RSAM as well as the extrema
+   */
+  synchronized void addSample(final int slot, final int sample, final boolean computeRsam) {
+    smin[slot] = Math.min(smin[slot], sample);
+    smax[slot] = Math.max(smax[slot], sample);
+    if (!computeRsam) {
+      return;
+    }
+
+    final double count = rcnt[slot];
+    rsam[slot] = (rsam[slot] * count + Math.abs(sample)) / (count + 1);
+    weightedRsam[slot] = (weightedRsam[slot] * count + Math.abs(sample - mu[slot])) / (count + 1);
+    sum[slot] += sample;
+    rcnt[slot] = count + 1;
+    if (inWindow(seconds[slot])) {
+      windowSum += sample;
+      windowCount++;
+    }
+  }
+
+  /**
+   * Set the DC offset removed from samples added to a row.
+   *
+   * @param slot row
+   * @param value mean of preceding samples
+   */
+  synchronized void setMu(final int slot, final double value) {
+    mu[slot] = value;
+  }
+
+  /**
+   * Get the mean of the samples in the rows from delta + duration seconds before a second up to,
+   * but not including, delta seconds before it.
+   *
+   * @param second J2K second
+   * @param delta offset of the window
+   * @param duration length of the window
+   * @return mean sample value, or 0 if the window holds no samples
+   */
+  synchronized double getMu(final long second, final int delta, final int duration) {
+    final long start = second - delta - duration;
+    final long end = second - delta;
+
+    if (windowStart == EMPTY || end - start != windowEnd - windowStart || start < windowStart
+        || start - windowStart >= duration) {
+      windowSum = 0;
+      windowCount = 0;
+      for (long t = start; t < end; t++) {
+        addToWindow(t);
+      }
+    } else {
+      for (long t = windowStart; t < start; t++) {
+        removeFromWindow(t);
+      }
+      for (long t = windowEnd; t < end; t++) {
+        addToWindow(t);
+      }
+    }
+    windowStart = start;
+    windowEnd = end;
+
+    return windowCount != 0 ? windowSum / windowCount : 0;
+  }
+
+  synchronized double getMin(final int slot) {
+    return smin[slot];
+  }
+
+  synchronized double getMax(final int slot) {
+    return smax[slot];
+  }
+
+  synchronized double getCount(final int slot) {
+    return rcnt[slot];
+  }
+
+  synchronized double getWeightedRsam(final int slot) {
+    return weightedRsam[slot];
+  }
+
+  private boolean inWindow(final long second) {
+    return windowStart != EMPTY && second >= windowStart && second < windowEnd;
+  }
+
+  private void leaveWindow(final int slot) {
+    if (inWindow(seconds[slot])) {
+      windowSum -= sum[slot];
+      windowCount -= rcnt[slot];
+    }
+  }
+
+  private void addToWindow(final long second) {
+    final int slot = find(second);
+    if (slot != -1) {
+      windowSum += sum[slot];
+      windowCount += rcnt[slot];
+    }
+  }
+
+  private void removeFromWindow(final long second) {
+    final int slot = find(second);
+    if (slot != -1) {
+      windowSum -= sum[slot];
+      windowCount -= rcnt[slot];
+    }
+  }
+}
@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
 
@@ -80,6 +81,10 @@ public class Input {
 
   private ChannelInputOptimizer currentLock;
   private final Data data;
+  private Coverage coverage;
+
+  // spans written but not yet added to the coverage index, held while tables are locked
+  private final HashMap<String, List<double[]>> pendingCoverage;
 
   private final DateFormat dateFormat;
 
@@ -138,6 +143,8 @@ public class Input {
   public Input(final WinstonDatabase w) {
     winston = w;
     data = new Data(w);
+    coverage = new Coverage(w);
+    pendingCoverage = new HashMap<String, List<double[]>>();
     channelOptimizers = new HashMap<String, ChannelInputOptimizer>();
     checkTableCache = new HashSet<String>();
     dateFormat = new SimpleDateFormat("yyyy_MM_dd");
@@ -311,6 +318,7 @@ public class Input {
       final byte[] compressed = Zip.compress(stripped);
       insert.setBytes(5, compressed);
       insert.executeUpdate();
+      written(code, tb);
 
       opt.t1 = Math.min(opt.t1, tb.getStartTimeJ2K());
       opt.t2 = Math.max(opt.t2, tb.getEndTimeJ2K());
@@ -436,6 +444,7 @@ public class Input {
           return false;
         }
       }
+      written(code, tb);
 
       opt.t1 = Math.min(opt.t1, tb.getStartTimeJ2K());
       opt.t2 = Math.max(opt.t2, tb.getEndTimeJ2K());
@@ -513,6 +522,39 @@ public class Input {
     return false;
   }
 
+  /**
+   * Adds a written TraceBuf to the coverage index, once any table locks are released, so gaps it
+   * fills are no longer reported. A failure is logged; Admin can rebuild the index later. The wave
+   * store is told the TraceBuf was written around it.
+   *
+   * @param code channel
+   * @param tb TraceBuf written
+   */
+  private void written(final String code, final TraceBuf tb) {
+    winston.getWaveStore().invalidate(code, tb.getStartTimeJ2K(), tb.getEndTimeJ2K());
+
+    List<double[]> spans = pendingCoverage.get(code);
+    if (spans == null) {
+      spans = new ArrayList<double[]>();
+      pendingCoverage.put(code, spans);
+    }
+    spans.add(Coverage.span(tb.getStartTimeJ2K(), tb.getEndTimeJ2K(), tb.samplingRate()));
+    if (!writeLocks) {
+      flushCoverage();
+    }
+  }
+
+  private void flushCoverage() {
+    for (final Map.Entry<String, List<double[]>> entry : pendingCoverage.entrySet()) {
+      try {
+        coverage.add(entry.getKey(), entry.getValue());
+      } catch (final SQLException e) {
+        LOGGER.warn("Could not update coverage for {}: {}", entry.getKey(), e.getMessage());
+      }
+    }
+    pendingCoverage.clear();
+  }
+
   /**
    * Purge tables.
    *
@@ -588,6 +630,13 @@ public class Input {
         break;
       }
     }
+    if (deleted && setTime) {
+      try {
+        new Coverage(winston).trim(channel, J2kSec.fromDate(df.parse(df.format(then))));
+      } catch (final Exception e) {
+        LOGGER.error("Could not trim coverage for {}: {}", channel, e.getMessage());
+      }
+    }
     if (deleted && !setTime) {
       // must have deleted all of the tables, just delete the channel entirely
       LOGGER.info("Permanently deleting channel: {}", channel);
@@ -640,6 +689,7 @@ public class Input {
 
   public void setWinston(final WinstonDatabase db) {
     winston = db;
+    coverage = new Coverage(db);
   }
 
   public void setWriteLock(final boolean b) {
@@ -675,6 +725,7 @@ public class Input {
     try {
       winston.getStatement().execute("UNLOCK TABLES");
       setTimeSpan(currentLock.code, currentLock.t1, currentLock.t2);
+      flushCoverage();
       currentLock = null;
       writeLocks = false;
       locks.clear();
@@ -1,8 +1,10 @@
 package gov.usgs.volcanoes.winston.db;
 
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -10,23 +12,22 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Map.Entry;
-import java.util.zip.Deflater;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.collections.set.MapBackedSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.usgs.volcanoes.core.Zip;
 import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
 import gov.usgs.volcanoes.core.time.CurrentTime;
 import gov.usgs.volcanoes.core.time.J2kSec;
@@ -41,28 +42,22 @@ import gov.usgs.volcanoes.core.time.Time;
  */
 public class InputEW {
 
-  private static class HeliFields {
-    public static final int MEAN = 5;
-    public static final int MU = 6; // DC offset
-    public static final int RCNT = 3;
-    public static final int RSAM = 4;
-    public static final int SMAX = 2;
-    public static final int SMIN = 1;
-    public static final int WEIGHTED_RSAM = 7; // DC offset removed
-  }
-
-  public static class InputResult {
-    public enum Code {
-      ERROR_CHANNEL, ERROR_DATABASE, ERROR_DUPLICATE, ERROR_HELICORDER, ERROR_INPUT, ERROR_NO_WINSTON, ERROR_NULL_TRACEBUF, ERROR_TIME_SPAN, ERROR_UNKNOWN, NO_CODE, SUCCESS, SUCCESS_CREATED_TABLE, SUCCESS_HELICORDER, SUCCESS_TIME_SPAN
-    }
+  /** default number of rows written per INSERT */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 100;
 
-    public Code code;
-    public double failedHeliJ2K;
-    public TraceBuf traceBuf;
+  /**
+   * A TraceBuf waiting to be written.
+   */
+  private static class PendingInsert {
+    public final AppendResult result;
+    public final String date;
+    public final boolean tableCreated;
 
-    public InputResult(final Code c, final TraceBuf tb) {
-      code = c;
-      traceBuf = tb;
+    public PendingInsert(final AppendResult result, final String date,
+        final boolean tableCreated) {
+      this.result = result;
+      this.date = date;
+      this.tableCreated = tableCreated;
     }
   }
 
@@ -76,17 +71,20 @@ public class InputEW {
   private static Set<String> checkTableCache;
   private static final Logger LOGGER = LoggerFactory.getLogger(InputEW.class);
 
-  // TODO: make this synchronized too?
-  private final Map<String, SortedMap<Double, double[]>> channelHelicorderRows;
+  private final ConcurrentMap<String, HelicorderRows> channelHelicorderRows;
 
   private final Map<String, Integer> channelSid;
   private final DateFormat dateFormat;
 
   private boolean enableValarmView = false;
+  private boolean enableRollups = true;
 
   private int maxRows = 300;
-  private int numRowsToDelete = 60;
+  private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
   private WinstonDatabase winston;
+  private Rollups rollups;
+  private Coverage coverage;
+  private BlobCodec codec = BlobCodec.DEFAULT;
 
   /**
    * Constructs a new Input2.
@@ -99,7 +97,7 @@ public class InputEW {
         MapBackedSet.decorate(Collections.synchronizedMap(new LRUMap(w.cacheCap, true)));
 
     channelTimeSpans = Collections.synchronizedMap(new HashMap<String, double[]>());
-    channelHelicorderRows = new HashMap<String, SortedMap<Double, double[]>>();
+    channelHelicorderRows = new ConcurrentHashMap<String, HelicorderRows>();
     channelSid = new HashMap<String, Integer>();
     dateFormat = new SimpleDateFormat("yyyy_MM_dd");
     dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -116,7 +114,7 @@ public class InputEW {
    *          the date of the new table
    * @return success/failure indication
    */
-  private boolean createDayTable(final String code, final String date) {
+  boolean createDayTable(final String code, final String date) {
     try {
       final double prevDayJ2k = J2kSec.fromDate(dateFormat.parse(date)) - (24 * 3600);
       final String prevDate = dateFormat.format(J2kSec.asDate(prevDayJ2k));
@@ -193,123 +191,77 @@ public class InputEW {
     return null;
   }
 
-  private List<InputResult> getError(final InputResult.Code code) {
-    final ArrayList<InputResult> list = new ArrayList<InputResult>(1);
-    list.add(new InputEW.InputResult(code, null));
+  private List<AppendResult> getError(final AppendResult.Code code) {
+    final ArrayList<AppendResult> list = new ArrayList<AppendResult>(1);
+    list.add(new AppendResult(code, null));
     return list;
   }
 
+  /**
+   * Gets the recent helicorder rows of a channel, creating them if needed.
+   *
+   * @param channel
+   * @return
+   */
+  private HelicorderRows getHelicorderRows(final String channel) {
+    HelicorderRows rows = channelHelicorderRows.get(channel);
+    if (rows == null) {
+      rows = new HelicorderRows(maxRows);
+      final HelicorderRows other = channelHelicorderRows.putIfAbsent(channel, rows);
+      if (other != null) {
+        rows = other;
+      }
+    }
+    return rows;
+  }
+
   /**
    * Gets a helicorder row. This function MUST be called before
    * updateHelicorderRow because it is responsible for creating the blank row
-   * if no existing data can be found.
+   * if no existing data can be found. Callers must hold the lock on rows.
    *
-   * @param table
+   * @param rows
+   * @param channel
    * @param j2ksec
-   * @return
+   * @return slot of the row in rows
    */
-  private double[] getHelicorderRow(final String channel, final double j2ksec,
+  private int getHelicorderRow(final HelicorderRows rows, final String channel, final long j2ksec,
       final boolean useDB) {
-    SortedMap<Double, double[]> rows = channelHelicorderRows.get(channel);
-    if (rows == null) {
-      rows = new TreeMap<Double, double[]>();
-      channelHelicorderRows.put(channel, rows);
-    }
-    double[] d = rows.get(j2ksec);
-    if (d != null) {
-      return d;
+    final int slot = rows.find(j2ksec);
+    if (slot != -1) {
+      return slot;
     }
 
-    final String date = dateFormat.format(J2kSec.asDate(j2ksec));
-    final String table = channel + "$$H" + date;
-
     if (useDB) {
+      final String date = dateFormat.format(J2kSec.asDate(j2ksec));
+      final String table = channel + "$$H" + date;
       try {
-        final ResultSet rs = winston.getStatement().executeQuery(
-            "SELECT j2ksec, smin, smax, rcnt, rsam FROM `" + table + "` WHERE j2ksec=" + j2ksec);
-        if (rs.next()) {
-          d = new double[] {rs.getDouble(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
-              rs.getDouble(5), 0, 0, 0};
+        final double[] row = winston.getStatements().getHelicorderRow(channel, table, j2ksec);
+        if (row != null) {
+          return rows.load(j2ksec, row[1], row[2], row[3], row[4]);
         }
-        rs.close();
       } catch (final Exception e) {
         LOGGER.warn("Could not get helicorder row: {}", e.getMessage());
       }
     }
 
-    if (d == null) {
-      d = new double[] {j2ksec, Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 0, 0, 0, 0};
-    }
-
-    rows.put(j2ksec, d);
-    if (rows.size() > maxRows) {
-      for (int i = 0; i < numRowsToDelete; i++) {
-        rows.remove(rows.firstKey());
-      }
-    }
-    return d;
-  }
-
-  private PreparedStatement getInputStatement(final String table, final TraceBuf tb) {
-    if (tb == null) {
-      LOGGER.error("null tb");
-      return null;
-    }
-
-    final PreparedStatement insert =
-        winston.getPreparedStatement("INSERT INTO `" + table + "` VALUES (?,?,?,?,?);");
-    if (insert == null) {
-      LOGGER.error("Call to getPreparedStatement returned null.");
-      return null;
-    }
-
-    try {
-      insert.setDouble(1, tb.getStartTimeJ2K());
-      insert.setDouble(2, tb.getEndTimeJ2K());
-      insert.setDouble(3, tb.samplingRate());
-      insert.setString(4, tb.dataType());
-      final byte[] compressed =
-          Zip.compress(tb.bytes, Deflater.BEST_SPEED, 0, tb.bytes.length - 1);
-      insert.setBytes(5, compressed);
-    } catch (final SQLException e) {
-      LOGGER.error("Could not create prepared statement: {}.({})", tb, e);
-    }
-
-    return insert;
+    return rows.create(j2ksec);
   }
 
-  private double getRSAMMu(final String channel, final double j2ksec, int delta,
-      final int duration) {
-    final SortedMap<Double, double[]> rows = channelHelicorderRows.get(channel);
-    if (rows == null) {
-      return Double.NaN;
-    }
-
-    delta = -delta;
-    double sampleSum = 0;
-    double sampleCount = 0;
-    for (int k = delta - duration; k < delta; k++) {
-      final double[] hr = rows.get(j2ksec + k);
-      if (hr != null) {
-        sampleSum += hr[HeliFields.MEAN] * hr[HeliFields.RCNT];
-        sampleCount += hr[HeliFields.RCNT];
-      }
-    }
-
-    if (sampleCount != 0) {
-      return sampleSum / sampleCount;
-    } else {
-      return 0;
-    }
+  private void setInputParameters(final PreparedStatement insert, final TraceBuf tb)
+      throws SQLException {
+    insert.setDouble(1, tb.getStartTimeJ2K());
+    insert.setDouble(2, tb.getEndTimeJ2K());
+    insert.setDouble(3, tb.samplingRate());
+    insert.setString(4, tb.dataType());
+    insert.setBytes(5, codec.encode(tb.bytes, 0, tb.bytes.length - 1));
   }
 
   private int getSid(final String c) throws Exception {
     winston.useRootDatabase();
     if (!channelSid.containsKey(c)) {
-      final ResultSet rs = winston.getStatement().executeQuery(
-          "SELECT sid FROM `" + winston.databasePrefix + "_ROOT`.channels WHERE code='" + c + "'");
-      if (rs.next()) {
-        final int sid = rs.getInt(1);
+      final int sid = winston.getStatements().getChannelId(c);
+      if (sid != -1) {
         channelSid.put(c, sid);
       }
     }
@@ -331,14 +283,10 @@ public class InputEW {
     }
 
     try {
-      final ResultSet rs = winston.getStatement().executeQuery("SELECT st, et FROM `"
-          + winston.databasePrefix + "_ROOT`.channels WHERE code='" + channel + "'");
-      d = new double[] {Double.NaN, Double.NaN};
-      if (rs.next()) {
-        d[0] = rs.getDouble(1);
-        d[1] = rs.getDouble(2);
+      d = winston.getStatements().getChannelTimeSpan(channel);
+      if (d == null) {
+        d = new double[] {Double.NaN, Double.NaN};
       }
-      rs.close();
       channelTimeSpans.put(channel, d);
       return d;
     } catch (final Exception e) {
@@ -353,7 +301,7 @@ public class InputEW {
    * This function returns either null if the input is null or of size 0, if
    * the Winston connection can not be established, or the channelmetadata
    * database can not be used (again, bad database). Otherwise it returns a
-   * list of InputResults for each entry.
+   * list of AppendResults for each entry.
    *
    * @param channel
    * @param entries
@@ -399,7 +347,7 @@ public class InputEW {
    * This function returns either null if the input is null or of size 0, if
    * the Winston connection can not be established, if the station time span
    * can be calculated (bad database), or the channel's database can not be
-   * used (again, bad database). Otherwise it returns a list of InputResults
+   * used (again, bad database). Otherwise it returns a list of AppendResults
    * for each TraceBuf and one that specifies the result of the time span
    * update.
    *
@@ -407,115 +355,103 @@ public class InputEW {
    *          the list of TraceBufs to insert
    * @return the result or null (see above)
    */
-  public List<InputResult> inputTraceBufs(final List<TraceBuf> tbs, final boolean computeRsam,
+  public List<AppendResult> inputTraceBufs(final List<TraceBuf> tbs, final boolean computeRsam,
       final int delta, final int duration) {
+    return inputTraceBufs(tbs, computeRsam, delta, duration, BlobCodec.DEFAULT);
+  }
+
+  /**
+   * Inserts multiple TraceBufs for a single channel, encoding them with a codec.
+   *
+   * @param tbs the list of TraceBufs to insert
+   * @param computeRsam if true, compute RSAM
+   * @param delta RSAM delta
+   * @param duration RSAM duration
+   * @param codec codec used for the wave table blobs
+   * @return the result or null, as {@link #inputTraceBufs(List, boolean, int, int)}
+   */
+  public List<AppendResult> inputTraceBufs(final List<TraceBuf> tbs, final boolean computeRsam,
+      final int delta, final int duration, final BlobCodec codec) {
+    this.codec = codec;
     if (tbs == null || tbs.size() == 0) {
-      return getError(InputResult.Code.ERROR_INPUT);
+      return getError(AppendResult.Code.ERROR_INPUT);
     }
 
     if (!winston.checkConnect()) {
-      return getError(InputResult.Code.ERROR_NO_WINSTON);
+      return getError(AppendResult.Code.ERROR_NO_WINSTON);
     }
 
     final String channel = tbs.get(0).toWinstonString();
     final double[] span = getTimeSpan(channel);
     if (span == null) {
-      return getError(InputResult.Code.ERROR_TIME_SPAN);
+      return getError(AppendResult.Code.ERROR_TIME_SPAN);
     }
 
     final double stBefore = span[0];
 
     if (!winston.useDatabase(channel)) {
-      return getError(InputResult.Code.ERROR_DATABASE);
+      return getError(AppendResult.Code.ERROR_DATABASE);
     }
 
-    final ArrayList<InputResult> results = new ArrayList<InputResult>(tbs.size() + 1);
+    final ArrayList<AppendResult> results = new ArrayList<AppendResult>(tbs.size() + 1);
 
     final SortedSet<Double> modifiedHeliRows = new TreeSet<Double>();
+    final List<PendingInsert> pending = new ArrayList<PendingInsert>(maxBatchSize);
 
     final Iterator<TraceBuf> it = tbs.iterator();
     while (it.hasNext()) {
       boolean tableCreated = false;
       final TraceBuf tb = it.next();
-      final InputResult result = new InputResult(InputResult.Code.NO_CODE, tb);
+      final AppendResult result = new AppendResult(AppendResult.Code.NO_CODE, tb);
       if (tb == null) {
-        result.code = InputResult.Code.ERROR_NULL_TRACEBUF;
+        result.code = AppendResult.Code.ERROR_NULL_TRACEBUF;
       } else if (!tb.toWinstonString().equals(channel)) {
-        result.code = InputResult.Code.ERROR_CHANNEL;
+        result.code = AppendResult.Code.ERROR_CHANNEL;
       }
 
-      if (result.code != InputResult.Code.NO_CODE) {
+      if (result.code != AppendResult.Code.NO_CODE) {
         continue;
       }
 
       final double ts = tb.getStartTimeJ2K();
       final String date = dateFormat.format(J2kSec.asDate(ts));
       final String endDate = dateFormat.format(J2kSec.asDate(tb.getEndTimeJ2K() + 1));
-      final String table = channel + "$$" + date;
-
-      try {
-        if (!tableExists(channel, date)) {
-          createDayTable(channel, date);
-          tableCreated = true;
-        }
-        if (!tableExists(channel, endDate)) {
-          createDayTable(channel, endDate);
-          tableCreated = true;
-        }
-
-        final PreparedStatement insert = getInputStatement(table, tb);
-
-        try {
-          insert.executeUpdate();
-        } catch (final SQLException ex) {
-          if (ex.getMessage().startsWith("Duplicate entry")) {
-            result.code = InputResult.Code.ERROR_DUPLICATE;
-          } else {
-            throw ex;
-          }
-        }
-
-        span[0] = Math.min(span[0], tb.getStartTimeJ2K());
-        span[1] = Math.max(span[1], tb.getEndTimeJ2K());
 
-        if (tb.samplingRate() > 2 && result.code != InputResult.Code.ERROR_DUPLICATE) {
-          updateHelicorderData(modifiedHeliRows, channel, date, tb, computeRsam, delta, duration,
-              true);
-        }
-      } catch (final SQLException ex) {
-        result.code = InputResult.Code.ERROR_DATABASE;
-        LOGGER.error("Could not insert trace buf: {}", ex);
+      if (!tableExists(channel, date)) {
+        createDayTable(channel, date);
+        tableCreated = true;
       }
-
-      if (result.code == InputResult.Code.NO_CODE) {
-        if (tableCreated) {
-          result.code = InputResult.Code.SUCCESS_CREATED_TABLE;
-        } else {
-          result.code = InputResult.Code.SUCCESS;
-        }
+      if (!tableExists(channel, endDate)) {
+        createDayTable(channel, endDate);
+        tableCreated = true;
       }
 
+      pending.add(new PendingInsert(result, date, tableCreated));
       results.add(result);
-      tableCreated = false;
+
+      if (pending.size() >= maxBatchSize) {
+        flushTraceBufs(channel, pending, span, modifiedHeliRows, computeRsam, delta, duration);
+      }
     }
+    flushTraceBufs(channel, pending, span, modifiedHeliRows, computeRsam, delta, duration);
 
-    final InputResult heliResult = new InputResult(InputResult.Code.SUCCESS_HELICORDER, null);
+    final AppendResult heliResult = new AppendResult(AppendResult.Code.SUCCESS_HELICORDER, null);
     final double failed = writeHelicorderData(channel, modifiedHeliRows);
     if (!Double.isNaN(failed)) {
-      heliResult.code = InputResult.Code.ERROR_HELICORDER;
+      heliResult.code = AppendResult.Code.ERROR_HELICORDER;
       heliResult.failedHeliJ2K = failed;
     }
 
     results.add(heliResult);
 
-    final InputResult spanResult = new InputResult(InputResult.Code.ERROR_TIME_SPAN, null);
+    final AppendResult spanResult = new AppendResult(AppendResult.Code.ERROR_TIME_SPAN, null);
     try {
       if (span[0] == stBefore) {
         setTimeSpan(channel, Double.NaN, span[1]);
       } else {
         setTimeSpan(channel, span[0], span[1]);
       }
-      spanResult.code = InputResult.Code.SUCCESS_TIME_SPAN;
+      spanResult.code = AppendResult.Code.SUCCESS_TIME_SPAN;
     } catch (final SQLException ex) {
       LOGGER.error("Could not set time span for channel: {}. ({})", channel, ex);
     }
@@ -524,6 +460,145 @@ public class InputEW {
     return results;
   }
 
+  /**
+   * Writes pending TraceBufs, one JDBC batch per day table, then applies the successful inserts to
+   * the channel time span and helicorder rows in their original order.
+   *
+   * @param channel the channel
+   * @param pending TraceBufs waiting to be written, cleared on return
+   * @param span channel time span to update
+   * @param modifiedHeliRows helicorder rows touched so far
+   */
+  private void flushTraceBufs(final String channel, final List<PendingInsert> pending,
+      final double[] span, final Set<Double> modifiedHeliRows, final boolean computeRsam,
+      final int delta, final int duration) {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    final Map<String, List<PendingInsert>> tables = new LinkedHashMap<String, List<PendingInsert>>();
+    for (final PendingInsert insert : pending) {
+      List<PendingInsert> rows = tables.get(insert.date);
+      if (rows == null) {
+        rows = new ArrayList<PendingInsert>();
+        tables.put(insert.date, rows);
+      }
+      rows.add(insert);
+    }
+
+    for (final Entry<String, List<PendingInsert>> entry : tables.entrySet()) {
+      insertBatch(channel, channel + "$$" + entry.getKey(), entry.getValue());
+    }
+
+    final List<double[]> written = new ArrayList<double[]>(pending.size());
+    for (final PendingInsert insert : pending) {
+      final AppendResult result = insert.result;
+      if (result.code == AppendResult.Code.ERROR_DUPLICATE) {
+        written.add(Coverage.span(result.traceBuf.getStartTimeJ2K(),
+            result.traceBuf.getEndTimeJ2K(), result.traceBuf.samplingRate()));
+      }
+      if (result.code != AppendResult.Code.NO_CODE) {
+        continue;
+      }
+
+      final TraceBuf tb = result.traceBuf;
+      written.add(Coverage.span(tb.getStartTimeJ2K(), tb.getEndTimeJ2K(), tb.samplingRate()));
+      span[0] = Math.min(span[0], tb.getStartTimeJ2K());
+      span[1] = Math.max(span[1], tb.getEndTimeJ2K());
+
+      if (tb.samplingRate() > 2) {
+        updateHelicorderData(modifiedHeliRows, channel, insert.date, tb, computeRsam, delta,
+            duration, true);
+      }
+
+      if (insert.tableCreated) {
+        result.code = AppendResult.Code.SUCCESS_NEW_DAY;
+      } else {
+        result.code = AppendResult.Code.SUCCESS;
+      }
+    }
+
+    pending.clear();
+    updateCoverage(channel, written);
+  }
+
+  /**
+   * Adds written TraceBufs to the coverage index. A failure is logged but does not fail the
+   * import; Admin can rebuild the index later.
+   *
+   * @param channel the channel
+   * @param spans spans of the TraceBufs written
+   */
+  private void updateCoverage(final String channel, final List<double[]> spans) {
+    try {
+      coverage.add(channel, spans);
+    } catch (final SQLException ex) {
+      LOGGER.warn("Could not update coverage for {}: {}", channel, ex.getMessage());
+    }
+  }
+
+  /**
+   * Inserts TraceBufs into a single day table as one JDBC batch. Rows the driver reports as failed,
+   * or never attempted, are retried one at a time so each gets an accurate result code.
+   *
+   * @param channel the channel
+   * @param table the day table
+   * @param rows TraceBufs to insert
+   */
+  private void insertBatch(final String channel, final String table,
+      final List<PendingInsert> rows) {
+    PreparedStatement insert;
+    try {
+      insert = winston.getStatements().getTraceBufInsert(channel, table);
+    } catch (final SQLException ex) {
+      LOGGER.error("Could not prepare insert. ({})", ex.getMessage());
+      for (final PendingInsert row : rows) {
+        row.result.code = AppendResult.Code.ERROR_DATABASE;
+      }
+      return;
+    }
+
+    int[] counts;
+    try {
+      for (final PendingInsert row : rows) {
+        setInputParameters(insert, row.result.traceBuf);
+        insert.addBatch();
+      }
+      counts = insert.executeBatch();
+    } catch (final BatchUpdateException ex) {
+      counts = ex.getUpdateCounts();
+    } catch (final SQLException ex) {
+      LOGGER.debug("Batch insert into {} failed, retrying rows individually. ({})", table,
+          ex.getMessage());
+      counts = new int[0];
+    } finally {
+      try {
+        insert.clearBatch();
+      } catch (final SQLException ex) {
+        LOGGER.debug("Could not clear batch. ({})", ex.getMessage());
+      }
+    }
+
+    for (int i = 0; i < rows.size(); i++) {
+      if (i < counts.length && counts[i] != Statement.EXECUTE_FAILED) {
+        continue;
+      }
+
+      final AppendResult result = rows.get(i).result;
+      try {
+        setInputParameters(insert, result.traceBuf);
+        insert.executeUpdate();
+      } catch (final SQLException ex) {
+        if (ex.getMessage() != null && ex.getMessage().startsWith("Duplicate entry")) {
+          result.code = AppendResult.Code.ERROR_DUPLICATE;
+        } else {
+          result.code = AppendResult.Code.ERROR_DATABASE;
+          LOGGER.error("Could not insert trace buf: {}", ex);
+        }
+      }
+    }
+  }
+
   public void purgeTables(final String channel, final int days) {
     if (days <= 0) {
       return;
@@ -582,6 +657,18 @@ public class InputEW {
         break;
       }
     }
+    if (deleted && setTime) {
+      try {
+        rollups.trim(channel, J2kSec.fromDate(dateFormat.parse(thenString)));
+      } catch (final Exception e) {
+        LOGGER.error("Could not trim rollups for {}: {}", channel, e.getMessage());
+      }
+      try {
+        coverage.trim(channel, J2kSec.fromDate(dateFormat.parse(thenString)));
+      } catch (final Exception e) {
+        LOGGER.error("Could not trim coverage for {}: {}", channel, e.getMessage());
+      }
+    }
     if (deleted && !setTime) {
       // must have deleted all of the tables, just delete the channel
       // entirely
@@ -633,9 +720,33 @@ public class InputEW {
 
   }
 
+  /**
+   * Choose whether the rollup tiers are updated as helicorder rows are written.
+   *
+   * @param enableRollups if true, keep rollups current
+   */
+  public void setEnableRollups(final boolean enableRollups) {
+    this.enableRollups = enableRollups;
+  }
+
+  /**
+   * Set the number of recent helicorder rows kept in memory for each channel. Takes effect for
+   * channels not yet seen.
+   *
+   * @param mr rows kept, rounded up to a power of two
+   * @param nd no longer used, rows are evicted one at a time as newer rows replace them
+   */
   public void setRowParameters(final int mr, final int nd) {
     maxRows = mr;
-    numRowsToDelete = nd;
+  }
+
+  /**
+   * Set the maximum number of rows written by a single batch.
+   *
+   * @param maxBatchSize rows per batch, values less than one disable batching
+   */
+  public void setMaxBatchSize(final int maxBatchSize) {
+    this.maxBatchSize = Math.max(maxBatchSize, 1);
   }
 
   /**
@@ -657,15 +768,13 @@ public class InputEW {
       if (d != null) {
         d[0] = st;
       }
-      winston.getStatement().execute("UPDATE `" + winston.databasePrefix + "_ROOT`.channels SET st="
-          + st + " WHERE code='" + channel + "'");
+      winston.getStatements().setChannelStart(channel, st);
     }
     if (!Double.isNaN(et)) {
       if (d != null) {
         d[1] = et;
       }
-      winston.getStatement().execute("UPDATE `" + winston.databasePrefix + "_ROOT`.channels SET et="
-          + et + " WHERE code='" + channel + "'");
+      winston.getStatements().setChannelEnd(channel, et);
     }
   }
 
@@ -677,6 +786,8 @@ public class InputEW {
    */
   public void setWinston(final WinstonDatabase db) {
     winston = db;
+    rollups = new Rollups(db);
+    coverage = new Coverage(db);
   }
 
   /*
@@ -721,59 +832,45 @@ public class InputEW {
   }
 
   /**
-   * Updates a helicorder row.
+   * Updates a helicorder row. Package visible so it can be benchmarked without a database.
    *
    * @param channel
    * @param date
    * @param tb
    * @throws SQLException
    */
-  private void updateHelicorderData(final Set<Double> modifiedRows, final String channel,
+  void updateHelicorderData(final Set<Double> modifiedRows, final String channel,
       final String date, final TraceBuf tb, final boolean computeRsam, final int delta,
       final int duration, final boolean useDB) // throws SQLException
   {
-    // TODO: optimize/simplify
-    final double fst = Math.floor(tb.getStartTimeJ2K());
-    final double cet = Math.ceil(tb.getEndTimeJ2K());
-    final double[][] heliList = new double[((int) Math.round(cet - fst)) + 1][];
-    int j = 0;
-    for (int i = (int) Math.round(fst); i <= (int) Math.round(cet); i++) {
-      modifiedRows.add((double) i);
-      heliList[j] = getHelicorderRow(channel, i, useDB);
-      if (computeRsam) {
-        final double mu = getRSAMMu(channel, i, delta, duration);
-        heliList[j][HeliFields.MU] = mu;
-      }
-      j++;
-    }
-    double st = tb.getStartTimeJ2K();
-    final double dt = 1 / tb.samplingRate();
-
-    for (int i = 0; i < tb.numSamples(); i++) {
-      j = (int) (Math.floor(st) - fst);
-      final double[] d = heliList[j];
-      final int sample = tb.samples()[i];
-      d[HeliFields.SMIN] = Math.min(d[HeliFields.SMIN], sample);
-      d[HeliFields.SMAX] = Math.max(d[HeliFields.SMAX], sample);
-      if (computeRsam) {
-        // original RSAM
-        d[HeliFields.RSAM] =
-            (d[HeliFields.RSAM] * d[HeliFields.RCNT] + Math.abs(sample)) / (d[HeliFields.RCNT] + 1);
-        // average of samples
-        d[HeliFields.MEAN] =
-            (d[HeliFields.MEAN] * d[HeliFields.RCNT] + sample) / (d[HeliFields.RCNT] + 1);
-        d[HeliFields.WEIGHTED_RSAM] =
-            (d[HeliFields.WEIGHTED_RSAM] * d[HeliFields.RCNT] + Math.abs(sample - d[HeliFields.MU]))
-                / (d[HeliFields.RCNT] + 1);
-        d[HeliFields.RCNT]++;
-      }
-      st += dt;
+    final HelicorderRows rows = getHelicorderRows(channel);
+    final long fst = (long) Math.floor(tb.getStartTimeJ2K());
+    final long cet = (long) Math.ceil(tb.getEndTimeJ2K());
+    final int[] slots = new int[(int) (cet - fst) + 1];
+    final int[] samples = tb.samples();
+
+    synchronized (rows) {
+      for (long i = fst; i <= cet; i++) {
+        modifiedRows.add((double) i);
+        final int slot = getHelicorderRow(rows, channel, i, useDB);
+        if (computeRsam) {
+          rows.setMu(slot, rows.getMu(i, delta, duration));
+        }
+        slots[(int) (i - fst)] = slot;
+      }
+
+      double st = tb.getStartTimeJ2K();
+      final double dt = 1 / tb.samplingRate();
+      for (int i = 0; i < tb.numSamples(); i++) {
+        rows.addSample(slots[(int) (Math.floor(st) - fst)], samples[i], computeRsam);
+        st += dt;
+      }
     }
   }
 
   /**
-   * Writes helicorder data to the database. In case of failure, returns the
-   * j2k that failed. Returns NaN on success.
+   * Writes helicorder data to the database, one multi-row INSERT per $$H table and batch. In case
+   * of failure, returns the first j2k of the batch that failed. Returns NaN on success.
    *
    * @param channel
    * @param modifiedRows
@@ -782,27 +879,85 @@ public class InputEW {
   private double writeHelicorderData(final String channel, final Set<Double> modifiedRows) // throws
   // SQLException
   {
+    String table = null;
+    double batchStart = Double.NaN;
+    int batchCount = 0;
+    final StringBuilder sql = new StringBuilder();
+    final HelicorderRows rows = getHelicorderRows(channel);
+
     for (final double j2k : modifiedRows) {
       final String date = dateFormat.format(J2kSec.asDate(j2k));
-      final String table = channel + "$$H" + date;
+      final String rowTable = channel + "$$H" + date;
 
-      final double[] row = getHelicorderRow(channel, j2k, false);
-      final String sql = String.format(
-          "INSERT INTO `%s` (j2ksec, smin, smax, rcnt, rsam) "
-              + "VALUES (%f,%d,%d,%d,%f) ON DUPLICATE KEY UPDATE "
-              + "smin=VALUES(smin), smax=VALUES(smax), rcnt=VALUES(rcnt), rsam=VALUES(rsam)",
-          table, j2k, (int) row[HeliFields.SMIN], (int) row[HeliFields.SMAX],
-          (int) row[HeliFields.RCNT], row[HeliFields.WEIGHTED_RSAM]);
-      try {
-        winston.getStatement().execute(sql);
-      } catch (final SQLException ex) {
-        LOGGER.warn("Could not write helicorder row: {}", ex.getMessage());
-        LOGGER.warn("SQL: {}", sql);
-        return j2k;
+      if (batchCount > 0 && (batchCount >= maxBatchSize || !rowTable.equals(table))) {
+        if (!writeHelicorderBatch(sql)) {
+          return batchStart;
+        }
+        batchCount = 0;
       }
+
+      if (batchCount == 0) {
+        table = rowTable;
+        batchStart = j2k;
+        sql.setLength(0);
+        sql.append("INSERT INTO `").append(table)
+            .append("` (j2ksec, smin, smax, rcnt, rsam) VALUES ");
+      } else {
+        sql.append(',');
+      }
+
+      synchronized (rows) {
+        final int slot = getHelicorderRow(rows, channel, (long) j2k, false);
+        sql.append(String.format("(%f,%d,%d,%d,%f)", j2k, (int) rows.getMin(slot),
+            (int) rows.getMax(slot), (int) rows.getCount(slot), rows.getWeightedRsam(slot)));
+      }
+      batchCount++;
+    }
+
+    if (batchCount > 0 && !writeHelicorderBatch(sql)) {
+      return batchStart;
+    }
+
+    if (enableRollups && !modifiedRows.isEmpty()) {
+      updateRollups(channel, modifiedRows);
     }
 
     return Double.NaN;
   }
 
+  /**
+   * Recomputes the rollup intervals touched by written helicorder rows. A failure is logged but
+   * does not fail the import; Deriver can rebuild the rollups later.
+   *
+   * @param channel
+   * @param modifiedRows
+   */
+  private void updateRollups(final String channel, final Set<Double> modifiedRows) {
+    double t1 = Double.MAX_VALUE;
+    double t2 = -Double.MAX_VALUE;
+    for (final double j2k : modifiedRows) {
+      t1 = Math.min(t1, j2k);
+      t2 = Math.max(t2, j2k);
+    }
+
+    try {
+      rollups.update(channel, t1, t2);
+    } catch (final SQLException ex) {
+      LOGGER.warn("Could not update rollups for {}: {}", channel, ex.getMessage());
+    }
+  }
+
+  private boolean writeHelicorderBatch(final StringBuilder sql) {
+    sql.append(" ON DUPLICATE KEY UPDATE "
+        + "smin=VALUES(smin), smax=VALUES(smax), rcnt=VALUES(rcnt), rsam=VALUES(rsam)");
+    try {
+      winston.getStatement().execute(sql.toString());
+      return true;
+    } catch (final SQLException ex) {
+      LOGGER.warn("Could not write helicorder rows: {}", ex.getMessage());
+      LOGGER.warn("SQL: {}", sql);
+      return false;
+    }
+  }
+
 }
@@ -2,36 +2,58 @@ package gov.usgs.volcanoes.winston.db;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.usgs.volcanoes.core.CodeTimer;
-import gov.usgs.volcanoes.core.DataUtils;
-import gov.usgs.volcanoes.winston.in.ew.ImportWSJob;
 
 /**
- * A class for merging a table from a source Winston to a destination Winston.
+ * A class for merging tables from a source Winston to a destination Winston.
  *
- * TODO: better parsing of arguments and adjustable log levels.
+ * <p>
+ * Each table is merged by walking the keys of the source and destination in order, side by side,
+ * noting runs of source rows the destination lacks. Each run is then read with a single range
+ * query and written with batched inserts, so a table costs a handful of round trips however many
+ * rows are missing. Tables missing from the destination are created.
+ *
+ * <p>
+ * Rows are copied around the wave store, so once a table is merged the destination's coverage
+ * index, rollups, and channel time span are brought up to date for the rows copied, and its wave
+ * store is told which spans were written.
  *
  * @author Dan Cervelli
  */
 public class Merge {
-  private static final Logger LOGGER = LoggerFactory.getLogger(ImportWSJob.class);
+  private static final Logger LOGGER = LoggerFactory.getLogger(Merge.class);
 
+  private static final String DRIVER = "org.gjt.mm.mysql.Driver";
   private static final double EPSILON = 0.0001;
+  private static final double HELI_EPSILON = 0.5;
+  private static final int BATCH_SIZE = 500;
+  private static final String WAVE_COLUMNS = "st, et, sr, datatype, tracebuf";
+  private static final String HELI_COLUMNS = "j2ksec, smin, smax, rcnt, rsam";
+
   private WinstonDatabase source;
   private WinstonDatabase dest;
 
   public Merge(final String srcURL, final String destURL) {
-    final String driver = "org.gjt.mm.mysql.Driver";
-    source = new WinstonDatabase(driver, srcURL, null);
+    source = new WinstonDatabase(DRIVER, srcURL, null);
     LOGGER.info("Connected to source.");
-    dest = new WinstonDatabase(driver, destURL, null);
+    dest = new WinstonDatabase(DRIVER, destURL, null);
     LOGGER.info("Connected to destination.");
   }
 
@@ -41,144 +63,409 @@ public class Merge {
     dest = temp;
   }
 
-  public void mergeHelicorders(final String code, final String date) {
+  /**
+   * Close both connections.
+   */
+  public void close() {
+    source.close();
+    dest.close();
+  }
+
+  private static boolean tableExists(final WinstonDatabase winston, final String code,
+      final String table) {
+    if (!winston.useDatabase(code)) {
+      return false;
+    }
     try {
-      LOGGER.info("Begin merging helicorders.");
-      final Set<Integer> sourceTimes = new HashSet<Integer>();
-      int total = 0;
-      LOGGER.info("Getting source times.");
-      source.useDatabase(code);
-      ResultSet srs =
-          source.getStatement().executeQuery("SELECT j2ksec FROM `" + code + "$$H" + date + "`");
-      while (srs.next()) {
-        total++;
-        sourceTimes.add((int) Math.round(srs.getDouble(1)));
+      final ResultSet rs =
+          winston.getStatement().executeQuery("SELECT 1 FROM `" + table + "` LIMIT 1");
+      rs.close();
+      return true;
+    } catch (final SQLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Create the day tables of a channel in the destination, and the channel if needed.
+   */
+  private boolean createDestTables(final String code, final String date) {
+    final Channels channels = new Channels(dest);
+    if (!channels.channelExists(code)) {
+      LOGGER.info("Creating channel {} in destination.", code);
+      if (!channels.createChannel(code)) {
+        return false;
       }
+    }
+    if (!dest.useDatabase(code)) {
+      return false;
+    }
+    return new InputEW(dest).createDayTable(code, date);
+  }
+
+  private static ResultSet orderedKeys(final WinstonDatabase winston, final String table,
+      final String key) throws SQLException {
+    final Statement st = winston.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+        ResultSet.CONCUR_READ_ONLY);
+    // stream rows rather than holding the whole table in memory
+    st.setFetchSize(Integer.MIN_VALUE);
+    return st.executeQuery("SELECT " + key + " FROM `" + table + "` ORDER BY " + key);
+  }
+
+  private static void close(final ResultSet rs) {
+    try {
+      final Statement st = rs.getStatement();
+      rs.close();
+      st.close();
+    } catch (final SQLException e) {
+      LOGGER.debug("Could not close result set. ({})", e.getMessage());
+    }
+  }
+
+  /**
+   * Merge the ordered keys of the source and destination.
+   *
+   * @return first and last key of each run of source rows missing from the destination
+   */
+  private List<double[]> findMissing(final String code, final String table, final String key,
+      final double epsilon) throws SQLException {
+    final List<double[]> runs = new ArrayList<double[]>();
+    source.useDatabase(code);
+    dest.useDatabase(code);
+    final ResultSet srs = orderedKeys(source, table, key);
+    try {
+      final ResultSet drs = orderedKeys(dest, table, key);
+      try {
+        boolean more = drs.next();
+        double d = more ? drs.getDouble(1) : Double.NaN;
+        double runStart = Double.NaN;
+        double runEnd = Double.NaN;
+        while (srs.next()) {
+          final double s = srs.getDouble(1);
+          while (more && d < s - epsilon) {
+            more = drs.next();
+            d = more ? drs.getDouble(1) : Double.NaN;
+          }
 
-      LOGGER.info("Getting destination times.");
-      dest.useDatabase(code);
-      final ResultSet drs =
-          dest.getStatement().executeQuery("SELECT j2ksec FROM `" + code + "$$H" + date + "`");
-      total = 0;
-      while (drs.next()) {
-        total++;
-        sourceTimes.remove(Integer.valueOf((int) Math.round(drs.getDouble(1))));
+          if (more && Math.abs(d - s) <= epsilon) {
+            if (!Double.isNaN(runStart)) {
+              runs.add(new double[] {runStart, runEnd});
+              runStart = Double.NaN;
+            }
+          } else {
+            if (Double.isNaN(runStart)) {
+              runStart = s;
+            }
+            runEnd = s;
+          }
+        }
+        if (!Double.isNaN(runStart)) {
+          runs.add(new double[] {runStart, runEnd});
+        }
+      } finally {
+        close(drs);
       }
+    } finally {
+      close(srs);
+    }
+    return runs;
+  }
+
+  /**
+   * Copy the rows of a table which the destination lacks.
+   *
+   * @param spans receives the span of each row copied: start and end for a wave row, or the row
+   *        time twice for a helicorder row
+   * @return rows copied
+   */
+  private int mergeTable(final String code, final String table, final String key,
+      final String columns, final double epsilon, final List<double[]> spans)
+      throws SQLException {
+    final boolean heli = key.equals("j2ksec");
+    final List<double[]> runs = findMissing(code, table, key, epsilon);
+    if (runs.isEmpty()) {
+      return 0;
+    }
+
+    final int columnCount = columns.split(",").length;
+    final StringBuilder values = new StringBuilder("?");
+    for (int i = 1; i < columnCount; i++) {
+      values.append(",?");
+    }
 
-      total = 0;
-      double read = 0;
-      double write = 0;
-      LOGGER.info("Begin merging.");
-      String sql = "INSERT IGNORE INTO `" + code + "$$H" + date + "` VALUES (?,?,?,?,?)";
-      final PreparedStatement insert = dest.getConnection().prepareStatement(sql);
-      final CodeTimer readTimer = new CodeTimer();
-      for (final Iterator<Integer> it = sourceTimes.iterator(); it.hasNext();) {
-        final int d = it.next().intValue();
-        srs = source.getStatement().executeQuery("SELECT j2ksec, smin, smax, rcnt, rsam FROM `"
-            + code + "$$H" + date + "` WHERE j2ksec=" + d);
-        if (srs.next()) {
-          insert.setDouble(1, srs.getDouble(1));
-          insert.setInt(2, srs.getInt(2));
-          insert.setInt(3, srs.getInt(3));
-          insert.setInt(4, srs.getInt(4));
-          insert.setDouble(5, srs.getDouble(5));
-          final CodeTimer writeTimer = new CodeTimer();
-          insert.execute();
-          writeTimer.stopAndReport();
-          write += writeTimer.getRunTimeMillis();
-          total++;
+    source.useDatabase(code);
+    dest.useDatabase(code);
+    final PreparedStatement select = source.getConnection().prepareStatement("SELECT " + columns
+        + " FROM `" + table + "` WHERE " + key + " >= ? AND " + key + " <= ? ORDER BY " + key);
+    final PreparedStatement insert = dest.getConnection().prepareStatement(
+        "INSERT IGNORE INTO `" + table + "` (" + columns + ") VALUES (" + values + ")");
+    int total = 0;
+    try {
+      int pending = 0;
+      for (final double[] run : runs) {
+        select.setDouble(1, run[0]);
+        select.setDouble(2, run[1]);
+        final ResultSet rs = select.executeQuery();
+        while (rs.next()) {
+          for (int i = 1; i <= columnCount; i++) {
+            insert.setObject(i, rs.getObject(i));
+          }
+          insert.addBatch();
+          if (heli) {
+            spans.add(new double[] {rs.getDouble(1), rs.getDouble(1)});
+          } else {
+            spans.add(Coverage.span(rs.getDouble(1), rs.getDouble(2), rs.getDouble(3)));
+          }
+          if (++pending == BATCH_SIZE) {
+            insert.executeBatch();
+            total += pending;
+            pending = 0;
+          }
         }
+        rs.close();
+      }
+      if (pending > 0) {
+        insert.executeBatch();
+        total += pending;
       }
+    } finally {
+      select.close();
       insert.close();
-      readTimer.stop();
-      read = readTimer.getRunTimeMillis() - write;
-      LOGGER.info("Done merging, " + read + "ms reading, " + write + "ms writing.");
-      LOGGER.info("Merged " + total + " helicorder rows.");
-    } catch (final Exception e) {
-      LOGGER.error("Could not merge waves. {}", e);
     }
+    LOGGER.debug("{}: {} runs, {} rows", table, runs.size(), total);
+    return total;
   }
 
-  public void mergeWaves(final String code, final String date) {
+  private int mergeTable(final String code, final String date, final boolean heli) {
+    final String table = code + (heli ? "$$H" : "$$") + date;
     try {
-      LOGGER.info("Begin merging waves.");
-      final Set<Double> sourceTimes = new HashSet<Double>();
-      int total = 0;
-      LOGGER.info("Getting source times.");
-      source.useDatabase(code);
-      ResultSet srs =
-          source.getStatement().executeQuery("SELECT st FROM `" + code + "$$" + date + "`");
-      while (srs.next()) {
-        total++;
-        sourceTimes.add(DataUtils.register(srs.getDouble(1), EPSILON));
+      if (!tableExists(source, code, table)) {
+        LOGGER.debug("{}: not in source", table);
+        return 0;
+      }
+      if (!tableExists(dest, code, table) && !createDestTables(code, date)) {
+        LOGGER.error("{}: could not create in destination", table);
+        return 0;
       }
 
-      LOGGER.info("Getting destination times.");
-      dest.useDatabase(code);
-      final ResultSet drs =
-          dest.getStatement().executeQuery("SELECT st FROM `" + code + "$$" + date + "`");
-      total = 0;
-      while (drs.next()) {
-        total++;
-        sourceTimes.remove(new Double(DataUtils.register(drs.getDouble(1), EPSILON)));
+      final CodeTimer timer = new CodeTimer("merge");
+      final List<double[]> spans = new ArrayList<double[]>();
+      final int total =
+          heli ? mergeTable(code, table, "j2ksec", HELI_COLUMNS, HELI_EPSILON, spans)
+              : mergeTable(code, table, "st", WAVE_COLUMNS, EPSILON, spans);
+      if (heli) {
+        updateRollups(code, spans);
+      } else {
+        updateWaves(code, spans);
+      }
+      timer.stop();
+      if (total > 0) {
+        LOGGER.info(String.format("%s: merged %d rows in %.0fms, %.0f rows/s", table, total,
+            timer.getRunTimeMillis(), total * 1000 / timer.getRunTimeMillis()));
       }
+      return total;
+    } catch (final SQLException e) {
+      LOGGER.error("Could not merge {}. ({})", table, e.getMessage());
+    }
+    return 0;
+  }
+
+  /**
+   * Bring the destination up to date with wave rows copied into it. Failures are logged; Admin can
+   * rebuild the coverage index later.
+   */
+  private void updateWaves(final String code, final List<double[]> spans) {
+    if (spans.isEmpty()) {
+      return;
+    }
+    final List<double[]> runs = Coverage.merge(spans);
+    final double t1 = runs.get(0)[0];
+    final double t2 = runs.get(runs.size() - 1)[1];
+    final WaveStore store = dest.getWaveStore();
+    for (final double[] run : runs) {
+      store.invalidate(code, run[0], run[1]);
+    }
+    try {
+      dest.getStatements().extendChannelTimeSpan(code, t1, t2);
+    } catch (final SQLException e) {
+      LOGGER.error("Could not extend time span of {}. ({})", code, e.getMessage());
+    }
+    try {
+      new Coverage(dest).add(code, runs);
+    } catch (final SQLException e) {
+      LOGGER.warn("Could not update coverage for {}. ({})", code, e.getMessage());
+    }
+  }
+
+  /**
+   * Recompute the destination's rollups over helicorder rows copied into it, if it keeps them.
+   * Failures are logged; Deriver can rebuild the rollups later.
+   */
+  private void updateRollups(final String code, final List<double[]> spans) {
+    if (spans.isEmpty()
+        || !dest.tableExists(code, Rollups.rollupTable(code, Rollups.TIERS[0]))) {
+      return;
+    }
+    double t1 = Double.MAX_VALUE;
+    double t2 = -Double.MAX_VALUE;
+    for (final double[] span : spans) {
+      t1 = Math.min(t1, span[0]);
+      t2 = Math.max(t2, span[1]);
+    }
+    try {
+      new Rollups(dest).update(code, t1, t2);
+    } catch (final SQLException e) {
+      LOGGER.warn("Could not update rollups for {}. ({})", code, e.getMessage());
+    }
+  }
+
+  /**
+   * Merge a helicorder table.
+   *
+   * @param code channel
+   * @param date date, yyyy_MM_dd
+   * @return rows merged
+   */
+  public int mergeHelicorders(final String code, final String date) {
+    return mergeTable(code, date, true);
+  }
+
+  /**
+   * Merge a wave table.
+   *
+   * @param code channel
+   * @param date date, yyyy_MM_dd
+   * @return rows merged
+   */
+  public int mergeWaves(final String code, final String date) {
+    return mergeTable(code, date, false);
+  }
+
+  public int fullMerge(final String code, final String date) {
+    int total = merge(code, date);
+    flip();
+    total += merge(code, date);
+    flip();
+    return total;
+  }
+
+  public int merge(final String code, final String date) {
+    return mergeWaves(code, date) + mergeHelicorders(code, date);
+  }
 
-      total = 0;
-      LOGGER.info("Begin merging.");
-      double read = 0;
-      double write = 0;
-      String sql = "INSERT IGNORE INTO `" + code + "$$" + date + "` VALUES (?,?,?,?,?)";
-      final PreparedStatement insert = dest.getConnection().prepareStatement(sql);
-      final CodeTimer readTimer = new CodeTimer();
-      for (final Iterator<Double> it = sourceTimes.iterator(); it.hasNext();) {
-        final double d = it.next().doubleValue();
-        srs = source.getStatement().executeQuery("SELECT st, et, sr, datatype, tracebuf FROM `"
-            + code + "$$" + date + "` WHERE st>=" + (d - EPSILON) + " AND st<=" + (d + EPSILON));
-        if (srs.next()) {
-          insert.setDouble(1, srs.getDouble(1));
-          insert.setDouble(2, srs.getDouble(2));
-          insert.setDouble(3, srs.getDouble(3));
-          insert.setString(4, srs.getString(4));
-          insert.setBlob(5, srs.getBlob(5));
-          final CodeTimer writeTimer = new CodeTimer();
-          insert.execute();
-          writeTimer.stopAndReport();
-          write += writeTimer.getRunTimeMillis();
-          total++;
+  /**
+   * Channels in the source matching a pattern, matched against codes with either '$' or '_'
+   * separators.
+   *
+   * @param pattern regular expression
+   * @return channel codes
+   */
+  public List<String> getChannels(final Pattern pattern) {
+    final List<String> codes = new ArrayList<String>();
+    final List<String> all = new Channels(source).getChannelCodes("%");
+    if (all != null) {
+      for (final String code : all) {
+        if (pattern.matcher(code).matches() || pattern.matcher(code.replace('$', '_')).matches()) {
+          codes.add(code);
         }
       }
-      insert.close();
-      readTimer.stop();
-      read = readTimer.getRunTimeMillis() - write;
-      LOGGER.info("Done merging, " + read + "ms reading, " + write + "ms writing.");
-      LOGGER.info("Merged " + total + " wave rows.");
-    } catch (final Exception e) {
-      LOGGER.error("Could not merge waves. {}", e);
     }
+    return codes;
   }
 
-  public void fullMerge(final String code, final String date) {
-    mergeWaves(code, date);
-    mergeHelicorders(code, date);
-    flip();
-    mergeWaves(code, date);
-    mergeHelicorders(code, date);
+  private static List<String> getDates(final String start, final String end)
+      throws ParseException {
+    final DateFormat dateFormat = new SimpleDateFormat(WinstonDatabase.WINSTON_TABLE_DATE_FORMAT);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    dateFormat.setLenient(false);
+    final long last = dateFormat.parse(end).getTime();
+    final List<String> dates = new ArrayList<String>();
+    for (long t = dateFormat.parse(start).getTime(); t <= last; t += 86400000L) {
+      dates.add(dateFormat.format(new Date(t)));
+    }
+    return dates;
   }
 
-  public void merge(final String code, final String date) {
-    mergeWaves(code, date);
-    mergeHelicorders(code, date);
+  private static void usage() {
+    System.err.println("usage: java gov.usgs.volcanoes.winston.db.Merge [-f] [-t threads] "
+        + "[srcURL] [destURL] [channels] [date] [endDate]");
+    System.err.println("[channels] is a case sensitive regular expression; examples: CRP_SHZ_AK, "
+        + "CRP_.*_AK");
+    System.err.println("[date] and [endDate] are in YYYY_MM_DD form; example: 2005_03_27");
+    System.err.println("-f merges both ways, -t merges tables in parallel, default 1");
+    System.exit(1);
   }
 
-  public static void main(final String[] args) {
-    if (args.length != 4) {
-      System.err.println(
-          "usage: java gov.usgs.volcanoes.winston.db.Merge [srcURL] [destURL] [table] [date]");
-      System.err.println("[table] is case sensitive; example: CRP_SHZ_AK");
-      System.err.println("[date] is in YYYY_MM_DD form; example: 2005_03_27");
-      System.exit(1);
+  public static void main(final String[] args) throws InterruptedException {
+    boolean full = false;
+    int threads = 1;
+    int i = 0;
+    try {
+      while (i < args.length && args[i].startsWith("-")) {
+        if ("-f".equals(args[i])) {
+          full = true;
+        } else if ("-t".equals(args[i]) && i + 1 < args.length) {
+          threads = Math.max(1, Integer.parseInt(args[++i]));
+        } else {
+          usage();
+        }
+        i++;
+      }
+    } catch (final NumberFormatException e) {
+      usage();
+    }
+    if (args.length - i != 4 && args.length - i != 5) {
+      usage();
+    }
+
+    final String srcURL = args[i];
+    final String destURL = args[i + 1];
+    final Pattern pattern = Pattern.compile(args[i + 2]);
+    List<String> dates = null;
+    try {
+      dates = getDates(args[i + 3], args.length - i == 5 ? args[i + 4] : args[i + 3]);
+    } catch (final ParseException e) {
+      usage();
     }
-    final Merge merge = new Merge(args[0], args[1]);
-    merge.merge(args[2], args[3]);
+
+    final Merge first = new Merge(srcURL, destURL);
+    final List<String> codes = first.getChannels(pattern);
+    LOGGER.info("Merging {} channels over {} days with {} threads.", codes.size(), dates.size(),
+        threads);
+
+    final Queue<String[]> tables = new ConcurrentLinkedQueue<String[]>();
+    for (final String date : dates) {
+      for (final String code : codes) {
+        tables.add(new String[] {code, date});
+      }
+    }
+
+    final boolean fullMerge = full;
+    final AtomicLong rows = new AtomicLong();
+    final CodeTimer timer = new CodeTimer("merge");
+    final List<Thread> workers = new ArrayList<Thread>(threads);
+    for (int w = 0; w < threads; w++) {
+      final Merge merge = w == 0 ? first : new Merge(srcURL, destURL);
+      final Thread worker = new Thread(new Runnable() {
+        public void run() {
+          String[] table;
+          while ((table = tables.poll()) != null) {
+            rows.addAndGet(fullMerge ? merge.fullMerge(table[0], table[1])
+                : merge.merge(table[0], table[1]));
+          }
+          merge.close();
+        }
+      }, "Merge " + w);
+      worker.start();
+      workers.add(worker);
+    }
+    for (final Thread worker : workers) {
+      worker.join();
+    }
+    timer.stop();
+
+    final double seconds = timer.getRunTimeMillis() / 1000;
+    LOGGER.info(String.format("Merged %d rows in %.1fs, %.0f rows/s", rows.get(), seconds,
+        rows.get() / seconds));
   }
 }
@@ -0,0 +1,129 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
+import gov.usgs.volcanoes.core.data.Scnl;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.math.DownsamplingType;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.core.util.UtilException;
+
+/**
+ * The original Winston layout: one database per channel holding a wave table and a helicorder
+ * table per day, with rollup and coverage tables alongside. Reads are served by {@link Data} and
+ * writes by {@link InputEW}.
+ */
+public class MySqlWaveStore implements WaveStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MySqlWaveStore.class);
+
+  /** name used to select this store in Winston.config */
+  public static final String NAME = "mysql";
+
+  public static final boolean DEFAULT_ENABLE_VALARM_VIEW = false;
+  public static final boolean DEFAULT_ENABLE_ROLLUPS = true;
+
+  private final WinstonDatabase winston;
+  private Data data;
+  private InputEW input;
+
+  /**
+   * Constructor.
+   *
+   * @param winston connection used for all queries
+   */
+  public MySqlWaveStore(final WinstonDatabase winston) {
+    this.winston = winston;
+  }
+
+  private Data getData() {
+    if (data == null) {
+      data = new Data(winston);
+    }
+    return data;
+  }
+
+  private InputEW getInput() {
+    if (input == null) {
+      input = new InputEW(winston);
+    }
+    return input;
+  }
+
+  /**
+   * Read ingest options: enableValarmView, to keep a Valarm compatible view of helicorder data;
+   * enableRollups, to keep coarse helicorder and RSAM tiers current; and maxBatchSize, the number
+   * of rows written at once.
+   */
+  public void configure(final ConfigFile config) {
+    final boolean enableValarmView = StringUtils
+        .stringToBoolean(config.getString("enableValarmView"), DEFAULT_ENABLE_VALARM_VIEW);
+    LOGGER.info("config: enableValarmView={}", enableValarmView);
+    final boolean enableRollups =
+        StringUtils.stringToBoolean(config.getString("enableRollups"), DEFAULT_ENABLE_ROLLUPS);
+    LOGGER.info("config: enableRollups={}", enableRollups);
+    final int maxBatchSize = StringUtils.stringToInt(config.getString("maxBatchSize"),
+        InputEW.DEFAULT_MAX_BATCH_SIZE);
+    LOGGER.info("config: maxBatchSize={}", maxBatchSize);
+
+    final InputEW in = getInput();
+    in.setEnableValarmView(enableValarmView);
+    in.setEnableRollups(enableRollups);
+    in.setMaxBatchSize(maxBatchSize);
+  }
+
+  public void setRecentRows(final int rows) {
+    getInput().setRowParameters(rows, 0);
+  }
+
+  public List<AppendResult> append(final List<TraceBuf> tbs, final boolean computeRsam,
+      final int delta, final int duration, final BlobCodec codec) {
+    return getInput().inputTraceBufs(tbs, computeRsam, delta, duration, codec);
+  }
+
+  public void putMetadata(final String code, final Map<String, String> metadata) {
+    getInput().inputMetadata(code, metadata);
+  }
+
+  public List<byte[]> readRaw(final String code, final double t1, final double t2,
+      final int maxrows) throws UtilException {
+    return getData().getTraceBufBytes(code, t1, t2, maxrows);
+  }
+
+  public HelicorderData readHelicorder(final Scnl scnl, final double t1, final double t2,
+      final int maxrows, final double resolution) throws UtilException {
+    return getData().getHelicorderData(scnl, t1, t2, maxrows, resolution);
+  }
+
+  public RSAMData readRsam(final Scnl scnl, final double t1, final double t2, final int maxrows,
+      final DownsamplingType ds, final int dsInt) throws UtilException {
+    return getData().getRSAMData(scnl, t1, t2, maxrows, ds, dsInt);
+  }
+
+  public double[] getTimeSpan(final String code) {
+    return getData().getTimeSpan(code);
+  }
+
+  public List<double[]> findGaps(final String code, final double t1, final double t2) {
+    return getData().findGaps(code, t1, t2);
+  }
+
+  public void purge(final String code, final int days) {
+    getInput().purgeTables(code, days);
+  }
+
+  public void invalidate(final String code, final double t1, final double t2) {
+    // the tables are the only copy
+  }
+}
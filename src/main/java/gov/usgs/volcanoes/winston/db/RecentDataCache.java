@@ -0,0 +1,308 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+/**
+ * A cache of recently read, decompressed TraceBufs. Most WWS traffic is clients polling the last
+ * few minutes of each channel; this lets those requests be answered without a trip to the
+ * database.
+ *
+ * <p>
+ * Each channel holds a contiguous run of rows known to be complete from a start time through the
+ * end of its last row. Rows are added when read from the database and evicted when they fall out of
+ * the time window or when the cache grows past its byte limit, least recently used channel first.
+ *
+ * <p>
+ * TraceBufs may be written late or out of order, so each refresh re-reads an overlap before the
+ * last cached row. A row found there which was not cached shows the channel is being backfilled and
+ * drops the channel, as does its entry reaching the age of the window, so it is read in full again.
+ *
+ * <p>
+ * Cached byte arrays are shared between requests and must not be modified.
+ */
+public class RecentDataCache {
+  private static final RecentDataCache INSTANCE = new RecentDataCache();
+
+  /**
+   * A single TraceBuf.
+   */
+  public static class Row {
+    public final double st;
+    public final double et;
+    public final double sr;
+    public final byte[] buf;
+
+    /**
+     * Constructor.
+     *
+     * @param st start time
+     * @param et end time
+     * @param sr sample rate
+     * @param buf decompressed TraceBuf
+     */
+    public Row(final double st, final double et, final double sr, final byte[] buf) {
+      this.st = st;
+      this.et = et;
+      this.sr = sr;
+      this.buf = buf;
+    }
+  }
+
+  /**
+   * Result of a cache lookup.
+   */
+  public static class Lookup {
+    /** cached rows overlapping the request */
+    public final List<Row> rows;
+
+    /** start time of the last cached row for the channel */
+    public final double lastStart;
+
+    /** time through which the cache is complete */
+    public final double end;
+
+    private Lookup(final List<Row> rows, final double lastStart, final double end) {
+      this.rows = rows;
+      this.lastStart = lastStart;
+      this.end = end;
+    }
+  }
+
+  private static class ChannelCache {
+    final long filled = System.currentTimeMillis();
+    double start;
+    long bytes;
+    final TreeMap<Double, Row> rows = new TreeMap<Double, Row>();
+  }
+
+  private final LinkedHashMap<String, ChannelCache> channels;
+  private double window;
+  private double overlap;
+  private long maxBytes;
+  private long totalBytes;
+  private long hits;
+  private long partialHits;
+  private long misses;
+  private long evictions;
+  private long invalidations;
+
+  private RecentDataCache() {
+    channels = new LinkedHashMap<String, ChannelCache>(16, 0.75f, true);
+  }
+
+  /**
+   * Get the shared cache.
+   *
+   * @return the cache
+   */
+  public static RecentDataCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Set cache limits. Clears the cache.
+   *
+   * @param window length of time, in seconds, to keep data, zero disables the cache
+   * @param overlap length of time, in seconds, re-read before the last cached row on a refresh
+   * @param maxBytes maximum number of bytes to hold, zero disables the cache
+   */
+  public synchronized void configure(final double window, final double overlap,
+      final long maxBytes) {
+    this.window = window;
+    this.overlap = overlap;
+    this.maxBytes = maxBytes;
+    channels.clear();
+    totalBytes = 0;
+  }
+
+  /**
+   * Is the cache enabled?
+   *
+   * @return true if configured with a positive window and size
+   */
+  public synchronized boolean isEnabled() {
+    return window > 0 && maxBytes > 0;
+  }
+
+  /**
+   * Get the length of time re-read before the last cached row when a channel is refreshed.
+   *
+   * @return overlap in seconds
+   */
+  public synchronized double getOverlap() {
+    return overlap;
+  }
+
+  /**
+   * Find cached rows for a request. Rows are selected with the same rules as
+   * {@link Data#getTraceBufBytes(String, double, double, int)}: the row which straddles t1, then
+   * all rows starting between t1 and t2.
+   *
+   * @param code channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return cached rows, or null if the cache does not cover t1
+   */
+  public synchronized Lookup read(final String code, final double t1, final double t2) {
+    ChannelCache cc = channels.get(code);
+    if (cc != null && System.currentTimeMillis() - cc.filled > window * 1000) {
+      remove(code);
+      cc = null;
+    }
+    if (cc != null) {
+      expire(cc);
+    }
+
+    if (cc == null || cc.rows.isEmpty() || t1 < cc.start) {
+      misses++;
+      return null;
+    }
+
+    final List<Row> rows = new ArrayList<Row>();
+    final Entry<Double, Row> first = cc.rows.lowerEntry(t1);
+    if (first != null && first.getValue().et >= t1) {
+      rows.add(first.getValue());
+    }
+    if (t1 <= t2) {
+      rows.addAll(cc.rows.subMap(t1, true, t2, true).values());
+    }
+
+    final Row last = cc.rows.lastEntry().getValue();
+    if (last.et >= t2) {
+      hits++;
+    } else {
+      partialHits++;
+    }
+
+    return new Lookup(rows, last.st, last.et);
+  }
+
+  /**
+   * Store the result of a complete read from the database, replacing anything cached for the
+   * channel.
+   *
+   * @param code channel
+   * @param t1 start of the read
+   * @param rows rows read, in time order
+   */
+  public synchronized void fill(final String code, final double t1, final List<Row> rows) {
+    remove(code);
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    final ChannelCache cc = new ChannelCache();
+    cc.start = t1;
+    channels.put(code, cc);
+    add(cc, rows);
+    expire(cc);
+    if (cc.rows.isEmpty()) {
+      remove(code);
+    }
+    trim();
+  }
+
+  /**
+   * Append rows read from the overlap before the last cached row onward. If any row in the overlap
+   * was not cached the channel has been backfilled since it was read, and is dropped.
+   *
+   * @param code channel
+   * @param lastStart start time of the last cached row when the rows were read
+   * @param rows rows read, in time order
+   * @return false if the cached rows are no longer known to be complete
+   */
+  public synchronized boolean append(final String code, final double lastStart,
+      final List<Row> rows) {
+    final ChannelCache cc = channels.get(code);
+    if (cc == null) {
+      return false;
+    }
+
+    for (final Row row : rows) {
+      if (row.st > lastStart) {
+        break;
+      }
+      if (row.st >= cc.start && !cc.rows.containsKey(row.st)) {
+        remove(code);
+        invalidations++;
+        return false;
+      }
+    }
+
+    add(cc, rows);
+    expire(cc);
+    trim();
+    return true;
+  }
+
+  private void add(final ChannelCache cc, final List<Row> rows) {
+    for (final Row row : rows) {
+      final Row old = cc.rows.put(row.st, row);
+      if (old != null) {
+        cc.bytes -= old.buf.length;
+        totalBytes -= old.buf.length;
+      }
+      cc.bytes += row.buf.length;
+      totalBytes += row.buf.length;
+    }
+  }
+
+  private void expire(final ChannelCache cc) {
+    final double oldest = J2kSec.now() - window;
+    while (!cc.rows.isEmpty() && cc.rows.firstEntry().getValue().et < oldest) {
+      final Row row = cc.rows.pollFirstEntry().getValue();
+      cc.start = Math.max(cc.start, row.et);
+      cc.bytes -= row.buf.length;
+      totalBytes -= row.buf.length;
+      evictions++;
+    }
+  }
+
+  private void trim() {
+    final Iterator<Map.Entry<String, ChannelCache>> it = channels.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      final ChannelCache cc = it.next().getValue();
+      totalBytes -= cc.bytes;
+      evictions += cc.rows.size();
+      it.remove();
+    }
+  }
+
+  private void remove(final String code) {
+    final ChannelCache cc = channels.remove(code);
+    if (cc != null) {
+      totalBytes -= cc.bytes;
+      evictions += cc.rows.size();
+    }
+  }
+
+  /**
+   * Get cache statistics, one per line.
+   *
+   * @return list of status lines
+   */
+  public synchronized List<String> getStatus() {
+    final List<String> lines = new ArrayList<String>();
+    lines.add(String.format("Cache channels: %d", channels.size()));
+    lines.add(String.format("Cache bytes: %d", totalBytes));
+    lines.add(String.format("Cache hits: %d", hits));
+    lines.add(String.format("Cache partial hits: %d", partialHits));
+    lines.add(String.format("Cache misses: %d", misses));
+    lines.add(String.format("Cache evictions: %d", evictions));
+    lines.add(String.format("Cache invalidations: %d", invalidations));
+    return lines;
+  }
+}
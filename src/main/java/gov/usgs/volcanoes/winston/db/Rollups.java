@@ -0,0 +1,315 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+/**
+ * Coarse copies of the one-second helicorder rows. Each channel has one table per tier,
+ * {@code code$$R10}, {@code code$$R60}, and {@code code$$R600}, holding a row per interval with the
+ * sample extremes, the sample count, and the mean RSAM and mean time of the seconds which had RSAM.
+ *
+ * <p>
+ * Tiers are kept current at ingest: after helicorder rows are written the intervals they fall in
+ * are recomputed, the finest tier from the helicorder day tables and each coarser tier from the
+ * tier below it. Every tier divides a day evenly, so no interval spans two day tables.
+ *
+ * <p>
+ * Readers ask for the coarsest tier which still resolves what they draw. A tier is only used if it
+ * reaches back to the start of the request; history ingested before rollups existed is filled by
+ * running Deriver with {@code rollupsOnly=true}.
+ */
+public class Rollups {
+  /** tier lengths, in seconds, finest first */
+  public static final int[] TIERS = {10, 60, 600};
+
+  private static final int ONE_DAY = 60 * 60 * 24;
+
+  private static final Set<String> CREATED =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final WinstonDatabase winston;
+  private final DateFormat dateFormat;
+
+  /**
+   * Constructor.
+   *
+   * @param winston connection used for all queries
+   */
+  public Rollups(final WinstonDatabase winston) {
+    this.winston = winston;
+    dateFormat = new SimpleDateFormat(WinstonDatabase.WINSTON_TABLE_DATE_FORMAT);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+  }
+
+  /**
+   * Name of a rollup table.
+   *
+   * @param code channel code
+   * @param tier tier length
+   * @return table name
+   */
+  public static String rollupTable(final String code, final int tier) {
+    return code + "$$R" + tier;
+  }
+
+  /**
+   * Choose a tier for a helicorder plot.
+   *
+   * @param resolution seconds represented by one pixel
+   * @return the coarsest tier no longer than resolution, or 0 if one-second rows are needed
+   */
+  public static int getHelicorderTier(final double resolution) {
+    int tier = 0;
+    for (final int t : TIERS) {
+      if (t <= resolution) {
+        tier = t;
+      }
+    }
+    return tier;
+  }
+
+  /**
+   * Choose a tier for RSAM averaged over a period.
+   *
+   * @param period averaging period, in seconds
+   * @return the coarsest tier which divides the period evenly, or 0 if one-second rows are needed
+   */
+  public static int getRsamTier(final int period) {
+    int tier = 0;
+    for (final int t : TIERS) {
+      if (t <= period && period % t == 0) {
+        tier = t;
+      }
+    }
+    return tier;
+  }
+
+  private String table(final String code, final String table) {
+    return "`" + winston.databasePrefix + "_" + code + "`.`" + table + "`";
+  }
+
+  private PreparedStatement prepare(final String sql) throws SQLException {
+    final PreparedStatement ps = winston.getPreparedStatement(sql);
+    if (ps == null) {
+      throw new SQLException("Cannot prepare statement: " + sql);
+    }
+    return ps;
+  }
+
+  private void createTables(final String code) throws SQLException {
+    final String key = winston.databasePrefix + "_" + code;
+    if (CREATED.contains(key)) {
+      return;
+    }
+
+    for (final int tier : TIERS) {
+      winston.getStatement().execute("CREATE TABLE IF NOT EXISTS "
+          + table(code, rollupTable(code, tier))
+          + " (j2ksec DOUBLE PRIMARY KEY, smin INT, smax INT, rcnt INT, rsam DOUBLE, "
+          + "rrows INT, rtime DOUBLE) " + winston.tableEngine);
+    }
+    CREATED.add(key);
+  }
+
+  /**
+   * Recompute every interval touching a span of helicorder rows.
+   *
+   * @param code channel code
+   * @param t1 first helicorder row changed
+   * @param t2 last helicorder row changed
+   * @throws SQLException when things go wrong
+   */
+  public void update(final String code, final double t1, final double t2) throws SQLException {
+    createTables(code);
+
+    final int finest = TIERS[0];
+    final double start = Math.floor(t1 / finest) * finest;
+    final double end = Math.floor(t2 / finest) * finest + finest;
+    final String endDate = dateFormat.format(J2kSec.asDate(end - 1));
+    for (double t = start;; t += ONE_DAY) {
+      final String date = dateFormat.format(J2kSec.asDate(t));
+      if (date.compareTo(endDate) > 0) {
+        break;
+      }
+      try {
+        rollupHelicorder(code, date, finest, start, end);
+      } catch (final SQLException e) {
+        if (winston.tableExists(code, WinstonStatements.heliTable(code, date))) {
+          throw e;
+        }
+      }
+    }
+
+    for (int i = 1; i < TIERS.length; i++) {
+      final int tier = TIERS[i];
+      rollupTier(code, TIERS[i - 1], tier, Math.floor(t1 / tier) * tier,
+          Math.floor(t2 / tier) * tier + tier);
+    }
+  }
+
+  private void rollupHelicorder(final String code, final String date, final int tier,
+      final double start, final double end) throws SQLException {
+    final PreparedStatement ps = prepare("INSERT INTO " + table(code, rollupTable(code, tier))
+        + " (j2ksec, smin, smax, rcnt, rsam, rrows, rtime) SELECT FLOOR(j2ksec / " + tier + ") * "
+        + tier + " AS b, MIN(smin), MAX(smax), SUM(rcnt), "
+        + "COALESCE(AVG(IF(rcnt > 0, rsam, NULL)), 0), SUM(rcnt > 0), "
+        + "COALESCE(AVG(IF(rcnt > 0, j2ksec, NULL)), 0) FROM "
+        + table(code, WinstonStatements.heliTable(code, date))
+        + " WHERE j2ksec>=? AND j2ksec<? GROUP BY b" + onDuplicate());
+    ps.setDouble(1, start);
+    ps.setDouble(2, end);
+    ps.executeUpdate();
+  }
+
+  private void rollupTier(final String code, final int source, final int tier,
+      final double start, final double end) throws SQLException {
+    final PreparedStatement ps = prepare("INSERT INTO " + table(code, rollupTable(code, tier))
+        + " (j2ksec, smin, smax, rcnt, rsam, rrows, rtime) SELECT FLOOR(j2ksec / " + tier + ") * "
+        + tier + " AS b, MIN(smin), MAX(smax), SUM(rcnt), "
+        + "COALESCE(SUM(rsam * rrows) / NULLIF(SUM(rrows), 0), 0), SUM(rrows), "
+        + "COALESCE(SUM(rtime * rrows) / NULLIF(SUM(rrows), 0), 0) FROM "
+        + table(code, rollupTable(code, source)) + " WHERE j2ksec>=? AND j2ksec<? GROUP BY b"
+        + onDuplicate());
+    ps.setDouble(1, start);
+    ps.setDouble(2, end);
+    ps.executeUpdate();
+  }
+
+  private static String onDuplicate() {
+    return " ON DUPLICATE KEY UPDATE smin=VALUES(smin), smax=VALUES(smax), rcnt=VALUES(rcnt), "
+        + "rsam=VALUES(rsam), rrows=VALUES(rrows), rtime=VALUES(rtime)";
+  }
+
+  /**
+   * Remove intervals before a time.
+   *
+   * @param code channel code
+   * @param before intervals starting before this are removed
+   * @throws SQLException when things go wrong
+   */
+  public void trim(final String code, final double before) throws SQLException {
+    for (final int tier : TIERS) {
+      if (!winston.tableExists(code, rollupTable(code, tier))) {
+        continue;
+      }
+      final PreparedStatement ps =
+          prepare("DELETE FROM " + table(code, rollupTable(code, tier)) + " WHERE j2ksec<?");
+      ps.setDouble(1, before);
+      ps.executeUpdate();
+    }
+  }
+
+  /**
+   * Does a tier reach back to the start of a request? A tier which does not, because it was
+   * created after the channel, must not be used until it is backfilled.
+   *
+   * @param code channel code
+   * @param tier tier length
+   * @param t1 start of request
+   * @return true if the tier can answer the request
+   * @throws SQLException when things go wrong, including a missing tier
+   */
+  public boolean covers(final String code, final int tier, final double t1) throws SQLException {
+    final double[] span = winston.getStatements().getChannelTimeSpan(code);
+    if (span == null) {
+      return false;
+    }
+
+    final ResultSet rs =
+        prepare("SELECT MIN(j2ksec) FROM " + table(code, rollupTable(code, tier))).executeQuery();
+    try {
+      if (!rs.next()) {
+        return false;
+      }
+      final double first = rs.getDouble(1);
+      return !rs.wasNull() && first <= Math.max(t1, span[0]);
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * Read helicorder rows from a tier.
+   *
+   * @param code channel code
+   * @param tier tier length
+   * @param t1 start of request
+   * @param t2 end of request
+   * @param limit maximum number of rows read, 0 for no limit
+   * @return rows of j2ksec, smin, and smax, one per interval
+   * @throws SQLException when things go wrong
+   */
+  public List<double[]> getHelicorderRows(final String code, final int tier, final double t1,
+      final double t2, final int limit) throws SQLException {
+    final PreparedStatement ps = prepare("SELECT j2ksec, smin, smax FROM "
+        + table(code, rollupTable(code, tier)) + " WHERE j2ksec>=? AND j2ksec<=? ORDER BY j2ksec"
+        + (limit > 0 ? " LIMIT " + limit : ""));
+    ps.setDouble(1, Math.floor(t1 / tier) * tier);
+    ps.setDouble(2, t2);
+
+    final List<double[]> list = new ArrayList<double[]>();
+    final ResultSet rs = ps.executeQuery();
+    try {
+      while (rs.next()) {
+        list.add(new double[] {rs.getDouble(1), rs.getDouble(2), rs.getDouble(3)});
+      }
+    } finally {
+      rs.close();
+    }
+    return list;
+  }
+
+  /**
+   * Read RSAM averaged over a period from a tier. Periods start at multiples of their length; the
+   * first period read is the one containing the tier interval containing t1.
+   *
+   * @param code channel code
+   * @param tier tier length, which must divide period
+   * @param t1 start of request
+   * @param t2 end of request
+   * @param period averaging period, in seconds
+   * @param limit maximum number of rows read, 0 for no limit
+   * @return rows of mean time and mean RSAM, one per period with data
+   * @throws SQLException when things go wrong
+   */
+  public List<double[]> getRsamRows(final String code, final int tier, final double t1,
+      final double t2, final int period, final int limit) throws SQLException {
+    final double start = Math.floor(t1 / tier) * tier;
+    final double periodStart = Math.floor(start / period) * period;
+    final PreparedStatement ps = prepare("SELECT SUM(rtime * rrows) / SUM(rrows), "
+        + "SUM(rsam * rrows) / SUM(rrows), FLOOR((j2ksec - ?) / " + period + ") AS intNum FROM "
+        + table(code, rollupTable(code, tier))
+        + " WHERE j2ksec>=? AND j2ksec<=? AND rrows>0 GROUP BY intNum ORDER BY intNum"
+        + (limit > 0 ? " LIMIT " + limit : ""));
+    ps.setDouble(1, periodStart);
+    ps.setDouble(2, start);
+    ps.setDouble(3, t2);
+
+    final List<double[]> list = new ArrayList<double[]>();
+    final ResultSet rs = ps.executeQuery();
+    try {
+      while (rs.next()) {
+        list.add(new double[] {rs.getDouble(1), rs.getDouble(2)});
+      }
+    } finally {
+      rs.close();
+    }
+    return list;
+  }
+}
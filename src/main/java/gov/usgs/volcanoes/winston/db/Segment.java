@@ -0,0 +1,405 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A day of compressed TraceBufs for one channel, kept in an append-only file.
+ *
+ * <p>
+ * The file starts with a magic number, a version, the offset just past the last record known to be
+ * complete, and a sparse time index of one slot per minute of the day. Each slot holds the offset
+ * of the first record appended whose end time falls in that minute, or zero. Records follow:
+ * start time, end time, sample rate, body length, CRC32 of the body, then the body, a TraceBuf
+ * encoded as it is in a wave table blob. Any record ending at or after a time lies at or after the
+ * least offset in the slots from that time's minute on, so a read skips the records before it and
+ * walks the rest, which is short for recent data even when TraceBufs arrive out of order.
+ *
+ * <p>
+ * Appends take a file lock, so a segment may be written by more than one process; within a process
+ * they are also serialized on the file, since a file lock is held by the whole JVM. Readers map the
+ * file and stop at the first record which is incomplete or fails its CRC, so a tail being written,
+ * or left behind by a crash, is never returned. When the segment is next opened for appending only
+ * the records after the recorded end are checked, and any partial tail is truncated. Version 1
+ * files, which have no recorded end, are checked in full.
+ */
+public class Segment {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Segment.class);
+
+  /** file name suffix */
+  public static final String SUFFIX = ".seg";
+
+  private static final int MAGIC = 0x57534547;
+  private static final int VERSION = 2;
+  private static final int SLOTS = 1440;
+  private static final double SLOT_LENGTH = 86400.0 / SLOTS;
+  private static final int END_OFFSET = 8;
+  private static final int RECORD_HEADER_SIZE = 32;
+  private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+  // mapped segments shared by readers, remapped when the file has changed length
+  private static final int MAX_MAPPED = 256;
+  private static final Map<File, MappedByteBuffer> MAPPED =
+      new LinkedHashMap<File, MappedByteBuffer>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<File, MappedByteBuffer> eldest) {
+          return size() > MAX_MAPPED;
+        }
+      };
+
+  // appends in this process are serialized per file, as a second FileLock on it would throw
+  private static final Object[] FILE_MONITORS = new Object[64];
+
+  static {
+    for (int i = 0; i < FILE_MONITORS.length; i++) {
+      FILE_MONITORS[i] = new Object();
+    }
+  }
+
+  private final File file;
+  private final double dayStart;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final Object monitor;
+  private int version;
+
+  /**
+   * Open a segment for appending, creating it if needed. A partially written tail is truncated.
+   *
+   * @param file segment file
+   * @param dayStart start of the segment's day
+   * @throws IOException if the file cannot be opened or is not a segment
+   */
+  public Segment(final File file, final double dayStart) throws IOException {
+    this.file = file;
+    this.dayStart = dayStart;
+    monitor = FILE_MONITORS[(file.getAbsolutePath().hashCode() & Integer.MAX_VALUE)
+        % FILE_MONITORS.length];
+    raf = new RandomAccessFile(file, "rw");
+    channel = raf.getChannel();
+
+    synchronized (monitor) {
+      final FileLock lock = lock();
+      try {
+        if (channel.size() < headerSize(VERSION)) {
+          final ByteBuffer header = ByteBuffer.allocate(headerSize(VERSION));
+          header.putInt(MAGIC).putInt(VERSION).putLong(headerSize(VERSION)).rewind();
+          channel.truncate(0);
+          writeFully(header, 0);
+          version = VERSION;
+        } else {
+          recover();
+        }
+      } catch (final IOException e) {
+        close();
+        throw e;
+      } finally {
+        if (lock.isValid()) {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  private FileLock lock() throws IOException {
+    try {
+      return channel.lock();
+    } catch (final OverlappingFileLockException e) {
+      throw new IOException("Segment already locked in this process: " + file);
+    }
+  }
+
+  private static int slotBase(final int version) {
+    return version == 1 ? 8 : 16;
+  }
+
+  private static int headerSize(final int version) {
+    return slotBase(version) + SLOTS * 8;
+  }
+
+  private void recover() throws IOException {
+    final long size = channel.size();
+    final ByteBuffer start = ByteBuffer.allocate(16);
+    readFully(start, 0);
+    version = start.getInt(4);
+    if (start.getInt(0) != MAGIC || (version != 1 && version != VERSION)) {
+      throw new IOException("Not a segment: " + file);
+    }
+
+    // only what follows the recorded end needs checking, unless the record is missing or wrong
+    final int headerSize = headerSize(version);
+    long checked = version == 1 ? headerSize : start.getLong(END_OFFSET);
+    if (checked < headerSize || checked > size) {
+      checked = headerSize;
+    }
+    long end = checked;
+    if (checked < size) {
+      final MappedByteBuffer tail =
+          channel.map(FileChannel.MapMode.READ_ONLY, checked, size - checked);
+      end = checked + validEnd(tail, 0);
+    }
+    if (end == size) {
+      setEnd(end);
+      return;
+    }
+
+    LOGGER.warn("Truncating partial tail of {}, {} -> {} bytes", file, size, end);
+    channel.truncate(end);
+    setEnd(end);
+    final ByteBuffer slots = ByteBuffer.allocate(SLOTS * 8);
+    readFully(slots, slotBase(version));
+    for (int i = 0; i < SLOTS; i++) {
+      if (slots.getLong(i * 8) >= end) {
+        final ByteBuffer zero = ByteBuffer.allocate(8);
+        writeFully(zero, slotBase(version) + i * 8);
+      }
+    }
+    synchronized (MAPPED) {
+      MAPPED.remove(file);
+    }
+  }
+
+  private void setEnd(final long end) throws IOException {
+    if (version == 1) {
+      return;
+    }
+    final ByteBuffer buf = ByteBuffer.allocate(8);
+    buf.putLong(0, end);
+    writeFully(buf, END_OFFSET);
+  }
+
+  /**
+   * Offset just past the last complete record following a position.
+   */
+  private static long validEnd(final ByteBuffer map, final int from) {
+    final CRC32 crc = new CRC32();
+    byte[] body = new byte[0];
+    int pos = from;
+    while (pos + RECORD_HEADER_SIZE <= map.limit()) {
+      final int length = map.getInt(pos + 24);
+      if (length <= 0 || length > MAX_RECORD_LENGTH
+          || pos + RECORD_HEADER_SIZE + length > map.limit()) {
+        break;
+      }
+      if (body.length < length) {
+        body = new byte[length];
+      }
+      readBody(map, pos, body, length);
+      crc.reset();
+      crc.update(body, 0, length);
+      if ((int) crc.getValue() != map.getInt(pos + 28)) {
+        break;
+      }
+      pos += RECORD_HEADER_SIZE + length;
+    }
+    return pos;
+  }
+
+  private static void readBody(final ByteBuffer map, final int pos, final byte[] body,
+      final int length) {
+    final ByteBuffer dup = map.duplicate();
+    dup.position(pos + RECORD_HEADER_SIZE);
+    dup.get(body, 0, length);
+  }
+
+  private static int slot(final double dayStart, final double t) {
+    final int slot = (int) Math.floor((t - dayStart) / SLOT_LENGTH);
+    return Math.max(0, Math.min(SLOTS - 1, slot));
+  }
+
+  private void readFully(final ByteBuffer buf, final long position) throws IOException {
+    long pos = position;
+    while (buf.hasRemaining()) {
+      final int read = channel.read(buf, pos);
+      if (read < 0) {
+        throw new IOException("Unexpected end of " + file);
+      }
+      pos += read;
+    }
+  }
+
+  private void writeFully(final ByteBuffer buf, final long position) throws IOException {
+    long pos = position;
+    while (buf.hasRemaining()) {
+      pos += channel.write(buf, pos);
+    }
+  }
+
+  /**
+   * Append a TraceBuf.
+   *
+   * @param st start time
+   * @param et end time
+   * @param sr sample rate
+   * @param compressed TraceBuf, encoded as it is in a wave table blob
+   * @throws IOException when things go wrong
+   */
+  public void append(final double st, final double et, final double sr, final byte[] compressed)
+      throws IOException {
+    if (compressed.length > MAX_RECORD_LENGTH) {
+      throw new IOException("TraceBuf too large for segment: " + compressed.length + " bytes");
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(compressed);
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + compressed.length);
+    record.putDouble(st).putDouble(et).putDouble(sr).putInt(compressed.length)
+        .putInt((int) crc.getValue()).put(compressed).flip();
+
+    synchronized (monitor) {
+      final FileLock lock = lock();
+      try {
+        final long end = channel.size();
+        writeFully(record, end);
+        setEnd(end + record.limit());
+
+        final int slotOffset = slotBase(version) + slot(dayStart, et) * 8;
+        final ByteBuffer slot = ByteBuffer.allocate(8);
+        readFully(slot, slotOffset);
+        if (slot.getLong(0) == 0) {
+          slot.clear();
+          slot.putLong(0, end);
+          writeFully(slot, slotOffset);
+        }
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * Close the file.
+   */
+  public void close() {
+    try {
+      channel.close();
+      raf.close();
+    } catch (final IOException e) {
+      LOGGER.debug("Could not close {}. ({})", file, e.getMessage());
+    }
+  }
+
+  private static MappedByteBuffer map(final File file) throws IOException {
+    final long length = file.length();
+    synchronized (MAPPED) {
+      final MappedByteBuffer mapped = MAPPED.get(file);
+      if (mapped != null && mapped.capacity() == length) {
+        return mapped;
+      }
+    }
+
+    final RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      final MappedByteBuffer mapped =
+          in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+      synchronized (MAPPED) {
+        MAPPED.put(file, mapped);
+      }
+      return mapped;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Forget a mapped segment, before it is deleted.
+   *
+   * @param file segment file
+   */
+  public static void unmap(final File file) {
+    synchronized (MAPPED) {
+      MAPPED.remove(file);
+    }
+  }
+
+  /**
+   * Read the TraceBufs which overlap a span. Only headers are read until a record is found to
+   * overlap; its body is then decompressed straight from the mapped file.
+   *
+   * @param file segment file
+   * @param dayStart start of the segment's day
+   * @param t1 start time
+   * @param t2 end time
+   * @param rows rows are added here, in the order they were appended
+   * @throws IOException if the segment cannot be read
+   */
+  public static void read(final File file, final double dayStart, final double t1,
+      final double t2, final List<RecentDataCache.Row> rows) throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+
+    final MappedByteBuffer map = map(file);
+    final int version = map.limit() < 8 ? 0 : map.getInt(4);
+    if (map.limit() < 8 || map.getInt(0) != MAGIC || (version != 1 && version != VERSION)
+        || map.limit() < headerSize(version)) {
+      throw new IOException("Not a segment: " + file);
+    }
+
+    long first = Long.MAX_VALUE;
+    for (int i = slot(dayStart, t1); i < SLOTS; i++) {
+      final long offset = map.getLong(slotBase(version) + i * 8);
+      if (offset > 0) {
+        first = Math.min(first, offset);
+      }
+    }
+    if (first >= map.limit()) {
+      return;
+    }
+
+    final CRC32 crc = new CRC32();
+    byte[] body = new byte[0];
+    int pos = (int) first;
+    while (pos + RECORD_HEADER_SIZE <= map.limit()) {
+      final int length = map.getInt(pos + 24);
+      if (length <= 0 || length > MAX_RECORD_LENGTH
+          || pos + RECORD_HEADER_SIZE + length > map.limit()) {
+        break;
+      }
+
+      final double st = map.getDouble(pos);
+      final double et = map.getDouble(pos + 8);
+      if (st <= t2 && et >= t1) {
+        if (body.length < length) {
+          body = new byte[length];
+        }
+        readBody(map, pos, body, length);
+        crc.reset();
+        crc.update(body, 0, length);
+        if ((int) crc.getValue() != map.getInt(pos + 28)) {
+          break;
+        }
+        final byte[] compressed = length == body.length ? body : copy(body, length);
+        rows.add(new RecentDataCache.Row(st, et, map.getDouble(pos + 16),
+            BlobCodec.decode(compressed)));
+      }
+      pos += RECORD_HEADER_SIZE + length;
+    }
+  }
+
+  private static byte[] copy(final byte[] buf, final int length) {
+    final byte[] copy = new byte[length];
+    System.arraycopy(buf, 0, copy, 0, length);
+    return copy;
+  }
+}
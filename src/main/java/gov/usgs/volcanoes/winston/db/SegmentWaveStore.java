@@ -0,0 +1,436 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.time.CurrentTime;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.core.time.Time;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.core.util.UtilException;
+
+/**
+ * The MySQL layout with a local copy of wave data in {@link Segment} files, one per channel and
+ * day, under {@code winston.storePath}. Raw reads are served from the segments without a
+ * database round trip; helicorder data, RSAM, time spans and gaps still come from MySQL.
+ *
+ * <p>
+ * TraceBufs are appended to a segment once they are written to the wave table. A channel's
+ * segments only answer reads starting after the first TraceBuf they hold, recorded in the
+ * channel's {@code since} file; earlier reads, and reads which fail, fall back to MySQL. Every
+ * writer of a channel, including ImportWS, should use this store so the segments stay complete.
+ * Tools which write the MySQL tables directly move {@code since} past what they wrote through
+ * {@link #invalidate(String, double, double)}, so those spans are read from MySQL. They must use
+ * the same {@code winston.storePath}.
+ *
+ * <p>
+ * A batch is committed to MySQL before it is appended to the segments. Its span is first recorded
+ * in the channel's {@code pending} file, which is removed once the segments hold the batch; reads
+ * overlapping a pending span go to MySQL. A TraceBuf which cannot be appended invalidates its
+ * span, and a pending file left by a crash invalidates its span when the channel is next written,
+ * so the segments never answer for data they lack.
+ */
+public class SegmentWaveStore extends MySqlWaveStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SegmentWaveStore.class);
+
+  /** name used to select this store in Winston.config */
+  public static final String NAME = "segment";
+
+  /** default directory holding segments */
+  public static final String DEFAULT_PATH = "segments";
+
+  private static final String SINCE_FILE = "since";
+  private static final String PENDING_FILE = "pending";
+  // open segments are kept for every channel appended, two days each around midnight
+  private static final int MIN_OPEN_SEGMENTS = 32;
+  private static final int MAX_OPEN_SEGMENTS = 2048;
+
+  private static final Comparator<RecentDataCache.Row> BY_START =
+      new Comparator<RecentDataCache.Row>() {
+        public int compare(final RecentDataCache.Row a, final RecentDataCache.Row b) {
+          return Double.compare(a.st, b.st);
+        }
+      };
+
+  private final WinstonDatabase winston;
+  private final File root;
+  private final DateFormat dateFormat;
+  private final Map<String, Segment> segments;
+  private final Set<String> appended;
+  private final Map<String, Double> since;
+  private final Map<String, Long> sinceModified;
+
+  /**
+   * Constructor.
+   *
+   * @param winston connection used for everything other than raw reads
+   */
+  public SegmentWaveStore(final WinstonDatabase winston) {
+    super(winston);
+    this.winston = winston;
+    root = new File(StringUtils.stringToString(winston.storePath, DEFAULT_PATH));
+    dateFormat = new SimpleDateFormat(WinstonDatabase.WINSTON_TABLE_DATE_FORMAT);
+    dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    since = new HashMap<String, Double>();
+    sinceModified = new HashMap<String, Long>();
+    appended = new HashSet<String>();
+    segments = new LinkedHashMap<String, Segment>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Segment> eldest) {
+        final int limit =
+            Math.min(MAX_OPEN_SEGMENTS, Math.max(MIN_OPEN_SEGMENTS, 2 * appended.size()));
+        if (size() > limit) {
+          eldest.getValue().close();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  private File channelDir(final String code) {
+    return new File(root, winston.databasePrefix + "_" + code);
+  }
+
+  private File segmentFile(final String code, final String date) {
+    return new File(channelDir(code), WinstonStatements.waveTable(code, date) + Segment.SUFFIX);
+  }
+
+  private double dayStart(final String date) throws IOException {
+    try {
+      return J2kSec.fromDate(dateFormat.parse(date));
+    } catch (final ParseException e) {
+      throw new IOException("Bad segment date: " + date);
+    }
+  }
+
+  @Override
+  public List<AppendResult> append(final List<TraceBuf> tbs, final boolean computeRsam,
+      final int delta, final int duration, final BlobCodec codec) {
+    if (tbs == null || tbs.isEmpty() || tbs.get(0) == null) {
+      return super.append(tbs, computeRsam, delta, duration, codec);
+    }
+
+    // a batch is all one channel
+    final String channel = tbs.get(0).toWinstonString();
+    double t1 = Double.MAX_VALUE;
+    double t2 = -Double.MAX_VALUE;
+    for (final TraceBuf tb : tbs) {
+      if (tb != null) {
+        t1 = Math.min(t1, tb.getStartTimeJ2K());
+        t2 = Math.max(t2, tb.getEndTimeJ2K());
+      }
+    }
+    boolean pending = false;
+    try {
+      writePending(channel, t1, t2);
+      pending = true;
+    } catch (final IOException e) {
+      LOGGER.error("Could not write pending span for {}. ({})", channel, e.getMessage());
+    }
+
+    final List<AppendResult> results =
+        super.append(tbs, computeRsam, delta, duration, codec);
+    if (results == null) {
+      clearPending(channel);
+      return null;
+    }
+    if (!pending) {
+      invalidate(channel, t1, t2);
+      return results;
+    }
+
+    for (final AppendResult result : results) {
+      if (result.code != AppendResult.Code.SUCCESS
+          && result.code != AppendResult.Code.SUCCESS_NEW_DAY) {
+        continue;
+      }
+
+      final TraceBuf tb = result.traceBuf;
+      final String code = tb.toWinstonString();
+      try {
+        appendSegment(code, tb, codec);
+      } catch (final IOException e) {
+        LOGGER.error("Could not append to segment for {}. ({})", code, e.getMessage());
+        invalidate(code, tb.getStartTimeJ2K(), tb.getEndTimeJ2K());
+      }
+    }
+    clearPending(channel);
+    return results;
+  }
+
+  private void appendSegment(final String code, final TraceBuf tb, final BlobCodec codec)
+      throws IOException {
+    final double st = tb.getStartTimeJ2K();
+    final String date = dateFormat.format(J2kSec.asDate(st));
+    final String key = code + "$$" + date;
+
+    appended.add(code);
+    Segment segment = segments.get(key);
+    if (segment == null) {
+      final File dir = channelDir(code);
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Cannot create " + dir);
+      }
+      if (getSince(code) == null) {
+        writeSince(code, st);
+      }
+      segment = new Segment(segmentFile(code, date), dayStart(date));
+      segments.put(key, segment);
+    }
+
+    segment.append(st, tb.getEndTimeJ2K(), tb.samplingRate(),
+        codec.encode(tb.bytes, 0, tb.bytes.length - 1));
+  }
+
+  /**
+   * Record the span of a batch about to be written. A span left pending by a crash, found the first
+   * time this process writes the channel, is invalidated first.
+   */
+  private void writePending(final String code, final double t1, final double t2)
+      throws IOException {
+    final File dir = channelDir(code);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    if (!appended.contains(code)) {
+      final double[] left = getPending(code);
+      if (left != null) {
+        LOGGER.warn("Invalidating segments for {} left pending at {}", code,
+            J2kSec.toDateString(left[0]));
+        invalidate(code, left[0], Math.min(left[1], J2kSec.now()));
+      }
+    }
+    writeFile(new File(dir, PENDING_FILE), t1 + " " + t2, false);
+  }
+
+  private double[] getPending(final String code) {
+    final File file = new File(channelDir(code), PENDING_FILE);
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      final String[] ss = readFile(file).split(" ");
+      return new double[] {Double.parseDouble(ss[0]), Double.parseDouble(ss[1])};
+    } catch (final IOException e) {
+      if (!file.exists()) {
+        // cleared as it was read
+        return null;
+      }
+      LOGGER.warn("Could not read {}. ({})", file, e.getMessage());
+    } catch (final RuntimeException e) {
+      LOGGER.warn("Could not read {}. ({})", file, e.getMessage());
+    }
+    // unreadable, so pending over all time
+    return new double[] {-Double.MAX_VALUE, Double.MAX_VALUE};
+  }
+
+  private void clearPending(final String code) {
+    final File file = new File(channelDir(code), PENDING_FILE);
+    if (file.exists() && !file.delete()) {
+      LOGGER.error("Could not delete {}", file);
+    }
+  }
+
+  private static String readFile(final File file) throws IOException {
+    final FileInputStream in = new FileInputStream(file);
+    try {
+      final byte[] buf = new byte[(int) file.length()];
+      int read = 0;
+      while (read < buf.length) {
+        final int n = in.read(buf, read, buf.length - read);
+        if (n < 0) {
+          break;
+        }
+        read += n;
+      }
+      return new String(buf, 0, read, "US-ASCII").trim();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeFile(final File file, final String contents, final boolean sync)
+      throws IOException {
+    final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+    final FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      out.write(contents.getBytes("US-ASCII"));
+      if (sync) {
+        out.getFD().sync();
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new IOException("Cannot write " + file);
+    }
+  }
+
+  private Double getSince(final String code) {
+    // another process may have moved since, so the file is checked on each read
+    final File file = new File(channelDir(code), SINCE_FILE);
+    final long modified = file.lastModified();
+    if (modified == 0) {
+      since.remove(code);
+      sinceModified.remove(code);
+      return null;
+    }
+
+    Double t = since.get(code);
+    final Long cachedModified = sinceModified.get(code);
+    if (t != null && cachedModified != null && cachedModified == modified) {
+      return t;
+    }
+    try {
+      t = Double.parseDouble(readFile(file));
+    } catch (final IOException e) {
+      LOGGER.warn("Could not read {}. ({})", file, e.getMessage());
+      return null;
+    } catch (final NumberFormatException e) {
+      LOGGER.warn("Could not read {}. ({})", file, e.getMessage());
+      return null;
+    }
+    since.put(code, t);
+    sinceModified.put(code, modified);
+    return t;
+  }
+
+  private void writeSince(final String code, final double t) throws IOException {
+    final File file = new File(channelDir(code), SINCE_FILE);
+    writeFile(file, Double.toString(t), true);
+    since.put(code, t);
+    sinceModified.put(code, file.lastModified());
+  }
+
+  /**
+   * Stop serving a span from the segments, which do not hold what was written there, by moving the
+   * channel's since time past it.
+   */
+  @Override
+  public void invalidate(final String code, final double t1, final double t2) {
+    final Double first = getSince(code);
+    if (first == null || t2 < first) {
+      return;
+    }
+
+    try {
+      writeSince(code, t2);
+    } catch (final IOException e) {
+      LOGGER.error("Could not invalidate segments for {}. ({})", code, e.getMessage());
+    }
+  }
+
+  @Override
+  public List<byte[]> readRaw(final String code, final double t1, final double t2,
+      final int maxrows) throws UtilException {
+    final double st = Math.max(t1, J2kSec.now() - winston.maxDays * Time.DAY_IN_S);
+    final Double first = getSince(code);
+    if (first == null || st < first || st >= t2) {
+      return super.readRaw(code, t1, t2, maxrows);
+    }
+    final double[] pending = getPending(code);
+    if (pending != null && pending[0] <= t2 && pending[1] >= st) {
+      return super.readRaw(code, t1, t2, maxrows);
+    }
+
+    final List<RecentDataCache.Row> rows = new ArrayList<RecentDataCache.Row>();
+    try {
+      // the day before holds any TraceBuf straddling midnight
+      final long day = (long) Math.floor(dayStart(dateFormat.format(J2kSec.asDate(st))));
+      for (double t = day - Time.DAY_IN_S; t <= t2; t += Time.DAY_IN_S) {
+        final String date = dateFormat.format(J2kSec.asDate(t));
+        Segment.read(segmentFile(code, date), dayStart(date), st, t2, rows);
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("Could not read segments for {}, reading database. ({})", code, e.getMessage());
+      return super.readRaw(code, t1, t2, maxrows);
+    }
+
+    if (rows.isEmpty()) {
+      return null;
+    }
+
+    Collections.sort(rows, BY_START);
+    int numSamples = 0;
+    double last = Double.NaN;
+    final List<byte[]> bufs = new ArrayList<byte[]>(rows.size());
+    for (final RecentDataCache.Row row : rows) {
+      if (row.st == last) {
+        continue;
+      }
+      last = row.st;
+      numSamples += (int) (row.sr * (row.et - row.st));
+      if (maxrows > 0 && numSamples > maxrows) {
+        throw new UtilException("Max rows (" + maxrows + " rows) exceeded.");
+      }
+      bufs.add(row.buf);
+    }
+    return bufs;
+  }
+
+  @Override
+  public void purge(final String code, final int days) {
+    super.purge(code, days);
+    if (days <= 0) {
+      return;
+    }
+
+    final File[] files = channelDir(code).listFiles();
+    if (files == null) {
+      return;
+    }
+
+    final Date then = new Date(CurrentTime.getInstance().now() - days * 86400000L);
+    final String thenString = dateFormat.format(then);
+    final String prefix = code + "$$";
+    for (final File file : files) {
+      final String name = file.getName();
+      if (!name.startsWith(prefix) || !name.endsWith(Segment.SUFFIX)) {
+        continue;
+      }
+
+      final String date =
+          name.substring(prefix.length(), name.length() - Segment.SUFFIX.length());
+      if (thenString.compareTo(date) > 0) {
+        final Segment segment = segments.remove(code + "$$" + date);
+        if (segment != null) {
+          segment.close();
+        }
+        Segment.unmap(file);
+        if (file.delete()) {
+          LOGGER.info("Deleted segment: {}", file);
+        } else {
+          LOGGER.error("Could not delete segment: {}", file);
+        }
+      }
+    }
+  }
+}
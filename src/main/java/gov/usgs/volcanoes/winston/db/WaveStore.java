@@ -0,0 +1,150 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.util.List;
+import java.util.Map;
+
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
+import gov.usgs.volcanoes.core.data.Scnl;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.math.DownsamplingType;
+import gov.usgs.volcanoes.core.util.UtilException;
+
+/**
+ * Where wave data are kept. The servers and importers reach stored data through this interface,
+ * so a backend other than the MySQL day table layout can be benchmarked or run by naming it in
+ * Winston.config.
+ *
+ * <p>
+ * A store is bound to a single {@link WinstonDatabase} connection, which also holds the channel
+ * list, and is used by one thread at a time. Channels are named by their Winston code, e.g.
+ * {@code STA$CHA$NET$LOC}. Times are J2K seconds.
+ *
+ * <p>
+ * ImportEW, ImportWS and ReplicateWS write, and WWS reads, only through this interface. The
+ * maintenance tools, Admin, Merge, Export, Upgrade, and the older {@link Input} used by the wave
+ * server collector, still work on the MySQL tables directly, so every store keeps those tables
+ * as the record of what is stored. A tool which writes them tells the store through
+ * {@link #invalidate(String, double, double)} so it stops serving any copy of its own.
+ */
+public interface WaveStore {
+
+  /**
+   * Read options for writing. Keys are named without a prefix; callers pass the part of their
+   * configuration which holds them. Backends ignore keys which do not apply to them.
+   *
+   * @param config options
+   */
+  void configure(ConfigFile config);
+
+  /**
+   * Set the number of recent helicorder rows held in memory for each channel while appending.
+   * Backends which do not hold rows ignore this.
+   *
+   * @param rows rows held
+   */
+  void setRecentRows(int rows);
+
+  /**
+   * Append TraceBufs for a single channel, updating helicorder data and the channel time span.
+   *
+   * @param tbs TraceBufs, all from the same channel
+   * @param computeRsam if true, compute RSAM
+   * @param delta RSAM delta
+   * @param duration RSAM duration
+   * @param codec codec used to encode TraceBufs, where the backend encodes them
+   * @return one result per TraceBuf, then the helicorder and time span results
+   */
+  List<AppendResult> append(List<TraceBuf> tbs, boolean computeRsam, int delta,
+      int duration, BlobCodec codec);
+
+  /**
+   * Store channel metadata.
+   *
+   * @param code channel
+   * @param metadata metadata name and value pairs
+   */
+  void putMetadata(String code, Map<String, String> metadata);
+
+  /**
+   * Read the TraceBufs which overlap a span.
+   *
+   * @param code channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param maxrows cap on size of result, 0 for no cap
+   * @return decompressed TraceBufs, in time order, or null if none
+   * @throws UtilException if maxrows is exceeded
+   */
+  List<byte[]> readRaw(String code, double t1, double t2, int maxrows) throws UtilException;
+
+  /**
+   * Read helicorder rows.
+   *
+   * @param scnl channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param maxrows cap on size of result, 0 for no cap
+   * @param resolution seconds drawn in a single pixel, 0 for one-second rows
+   * @return helicorder data or null if none
+   * @throws UtilException if maxrows is exceeded
+   */
+  HelicorderData readHelicorder(Scnl scnl, double t1, double t2, int maxrows, double resolution)
+      throws UtilException;
+
+  /**
+   * Read RSAM.
+   *
+   * @param scnl channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param maxrows cap on size of result, 0 for no cap
+   * @param ds downsampling type
+   * @param dsInt downsampling interval
+   * @return RSAM data or null if none
+   * @throws UtilException if maxrows is exceeded or the downsampling is invalid
+   */
+  RSAMData readRsam(Scnl scnl, double t1, double t2, int maxrows, DownsamplingType ds, int dsInt)
+      throws UtilException;
+
+  /**
+   * Get the span of stored data.
+   *
+   * @param code channel
+   * @return start and end times, or null if unknown
+   */
+  double[] getTimeSpan(String code);
+
+  /**
+   * Find gaps in stored data.
+   *
+   * @param code channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return gaps, each a start and end time, or null on error
+   */
+  List<double[]> findGaps(String code, double t1, double t2);
+
+  /**
+   * Remove data older than a number of days.
+   *
+   * @param code channel
+   * @param days days to keep
+   */
+  void purge(String code, int days);
+
+  /**
+   * Note that data in a span were written to the MySQL tables by something other than this store.
+   *
+   * @param code channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  void invalidate(String code, double t1, double t2);
+}
@@ -7,6 +7,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,12 @@ public class WinstonDatabase {
   private static final String DEFAULT_CONFIG_FILENAME = "Winston.config";
   private static final int DEFAULT_CACHE_CAPACITY = 100;
 
+  /** prepared statement cache hits, summed over all connections */
+  private static final AtomicLong TOTAL_STATEMENT_HITS = new AtomicLong();
+
+  /** prepared statement cache misses, summed over all connections */
+  private static final AtomicLong TOTAL_STATEMENT_MISSES = new AtomicLong();
+
   /** Connection to the Winston */
   private Connection winstonConnection;
 
@@ -50,8 +57,14 @@ public class WinstonDatabase {
   public final String databasePrefix;
   public final String tableEngine;
   public final long maxDays;
+  public final String store;
+  public final String storePath;
 
   private final PreparedStatementCache preparedStatements;
+  private final WinstonStatements statements;
+  private final WaveStore waveStore;
+  private long statementHits;
+  private long statementMisses;
 
   public WinstonDatabase(final String dbDriver, final String dbURL, final String databasePrefix) {
     this(dbDriver, dbURL, databasePrefix, DEFAULT_CACHE_CAPACITY);
@@ -64,11 +77,25 @@ public class WinstonDatabase {
 
   public WinstonDatabase(final String dbDriver, final String dbURL, final String databasePrefix,
       final String tableEngine, final int cacheCap) {
-    this(dbDriver, dbURL, databasePrefix, null, cacheCap, MAX_DAYS_UNLIMITED);
+    this(dbDriver, dbURL, databasePrefix, tableEngine, cacheCap, MAX_DAYS_UNLIMITED);
   }
 
   public WinstonDatabase(final String dbDriver, final String dbURL, final String databasePrefix,
       final String tableEngine, final int cacheCap, final long maxDays) {
+    this(dbDriver, dbURL, databasePrefix, tableEngine, cacheCap, maxDays, null, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param store wave store, either {@value MySqlWaveStore#NAME}, {@value SegmentWaveStore#NAME}
+   *        or the name of a class implementing {@link WaveStore} with a constructor taking a
+   *        WinstonDatabase; null for {@value MySqlWaveStore#NAME}
+   * @param storePath directory used by stores which keep files, null for the store's default
+   */
+  public WinstonDatabase(final String dbDriver, final String dbURL, final String databasePrefix,
+      final String tableEngine, final int cacheCap, final long maxDays, final String store,
+      final String storePath) {
 
     // Set default Locale to US. This ensures that decimals play well with the SQL standard. ie. no
     // decimal comma
@@ -80,8 +107,12 @@ public class WinstonDatabase {
     this.databasePrefix = StringUtils.stringToString(databasePrefix, DEFAULT_DATABASE_PREFIX);
     this.tableEngine = (tableEngine == null) ? "" : (" ENGINE = " + tableEngine);
     this.maxDays = maxDays;
+    this.store = StringUtils.stringToString(store, MySqlWaveStore.NAME);
+    this.storePath = storePath;
 
     preparedStatements = new PreparedStatementCache(this.cacheCap, true);
+    statements = new WinstonStatements(this);
+    waveStore = createWaveStore(this.store);
     connect();
   }
 
@@ -310,10 +341,48 @@ public class WinstonDatabase {
     return false;
   }
 
+  /**
+   * Get the typed query layer for this connection.
+   *
+   * @return prepared statements for common queries
+   */
+  public WinstonStatements getStatements() {
+    return statements;
+  }
+
+  /**
+   * Get the wave store for this connection.
+   *
+   * @return the store named by winston.store
+   */
+  public WaveStore getWaveStore() {
+    return waveStore;
+  }
+
+  private WaveStore createWaveStore(final String name) {
+    if (name.equals(MySqlWaveStore.NAME)) {
+      return new MySqlWaveStore(this);
+    } else if (name.equals(SegmentWaveStore.NAME)) {
+      return new SegmentWaveStore(this);
+    }
+
+    try {
+      return (WaveStore) Class.forName(name).getConstructor(WinstonDatabase.class)
+          .newInstance(this);
+    } catch (final Exception e) {
+      throw new RuntimeException("Could not create wave store " + name + ". (" + e + ")");
+    }
+  }
+
   public PreparedStatement getPreparedStatement(final String sql) {
     try {
       PreparedStatement ps = (PreparedStatement) preparedStatements.get(sql);
-      if (ps == null) {
+      if (ps != null) {
+        statementHits++;
+        TOTAL_STATEMENT_HITS.incrementAndGet();
+      } else {
+        statementMisses++;
+        TOTAL_STATEMENT_MISSES.incrementAndGet();
         ps = winstonConnection.prepareStatement(sql);
         preparedStatements.put(sql, ps);
         LOGGER.debug("Adding statement to cache({}/{}): {}", preparedStatements.size(),
@@ -326,6 +395,37 @@ public class WinstonDatabase {
     return null;
   }
 
+  /**
+   * Number of times a prepared statement was found in this connection's cache.
+   *
+   * @return cache hits
+   */
+  public long getStatementHits() {
+    return statementHits;
+  }
+
+  /**
+   * Number of times a statement had to be prepared for this connection.
+   *
+   * @return cache misses
+   */
+  public long getStatementMisses() {
+    return statementMisses;
+  }
+
+  /**
+   * Summarize prepared statement cache use by all connections.
+   *
+   * @return a one line summary
+   */
+  public static String getStatementCacheStatus() {
+    final long hits = TOTAL_STATEMENT_HITS.get();
+    final long misses = TOTAL_STATEMENT_MISSES.get();
+    final long total = hits + misses;
+    return String.format("Prepared statements: %d hits, %d misses, %.1f%% hit rate", hits, misses,
+        total == 0 ? 0 : 100.0 * hits / total);
+  }
+
   public static WinstonDatabase processWinstonConfigFile() {
     return processWinstonConfigFile(new ConfigFile(DEFAULT_CONFIG_FILENAME));
   }
@@ -337,7 +437,10 @@ public class WinstonDatabase {
     final String tableEngine = cf.getString("winston.tableEngine");
     final int cacheCap =
         StringUtils.stringToInt(cf.getString("winston.statementCacheCap"), DEFAULT_CACHE_CAPACITY);
+    final String store = cf.getString("winston.store");
+    final String storePath = cf.getString("winston.storePath");
 
-    return new WinstonDatabase(dbDriver, dbURL, databasePrefix, tableEngine, cacheCap);
+    return new WinstonDatabase(dbDriver, dbURL, databasePrefix, tableEngine, cacheCap,
+        MAX_DAYS_UNLIMITED, store, storePath);
   }
 }
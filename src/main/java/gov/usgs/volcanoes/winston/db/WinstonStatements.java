@@ -0,0 +1,304 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Typed access to the queries run most often against a Winston database. Each query is a prepared
+ * statement held in the connection's statement cache, so MySQL parses it once rather than on
+ * every call and statements do not share the connection's single Statement.
+ *
+ * <p>
+ * Table names are fully qualified with their database, so statements do not depend on the
+ * database last selected with {@link WinstonDatabase#useDatabase(String)}. Statements against day
+ * tables are cached once per table.
+ *
+ * <p>
+ * Methods returning a ResultSet leave it to the caller to close. A missing day table is reported
+ * as an SQLException, as it was before.
+ */
+public class WinstonStatements {
+  private static final String TRACEBUF_COLUMNS = "st, et, sr, datatype, tracebuf";
+
+  private final WinstonDatabase winston;
+
+  /**
+   * Constructor.
+   *
+   * @param winston connection the statements are prepared on
+   */
+  WinstonStatements(final WinstonDatabase winston) {
+    this.winston = winston;
+  }
+
+  /**
+   * Name of a wave day table.
+   *
+   * @param code channel code
+   * @param date day, formatted as {@link WinstonDatabase#WINSTON_TABLE_DATE_FORMAT}
+   * @return table name
+   */
+  public static String waveTable(final String code, final String date) {
+    return code + "$$" + date;
+  }
+
+  /**
+   * Name of a helicorder day table.
+   *
+   * @param code channel code
+   * @param date day, formatted as {@link WinstonDatabase#WINSTON_TABLE_DATE_FORMAT}
+   * @return table name
+   */
+  public static String heliTable(final String code, final String date) {
+    return code + "$$H" + date;
+  }
+
+  private String rootTable(final String table) {
+    return "`" + winston.databasePrefix + "_ROOT`.`" + table + "`";
+  }
+
+  private String channelTable(final String code, final String table) {
+    return "`" + winston.databasePrefix + "_" + code + "`.`" + table + "`";
+  }
+
+  private PreparedStatement prepare(final String sql) throws SQLException {
+    final PreparedStatement ps = winston.getPreparedStatement(sql);
+    if (ps == null) {
+      throw new SQLException("Cannot prepare statement: " + sql);
+    }
+    return ps;
+  }
+
+  /**
+   * Get the start and end time of a channel.
+   *
+   * @param code channel code
+   * @return st and et, or null if the channel does not exist
+   * @throws SQLException when things go wrong
+   */
+  public double[] getChannelTimeSpan(final String code) throws SQLException {
+    final PreparedStatement ps =
+        prepare("SELECT st, et FROM " + rootTable("channels") + " WHERE code=?");
+    ps.setString(1, code);
+    final ResultSet rs = ps.executeQuery();
+    try {
+      return rs.next() ? new double[] {rs.getDouble(1), rs.getDouble(2)} : null;
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * Get the id of a channel.
+   *
+   * @param code channel code
+   * @return sid, or -1 if the channel does not exist
+   * @throws SQLException when things go wrong
+   */
+  public int getChannelId(final String code) throws SQLException {
+    final PreparedStatement ps =
+        prepare("SELECT sid FROM " + rootTable("channels") + " WHERE code=?");
+    ps.setString(1, code);
+    final ResultSet rs = ps.executeQuery();
+    try {
+      return rs.next() ? rs.getInt(1) : -1;
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * Get the code of a channel.
+   *
+   * @param sid channel id
+   * @return code, or null if the channel does not exist
+   * @throws SQLException when things go wrong
+   */
+  public String getChannelCode(final int sid) throws SQLException {
+    final PreparedStatement ps =
+        prepare("SELECT code FROM " + rootTable("channels") + " WHERE sid=?");
+    ps.setInt(1, sid);
+    final ResultSet rs = ps.executeQuery();
+    try {
+      return rs.next() ? rs.getString(1) : null;
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * Set the start time of a channel.
+   *
+   * @param code channel code
+   * @param st new start time
+   * @throws SQLException when things go wrong
+   */
+  public void setChannelStart(final String code, final double st) throws SQLException {
+    final PreparedStatement ps =
+        prepare("UPDATE " + rootTable("channels") + " SET st=? WHERE code=?");
+    ps.setDouble(1, st);
+    ps.setString(2, code);
+    ps.executeUpdate();
+  }
+
+  /**
+   * Set the end time of a channel.
+   *
+   * @param code channel code
+   * @param et new end time
+   * @throws SQLException when things go wrong
+   */
+  public void setChannelEnd(final String code, final double et) throws SQLException {
+    final PreparedStatement ps =
+        prepare("UPDATE " + rootTable("channels") + " SET et=? WHERE code=?");
+    ps.setDouble(1, et);
+    ps.setString(2, code);
+    ps.executeUpdate();
+  }
+
+  /**
+   * Widen the time span of a channel to include a span, leaving it alone where it already does.
+   *
+   * @param code channel code
+   * @param st start of span
+   * @param et end of span
+   * @throws SQLException when things go wrong
+   */
+  public void extendChannelTimeSpan(final String code, final double st, final double et)
+      throws SQLException {
+    final PreparedStatement ps = prepare("UPDATE " + rootTable("channels")
+        + " SET st=LEAST(st, ?), et=GREATEST(et, ?) WHERE code=?");
+    ps.setDouble(1, st);
+    ps.setDouble(2, et);
+    ps.setString(3, code);
+    ps.executeUpdate();
+  }
+
+  /**
+   * Select TraceBufs from several day tables in a single query. For each of the straddle days the
+   * last TraceBuf starting before t1 is selected; for each of the other days, every TraceBuf
+   * starting between t1 and t2. Rows from all tables are returned in a single ordered result.
+   *
+   * @param code channel code
+   * @param straddleDays days searched for the TraceBuf before t1, may be empty
+   * @param days days searched for TraceBufs between t1 and t2, may be empty
+   * @param t1 earliest start
+   * @param t2 latest start, inclusive
+   * @param afterT1 if true, TraceBufs must start after t1 rather than at or after it
+   * @return st, et, sr, datatype, and tracebuf ordered by st
+   * @throws SQLException when things go wrong, including a missing table
+   */
+  public ResultSet scanTraceBufs(final String code, final List<String> straddleDays,
+      final List<String> days, final double t1, final double t2, final boolean afterT1)
+      throws SQLException {
+    if (straddleDays.isEmpty() && days.isEmpty()) {
+      throw new IllegalArgumentException("No day tables to scan");
+    }
+
+    final StringBuilder sql = new StringBuilder();
+    for (final String date : straddleDays) {
+      sql.append(sql.length() == 0 ? "(" : " UNION ALL (");
+      sql.append("SELECT ").append(TRACEBUF_COLUMNS).append(" FROM ")
+          .append(channelTable(code, waveTable(code, date)))
+          .append(" WHERE st<? ORDER BY st DESC LIMIT 1)");
+    }
+    for (final String date : days) {
+      sql.append(sql.length() == 0 ? "(" : " UNION ALL (");
+      sql.append("SELECT ").append(TRACEBUF_COLUMNS).append(" FROM ")
+          .append(channelTable(code, waveTable(code, date))).append(" WHERE st")
+          .append(afterT1 ? ">" : ">=").append("? AND st<=?)");
+    }
+    sql.append(" ORDER BY st ASC");
+
+    final PreparedStatement ps = prepare(sql.toString());
+    int i = 1;
+    for (int j = 0; j < straddleDays.size(); j++) {
+      ps.setDouble(i++, t1);
+    }
+    for (int j = 0; j < days.size(); j++) {
+      ps.setDouble(i++, t1);
+      ps.setDouble(i++, t2);
+    }
+    return ps.executeQuery();
+  }
+
+  /**
+   * Select the start and end of every TraceBuf in a wave table.
+   *
+   * @param code channel code
+   * @param table wave table
+   * @return st and et ordered by st
+   * @throws SQLException when things go wrong, including a missing table
+   */
+  public ResultSet getTraceBufTimes(final String code, final String table) throws SQLException {
+    return prepare("SELECT st, et FROM " + channelTable(code, table) + " ORDER BY st ASC")
+        .executeQuery();
+  }
+
+  /**
+   * Get the statement which inserts a TraceBuf into a day table. Parameters are st, et, sr,
+   * datatype, and compressed tracebuf.
+   *
+   * @param code channel code
+   * @param table wave table
+   * @return insert statement
+   * @throws SQLException when things go wrong
+   */
+  public PreparedStatement getTraceBufInsert(final String code, final String table)
+      throws SQLException {
+    return prepare("INSERT INTO " + channelTable(code, table) + " VALUES (?,?,?,?,?)");
+  }
+
+  /**
+   * Select the helicorder rows in a day table between two times, inclusive.
+   *
+   * @param code channel code
+   * @param date day
+   * @param t1 earliest row
+   * @param t2 latest row
+   * @return j2ksec, smin, smax, rcnt, and rsam ordered by j2ksec
+   * @throws SQLException when things go wrong, including a missing table
+   */
+  public ResultSet getHelicorderRows(final String code, final String date, final double t1,
+      final double t2) throws SQLException {
+    final PreparedStatement ps = prepare("SELECT j2ksec, smin, smax, rcnt, rsam FROM "
+        + channelTable(code, heliTable(code, date))
+        + " WHERE j2ksec>=? AND j2ksec<=? ORDER BY j2ksec ASC");
+    ps.setDouble(1, t1);
+    ps.setDouble(2, t2);
+    return ps.executeQuery();
+  }
+
+  /**
+   * Get a single helicorder row.
+   *
+   * @param code channel code
+   * @param table helicorder table
+   * @param j2ksec time of the row
+   * @return j2ksec, smin, smax, rcnt, and rsam, or null if there is no row
+   * @throws SQLException when things go wrong, including a missing table
+   */
+  public double[] getHelicorderRow(final String code, final String table, final double j2ksec)
+      throws SQLException {
+    final PreparedStatement ps = prepare("SELECT j2ksec, smin, smax, rcnt, rsam FROM "
+        + channelTable(code, table) + " WHERE j2ksec=?");
+    ps.setDouble(1, j2ksec);
+    final ResultSet rs = ps.executeQuery();
+    try {
+      if (!rs.next()) {
+        return null;
+      }
+      return new double[] {rs.getDouble(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
+          rs.getDouble(5)};
+    } finally {
+      rs.close();
+    }
+  }
+}
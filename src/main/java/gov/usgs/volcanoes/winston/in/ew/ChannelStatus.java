@@ -7,7 +7,7 @@ import java.util.TimeZone;
 import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
-import gov.usgs.volcanoes.winston.db.InputEW;
+import gov.usgs.volcanoes.winston.db.AppendResult;
 
 /**
  *
@@ -53,9 +53,9 @@ public class ChannelStatus {
     channel = c;
   }
 
-  public void process(final TraceBuf tb, final InputEW.InputResult.Code code) {
-    if (code == InputEW.InputResult.Code.SUCCESS
-        || code == InputEW.InputResult.Code.SUCCESS_CREATED_TABLE) {
+  public void process(final TraceBuf tb, final AppendResult.Code code) {
+    if (code == AppendResult.Code.SUCCESS
+        || code == AppendResult.Code.SUCCESS_NEW_DAY) {
       successes++;
       lastTime = J2kSec.now();
     } else
@@ -0,0 +1,83 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.in.ew;
+
+/**
+ * A distribution of non-negative values, counted in buckets whose bounds double, so memory and
+ * the cost of adding a value stay fixed however many values are seen. Percentiles are reported as
+ * the upper bound of the bucket holding them, capped at the largest value seen.
+ */
+public class Histogram {
+  private static final int BUCKETS = 40;
+
+  private final long[] counts;
+  private long count;
+  private double sum;
+  private double max;
+
+  public Histogram() {
+    counts = new long[BUCKETS];
+  }
+
+  /**
+   * Count a value.
+   *
+   * @param value value, values below one count as one
+   */
+  public synchronized void add(final double value) {
+    int bucket = 0;
+    double bound = 1;
+    while (bound < value && bucket < BUCKETS - 1) {
+      bound *= 2;
+      bucket++;
+    }
+    counts[bucket]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized double getMean() {
+    return count == 0 ? 0 : sum / count;
+  }
+
+  public synchronized double getMax() {
+    return max;
+  }
+
+  /**
+   * Get a percentile.
+   *
+   * @param p percentile, 0 to 100
+   * @return upper bound of the bucket holding the percentile
+   */
+  public synchronized double getPercentile(final double p) {
+    if (count == 0) {
+      return 0;
+    }
+    final long rank = (long) Math.ceil(count * p / 100);
+    long seen = 0;
+    double bound = 1;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(bound, max);
+      }
+      bound *= 2;
+    }
+    return max;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("n=%d, mean %.1f, p50 %.0f, p90 %.0f, p99 %.0f, max %.0f", count,
+        getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max);
+  }
+}
@@ -1,16 +1,18 @@
 package gov.usgs.volcanoes.winston.in.ew;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -18,8 +20,12 @@ import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Level;
 import org.slf4j.Logger;
@@ -48,8 +54,12 @@ import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.winston.Version;
 import gov.usgs.volcanoes.winston.db.Admin;
+import gov.usgs.volcanoes.winston.db.AppendResult;
+import gov.usgs.volcanoes.winston.db.BlobCodec;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.InputEW;
+import gov.usgs.volcanoes.winston.db.MySqlWaveStore;
+import gov.usgs.volcanoes.winston.db.WaveStore;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 
 /**
@@ -81,7 +91,9 @@ public class ImportEW extends Thread {
   public static final String DEFAULT_LOG_FILE = "ImportEW.log";
   public static final int DEFAULT_LOG_NUM_FILES = 10;
   public static final int DEFAULT_LOG_FILE_SIZE = 1000000;
-  public static final boolean DEFAULT_ENABLE_VALARM_VIEW = false;
+  public static final int DEFAULT_MAX_BATCH_SIZE = InputEW.DEFAULT_MAX_BATCH_SIZE;
+  public static final int DEFAULT_WORKERS = 1;
+  public static final double DEFAULT_MAX_LATENCY = 10;
 
   public static final double DEFAULT_TIME_THRESHOLD = 1.0;
   public static final int DEFAULT_BACKLOG_THRESHOLD = 1;
@@ -93,6 +105,20 @@ public class ImportEW extends Thread {
 
   public static final int DEFAULT_REPAIR_RETRY_INTERVAL = 10 * 60;
 
+  public static final boolean DEFAULT_SPOOL_ENABLE = true;
+  public static final String DEFAULT_SPOOL_PATH = "spool";
+  public static final int DEFAULT_SPOOL_FILE_SIZE = 64;
+  public static final int DEFAULT_SPOOL_MAX_SIZE = 4096;
+  public static final int DEFAULT_SPOOL_RETRY_INTERVAL = 10;
+  public static final int DEFAULT_SPOOL_MAX_RETRIES = 100;
+
+  // spooled TraceBufs taken at once, in batches of import.maxBatchSize
+  private static final int SPOOL_BATCHES = 10;
+
+  // longest a worker sleeps, and how long it waits when due channels cannot be written, ms
+  private static final long MAX_WAIT = 1000;
+  private static final long BLOCKED_WAIT = 100;
+
   // JSAP related stuff.
   public static String JSAP_PROGRAM_NAME = "java gov.usgs.volcanoes.winston.in.ew.ImportEW";
   public static String JSAP_EXPLANATION_PREFACE = "Winston ImportEW\n" + "\n"
@@ -129,12 +155,15 @@ public class ImportEW extends Thread {
   protected ConfigFile config;
 
   private WinstonDatabase winston;
-  private Channels channels;
-  private InputEW input;
+  private final List<ImportWorker> workers;
 
   protected ImportGeneric importGeneric;
   private final Set<String> existingChannels;
   private final Map<String, ConcurrentLinkedQueue<TraceBuf>> channelTraceBufs;
+  private final ConcurrentMap<String, Double> queuedSince;
+  private final ReentrantLock queueLock;
+  private final Condition traceBufsQueued;
+  private long queuedGeneration;
 
   protected String logFile;
   protected int logNumFiles;
@@ -143,7 +172,7 @@ public class ImportEW extends Thread {
   private final ExecutorService fixer;
   private WinstonDatabase fixerWinston;
   private Admin fixerAdmin;
-  private InputEW fixerInput;
+  private WaveStore fixerStore;
   private final Set<String> underRepair;
   private final Map<String, Double> attemptedRepair;
   private int repairRetryInterval;
@@ -161,7 +190,16 @@ public class ImportEW extends Thread {
   protected final DateFormat winstonDateFormat;
 
   protected int dropTableDelay = 10000;
-  protected boolean enableValarmView;
+  protected int maxBatchSize;
+  protected int workerCount;
+  protected double maxLatency;
+  protected final Histogram batchSizes;
+  protected final Histogram flushLatencies;
+
+  private Spool spool;
+  protected int spoolRetryInterval;
+  private long lastStatusTime;
+  private long lastStatusDrained;
 
   protected Options defaultOptions;
   protected final Map<String, Options> channelOptions;
@@ -186,7 +224,7 @@ public class ImportEW extends Thread {
 
     config = new ConfigFile(configFilename);
 
-    channelMetadata = new HashMap<String, Map<String, String>>();
+    channelMetadata = new ConcurrentHashMap<String, Map<String, String>>();
 
     processConfigFile();
   }
@@ -203,12 +241,18 @@ public class ImportEW extends Thread {
     dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
     winstonDateFormat = new SimpleDateFormat("yyyy_MM_dd");
     winstonDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-    channelOptions = new HashMap<String, Options>();
-    channelStatus = new HashMap<String, ChannelStatus>();
+    channelOptions = new ConcurrentHashMap<String, Options>();
+    channelStatus = new ConcurrentHashMap<String, ChannelStatus>();
+    workers = new ArrayList<ImportWorker>();
 
     inputTimer = new CodeTimer("inputTimer", false);
     channelTraceBufs =
         new ConcurrentHashMap<String, ConcurrentLinkedQueue<TraceBuf>>(200, 0.75f, 1);
+    queuedSince = new ConcurrentHashMap<String, Double>(200, 0.75f, 1);
+    queueLock = new ReentrantLock();
+    traceBufsQueued = queueLock.newCondition();
+    batchSizes = new Histogram();
+    flushLatencies = new Histogram();
     fixer = Executors.newSingleThreadExecutor();
     underRepair = Collections.synchronizedSet(new HashSet<String>());
     attemptedRepair = Collections.synchronizedMap(new HashMap<String, Double>());
@@ -222,7 +266,12 @@ public class ImportEW extends Thread {
    * is a last-gasp effort to allow the program to continue running.
    */
   public void handleOutOfMemoryError(final OutOfMemoryError e) {
-    channelTraceBufs.clear();
+    // the queues are emptied in place, as other threads may be holding them
+    for (final Entry<String, ConcurrentLinkedQueue<TraceBuf>> entry : channelTraceBufs
+        .entrySet()) {
+      entry.getValue().clear();
+      queuedSince.remove(entry.getKey());
+    }
     LOGGER.warn("Handled OutOfMemoryError, TraceBuf queues cleared.");
     e.printStackTrace();
   }
@@ -308,9 +357,57 @@ public class ImportEW extends Thread {
     dropTableDelay *= 1000;
     LOGGER.info("config: import.dropTableDelay=" + dropTableDelay);
 
-    enableValarmView = StringUtils.stringToBoolean(config.getString("import.enableValarmView"),
-        DEFAULT_ENABLE_VALARM_VIEW);
+    maxBatchSize = StringUtils.stringToInt(config.getString("import.maxBatchSize"),
+        DEFAULT_MAX_BATCH_SIZE);
+    LOGGER.info("config: import.maxBatchSize=" + maxBatchSize);
+
+    workerCount =
+        Math.max(StringUtils.stringToInt(config.getString("import.workers"), DEFAULT_WORKERS), 1);
+    LOGGER.info("config: import.workers=" + workerCount);
+
+    maxLatency = StringUtils.stringToDouble(config.getString("import.maxLatency"),
+        DEFAULT_MAX_LATENCY);
+    LOGGER.info("config: import.maxLatency=" + maxLatency);
+
+    processSpoolConfig();
+  }
+
+  /**
+   * Opens the spool, which holds TraceBufs the database cannot yet take.
+   */
+  protected void processSpoolConfig() {
+    final boolean spoolEnable = StringUtils
+        .stringToBoolean(config.getString("import.spool.enable"), DEFAULT_SPOOL_ENABLE);
+    LOGGER.info("config: import.spool.enable=" + spoolEnable);
+    if (!spoolEnable)
+      return;
 
+    final String spoolPath =
+        StringUtils.stringToString(config.getString("import.spool.path"), DEFAULT_SPOOL_PATH);
+    LOGGER.info("config: import.spool.path=" + spoolPath);
+    final int spoolFileSize = StringUtils.stringToInt(config.getString("import.spool.fileSize"),
+        DEFAULT_SPOOL_FILE_SIZE);
+    LOGGER.info("config: import.spool.fileSize=" + spoolFileSize);
+    final int spoolMaxSize = StringUtils.stringToInt(config.getString("import.spool.maxSize"),
+        DEFAULT_SPOOL_MAX_SIZE);
+    LOGGER.info("config: import.spool.maxSize=" + spoolMaxSize);
+    spoolRetryInterval = StringUtils.stringToInt(
+        config.getString("import.spool.retryInterval"), DEFAULT_SPOOL_RETRY_INTERVAL);
+    LOGGER.info("config: import.spool.retryInterval=" + spoolRetryInterval);
+    final int spoolMaxRetries = Math.min(Byte.MAX_VALUE, StringUtils.stringToInt(
+        config.getString("import.spool.maxRetries"), DEFAULT_SPOOL_MAX_RETRIES));
+    LOGGER.info("config: import.spool.maxRetries=" + spoolMaxRetries);
+
+    try {
+      spool = new Spool(new File(spoolPath), spoolFileSize * 1024 * 1024,
+          spoolMaxSize * 1024L * 1024L, spoolMaxRetries);
+    } catch (final IOException e) {
+      fatalError("Cannot open spool " + spoolPath + ": " + e.getMessage());
+    }
+    for (final String channel : spool.getChannels())
+      channelTraceBufs.put(channel, new ConcurrentLinkedQueue<TraceBuf>());
+    if (spool.getDepth() > 0)
+      LOGGER.info("{} TraceBufs spooled by an earlier run", spool.getDepth());
   }
 
   /**
@@ -340,19 +437,37 @@ public class ImportEW extends Thread {
         StringUtils.stringToInt(config.getString("winston.statementCacheCap"), 100);
     LOGGER.info("config: winston.statementCacheCap=" + winstonStatementCacheCap);
 
+    final String winstonStore =
+        StringUtils.stringToString(config.getString("winston.store"), MySqlWaveStore.NAME);
+    LOGGER.info("config: winston.store=" + winstonStore);
+
+    final String winstonStorePath = config.getString("winston.storePath");
+    if (winstonStorePath != null)
+      LOGGER.info("config: winston.storePath=" + winstonStorePath);
+
     winston = new WinstonDatabase(winstonDriver, winstonURL, winstonPrefix, winstonTableEngine,
-        winstonStatementCacheCap);
+        winstonStatementCacheCap, WinstonDatabase.MAX_DAYS_UNLIMITED, winstonStore,
+        winstonStorePath);
     if (!winston.checkDatabase())
       fatalError("Winston database does not exist.");
     fixerWinston = new WinstonDatabase(winstonDriver, winstonURL, winstonPrefix, winstonTableEngine,
-        winstonStatementCacheCap);
-    fixerInput = new InputEW(fixerWinston);
-    fixerInput.setEnableValarmView(enableValarmView);
+        winstonStatementCacheCap, WinstonDatabase.MAX_DAYS_UNLIMITED, winstonStore,
+        winstonStorePath);
+    fixerStore = fixerWinston.getWaveStore();
+    fixerStore.configure(config.getSubConfig("import"));
     fixerAdmin = new Admin(fixerWinston);
 
-    channels = new Channels(winston);
-    input = new InputEW(winston);
-    input.setEnableValarmView(enableValarmView);
+    if (workerCount == 1) {
+      workers.add(new ImportWorker(0, 1, winston, inputTimer));
+    } else {
+      for (int i = 0; i < workerCount; i++) {
+        final WinstonDatabase workerWinston = new WinstonDatabase(winstonDriver, winstonURL,
+            winstonPrefix, winstonTableEngine, winstonStatementCacheCap,
+            WinstonDatabase.MAX_DAYS_UNLIMITED, winstonStore, winstonStorePath);
+        workers.add(new ImportWorker(i, workerCount, workerWinston,
+            new CodeTimer("inputTimer" + i, false)));
+      }
+    }
 
     repairRetryInterval = DEFAULT_REPAIR_RETRY_INTERVAL;
   }
@@ -366,6 +481,7 @@ public class ImportEW extends Thread {
     defaultOptions.rsamEnable = DEFAULT_RSAM_ENABLE;
     defaultOptions.rsamDelta = DEFAULT_RSAM_DELTA;
     defaultOptions.rsamDuration = DEFAULT_RSAM_DURATION;
+    defaultOptions.codec = BlobCodec.DEFAULT;
 
     final ConfigFile dcf = config.getSubConfig("Default");
     defaultOptions = Options.createOptions(dcf, defaultOptions);
@@ -517,6 +633,12 @@ public class ImportEW extends Thread {
 
     final Options ip = getOptions(tb);
 
+    // once a channel overflows to the spool it stays there until the spool drains, keeping it
+    // in order
+    if (spool != null && (q.size() >= ip.maxBacklog || spool.contains(channel))
+        && spoolTraceBuf(tb))
+      return;
+
     q.add(tb);
     while (q.size() > ip.maxBacklog) {
       q.poll();
@@ -526,38 +648,90 @@ public class ImportEW extends Thread {
         LOGGER.info("Overfull backlog, dropped TraceBuf");
       }
     }
+
+    // set after every add, as a worker may have taken the batch this TraceBuf joined; wake the
+    // workers when a channel starts a batch, so they know its deadline, or fills one
+    if (queuedSince.putIfAbsent(channel, J2kSec.now()) == null
+        || q.size() == ip.bufThreshold) {
+      signalWorkers();
+    }
   }
 
-  private void cycle(final boolean force) {
-    // CodeTimer ct0 = new CodeTimer("init");
-    for (final Iterator<Entry<String, ConcurrentLinkedQueue<TraceBuf>>> iter =
-        channelTraceBufs.entrySet().iterator(); iter.hasNext();) {
-      Entry<String, ConcurrentLinkedQueue<TraceBuf>> entry = iter.next();
-      String key = entry.getKey();
-      ConcurrentLinkedQueue<TraceBuf> q = entry.getValue();
-      if (q.isEmpty())
-        continue;
+  private long getQueuedGeneration() {
+    queueLock.lock();
+    try {
+      return queuedGeneration;
+    } finally {
+      queueLock.unlock();
+    }
+  }
 
-      final Options ip = getOptions(q.peek());
+  private void signalWorkers() {
+    queueLock.lock();
+    try {
+      queuedGeneration++;
+      traceBufsQueued.signalAll();
+    } finally {
+      queueLock.unlock();
+    }
+  }
 
-      if (force || ip.thresholdExceeded(q.peek().getStartTimeJ2K(), q.size())) {
+  /**
+   * Wait for TraceBufs to be queued, unless they have been since a generation was read.
+   */
+  private void awaitTraceBufs(final long generation, final long wait)
+      throws InterruptedException {
+    if (wait <= 0)
+      return;
+    queueLock.lock();
+    try {
+      if (generation == queuedGeneration && !quit)
+        traceBufsQueued.await(wait, TimeUnit.MILLISECONDS);
+    } finally {
+      queueLock.unlock();
+    }
+  }
 
-        importChannel(q);
-        if (channelMetadata.containsKey(key))
-          importMetadata(key, channelMetadata.get(key));
-      }
+  /**
+   * A channel due to be flushed.
+   */
+  private static class DueChannel {
+    final String channel;
+    final double behind;
+
+    DueChannel(final String channel, final double behind) {
+      this.channel = channel;
+      this.behind = behind;
+    }
+  }
 
+  private static final Comparator<DueChannel> FURTHEST_BEHIND = new Comparator<DueChannel>() {
+    public int compare(final DueChannel a, final DueChannel b) {
+      return Double.compare(b.behind, a.behind);
+    }
+  };
+
+  /**
+   * Spool a TraceBuf.
+   *
+   * @return false if it could not be spooled
+   */
+  private boolean spoolTraceBuf(final TraceBuf tb) {
+    try {
+      spool.append(tb);
+      return true;
+    } catch (final IOException e) {
+      if (totalTraceBufsDropped % 100 == 0)
+        LOGGER.warn("Cannot spool TraceBuf. ({})", e.getMessage());
+      return false;
     }
-    // ct0.stop();
-    // if (ct0.getRunTimeMillis() > 1000)
-    // System.out.println("Long cycle: " + ct0);
   }
 
   private Runnable getPurgeRunnable(final String code, final int maxDays) {
     return new Runnable() {
       public void run() {
         try {
-          fixerInput.purgeTables(code, maxDays);
+          fixerStore.purge(code, maxDays);
           try {
             Thread.sleep(dropTableDelay);
           } catch (final InterruptedException e) {
@@ -598,162 +772,442 @@ public class ImportEW extends Thread {
     };
   }
 
-  private void importChannel(final ConcurrentLinkedQueue<TraceBuf> q) {
-    if (q.isEmpty() || underRepair.contains("channels")) {
-      System.out.println("isempty: " + q.isEmpty());
-      System.out.println("underRepair: " + underRepair.contains("channels"));
-      return;
+  /**
+   * Imports the channels assigned to it. Channels are sharded across workers by hash so each
+   * channel is only ever written by one worker, keeping its TraceBufs in order.
+   */
+  class ImportWorker extends Thread {
+    private final int index;
+    private final int workerCount;
+    private final Channels channels;
+    private final WaveStore store;
+    private final CodeTimer inputTimer;
+    private volatile int traceBufsWritten;
+    private volatile int traceBufsFailed;
+    private final Map<String, Long> retryAfter;
+
+    ImportWorker(final int index, final int workerCount, final WinstonDatabase winston,
+        final CodeTimer inputTimer) {
+      setName("ImportEW-worker-" + index);
+      this.index = index;
+      this.workerCount = workerCount;
+      this.inputTimer = inputTimer;
+      retryAfter = new HashMap<String, Long>();
+      channels = new Channels(winston);
+      store = winston.getWaveStore();
+      store.configure(config.getSubConfig("import"));
     }
-    final TraceBuf tb = q.peek();
-    final String code = tb.toWinstonString();
 
-    if (!existingChannels.contains(code) && !channels.channelExists(code)) {
-      LOGGER.info("Creating new channel '" + code + "' in Winston database.");
-      channels.createChannel(code);
+    private boolean isMine(final String channel) {
+      return (channel.hashCode() & Integer.MAX_VALUE) % workerCount == index;
     }
-    existingChannels.add(code);
 
-    final ArrayList<TraceBuf> tbs = new ArrayList<TraceBuf>(q.size());
-    while (!q.isEmpty()) {
-      final TraceBuf t = q.poll();
-      tbs.add(t);
-      if (t.sendAck)
-        importGeneric.sendAck(t.seq);
+    /**
+     * Count TraceBufs waiting in this worker's queues.
+     *
+     * @return number of queued TraceBufs
+     */
+    private int getBacklog() {
+      int backlog = 0;
+      for (final Entry<String, ConcurrentLinkedQueue<TraceBuf>> entry : channelTraceBufs
+          .entrySet()) {
+        if (isMine(entry.getKey()))
+          backlog += entry.getValue().size();
+      }
+      return backlog;
+    }
 
+    @Override
+    public void run() {
+      while (!quit) {
+        try {
+          final long generation = getQueuedGeneration();
+          awaitTraceBufs(generation, cycle(false));
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (final OutOfMemoryError e) {
+          handleOutOfMemoryError(e);
+        } catch (final Throwable e) {
+          LOGGER.error("Main loop exception: {}", e.getLocalizedMessage());
+          e.printStackTrace();
+        }
+      }
+      try {
+        cycle(true);
+      } catch (final Throwable e) {
+        LOGGER.error("Exception during final cycle: {}", e);
+      }
     }
 
-    inputTimer.start();
-    // TODO: catch exceptions around here
-    final Options ip = getOptions(tbs.get(0));
-    final List<InputEW.InputResult> results =
-        input.inputTraceBufs(tbs, ip.rsamEnable, ip.rsamDelta, ip.rsamDuration);
-    inputTimer.stop();
+    /**
+     * Flush this worker's channels which are due, those furthest behind first. A channel is due
+     * when its options' thresholds are exceeded, when its oldest queued TraceBuf has waited
+     * import.maxLatency, or when it has TraceBufs spooled. A channel which failed to write waits
+     * import.spool.retryInterval, and while it has TraceBufs spooled those queued after them join
+     * the spool, so the channel is written in time order.
+     *
+     * @param force flush every channel
+     * @return milliseconds until a channel is next due
+     */
+    private long cycle(final boolean force) {
+      final double now = J2kSec.now();
+      double next = MAX_WAIT / 1000.0;
+      final List<DueChannel> due = new ArrayList<DueChannel>();
+      for (final Entry<String, ConcurrentLinkedQueue<TraceBuf>> entry : channelTraceBufs
+          .entrySet()) {
+        final String key = entry.getKey();
+        if (!isMine(key))
+          continue;
+
+        final ConcurrentLinkedQueue<TraceBuf> q = entry.getValue();
+        final Long after = retryAfter.get(key);
+        final double retryIn =
+            after == null ? 0 : (after - System.currentTimeMillis()) / 1000.0;
+        // TraceBufs queued behind older ones in the spool, or left waiting to retry by a forced
+        // flush, join the spool, which writes each channel in time order
+        if (spool != null && !q.isEmpty() && (spool.contains(key) || (force && retryIn > 0)))
+          spoolQueue(key, q);
+
+        final TraceBuf first = q.peek();
+        if (first == null) {
+          // set for a TraceBuf which joined the last batch as it was taken
+          final Double stale = queuedSince.get(key);
+          if (stale != null)
+            queuedSince.remove(key, stale);
+          if (spool != null && spool.contains(key)) {
+            if (retryIn <= 0)
+              due.add(new DueChannel(key, 1));
+            else
+              next = Math.min(next, retryIn);
+          }
+          continue;
+        }
+        if (retryIn > 0) {
+          next = Math.min(next, retryIn);
+          continue;
+        }
 
-    ChannelStatus status = channelStatus.get(code);
-    if (status == null) {
-      status = new ChannelStatus(code);
-      channelStatus.put(code, status);
+        final Options ip = getOptions(first);
+        final int size = q.size();
+        Double since = queuedSince.get(key);
+        if (since == null) {
+          // queued as the last batch was taken, or as the queues were cleared
+          final Double set = queuedSince.putIfAbsent(key, now);
+          since = set == null ? now : set;
+        }
+        final double waited = now - since;
+        final boolean late = maxLatency > 0 && waited >= maxLatency;
+        if (force || late || ip.thresholdExceeded(first.getStartTimeJ2K(), size)) {
+          final double behind = Math.max(maxLatency > 0 ? waited / maxLatency : 0,
+              (double) size / Math.max(1, ip.maxBacklog));
+          due.add(new DueChannel(key, behind));
+        } else {
+          if (maxLatency > 0)
+            next = Math.min(next, maxLatency - waited);
+          if (ip.timeThreshold != -1)
+            next = Math.min(next, first.getStartTimeJ2K() + ip.timeThreshold - now);
+        }
+      }
+
+      if (due.isEmpty())
+        return Math.max(1, (long) Math.ceil(next * 1000));
+
+      Collections.sort(due, FURTHEST_BEHIND);
+      boolean flushed = false;
+      for (final DueChannel channel : due) {
+        final ConcurrentLinkedQueue<TraceBuf> q = channelTraceBufs.get(channel.channel);
+        if (q != null && !q.isEmpty()) {
+          flushed |= importChannel(q);
+          if (channelMetadata.containsKey(channel.channel))
+            importMetadata(channel.channel, channelMetadata.get(channel.channel));
+        } else if (spool != null) {
+          flushed |= drainSpool(channel.channel);
+        }
+      }
+      return flushed ? 0 : BLOCKED_WAIT;
     }
-    // TODO: suppress repetitive MySQL exceptions
-    if (results.size() == 1) {
-      final InputEW.InputResult result = results.get(0);
-      switch (result.code) {
-        case ERROR_DATABASE:
-        case ERROR_NO_WINSTON:
-          // shouldn't happen because several database accesses must have
-          // already occurred by this point
-          break;
-        case ERROR_INPUT:
-          // should never happen, conditions checked before call
-          break;
-        case ERROR_TIME_SPAN:
-          LOGGER.warn("Time span error.");
-          final Runnable repairTask = getRepairRunnable("ROOT", "channels");
-          if (repairTask != null)
-            fixer.submit(repairTask);
-          break;
-        default:
-          LOGGER.warn("Error: " + result.code);
+
+    /**
+     * Move a channel's queued TraceBufs to the spool. Any the spool cannot take stay queued.
+     */
+    private void spoolQueue(final String code, final ConcurrentLinkedQueue<TraceBuf> q) {
+      queuedSince.remove(code);
+      final List<TraceBuf> kept = new ArrayList<TraceBuf>();
+      TraceBuf tb;
+      while ((tb = q.poll()) != null) {
+        if (!spoolTraceBuf(tb))
+          kept.add(tb);
       }
-    } else {
-      for (int i = 0; i < results.size() - 2; i++) {
-        final InputEW.InputResult result = results.get(i);
-        status.process(result.traceBuf, result.code);
-        boolean repair = false;
+      if (!kept.isEmpty()) {
+        q.addAll(kept);
+        queuedSince.putIfAbsent(code, J2kSec.now());
+      }
+    }
+
+    /**
+     * Write a channel's queued TraceBufs, unless it is waiting to retry a failed write.
+     *
+     * @return false if nothing could be written
+     */
+    private boolean importChannel(final ConcurrentLinkedQueue<TraceBuf> q) {
+      if (q.isEmpty() || underRepair.contains("channels")) {
+        System.out.println("isempty: " + q.isEmpty());
+        System.out.println("underRepair: " + underRepair.contains("channels"));
+        return false;
+      }
+      final String code = q.peek().toWinstonString();
+      final Long after = retryAfter.get(code);
+      if (after != null && System.currentTimeMillis() < after)
+        return false;
+      createChannel(code);
+
+      // cleared before the queue is emptied, so TraceBufs queued meanwhile start a new batch
+      final Double since = queuedSince.remove(code);
+      final ArrayList<TraceBuf> tbs = new ArrayList<TraceBuf>(q.size());
+      while (!q.isEmpty())
+        tbs.add(q.poll());
+
+      // acknowledge only once written, or spooled to be written later
+      final Set<TraceBuf> retry = write(code, tbs);
+      batchSizes.add(tbs.size());
+      if (since != null)
+        flushLatencies.add((J2kSec.now() - since) * 1000);
+      int dropped = 0;
+      for (final TraceBuf t : tbs) {
+        if (retry.contains(t) && !spoolTraceBuf(t))
+          dropped++;
+        else if (t.sendAck)
+          importGeneric.sendAck(t.seq);
+      }
+      retryLater(code, retry.size(), dropped);
+      return true;
+    }
+
+    /**
+     * Write TraceBufs waiting in the spool, oldest first. Those which cannot be written go back to
+     * the spool and the channel waits import.spool.retryInterval before it is tried again.
+     *
+     * @return false if nothing could be written
+     */
+    private boolean drainSpool(final String code) {
+      final Long after = retryAfter.get(code);
+      if ((after != null && System.currentTimeMillis() < after) || underRepair.contains("channels"))
+        return false;
+
+      final List<Spool.Entry> entries = spool.take(code, maxBatchSize * SPOOL_BATCHES);
+      if (entries.isEmpty())
+        return false;
+      createChannel(code);
+
+      final List<TraceBuf> tbs = new ArrayList<TraceBuf>(entries.size());
+      for (final Spool.Entry entry : entries)
+        tbs.add(entry.traceBuf);
+
+      final Set<TraceBuf> retry = write(code, tbs);
+      int dropped = 0;
+      for (final Spool.Entry entry : entries) {
+        if (retry.contains(entry.traceBuf)) {
+          if (!spool.putBack(entry))
+            dropped++;
+        } else {
+          spool.commit(entry);
+          if (entry.sendAck)
+            importGeneric.sendAck(entry.seq);
+        }
+      }
+      retryLater(code, retry.size(), dropped);
+      return true;
+    }
+
+    private void retryLater(final String code, final int retries, final int dropped) {
+      if (retries == 0) {
+        retryAfter.remove(code);
+      } else {
+        retryAfter.put(code, System.currentTimeMillis() + spoolRetryInterval * 1000L);
+        LOGGER.warn("{}: {} TraceBufs not written, retrying in {}s", code, retries,
+            spoolRetryInterval);
+      }
+
+      if (dropped > 0) {
+        LOGGER.warn("{}: dropped {} TraceBufs which could not be written", code, dropped);
+        traceBufsFailed += dropped;
+        synchronized (ImportEW.this) {
+          totalTraceBufsFailed += dropped;
+        }
+      }
+    }
+
+    private void createChannel(final String code) {
+      if (!existingChannels.contains(code) && !channels.channelExists(code)) {
+        LOGGER.info("Creating new channel '" + code + "' in Winston database.");
+        channels.createChannel(code);
+      }
+      existingChannels.add(code);
+    }
+
+    /**
+     * Write TraceBufs of a channel, repairing tables which fail.
+     *
+     * @return TraceBufs which failed for a reason which may pass, such as a database outage. They
+     *         are only returned when there is a spool to keep them in.
+     */
+    private Set<TraceBuf> write(final String code, final List<TraceBuf> tbs) {
+      final Set<TraceBuf> retry =
+          Collections.newSetFromMap(new IdentityHashMap<TraceBuf, Boolean>());
+      final TraceBuf tb = tbs.get(0);
+      int written = 0;
+      int failed = 0;
+
+      inputTimer.start();
+      // TODO: catch exceptions around here
+      final Options ip = getOptions(tb);
+      final List<AppendResult> results =
+          store.append(tbs, ip.rsamEnable, ip.rsamDelta, ip.rsamDuration, ip.codec);
+      inputTimer.stop();
+
+      ChannelStatus status = channelStatus.get(code);
+      if (status == null) {
+        status = new ChannelStatus(code);
+        channelStatus.put(code, status);
+      }
+      // TODO: suppress repetitive MySQL exceptions
+      if (results.size() == 1) {
+        final AppendResult result = results.get(0);
+        if (spool != null && result.code != AppendResult.Code.ERROR_INPUT)
+          retry.addAll(tbs);
         switch (result.code) {
-          case SUCCESS_CREATED_TABLE:
-            LOGGER.info("Day table created: " + tb.toWinstonString() + " "
-                + winstonDateFormat.format(J2kSec.asDate(tb.getStartTimeJ2K())));
-            fixer.submit(getPurgeRunnable(code, ip.maxDays));
-            attemptedRepair.remove(code);
-            totalTraceBufsWritten++;
-            LOGGER.debug("Insert: " + tb.toString());
-            break;
-          case SUCCESS:
-            attemptedRepair.remove(code);
-            totalTraceBufsWritten++;
-            LOGGER.debug("Insert: " + tb.toString());
-            break;
           case ERROR_DATABASE:
-            totalTraceBufsFailed++;
-            repair = true;
-            LOGGER.warn("Database error: " + tb.toString());
-            break;
-          case ERROR_UNKNOWN:
-            totalTraceBufsFailed++;
-            repair = true;
-            LOGGER.warn("Unknown insert error: " + tb.toString());
-            break;
-          case ERROR_CHANNEL:
-          case ERROR_NULL_TRACEBUF:
-            totalTraceBufsFailed++;
-            // these errors should never occur
-            LOGGER.warn("Bad channel/null TraceBuf.");
-            break;
-          case ERROR_DUPLICATE:
-            totalTraceBufsFailed++;
-            LOGGER.warn("Duplicate TraceBuf: " + tb.toString());
-            break;
-          case NO_CODE:
-            // this should never occur
-            totalTraceBufsFailed++;
-            LOGGER.warn("No error/success code: " + tb.toString());
-            break;
-          case ERROR_HELICORDER:
-            LOGGER.warn("Cannot write heli: " + tb.toString());
+          case ERROR_NO_WINSTON:
+            // shouldn't happen because several database accesses must have
+            // already occurred by this point
             break;
           case ERROR_INPUT:
-            LOGGER.warn("Error writing tb: " + tb.toString());
-            break;
-          case ERROR_NO_WINSTON:
-            LOGGER.warn("Cannot find winston: " + tb.toString());
+            // should never happen, conditions checked before call
             break;
           case ERROR_TIME_SPAN:
-            LOGGER.warn("Timespan error: " + tb.toString());
-            break;
-          case SUCCESS_HELICORDER:
-            break;
-          case SUCCESS_TIME_SPAN:
+            LOGGER.warn("Time span error.");
+            final Runnable repairTask = getRepairRunnable("ROOT", "channels");
+            if (repairTask != null)
+              fixer.submit(repairTask);
             break;
           default:
-            break;
+            LOGGER.warn("Error: " + result.code);
+        }
+      } else {
+        for (int i = 0; i < results.size() - 2; i++) {
+          final AppendResult result = results.get(i);
+          status.process(result.traceBuf, result.code);
+          boolean repair = false;
+          switch (result.code) {
+            case SUCCESS_NEW_DAY:
+              LOGGER.info("Day table created: " + tb.toWinstonString() + " "
+                  + winstonDateFormat.format(J2kSec.asDate(tb.getStartTimeJ2K())));
+              fixer.submit(getPurgeRunnable(code, ip.maxDays));
+              attemptedRepair.remove(code);
+              written++;
+              LOGGER.debug("Insert: " + tb.toString());
+              break;
+            case SUCCESS:
+              attemptedRepair.remove(code);
+              written++;
+              LOGGER.debug("Insert: " + tb.toString());
+              break;
+            case ERROR_DATABASE:
+              if (spool != null)
+                retry.add(result.traceBuf);
+              else
+                failed++;
+              repair = true;
+              LOGGER.warn("Database error: " + tb.toString());
+              break;
+            case ERROR_UNKNOWN:
+              if (spool != null)
+                retry.add(result.traceBuf);
+              else
+                failed++;
+              repair = true;
+              LOGGER.warn("Unknown insert error: " + tb.toString());
+              break;
+            case ERROR_CHANNEL:
+            case ERROR_NULL_TRACEBUF:
+              failed++;
+              // these errors should never occur
+              LOGGER.warn("Bad channel/null TraceBuf.");
+              break;
+            case ERROR_DUPLICATE:
+              failed++;
+              LOGGER.warn("Duplicate TraceBuf: " + tb.toString());
+              break;
+            case NO_CODE:
+              // this should never occur
+              failed++;
+              LOGGER.warn("No error/success code: " + tb.toString());
+              break;
+            case ERROR_HELICORDER:
+              LOGGER.warn("Cannot write heli: " + tb.toString());
+              break;
+            case ERROR_INPUT:
+              LOGGER.warn("Error writing tb: " + tb.toString());
+              break;
+            case ERROR_NO_WINSTON:
+              LOGGER.warn("Cannot find winston: " + tb.toString());
+              break;
+            case ERROR_TIME_SPAN:
+              LOGGER.warn("Timespan error: " + tb.toString());
+              break;
+            case SUCCESS_HELICORDER:
+              break;
+            case SUCCESS_TIME_SPAN:
+              break;
+            default:
+              break;
+          }
+          if (repair) {
+            final String dt = winstonDateFormat.format(J2kSec.asDate(tb.getStartTimeJ2K()));
+            final Runnable repairTask = getRepairRunnable(code, code + "$$" + dt);
+            if (repairTask != null)
+              fixer.submit(repairTask);
+          }
         }
-        if (repair) {
-          final String dt = winstonDateFormat.format(J2kSec.asDate(tb.getStartTimeJ2K()));
-          final Runnable repairTask = getRepairRunnable(code, code + "$$" + dt);
+
+        final AppendResult timeSpanResult = results.get(results.size() - 1);
+        if (timeSpanResult.code == AppendResult.Code.ERROR_TIME_SPAN) {
+          LOGGER.warn("Time span error.");
+          final Runnable repairTask = getRepairRunnable("ROOT", "channels");
+          if (repairTask != null)
+            fixer.submit(repairTask);
+        }
+        final AppendResult heliResult = results.get(results.size() - 2);
+        if (heliResult.code == AppendResult.Code.ERROR_HELICORDER) {
+          final String dt = winstonDateFormat.format(J2kSec.asDate(heliResult.failedHeliJ2K));
+          final String table = code + "$$H" + dt;
+          LOGGER.warn("Error writing helicorder data to table " + table + ".");
+          final Runnable repairTask = getRepairRunnable(code, table);
           if (repairTask != null)
             fixer.submit(repairTask);
         }
       }
 
-      final InputEW.InputResult timeSpanResult = results.get(results.size() - 1);
-      if (timeSpanResult.code == InputEW.InputResult.Code.ERROR_TIME_SPAN) {
-        LOGGER.warn("Time span error.");
-        final Runnable repairTask = getRepairRunnable("ROOT", "channels");
-        if (repairTask != null)
-          fixer.submit(repairTask);
-      }
-      final InputEW.InputResult heliResult = results.get(results.size() - 2);
-      if (heliResult.code == InputEW.InputResult.Code.ERROR_HELICORDER) {
-        final String dt = winstonDateFormat.format(J2kSec.asDate(heliResult.failedHeliJ2K));
-        final String table = code + "$$H" + dt;
-        LOGGER.warn("Error writing helicorder data to table " + table + ".");
-        final Runnable repairTask = getRepairRunnable(code, table);
-        if (repairTask != null)
-          fixer.submit(repairTask);
+      traceBufsWritten += written;
+      traceBufsFailed += failed;
+      synchronized (ImportEW.this) {
+        totalTraceBufsWritten += written;
+        totalTraceBufsFailed += failed;
       }
+      return retry;
     }
-  }
 
-  private void importMetadata(final String channel, final Map<String, String> m) {
+    private void importMetadata(final String channel, final Map<String, String> m) {
 
-    if (underRepair.contains("channelmetadata")) {
-      System.out.println("underRepair: " + underRepair.contains("channelmetadata"));
-    } else if (!m.isEmpty()) {
-      inputTimer.start();
-      System.out.println("importing metadata " + channel);
-      input.inputMetadata(channel, m);
-      inputTimer.stop();
+      if (underRepair.contains("channelmetadata")) {
+        System.out.println("underRepair: " + underRepair.contains("channelmetadata"));
+      } else if (!m.isEmpty()) {
+        inputTimer.start();
+        System.out.println("importing metadata " + channel);
+        store.putMetadata(channel, m);
+        inputTimer.stop();
+      }
     }
   }
 
@@ -775,23 +1229,21 @@ public class ImportEW extends Thread {
         }
       }
     }
-    while (!quit) {
+    if (workers.size() == 1) {
+      workers.get(0).run();
+      return;
+    }
+
+    for (final ImportWorker worker : workers)
+      worker.start();
+
+    for (final ImportWorker worker : workers) {
       try {
-        cycle(true);
-        Thread.sleep(10); // avoid busy-waiting when importing few
-                          // channels
-      } catch (final OutOfMemoryError e) {
-        handleOutOfMemoryError(e);
-      } catch (final Throwable e) {
-        LOGGER.error("Main loop exception: {}", e.getLocalizedMessage());
-        e.printStackTrace();
+        worker.join();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
     }
-    try {
-      cycle(true);
-    } catch (final Throwable e) {
-      LOGGER.error("Exception during final cycle: {}", e);
-    }
   }
 
   protected Options getOptions(final TraceBuf tb) {
@@ -820,6 +1272,7 @@ public class ImportEW extends Thread {
 
     LOGGER.info("Quitting cleanly.");
     quit = true;
+    signalWorkers();
   }
 
   public void printStatus() {
@@ -862,12 +1315,49 @@ public class ImportEW extends Thread {
         - totalTraceBufsRejected - totalTraceBufsDropped;
     strings.add("Pending:  " + pending);
 
+    if (spool != null) {
+      final long drained = spool.getDrained();
+      final double elapsed =
+          (lastStatusTime == 0 ? uptime : (nowST - lastStatusTime) / 1000.0);
+      final double rate = elapsed > 0 ? (drained - lastStatusDrained) / elapsed : 0;
+      lastStatusTime = nowST;
+      lastStatusDrained = drained;
+
+      strings.add("---- Spool");
+      strings.add(String.format("Depth:    %d TraceBufs, %.1fMB in use", spool.getDepth(),
+          spool.getSize() / 1024.0 / 1024.0));
+      strings.add("Spooled:  " + spool.getAppended());
+      strings.add(String.format("Drained:  %d, %.1f TB/s since last status", drained, rate));
+      strings.add("Dropped:  " + spool.getDropped());
+    }
+
     // by each filter
+    double inputTime = 0;
+    for (final ImportWorker worker : workers)
+      inputTime += worker.inputTimer.getTotalTimeMillis();
+
     strings.add("---- Timing");
     strings.add(String.format("Total input time:        %s",
-        Time.secondsToString(inputTimer.getTotalTimeMillis() / 1000)));
+        Time.secondsToString(inputTime / 1000)));
     strings.add(String.format("Input time per TraceBuf: %.2fms",
-        inputTimer.getTotalTimeMillis() / totalTraceBufsWritten));
+        inputTime / totalTraceBufsWritten));
+
+    strings.add("---- Flushes");
+    strings.add("Batch size:    " + batchSizes);
+    strings.add("Latency (ms):  " + flushLatencies);
+
+    if (workers.size() > 1) {
+      strings.add("---- Workers");
+      strings.add(String.format("%-8s %10s %10s %10s %12s %10s", "Worker", "Written", "Failed",
+          "Backlog", "Input time", "TB/s"));
+      for (final ImportWorker worker : workers) {
+        final double workerTime = worker.inputTimer.getTotalTimeMillis();
+        final double rate = workerTime > 0 ? worker.traceBufsWritten / (workerTime / 1000) : 0;
+        strings.add(String.format("%-8d %10d %10d %10d %12s %10.1f", worker.index,
+            worker.traceBufsWritten, worker.traceBufsFailed, worker.getBacklog(),
+            Time.secondsToString(workerTime / 1000), rate));
+      }
+    }
 
     for (final String s : strings)
       System.out.println(s);
@@ -5,7 +5,12 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +46,9 @@ public class ImportWS {
   private static final String DEFAULT_CONFIG_FILENAME = "ImportWS.config";
   private static final double DEFAULT_CHUNK_SIZE = 600.0;
   private static final int DEFAULT_CHUNK_DELAY = 500;
+  private static final int DEFAULT_CONCURRENT_JOBS = 1;
+  private static final int DEFAULT_CHUNK_QUEUE_SIZE = 2;
+  private static final long PROGRESS_INTERVAL = 60000;
 
   private static final boolean DEFAULT_RSAM_ENABLE = true;
   private static final int DEFAULT_RSAM_DELTA = 10;
@@ -58,8 +66,8 @@ public class ImportWS {
   private boolean createChannels;
   private boolean createDatabase;
 
-  private List<ImportWSJob> jobs;
-  private ImportWSJob currentJob;
+  private List<String> jobs;
+  private final List<ImportWSJob> runningJobs;
   private List<String> sourceChannels;
 
   private TimeSpan timeSpan;
@@ -68,6 +76,9 @@ public class ImportWS {
 
   private double chunkSize;
   private int chunkDelay;
+  private int chunkQueueSize;
+  private int concurrentJobs;
+  private Semaphore requestPermits;
 
   private boolean rsamEnable;
   private int rsamDelta;
@@ -76,10 +87,13 @@ public class ImportWS {
   private int totalInserted = 0;
   private double totalDownloadTime = 0;
   private double totalInsertTime = 0;
+  private double totalSeconds = 0;
+  private double importedSeconds = 0;
+  private long lastProgress;
 
   private boolean requestSCNL = false;
 
-  private boolean quit = false;
+  private volatile boolean quit = false;
 
   private final CodeTimer appTimer;
 
@@ -104,6 +118,10 @@ public class ImportWS {
 
   public ImportWS() {
     appTimer = new CodeTimer("application");
+    runningJobs = new ArrayList<ImportWSJob>();
+    concurrentJobs = DEFAULT_CONCURRENT_JOBS;
+    chunkQueueSize = DEFAULT_CHUNK_QUEUE_SIZE;
+    requestPermits = new Semaphore(concurrentJobs, true);
   }
 
   public ImportWS(final String fileName) throws ParseException {
@@ -161,6 +179,19 @@ public class ImportWS {
     chunkDelay = StringUtils.stringToInt(config.getString("chunkDelay"), DEFAULT_CHUNK_DELAY);
     LOGGER.info("chunkDelay: {}", chunkDelay);
 
+    chunkQueueSize = Math.max(1,
+        StringUtils.stringToInt(config.getString("chunkQueueSize"), DEFAULT_CHUNK_QUEUE_SIZE));
+    LOGGER.info("chunkQueueSize: {}", chunkQueueSize);
+
+    concurrentJobs = Math.max(1,
+        StringUtils.stringToInt(config.getString("concurrentJobs"), DEFAULT_CONCURRENT_JOBS));
+    LOGGER.info("concurrentJobs: {}", concurrentJobs);
+
+    final int maxRequests =
+        Math.max(1, StringUtils.stringToInt(config.getString("maxRequests"), concurrentJobs));
+    LOGGER.info("maxRequests: {}", maxRequests);
+    requestPermits = new Semaphore(maxRequests, true);
+
     rsamEnable = StringUtils.stringToBoolean(config.getString("rsam.enable"), DEFAULT_RSAM_ENABLE);
     LOGGER.info("rsamEnable: {}", rsamEnable);
 
@@ -173,10 +204,33 @@ public class ImportWS {
     // TODO: log level
   }
 
-  public void addStats(final int t, final double td, final double ti) {
+  /**
+   * Add the results of a chunk and log progress of the whole import now and then.
+   *
+   * @param t TraceBufs inserted
+   * @param td download time, ms
+   * @param ti insert time, ms
+   * @param seconds seconds of gaps covered
+   */
+  public synchronized void addStats(final int t, final double td, final double ti,
+      final double seconds) {
     totalInserted += t;
     totalDownloadTime += td;
     totalInsertTime += ti;
+    importedSeconds += seconds;
+
+    final long now = System.currentTimeMillis();
+    if (now - lastProgress < PROGRESS_INTERVAL || totalSeconds <= 0) {
+      return;
+    }
+    lastProgress = now;
+    final double elapsed = appTimer.getRunTimeMillis() / 1000.0;
+    final double rate = importedSeconds / elapsed;
+    final String eta =
+        rate > 0 ? Time.secondsToString((totalSeconds - importedSeconds) / rate) : "unknown";
+    LOGGER.info(String.format("Progress: %.1f%% of %s, %d tbs inserted, %.0fx real time, ETA %s",
+        100 * importedSeconds / totalSeconds, Time.secondsToString(totalSeconds), totalInserted,
+        rate, eta));
   }
 
   // private void parseTimeRange(final String timeRange) {
@@ -213,9 +267,18 @@ public class ImportWS {
     return menu;
   }
 
+  /**
+   * Get the semaphore limiting requests in flight to the source wave server.
+   *
+   * @return permits shared by all jobs
+   */
+  public Semaphore getRequestPermits() {
+    return requestPermits;
+  }
+
   public void createJobs() {
     getChannels();
-    jobs = new ArrayList<ImportWSJob>();
+    jobs = new ArrayList<String>();
 
     final List<MenuItem> items = menu.getItems();
     for (final MenuItem item : items) {
@@ -232,29 +295,99 @@ public class ImportWS {
             continue;
 
           LOGGER.info("Remote channel matched: {}", wc);
-          final ImportWSJob job = new ImportWSJob(winston, waveServer, this);
-          job.setChannel(wc);
-          job.setChunkDelay(chunkDelay);
-          job.setChunkSize(chunkSize);
-          job.setRSAMParameters(rsamEnable, rsamDelta, rsamDuration);
-          jobs.add(job);
+          jobs.add(wc);
         }
       }
     }
   }
 
-  public void startImport() {
-    for (final ImportWSJob job : jobs) {
-      currentJob = job;
-      LOGGER.info("{}: finding gaps", job.getChannel());
-      final List<TimeSpan> gaps = data.findGaps(job.getChannel(), timeSpan);
-      job.addSpans(gaps);
+  private ImportWSJob createJob(final String channel, final WinstonDatabase w,
+      final WaveServer ws) {
+    final ImportWSJob job = new ImportWSJob(w, ws, this);
+    job.setChannel(channel);
+    job.setChunkDelay(chunkDelay);
+    job.setChunkSize(chunkSize);
+    job.setChunkQueueSize(chunkQueueSize);
+    job.setRSAMParameters(rsamEnable, rsamDelta, rsamDuration);
+    return job;
+  }
 
-      job.go();
+  /**
+   * Run jobs until none are left. Unless it is the only worker, a worker uses its own database
+   * and wave server connections.
+   */
+  private void runJobs(final Queue<Map.Entry<String, List<TimeSpan>>> queue,
+      final boolean shared) {
+    final WinstonDatabase w = shared ? winston : WinstonDatabase.processWinstonConfigFile(config);
+    final WaveServer ws =
+        shared ? waveServer : new WaveServer(waveServer.host + ":" + waveServer.port);
+    try {
+      Map.Entry<String, List<TimeSpan>> entry;
+      while (!quit && (entry = queue.poll()) != null) {
+        final ImportWSJob job = createJob(entry.getKey(), w, ws);
+        job.addSpans(entry.getValue());
+        synchronized (runningJobs) {
+          if (quit) {
+            break;
+          }
+          runningJobs.add(job);
+        }
+        try {
+          job.go();
+        } finally {
+          synchronized (runningJobs) {
+            runningJobs.remove(job);
+          }
+        }
+      }
+    } finally {
+      if (!shared) {
+        w.close();
+      }
+    }
+  }
 
-      if (quit)
-        break;
+  public void startImport() {
+    totalSeconds = 0;
+    importedSeconds = 0;
+    final Map<String, List<TimeSpan>> gaps = new LinkedHashMap<String, List<TimeSpan>>();
+    for (final String channel : jobs) {
+      LOGGER.info("{}: finding gaps", channel);
+      final List<TimeSpan> channelGaps = data.findGaps(channel, timeSpan);
+      gaps.put(channel, channelGaps);
+      for (final TimeSpan gap : channelGaps) {
+        totalSeconds += (gap.endTime - gap.startTime) / 1000.0;
+      }
+    }
+    LOGGER.info("{} channels, {} of gaps, {} concurrent jobs", gaps.size(),
+        Time.secondsToString(totalSeconds), concurrentJobs);
+
+    final Queue<Map.Entry<String, List<TimeSpan>>> queue =
+        new ConcurrentLinkedQueue<Map.Entry<String, List<TimeSpan>>>(gaps.entrySet());
+    final int workers = Math.min(concurrentJobs, Math.max(1, gaps.size()));
+    if (workers == 1) {
+      runJobs(queue, true);
+    } else {
+      final List<Thread> threads = new ArrayList<Thread>(workers);
+      for (int i = 0; i < workers; i++) {
+        final Thread thread = new Thread(new Runnable() {
+          public void run() {
+            runJobs(queue, false);
+          }
+        }, "ImportWS worker " + i);
+        thread.start();
+        threads.add(thread);
+      }
+      for (final Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
     }
+
     appTimer.stop();
     LOGGER.info(
         String.format("%d tbs inserted, total download time: %s, total insert time: %s (%.3fms/tb)",
@@ -275,11 +408,13 @@ public class ImportWS {
 
   public void quit() {
     LOGGER.info("Quitting cleanly.");
-    if (currentJob != null)
-      currentJob.quit();
-    else
-      LOGGER.info("Null job");
-    quit = true;
+    synchronized (runningJobs) {
+      quit = true;
+      if (runningJobs.isEmpty())
+        LOGGER.info("Null job");
+      for (final ImportWSJob job : runningJobs)
+        job.quit();
+    }
   }
 
   /**
@@ -3,6 +3,10 @@ package gov.usgs.volcanoes.winston.in.ew;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,8 +18,10 @@ import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.time.TimeSpan;
+import gov.usgs.volcanoes.winston.db.AppendResult;
+import gov.usgs.volcanoes.winston.db.BlobCodec;
 import gov.usgs.volcanoes.winston.db.Channels;
-import gov.usgs.volcanoes.winston.db.InputEW;
+import gov.usgs.volcanoes.winston.db.WaveStore;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 
 /**
@@ -23,6 +29,10 @@ import gov.usgs.volcanoes.winston.db.WinstonDatabase;
  * no existing data in that span. Therefore incoming TraceBufs only need to be
  * between the given span to avoid overlappers.
  *
+ * <p>
+ * Each gap is downloaded by its own thread, which stays up to chunkQueueSize chunks ahead of the
+ * inserts. Requests to the wave server hold a permit from a limit shared by all jobs.
+ *
  * @author Dan Cervelli
  */
 public class ImportWSJob {
@@ -37,16 +47,18 @@ public class ImportWSJob {
   private final Menu menu;
 
   private final Channels channels;
-  private final InputEW input;
+  private final WaveStore store;
 
   private double chunkSize;
   private int chunkDelay;
+  private int queueSize = 1;
+  private final Semaphore requests;
 
   private boolean rsamEnable = true;
   private int rsamDelta = 10;
   private int rsamDuration = 60;
 
-  private boolean quit = false;
+  private volatile boolean quit = false;
 
   private boolean requestSCNL = false;
 
@@ -58,9 +70,10 @@ public class ImportWSJob {
     waveServer = ws;
     spans = new ArrayList<TimeSpan>();
     channels = new Channels(winston);
-    input = new InputEW(winston);
+    store = winston.getWaveStore();
     menu = importWS.getMenu();
     requestSCNL = importWS.getRequestSCNL();
+    requests = importWS.getRequestPermits();
   }
 
   public void setRSAMParameters(final boolean en, final int rd, final int rl) {
@@ -89,12 +102,50 @@ public class ImportWSJob {
     chunkDelay = ms;
   }
 
+  /**
+   * Set the number of downloaded chunks which may wait to be inserted.
+   *
+   * @param chunks chunks, at least one
+   */
+  public void setChunkQueueSize(final int chunks) {
+    queueSize = Math.max(1, chunks);
+  }
+
   public void quit() {
     quit = true;
   }
 
-  private void getData(final TimeSpan span) {
-    LOGGER.debug("start get data");
+  /**
+   * A downloaded chunk, or the end of a gap when tbs is null.
+   */
+  private static class Chunk {
+    final List<TraceBuf> tbs;
+    final double seconds;
+    final double dlTime;
+
+    Chunk(final List<TraceBuf> tbs, final double seconds, final double dlTime) {
+      this.tbs = tbs;
+      this.seconds = seconds;
+      this.dlTime = dlTime;
+    }
+  }
+
+  private static final Chunk END = new Chunk(null, 0, 0);
+
+  private void put(final BlockingQueue<Chunk> queue, final Chunk chunk)
+      throws InterruptedException {
+    while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+      if (quit) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Download a gap a chunk at a time, handing chunks to the inserting thread. Requests to the wave
+   * server count against the limit shared by all jobs.
+   */
+  private void download(final TimeSpan span, final BlockingQueue<Chunk> queue) {
     try {
       final String[] ss = channel.split("\\$");
       String loc = null;
@@ -107,16 +158,7 @@ public class ImportWSJob {
       final double t1 = J2kSec.fromEpoch(span.startTime);
       final double t2 = J2kSec.fromEpoch(span.endTime);
 
-      LOGGER.info("{}: downloading gap: {} ({})", channel, span, span.span());
-
-      input.setRowParameters((int) chunkSize + 65, 60);
-
       double ct = t1 - chunkSize;
-      List<TraceBuf> tbs = null;
-      final CodeTimer timer = new CodeTimer("chunk");
-      int total = 0;
-      double totalInsTime = 0;
-      double totalDlTime = 0;
       while (ct < t2) {
         if (quit) {
           LOGGER.debug("Job quitting");
@@ -124,126 +166,192 @@ public class ImportWSJob {
         }
         ct += chunkSize;
         final double ret = Math.min(ct + chunkSize + 5, t2 + 5);
-        final CodeTimer netTimer = new CodeTimer("net");
         LOGGER.debug("REQUESTING: {}_{}_{}_{} {}-{}",ss[0], ss[1], ss[2], loc, J2kSec.toDateString(ct - 5),
             J2kSec.toDateString(ret));
-        tbs = waveServer.getTraceBufs(ss[0], ss[1], ss[2], loc, Time.j2kToEw(ct - 5),
-            Time.j2kToEw(ret));
+        final List<TraceBuf> tbs;
+        final CodeTimer netTimer = new CodeTimer("net");
+        requests.acquire();
+        try {
+          tbs = waveServer.getTraceBufs(ss[0], ss[1], ss[2], loc, Time.j2kToEw(ct - 5),
+              Time.j2kToEw(ret));
+        } finally {
+          requests.release();
+        }
         netTimer.stop();
-        totalDlTime += netTimer.getTotalTimeMillis();
         if (tbs != null) {
           LOGGER.debug("Got {} tracebufs", tbs.size());
         } else {
           LOGGER.debug("Got null tracebufs");
         }
 
-        if (tbs != null && tbs.size() > 0) {
-          final Iterator<TraceBuf> it = tbs.iterator();
-          double minTime = 1E300;
-          double maxTime = -1E300;
-          while (it.hasNext()) {
-            final TraceBuf tb = it.next();
-            minTime = Math.min(tb.getStartTimeJ2K(), minTime);
-            maxTime = Math.max(tb.getEndTimeJ2K(), maxTime);
-            if (tb.getEndTimeJ2K() < t1 || tb.getStartTimeJ2K() > t2) {
-              // these are totally outside range so can be dropped quietly.
-              it.remove();
-              continue;
-            }
-            if (tb.getStartTimeJ2K() - t1 < -0.0001 || tb.getEndTimeJ2K() - t2 > 0.0001) {
-              it.remove();
-              LOGGER.debug("Overlapping TraceBuf skipped. {} - {}", tb.getStartTimeJ2K() - t1,
-                  tb.getEndTimeJ2K() - t2);
-              continue;
-            }
-            tb.createBytes();
-          }
-          if (tbs.size() == 0)
-            continue;
-          try {
-            if (chunkDelay > 0) {
-              LOGGER.debug("{}: delaying for {}ms...", channel, chunkDelay);
-              Thread.sleep(chunkDelay);
-            }
-          } catch (final Exception e) {
-            e.printStackTrace();
-          }
-          final CodeTimer inputTimer = new CodeTimer("input");
-          final List<InputEW.InputResult> results =
-              input.inputTraceBufs(tbs, rsamEnable, rsamDelta, rsamDuration);
-
-          inputTimer.stop();
-          totalInsTime += inputTimer.getTotalTimeMillis();
-          LOGGER.debug("{}: {} tb ({}/{}ms), [{} -> {}, {}]", channel, tbs.size(),
-              netTimer.getRunTimeMillis(), inputTimer.getRunTimeMillis(),
-              J2kSec.toDateString(minTime), J2kSec.toDateString(maxTime),
-              Time.secondsToString(maxTime - minTime));
-
-          // TODO: clean this up, unify with ImportEW
-          if (results.size() == 1) {
-            // TODO: handle errors
-            final InputEW.InputResult result = results.get(0);
-            LOGGER.warn("Error: {}", result.code);
-          } else {
-            for (int i = 0; i < results.size() - 2; i++) {
-              final InputEW.InputResult result = results.get(i);
-              final TraceBuf tb = result.traceBuf;
-              switch (result.code) {
-                case SUCCESS_CREATED_TABLE:
-                  LOGGER.info("{}: day table created ({})", channel,
-                      J2kSec.format("yyyy-MM-dd", tb.getEndTimeJ2K() + 1));
-                  total++;
-                  LOGGER.debug("Insert: {}", tb.toString());
-                  break;
-                case SUCCESS:
-                  total++;
-                  LOGGER.debug("Insert: {}", tb.toString());
-                  break;
-                case ERROR_DATABASE:
-                  // fixing
-                  LOGGER.debug("Database error: {}", tb.toString());
-                  break;
-                case ERROR_UNKNOWN:
-                  LOGGER.warn("Unknown insert error: {}", tb.toString());
-                  break;
-                case ERROR_CHANNEL:
-                case ERROR_NULL_TRACEBUF:
-                  // these errors should never occur
-                  LOGGER.warn("Bad channel/null TraceBuf.");
-                  break;
-                case ERROR_DUPLICATE:
-                  LOGGER.info("Duplicate TraceBuf: {}", tb.toString());
-                  break;
-                case NO_CODE:
-                  // this should never occur
-                  LOGGER.warn("No error/success code: {}", tb.toString());
-                  break;
-                case ERROR_HELICORDER:
-                  break;
-                case ERROR_INPUT:
-                  break;
-                case ERROR_NO_WINSTON:
-                  break;
-                case ERROR_TIME_SPAN:
-                  break;
-                case SUCCESS_HELICORDER:
-                  break;
-                case SUCCESS_TIME_SPAN:
-                  break;
-                default:
-                  break;
-              }
-            }
+        put(queue, new Chunk(tbs == null ? new ArrayList<TraceBuf>() : tbs,
+            Math.min(ct + chunkSize, t2) - ct, netTimer.getTotalTimeMillis()));
+
+        if (chunkDelay > 0 && ct + chunkSize < t2) {
+          LOGGER.debug("{}: delaying for {}ms...", channel, chunkDelay);
+          Thread.sleep(chunkDelay);
+        }
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final Throwable t) {
+      LOGGER.error("{}: download failed. ({})", channel, t.getMessage());
+    } finally {
+      try {
+        put(queue, END);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Insert the TraceBufs of a chunk which fall within a gap.
+   *
+   * @return TraceBufs inserted
+   */
+  private int insert(final List<TraceBuf> tbs, final double t1, final double t2) {
+    int total = 0;
+    if (tbs.size() > 0) {
+      final Iterator<TraceBuf> it = tbs.iterator();
+      double minTime = 1E300;
+      double maxTime = -1E300;
+      while (it.hasNext()) {
+        final TraceBuf tb = it.next();
+        minTime = Math.min(tb.getStartTimeJ2K(), minTime);
+        maxTime = Math.max(tb.getEndTimeJ2K(), maxTime);
+        if (tb.getEndTimeJ2K() < t1 || tb.getStartTimeJ2K() > t2) {
+          // these are totally outside range so can be dropped quietly.
+          it.remove();
+          continue;
+        }
+        if (tb.getStartTimeJ2K() - t1 < -0.0001 || tb.getEndTimeJ2K() - t2 > 0.0001) {
+          it.remove();
+          LOGGER.debug("Overlapping TraceBuf skipped. {} - {}", tb.getStartTimeJ2K() - t1,
+              tb.getEndTimeJ2K() - t2);
+          continue;
+        }
+        tb.createBytes();
+      }
+      if (tbs.size() == 0)
+        return 0;
+      final List<AppendResult> results =
+          store.append(tbs, rsamEnable, rsamDelta, rsamDuration, BlobCodec.DEFAULT);
+      LOGGER.debug("{}: {} tb, [{} -> {}, {}]", channel, tbs.size(),
+          J2kSec.toDateString(minTime), J2kSec.toDateString(maxTime),
+          Time.secondsToString(maxTime - minTime));
+
+      // TODO: clean this up, unify with ImportEW
+      if (results.size() == 1) {
+        // TODO: handle errors
+        final AppendResult result = results.get(0);
+        LOGGER.warn("Error: {}", result.code);
+      } else {
+        for (int i = 0; i < results.size() - 2; i++) {
+          final AppendResult result = results.get(i);
+          final TraceBuf tb = result.traceBuf;
+          switch (result.code) {
+            case SUCCESS_NEW_DAY:
+              LOGGER.info("{}: day table created ({})", channel,
+                  J2kSec.format("yyyy-MM-dd", tb.getEndTimeJ2K() + 1));
+              total++;
+              LOGGER.debug("Insert: {}", tb.toString());
+              break;
+            case SUCCESS:
+              total++;
+              LOGGER.debug("Insert: {}", tb.toString());
+              break;
+            case ERROR_DATABASE:
+              // fixing
+              LOGGER.debug("Database error: {}", tb.toString());
+              break;
+            case ERROR_UNKNOWN:
+              LOGGER.warn("Unknown insert error: {}", tb.toString());
+              break;
+            case ERROR_CHANNEL:
+            case ERROR_NULL_TRACEBUF:
+              // these errors should never occur
+              LOGGER.warn("Bad channel/null TraceBuf.");
+              break;
+            case ERROR_DUPLICATE:
+              LOGGER.info("Duplicate TraceBuf: {}", tb.toString());
+              break;
+            case NO_CODE:
+              // this should never occur
+              LOGGER.warn("No error/success code: {}", tb.toString());
+              break;
+            case ERROR_HELICORDER:
+              break;
+            case ERROR_INPUT:
+              break;
+            case ERROR_NO_WINSTON:
+              break;
+            case ERROR_TIME_SPAN:
+              break;
+            case SUCCESS_HELICORDER:
+              break;
+            case SUCCESS_TIME_SPAN:
+              break;
+            default:
+              break;
           }
         }
       }
+    }
+    return total;
+  }
+
+  private void getData(final TimeSpan span) {
+    LOGGER.debug("start get data");
+    Thread downloader = null;
+    try {
+      final double t1 = J2kSec.fromEpoch(span.startTime);
+      final double t2 = J2kSec.fromEpoch(span.endTime);
+
+      LOGGER.info("{}: downloading gap: {} ({})", channel, span, span.span());
+
+      store.setRecentRows((int) chunkSize + 65);
+
+      // download chunk k + 1 while chunk k is inserted
+      final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(queueSize);
+      downloader = new Thread(new Runnable() {
+        public void run() {
+          download(span, queue);
+        }
+      }, "ImportWS " + channel);
+      downloader.start();
+
+      final CodeTimer timer = new CodeTimer("chunk");
+      int total = 0;
+      while (!quit) {
+        final Chunk chunk = queue.poll(1, TimeUnit.SECONDS);
+        if (chunk == null) {
+          continue;
+        } else if (chunk == END) {
+          break;
+        }
+        final CodeTimer inputTimer = new CodeTimer("input");
+        final int inserted = insert(chunk.tbs, t1, t2);
+        inputTimer.stop();
+        total += inserted;
+        importWS.addStats(inserted, chunk.dlTime, inputTimer.getTotalTimeMillis(), chunk.seconds);
+      }
       timer.stop();
-      importWS.addStats(total, totalDlTime, totalInsTime);
       LOGGER.info("{}: gap {}, {} tbs inserted in {}ms ({}ms/tb)", channel,
           (quit ? "interrupted" : "finished"), total, timer.getTotalTimeMillis(),
           (total == 0 ? 0 : timer.getTotalTimeMillis() / total));
     } catch (final Throwable t) {
       t.printStackTrace();
+    } finally {
+      if (downloader != null) {
+        // stops a downloader left waiting on a full queue when inserts end early
+        downloader.interrupt();
+        try {
+          downloader.join();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
     }
     LOGGER.debug("end get data");
 
@@ -3,6 +3,7 @@ package gov.usgs.volcanoes.winston.in.ew;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.winston.db.BlobCodec;
 
 /**
  *
@@ -18,6 +19,7 @@ public class Options {
   public int rsamDelta;
   public int rsamDuration;
   public int maxDays;
+  public BlobCodec codec;
 
   public Options() {}
 
@@ -32,6 +34,14 @@ public class Options {
     threshold.rsamDelta = StringUtils.stringToInt(cf.getString("rsam.delta"), defaults.rsamDelta);
     threshold.rsamDuration = StringUtils.stringToInt(cf.getString("rsam.duration"), defaults.rsamDuration);
     threshold.maxDays = StringUtils.stringToInt(cf.getString("maxDays"), defaults.maxDays);
+    threshold.codec = defaults.codec;
+    final String codec = cf.getString("codec");
+    if (codec != null) {
+      threshold.codec = BlobCodec.forName(codec);
+      if (threshold.codec == null) {
+        throw new IllegalArgumentException("Unknown codec: " + codec);
+      }
+    }
     return threshold;
   }
 
@@ -42,7 +52,7 @@ public class Options {
         return true;
     }
 
-    if (size > bufThreshold)
+    if (size >= bufThreshold)
       return true;
 
     return false;
@@ -51,7 +61,8 @@ public class Options {
   @Override
   public String toString() {
     return String.format(
-        "timeThreshold=%.1f, traceBufThreshold=%d, maxBacklog=%d, maxDays=%d, rsam.enable=%s, rsam.delta=%d, rsam.duration=%d",
-        timeThreshold, bufThreshold, maxBacklog, maxDays, rsamEnable, rsamDelta, rsamDuration);
+        "timeThreshold=%.1f, traceBufThreshold=%d, maxBacklog=%d, maxDays=%d, rsam.enable=%s, rsam.delta=%d, rsam.duration=%d, codec=%s",
+        timeThreshold, bufThreshold, maxBacklog, maxDays, rsamEnable, rsamDelta, rsamDuration,
+        codec);
   }
 }
@@ -0,0 +1,651 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.in.ew;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPException;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Parameter;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.core.legacy.ew.Menu;
+import gov.usgs.volcanoes.core.legacy.ew.MenuItem;
+import gov.usgs.volcanoes.core.legacy.ew.WaveServer;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.core.time.Time;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.winston.db.AppendResult;
+import gov.usgs.volcanoes.winston.db.BlobCodec;
+import gov.usgs.volcanoes.winston.db.Channels;
+import gov.usgs.volcanoes.winston.db.WaveStore;
+import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+
+/**
+ * Follow a remote wave server, copying new data into a Winston database as it arrives.
+ *
+ * <p>
+ * Each channel keeps a high-water mark, the end of the newest TraceBuf copied, starting from the
+ * end of the channel in the local database. A poll asks the wave server for the data after the
+ * mark and appends what comes back through the wave store. Channels are polled in order of when
+ * they are next due. A channel which returned data is next polled after about one TraceBuf's
+ * length, one which is behind by more than a chunk is polled again at once, and one which
+ * returned nothing backs off, up to pollMax. The mark only passes TraceBufs which are stored: when
+ * an append fails it stops at the end of those stored before the first failure, and the channel
+ * backs off before asking for the rest again. Data arriving behind the mark is not copied; run
+ * ImportWS to fill such gaps.
+ *
+ * <p>
+ * Replication lag, the time between now and a channel's mark, and how far the mark trails the
+ * source's menu are logged every statusInterval and printed on request.
+ */
+public class ReplicateWS {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReplicateWS.class);
+
+  private static final String DEFAULT_CONFIG_FILENAME = "ReplicateWS.config";
+  private static final double DEFAULT_CHUNK_SIZE = 600;
+  private static final double DEFAULT_BACKLOG = 600;
+  private static final double DEFAULT_POLL_MIN = 1;
+  private static final double DEFAULT_POLL_MAX = 30;
+  private static final int DEFAULT_MENU_INTERVAL = 60;
+  private static final int DEFAULT_STATUS_INTERVAL = 60;
+  private static final double DEFAULT_LAG_WARNING = 300;
+
+  private static final boolean DEFAULT_RSAM_ENABLE = true;
+  private static final int DEFAULT_RSAM_DELTA = 10;
+  private static final int DEFAULT_RSAM_DURATION = 60;
+
+  // JSAP related stuff.
+  public static String JSAP_PROGRAM_NAME = "java gov.usgs.volcanoes.winston.in.ew.ReplicateWS";
+  public static String JSAP_EXPLANATION_PREFACE = "Winston ReplicateWS\n" + "\n"
+      + "This program follows a Winston wave server and copies new data\n"
+      + "into a Winston database as it arrives. See 'ReplicateWS.config' for more options.\n"
+      + "\n";
+
+  private static final String DEFAULT_JSAP_EXPLANATION = "All output goes to standard error.\n"
+      + "The command line takes precedence over the config file.\n";
+
+  private static final Parameter[] DEFAULT_JSAP_PARAMETERS = new Parameter[] {
+      new FlaggedOption("waveServer", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'w',
+          "waveserver", "The Winston wave server to follow.\n").setUsageName("host:port"),
+      new Switch("noInput", 'i', "noinput", "Do not poll keyboard for input."),
+      new Switch("SCNL", 'l', "SCNL", "Always request SCNL"),
+      new UnflaggedOption("configFilename", JSAP.STRING_PARSER, DEFAULT_CONFIG_FILENAME,
+          JSAP.REQUIRED, JSAP.NOT_GREEDY, "The config file name.")};
+
+  /**
+   * Replication state of one channel.
+   */
+  static class Follower {
+    final String code;
+    final String station;
+    final String channel;
+    final String network;
+    final String location;
+
+    /** end of the newest TraceBuf copied */
+    double mark;
+
+    /** end of the channel on the source, as far as is known */
+    double sourceEnd;
+
+    /** seconds until the next poll */
+    double interval;
+
+    /** when the channel is next polled, ms */
+    long nextPoll;
+
+    int inserted;
+    int failures;
+
+    Follower(final String code, final boolean requestSCNL) {
+      this.code = code;
+      final String[] ss = code.split("\\$");
+      station = ss[0];
+      channel = ss[1];
+      network = ss[2];
+      location = ss.length == 4 ? ss[3] : (requestSCNL ? "--" : null);
+    }
+
+    double lag() {
+      return J2kSec.now() - mark;
+    }
+
+    double behind() {
+      return Math.max(0, sourceEnd - mark);
+    }
+
+    /**
+     * Plan the next poll.
+     *
+     * @param received TraceBufs received which were newer than the mark
+     * @param packetLength mean length of those TraceBufs, seconds
+     * @param more true if the source holds data beyond what was asked for
+     */
+    void schedule(final int received, final double packetLength, final boolean more,
+        final double pollMin, final double pollMax) {
+      if (more) {
+        interval = 0;
+      } else if (received > 0) {
+        interval = Math.max(pollMin, Math.min(pollMax, packetLength));
+      } else {
+        interval = Math.min(pollMax, Math.max(pollMin, interval * 2));
+      }
+      nextPoll = System.currentTimeMillis() + (long) (interval * 1000);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-16s %-23s %10s %10s %6.1fs %8d %6d", code,
+          J2kSec.toDateString(mark), Time.secondsToString(lag()), Time.secondsToString(behind()),
+          interval, inserted, failures);
+    }
+  }
+
+  private static final Comparator<Follower> BY_NEXT_POLL = new Comparator<Follower>() {
+    public int compare(final Follower a, final Follower b) {
+      return a.nextPoll < b.nextPoll ? -1 : (a.nextPoll == b.nextPoll ? 0 : 1);
+    }
+  };
+
+  private static final Comparator<TraceBuf> BY_START = new Comparator<TraceBuf>() {
+    public int compare(final TraceBuf a, final TraceBuf b) {
+      return Double.compare(a.getStartTimeJ2K(), b.getStartTimeJ2K());
+    }
+  };
+
+  private static final Comparator<Follower> BY_LAG = new Comparator<Follower>() {
+    public int compare(final Follower a, final Follower b) {
+      return Double.compare(a.mark, b.mark);
+    }
+  };
+
+  private final ConfigFile config;
+  private WinstonDatabase winston;
+  private WaveServer waveServer;
+  private Channels channels;
+  private WaveStore store;
+
+  private boolean createChannels;
+  private boolean requestSCNL;
+  private List<String> sourceChannels;
+
+  private double chunkSize;
+  private double backlog;
+  private double pollMin;
+  private double pollMax;
+  private int menuInterval;
+  private int statusInterval;
+  private double lagWarning;
+
+  private boolean rsamEnable;
+  private int rsamDelta;
+  private int rsamDuration;
+  private BlobCodec codec;
+
+  private final Map<String, Follower> followers;
+  private final PriorityQueue<Follower> schedule;
+  private boolean connected;
+
+  private volatile boolean statusRequested = false;
+  private volatile boolean quit = false;
+
+  public ReplicateWS(final String fileName) {
+    config = new ConfigFile(fileName);
+    followers = new HashMap<String, Follower>();
+    schedule = new PriorityQueue<Follower>(64, BY_NEXT_POLL);
+    processConfig();
+  }
+
+  private void processConfig() {
+    winston = WinstonDatabase.processWinstonConfigFile(config);
+    LOGGER.info("winston.driver: " + winston.dbDriver);
+    LOGGER.info("winston.url: " + winston.dbURL);
+    LOGGER.info("winston.prefix: " + winston.databasePrefix);
+
+    if (StringUtils.stringToBoolean(config.getString("createDatabase"))) {
+      winston.checkDatabase();
+    }
+
+    final String s = config.getString("waveServer");
+    if (s == null)
+      throw new RuntimeException("no waveServer string");
+    waveServer = new WaveServer(s);
+    LOGGER.info("waveServer: {}:{}", waveServer.host, waveServer.port);
+
+    createChannels = StringUtils.stringToBoolean(config.getString("createChannels"));
+    LOGGER.info("createChannels: {}", createChannels);
+
+    sourceChannels = config.getList("channel");
+    LOGGER.info("sourceChannels: {}", sourceChannels);
+
+    chunkSize = StringUtils.stringToDouble(config.getString("chunkSize"), DEFAULT_CHUNK_SIZE);
+    LOGGER.info("chunkSize: {}", chunkSize);
+
+    backlog = StringUtils.stringToDouble(config.getString("backlog"), DEFAULT_BACKLOG);
+    LOGGER.info("backlog: {}", backlog);
+
+    pollMin = StringUtils.stringToDouble(config.getString("pollMin"), DEFAULT_POLL_MIN);
+    LOGGER.info("pollMin: {}", pollMin);
+
+    pollMax = Math.max(pollMin,
+        StringUtils.stringToDouble(config.getString("pollMax"), DEFAULT_POLL_MAX));
+    LOGGER.info("pollMax: {}", pollMax);
+
+    menuInterval =
+        StringUtils.stringToInt(config.getString("menuInterval"), DEFAULT_MENU_INTERVAL);
+    LOGGER.info("menuInterval: {}", menuInterval);
+
+    statusInterval =
+        StringUtils.stringToInt(config.getString("statusInterval"), DEFAULT_STATUS_INTERVAL);
+    LOGGER.info("statusInterval: {}", statusInterval);
+
+    lagWarning = StringUtils.stringToDouble(config.getString("lagWarning"), DEFAULT_LAG_WARNING);
+    LOGGER.info("lagWarning: {}", lagWarning);
+
+    rsamEnable = StringUtils.stringToBoolean(config.getString("rsam.enable"), DEFAULT_RSAM_ENABLE);
+    rsamDelta = StringUtils.stringToInt(config.getString("rsam.delta"), DEFAULT_RSAM_DELTA);
+    rsamDuration =
+        StringUtils.stringToInt(config.getString("rsam.duration"), DEFAULT_RSAM_DURATION);
+    LOGGER.info("rsam: {} {}/{}", rsamEnable, rsamDelta, rsamDuration);
+
+    codec = BlobCodec.forName(StringUtils.stringToString(config.getString("codec"),
+        BlobCodec.DEFAULT.getName()));
+    if (codec == null) {
+      throw new RuntimeException("unknown codec " + config.getString("codec"));
+    }
+    LOGGER.info("codec: {}", codec);
+
+    channels = new Channels(winston);
+    store = winston.getWaveStore();
+    store.configure(config);
+  }
+
+  public void setWaveServer(final WaveServer ws) {
+    waveServer = ws;
+  }
+
+  public void setRequestSCNL(final boolean requestSCNL) {
+    this.requestSCNL = requestSCNL;
+  }
+
+  private void connect() {
+    if (!connected) {
+      waveServer.connect();
+      connected = true;
+    }
+  }
+
+  private void disconnect() {
+    if (connected) {
+      waveServer.close();
+      connected = false;
+    }
+  }
+
+  /**
+   * Read the source's menu, following newly matched channels and noting where each channel ends.
+   */
+  private void refreshMenu() {
+    connect();
+    final Menu menu = waveServer.getMenuSCNL();
+    if (menu == null) {
+      LOGGER.warn("Could not get menu from {}:{}", waveServer.host, waveServer.port);
+      disconnect();
+      return;
+    }
+
+    for (final MenuItem item : menu.getItems()) {
+      final String code = item.getSCNSCNL("$");
+      Follower follower = followers.get(code);
+      if (follower == null) {
+        if (!matches(item) || !prepareChannel(code)) {
+          continue;
+        }
+        follower = new Follower(code, requestSCNL);
+        follower.mark = startMark(code, Time.ewToj2k(item.startTime));
+        follower.interval = pollMin;
+        LOGGER.info("{}: following from {}", code, J2kSec.toDateString(follower.mark));
+        followers.put(code, follower);
+        schedule.add(follower);
+      }
+      follower.sourceEnd = Math.max(follower.sourceEnd, Time.ewToj2k(item.endTime));
+    }
+  }
+
+  private boolean matches(final MenuItem item) {
+    for (final String channel : sourceChannels) {
+      final String[] ss = channel.split("[\\$\\_ ]");
+      final String loc = ss.length == 4 ? ss[3] : null;
+      if (item.match(ss[0], ss[1], ss[2], loc)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean prepareChannel(final String code) {
+    if (channels.channelExists(code)) {
+      return true;
+    }
+    if (!createChannels) {
+      return false;
+    }
+    LOGGER.info("Creating new channel '{}' in Winston database.", code);
+    return channels.createChannel(code);
+  }
+
+  /**
+   * The mark a channel starts from: the end of its local data, or the backlog before now.
+   */
+  private double startMark(final String code, final double sourceStart) {
+    final double[] span = store.getTimeSpan(code);
+    if (span != null && span[1] > 0) {
+      return span[1];
+    }
+    return Math.max(sourceStart, J2kSec.now() - backlog);
+  }
+
+  /**
+   * Copy a channel's data newer than its mark.
+   */
+  private void poll(final Follower follower) {
+    final double now = J2kSec.now();
+    final double t1 = follower.mark;
+    final double t2 = Math.min(t1 + chunkSize, now);
+
+    connect();
+    final List<TraceBuf> tbs = waveServer.getTraceBufs(follower.station, follower.channel,
+        follower.network, follower.location, Time.j2kToEw(t1), Time.j2kToEw(t2));
+    if (tbs == null) {
+      follower.failures++;
+      disconnect();
+      follower.schedule(0, 0, false, pollMin, pollMax);
+      return;
+    }
+
+    double packetLength = 0;
+    double end = t1;
+    final Iterator<TraceBuf> it = tbs.iterator();
+    while (it.hasNext()) {
+      final TraceBuf tb = it.next();
+      if (tb.getStartTimeJ2K() <= t1) {
+        it.remove();
+        continue;
+      }
+      tb.createBytes();
+      packetLength += tb.getEndTimeJ2K() - tb.getStartTimeJ2K();
+      end = Math.max(end, tb.getEndTimeJ2K());
+    }
+
+    if (!tbs.isEmpty()) {
+      final double copied = insert(follower, tbs, t1);
+      packetLength /= tbs.size();
+      follower.mark = copied;
+      follower.sourceEnd = Math.max(follower.sourceEnd, end);
+      if (copied < end) {
+        // ask again for what was not stored, after backing off
+        follower.schedule(0, 0, false, pollMin, pollMax);
+        return;
+      }
+    } else if (t2 < follower.sourceEnd) {
+      // a hole in the source, step over it
+      LOGGER.debug("{}: no data {} - {}", follower.code, J2kSec.toDateString(t1),
+          J2kSec.toDateString(t2));
+      follower.mark = t2;
+    }
+
+    final boolean more = t2 < now && follower.mark < follower.sourceEnd;
+    follower.schedule(tbs.size(), packetLength, more, pollMin, pollMax);
+  }
+
+  /**
+   * Append TraceBufs to the store, oldest first.
+   *
+   * @param t1 the mark the TraceBufs were asked for after
+   * @return end of the TraceBufs stored, or already stored, before the first which failed; t1 if
+   *         the first failed
+   */
+  private double insert(final Follower follower, final List<TraceBuf> tbs, final double t1) {
+    Collections.sort(tbs, BY_START);
+    final List<AppendResult> results =
+        store.append(tbs, rsamEnable, rsamDelta, rsamDuration, codec);
+    if (results == null || results.size() < tbs.size()) {
+      follower.failures += tbs.size();
+      LOGGER.warn("{}: could not insert {} TraceBufs", follower.code, tbs.size());
+      return t1;
+    }
+
+    final Map<TraceBuf, AppendResult.Code> codes =
+        new IdentityHashMap<TraceBuf, AppendResult.Code>();
+    for (final AppendResult result : results) {
+      if (result.traceBuf != null) {
+        codes.put(result.traceBuf, result.code);
+      }
+    }
+
+    double copied = t1;
+    boolean contiguous = true;
+    for (final TraceBuf tb : tbs) {
+      final AppendResult.Code code = codes.get(tb);
+      boolean stored = true;
+      if (code == null) {
+        stored = false;
+        follower.failures++;
+      } else {
+        switch (code) {
+          case SUCCESS_NEW_DAY:
+            LOGGER.info("{}: day table created", follower.code);
+            follower.inserted++;
+            break;
+          case SUCCESS:
+            follower.inserted++;
+            break;
+          case ERROR_DUPLICATE:
+            break;
+          default:
+            stored = false;
+            follower.failures++;
+            LOGGER.debug("{}: insert failed, {}", follower.code, code);
+            break;
+        }
+      }
+      contiguous &= stored;
+      if (contiguous) {
+        copied = Math.max(copied, tb.getEndTimeJ2K());
+      }
+    }
+    if (!contiguous) {
+      LOGGER.warn("{}: insert failed, holding mark at {}", follower.code,
+          J2kSec.toDateString(copied));
+    }
+    return copied;
+  }
+
+  /**
+   * Poll channels as they come due until told to quit.
+   */
+  public void follow() {
+    long nextMenu = 0;
+    long nextStatus = System.currentTimeMillis() + statusInterval * 1000L;
+    while (!quit) {
+      try {
+        long now = System.currentTimeMillis();
+        if (now >= nextMenu) {
+          refreshMenu();
+          nextMenu = now + menuInterval * 1000L;
+        }
+        if (statusInterval > 0 && now >= nextStatus) {
+          logStatus();
+          nextStatus = now + statusInterval * 1000L;
+        }
+        if (statusRequested) {
+          statusRequested = false;
+          printStatus();
+        }
+
+        final Follower follower = schedule.peek();
+        final long due = follower == null ? nextMenu : Math.min(follower.nextPoll, nextMenu);
+        now = System.currentTimeMillis();
+        if (due > now) {
+          Thread.sleep(Math.min(due - now, 250));
+          continue;
+        }
+        if (follower != null && follower.nextPoll <= now) {
+          schedule.poll();
+          try {
+            poll(follower);
+          } finally {
+            schedule.add(follower);
+          }
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (final RuntimeException e) {
+        LOGGER.error("Replication error. ({})", e.getMessage());
+        disconnect();
+      }
+    }
+    disconnect();
+    winston.close();
+    LOGGER.info("Stopped following.");
+  }
+
+  private List<Follower> byLag() {
+    final List<Follower> list = new ArrayList<Follower>(followers.values());
+    Collections.sort(list, BY_LAG);
+    return list;
+  }
+
+  /**
+   * Log the worst lag, and every channel trailing the source by more than lagWarning.
+   */
+  private void logStatus() {
+    final List<Follower> list = byLag();
+    if (list.isEmpty()) {
+      LOGGER.info("No channels followed.");
+      return;
+    }
+
+    int inserted = 0;
+    for (final Follower follower : list) {
+      inserted += follower.inserted;
+      if (follower.behind() > lagWarning) {
+        LOGGER.warn("{}: {} behind source, lag {}", follower.code,
+            Time.secondsToString(follower.behind()), Time.secondsToString(follower.lag()));
+      }
+    }
+    final Follower worst = list.get(0);
+    final Follower median = list.get(list.size() / 2);
+    LOGGER.info("{} channels, {} tbs inserted, lag median {}, max {} ({})", list.size(), inserted,
+        Time.secondsToString(median.lag()), Time.secondsToString(worst.lag()), worst.code);
+  }
+
+  /**
+   * Ask for the replication lag of each channel to be printed, worst first.
+   */
+  public void requestStatus() {
+    statusRequested = true;
+  }
+
+  private void printStatus() {
+    final String header = String.format("%-16s %-23s %10s %10s %7s %8s %6s", "Channel", "Mark",
+        "Lag", "Behind", "Poll", "Inserts", "Fails");
+    System.out.println(header);
+    for (final Follower follower : byLag()) {
+      System.out.println(follower);
+    }
+    System.out.println(header);
+  }
+
+  public void go() {
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        follow();
+      }
+    }, "ReplicateWS");
+    thread.start();
+  }
+
+  public void quit() {
+    LOGGER.info("Quitting cleanly.");
+    quit = true;
+  }
+
+  private static JSAPResult getArguments(final String[] args) throws JSAPException {
+    JSAPResult config = null;
+    final SimpleJSAP jsap = new SimpleJSAP(JSAP_PROGRAM_NAME,
+        JSAP_EXPLANATION_PREFACE + DEFAULT_JSAP_EXPLANATION, DEFAULT_JSAP_PARAMETERS);
+
+    config = jsap.parse(args);
+
+    if (jsap.messagePrinted()) {
+      // The following error message is useful for catching the case
+      // when args are missing, but help isn't printed.
+      if (!config.getBoolean("help"))
+        throw new RuntimeException("Try using the --help flag.");
+    }
+
+    return config;
+  }
+
+  public static void printKeys() {
+    final StringBuffer sb = new StringBuffer();
+    sb.append("Keys:\n");
+    sb.append("   s: print replication lag\n");
+    sb.append("   q: quit\n");
+    sb.append("   ?: display keys\n");
+
+    System.out.println(sb);
+  }
+
+  public static void main(final String[] args) throws IOException, JSAPException {
+    final JSAPResult config = getArguments(args);
+    final ReplicateWS r = new ReplicateWS(config.getString("configFilename"));
+
+    if (config.getString("waveServer") != null)
+      r.setWaveServer(new WaveServer(config.getString("waveServer")));
+
+    r.setRequestSCNL(config.getBoolean("SCNL"));
+    r.go();
+
+    final boolean acceptCommands = !(config.getBoolean("noInput"));
+    final BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+    while (acceptCommands && !r.quit) {
+      String s = in.readLine();
+      if (s == null)
+        break;
+      s = s.toLowerCase().trim();
+      if (s.equals("q"))
+        r.quit();
+      else if (s.equals("s"))
+        r.requestStatus();
+      else
+        printKeys();
+    }
+  }
+}
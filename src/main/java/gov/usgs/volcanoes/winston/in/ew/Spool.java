@@ -0,0 +1,489 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.in.ew;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+/**
+ * TraceBufs waiting for the database, kept in append-only memory mapped files.
+ *
+ * <p>
+ * Each file starts with a magic number and a version. Records follow: body length, CRC32 of the
+ * body, the sequence number to acknowledge, an acknowledge flag, a state byte, a retry count and
+ * a pad byte, then the body, the TraceBuf. A record's state is set in place once it is written to
+ * the database. Pending records are indexed in memory by channel and start time, so each channel
+ * drains in time order.
+ *
+ * <p>
+ * A file whose records are all written is kept and written again from the start, rather than
+ * deleted, since a mapped file cannot be unmapped on demand and some platforms refuse to delete it
+ * while mapped. Each record is followed by a zero length, so stale records past the end of a
+ * reused file are never read back. Drained files count against the spool's size limit.
+ *
+ * <p>
+ * Records survive a restart: files left behind are scanned when the spool is opened, up to the
+ * first incomplete record or one which fails its CRC. TraceBufs from an earlier run are written
+ * but not acknowledged, their connection being gone.
+ */
+public class Spool {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Spool.class);
+
+  private static final int MAGIC = 0x5753504c;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int RECORD_HEADER_SIZE = 16;
+  private static final int STATE_OFFSET = 13;
+  private static final int TRIES_OFFSET = 14;
+  private static final byte PENDING = 0;
+  private static final byte DONE = 1;
+  private static final String PREFIX = "spool";
+  private static final String SUFFIX = ".dat";
+
+  private static final Comparator<Entry> BY_START = new Comparator<Entry>() {
+    public int compare(final Entry a, final Entry b) {
+      int cmp = Double.compare(a.startTime, b.startTime);
+      if (cmp == 0) {
+        cmp = a.file.number - b.file.number;
+      }
+      if (cmp == 0) {
+        cmp = a.offset - b.offset;
+      }
+      return cmp;
+    }
+  };
+
+  /**
+   * A spooled TraceBuf.
+   */
+  public static class Entry {
+    private final SpoolFile file;
+    private final int offset;
+    private final String channel;
+    private final double startTime;
+
+    /** the TraceBuf, once taken from the spool */
+    public TraceBuf traceBuf;
+
+    /** true if the TraceBuf should be acknowledged once written */
+    public boolean sendAck;
+
+    /** sequence number to acknowledge */
+    public int seq;
+
+    private Entry(final SpoolFile file, final int offset, final String channel,
+        final double startTime) {
+      this.file = file;
+      this.offset = offset;
+      this.channel = channel;
+      this.startTime = startTime;
+    }
+  }
+
+  private static class SpoolFile {
+    final int number;
+    final File file;
+    final MappedByteBuffer map;
+    boolean current;
+    int end;
+    int live;
+
+    SpoolFile(final int number, final File file, final int size, final boolean current)
+        throws IOException {
+      this.number = number;
+      this.file = file;
+      this.current = current;
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        if (current) {
+          raf.setLength(size);
+        }
+        map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  private final File dir;
+  private final int fileSize;
+  private final long maxSize;
+  private final int maxRetries;
+  private final List<SpoolFile> files;
+  private final List<SpoolFile> spares;
+  private final Map<String, TreeSet<Entry>> index;
+  private SpoolFile writing;
+  private int nextNumber;
+  private int pending;
+  private long appended;
+  private long drained;
+  private long dropped;
+
+  /**
+   * Open a spool, recovering records left by an earlier run.
+   *
+   * @param dir directory holding spool files
+   * @param fileSize size of each spool file, bytes
+   * @param maxSize most bytes of spool files on disk
+   * @param maxRetries times a TraceBuf may fail to be written before it is dropped
+   * @throws IOException if the directory cannot be used
+   */
+  public Spool(final File dir, final int fileSize, final long maxSize, final int maxRetries)
+      throws IOException {
+    this.dir = dir;
+    this.fileSize = fileSize;
+    this.maxSize = maxSize;
+    this.maxRetries = maxRetries;
+    files = new ArrayList<SpoolFile>();
+    spares = new ArrayList<SpoolFile>();
+    index = new HashMap<String, TreeSet<Entry>>();
+
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create " + dir);
+    }
+    recover();
+  }
+
+  private static File[] listSpoolFiles(final File dir) {
+    final File[] found = dir.listFiles(new FilenameFilter() {
+      public boolean accept(final File d, final String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }
+    });
+    if (found == null) {
+      return new File[0];
+    }
+    Arrays.sort(found);
+    return found;
+  }
+
+  private static int fileNumber(final File file) {
+    final String name = file.getName();
+    try {
+      return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    } catch (final NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void recover() throws IOException {
+    for (final File f : listSpoolFiles(dir)) {
+      final int number = fileNumber(f);
+      if (number < 0) {
+        continue;
+      }
+      nextNumber = Math.max(nextNumber, number + 1);
+
+      final SpoolFile file = new SpoolFile(number, f, 0, false);
+      if (file.map.limit() < HEADER_SIZE || file.map.getInt(0) != MAGIC
+          || file.map.getInt(4) != VERSION) {
+        LOGGER.warn("Ignoring {}, not a spool file", f);
+        continue;
+      }
+
+      final CRC32 crc = new CRC32();
+      int pos = HEADER_SIZE;
+      while (pos + RECORD_HEADER_SIZE <= file.map.limit()) {
+        final int length = file.map.getInt(pos);
+        if (length <= 0 || pos + RECORD_HEADER_SIZE + length > file.map.limit()) {
+          break;
+        }
+        final byte[] body = body(file, pos, length);
+        crc.reset();
+        crc.update(body);
+        if ((int) crc.getValue() != file.map.getInt(pos + 4)) {
+          break;
+        }
+        if (file.map.get(pos + STATE_OFFSET) == PENDING) {
+          try {
+            final TraceBuf tb = new TraceBuf(body);
+            index(new Entry(file, pos, tb.toWinstonString(), tb.getStartTimeJ2K()));
+            file.live++;
+          } catch (final IOException e) {
+            LOGGER.warn("Skipping unreadable record in {}. ({})", f, e.getMessage());
+          }
+        }
+        pos += RECORD_HEADER_SIZE + length;
+      }
+      file.end = pos;
+
+      if (file.live == 0) {
+        retire(file);
+      } else {
+        LOGGER.info("Recovered {} spooled TraceBufs from {}", file.live, f);
+        files.add(file);
+      }
+    }
+  }
+
+  private static byte[] body(final SpoolFile file, final int pos, final int length) {
+    final byte[] body = new byte[length];
+    final ByteBuffer dup = file.map.duplicate();
+    dup.position(pos + RECORD_HEADER_SIZE);
+    dup.get(body);
+    return body;
+  }
+
+  private void index(final Entry entry) {
+    TreeSet<Entry> entries = index.get(entry.channel);
+    if (entries == null) {
+      entries = new TreeSet<Entry>(BY_START);
+      index.put(entry.channel, entries);
+    }
+    entries.add(entry);
+    pending++;
+  }
+
+  /**
+   * Set aside a file whose records are all written, to be reused if it is the configured size.
+   */
+  private void retire(final SpoolFile file) {
+    files.remove(file);
+    if (file.map.capacity() == fileSize) {
+      spares.add(file);
+      LOGGER.debug("Keeping spool file {} for reuse", file.file);
+    } else if (file.file.delete()) {
+      LOGGER.debug("Deleted spool file {}", file.file);
+    } else {
+      LOGGER.warn("Could not delete spool file {}", file.file);
+    }
+  }
+
+  private long diskSize() {
+    long size = 0;
+    for (final SpoolFile file : files) {
+      size += file.map.capacity();
+    }
+    for (final SpoolFile file : spares) {
+      size += file.map.capacity();
+    }
+    return size;
+  }
+
+  private SpoolFile writable(final int length) throws IOException {
+    if (writing != null && writing.end + length + 4 <= writing.map.capacity()) {
+      return writing;
+    }
+    if (HEADER_SIZE + length + 4 > fileSize) {
+      throw new IOException("TraceBuf too large for spool: " + length + " bytes");
+    }
+    if (writing != null && writing.live == 0) {
+      retire(writing);
+    }
+
+    if (!spares.isEmpty()) {
+      writing = spares.remove(spares.size() - 1);
+      writing.current = true;
+    } else {
+      if (diskSize() + fileSize > maxSize) {
+        throw new IOException("Spool full");
+      }
+      final File f = new File(dir, String.format("%s%08d%s", PREFIX, nextNumber, SUFFIX));
+      writing = new SpoolFile(nextNumber++, f, fileSize, true);
+    }
+    writing.map.putInt(0, MAGIC).putInt(4, VERSION).putInt(HEADER_SIZE, 0);
+    writing.end = HEADER_SIZE;
+    files.add(writing);
+    return writing;
+  }
+
+  /**
+   * Spool a TraceBuf.
+   *
+   * @param tb TraceBuf, with its bytes
+   * @throws IOException if the spool is full or cannot be written
+   */
+  public synchronized void append(final TraceBuf tb) throws IOException {
+    // the trailing byte is not part of the TraceBuf, as in a wave table blob
+    final int length = tb.bytes.length - 1;
+    final SpoolFile file = writable(RECORD_HEADER_SIZE + length);
+
+    final CRC32 crc = new CRC32();
+    crc.update(tb.bytes, 0, length);
+    final int pos = file.end;
+    final ByteBuffer dup = file.map.duplicate();
+    dup.position(pos + 4);
+    dup.putInt((int) crc.getValue()).putInt(tb.seq).put((byte) (tb.sendAck ? 1 : 0)).put(PENDING)
+        .put((byte) 0).put((byte) 0).put(tb.bytes, 0, length).putInt(0);
+    // the length goes last, so a record is never seen half written
+    file.map.putInt(pos, length);
+    file.end = pos + RECORD_HEADER_SIZE + length;
+    file.live++;
+
+    index(new Entry(file, pos, tb.toWinstonString(), tb.getStartTimeJ2K()));
+    appended++;
+  }
+
+  /**
+   * Check whether a channel has TraceBufs spooled.
+   *
+   * @param channel channel code
+   * @return true if any are spooled
+   */
+  public synchronized boolean contains(final String channel) {
+    final TreeSet<Entry> entries = index.get(channel);
+    return entries != null && !entries.isEmpty();
+  }
+
+  /**
+   * Get channels with TraceBufs spooled.
+   *
+   * @return channel codes
+   */
+  public synchronized List<String> getChannels() {
+    final List<String> channels = new ArrayList<String>();
+    for (final Map.Entry<String, TreeSet<Entry>> entry : index.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        channels.add(entry.getKey());
+      }
+    }
+    return channels;
+  }
+
+  /**
+   * Take the oldest TraceBufs of a channel. Each must be handed back with {@link #commit(Entry)}
+   * or {@link #putBack(Entry)}.
+   *
+   * @param channel channel code
+   * @param max most TraceBufs taken
+   * @return entries, oldest first
+   */
+  public synchronized List<Entry> take(final String channel, final int max) {
+    final List<Entry> taken = new ArrayList<Entry>();
+    final TreeSet<Entry> entries = index.get(channel);
+    while (entries != null && !entries.isEmpty() && taken.size() < max) {
+      final Entry entry = entries.pollFirst();
+      pending--;
+      final SpoolFile file = entry.file;
+      final int length = file.map.getInt(entry.offset);
+      try {
+        entry.traceBuf = new TraceBuf(body(file, entry.offset, length));
+        entry.traceBuf.createBytes();
+      } catch (final IOException e) {
+        LOGGER.warn("Dropping unreadable spooled TraceBuf. ({})", e.getMessage());
+        done(entry);
+        dropped++;
+        continue;
+      }
+      entry.seq = file.map.getInt(entry.offset + 8);
+      entry.sendAck = file.current && file.map.get(entry.offset + 12) != 0;
+      taken.add(entry);
+    }
+    return taken;
+  }
+
+  private void done(final Entry entry) {
+    final SpoolFile file = entry.file;
+    file.map.put(entry.offset + STATE_OFFSET, DONE);
+    if (--file.live == 0) {
+      if (file == writing) {
+        // nothing in it is waiting, so start it over
+        file.map.putInt(HEADER_SIZE, 0);
+        file.end = HEADER_SIZE;
+      } else {
+        retire(file);
+      }
+    }
+  }
+
+  /**
+   * Release a TraceBuf which has been written to the database.
+   *
+   * @param entry entry taken from the spool
+   */
+  public synchronized void commit(final Entry entry) {
+    done(entry);
+    drained++;
+  }
+
+  /**
+   * Return a TraceBuf which could not be written, to be taken again later.
+   *
+   * @param entry entry taken from the spool
+   * @return false if the TraceBuf has failed too often and was dropped
+   */
+  public synchronized boolean putBack(final Entry entry) {
+    final int tries = entry.file.map.get(entry.offset + TRIES_OFFSET) + 1;
+    if (tries > maxRetries) {
+      done(entry);
+      dropped++;
+      return false;
+    }
+    entry.file.map.put(entry.offset + TRIES_OFFSET, (byte) tries);
+    entry.traceBuf = null;
+    index(entry);
+    return true;
+  }
+
+  /**
+   * Get the number of TraceBufs spooled.
+   *
+   * @return TraceBufs waiting
+   */
+  public synchronized int getDepth() {
+    return pending;
+  }
+
+  /**
+   * Get the bytes of spool files holding TraceBufs, not counting drained files kept for reuse.
+   *
+   * @return bytes
+   */
+  public synchronized long getSize() {
+    long size = 0;
+    for (final SpoolFile file : files) {
+      if (file.live > 0) {
+        size += file.map.capacity();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Get the number of TraceBufs spooled since the spool was opened.
+   *
+   * @return TraceBufs
+   */
+  public synchronized long getAppended() {
+    return appended;
+  }
+
+  /**
+   * Get the number of spooled TraceBufs written to the database since the spool was opened.
+   *
+   * @return TraceBufs
+   */
+  public synchronized long getDrained() {
+    return drained;
+  }
+
+  /**
+   * Get the number of spooled TraceBufs given up on since the spool was opened.
+   *
+   * @return TraceBufs
+   */
+  public synchronized long getDropped() {
+    return dropped;
+  }
+}
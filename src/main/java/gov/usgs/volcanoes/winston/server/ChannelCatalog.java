@@ -0,0 +1,224 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.winston.Channel;
+import gov.usgs.volcanoes.winston.db.Channels;
+import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+
+/**
+ * A shared, in-memory copy of the channel list. Every menu, status, and FDSN request needs the full
+ * channel list; rather than reading the channel tables for each, requests are answered from an
+ * immutable snapshot which is brought up to date at most once per refresh interval.
+ *
+ * <p>
+ * A refresh normally reads only channel start and end times. The full list, with groups and
+ * instruments, is reloaded when channels are added or removed, when the group, instrument, or
+ * metadata tables change size, and once per reload interval to catch edits in place.
+ *
+ * <p>
+ * Each snapshot carries a version number, bumped whenever anything in it changes, and a store of
+ * rendered responses which is discarded along with the snapshot.
+ */
+public class ChannelCatalog {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChannelCatalog.class);
+  private static final ChannelCatalog INSTANCE = new ChannelCatalog();
+
+  /** default time, in seconds, between checks for new channel times */
+  public static final int DEFAULT_REFRESH_INTERVAL = 5;
+
+  /** default time, in seconds, between full reloads of the channel list */
+  public static final int DEFAULT_RELOAD_INTERVAL = 300;
+
+  /**
+   * Renders a response from the channel list.
+   */
+  public interface Renderer {
+    /**
+     * Render a response.
+     *
+     * @param channels channel list
+     * @return response bytes, which will be shared between requests
+     * @throws UtilException when things go wrong
+     */
+    byte[] render(List<Channel> channels) throws UtilException;
+  }
+
+  /**
+   * A consistent view of the channel list.
+   */
+  public static class Snapshot {
+    /** incremented each time the catalog changes */
+    public final long version;
+
+    /** channels, ordered by code. Unmodifiable. */
+    public final List<Channel> channels;
+
+    private final String signature;
+    private final long loadTime;
+    private final ConcurrentMap<String, byte[]> responses;
+
+    private Snapshot(long version, List<Channel> channels, String signature, long loadTime) {
+      this.version = version;
+      this.channels = Collections.unmodifiableList(new ArrayList<Channel>(channels));
+      this.signature = signature;
+      this.loadTime = loadTime;
+      responses = new ConcurrentHashMap<String, byte[]>();
+    }
+
+    /**
+     * Get a rendered response, rendering it if this is the first request for it since the
+     * catalog last changed.
+     *
+     * @param key name of the response
+     * @param renderer renders the response if needed
+     * @return response bytes, which must not be modified
+     * @throws UtilException when things go wrong
+     */
+    public byte[] getResponse(String key, Renderer renderer) throws UtilException {
+      byte[] response = responses.get(key);
+      if (response == null) {
+        response = renderer.render(channels);
+        final byte[] other = responses.putIfAbsent(key, response);
+        if (other != null) {
+          response = other;
+        }
+      }
+      return response;
+    }
+  }
+
+  private final AtomicBoolean refreshing;
+  private volatile Snapshot snapshot;
+  private volatile long checkTime;
+  private long refreshInterval;
+  private long reloadInterval;
+
+  private ChannelCatalog() {
+    refreshing = new AtomicBoolean();
+    refreshInterval = DEFAULT_REFRESH_INTERVAL * 1000L;
+    reloadInterval = DEFAULT_RELOAD_INTERVAL * 1000L;
+  }
+
+  /**
+   * Get the shared catalog.
+   *
+   * @return the catalog
+   */
+  public static ChannelCatalog getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Set refresh intervals. Discards the current snapshot.
+   *
+   * @param refreshInterval seconds between checks for new channel times, zero checks on every
+   *        request
+   * @param reloadInterval seconds between full reloads
+   */
+  public synchronized void configure(int refreshInterval, int reloadInterval) {
+    this.refreshInterval = refreshInterval * 1000L;
+    this.reloadInterval = reloadInterval * 1000L;
+    snapshot = null;
+  }
+
+  /**
+   * Get the current snapshot, refreshing it first if it is out of date. If another request is
+   * already refreshing the catalog, the previous snapshot is returned rather than waiting.
+   *
+   * @param databasePool source of database connections
+   * @return current snapshot
+   * @throws UtilException if the channel list cannot be read
+   */
+  public Snapshot getSnapshot(WinstonDatabasePool databasePool) throws UtilException {
+    final Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot == null) {
+          refresh(databasePool);
+        }
+        return snapshot;
+      }
+    }
+
+    if (System.currentTimeMillis() - checkTime < refreshInterval
+        || !refreshing.compareAndSet(false, true)) {
+      return current;
+    }
+
+    try {
+      refresh(databasePool);
+    } finally {
+      refreshing.set(false);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Get the current channel list. A convenience for
+   * {@code getSnapshot(databasePool).channels}.
+   *
+   * @param databasePool source of database connections
+   * @return unmodifiable list of channels
+   * @throws UtilException if the channel list cannot be read
+   */
+  public List<Channel> getChannels(WinstonDatabasePool databasePool) throws UtilException {
+    return getSnapshot(databasePool).channels;
+  }
+
+  private synchronized void refresh(WinstonDatabasePool databasePool) throws UtilException {
+    final Snapshot old = snapshot;
+    final long now = System.currentTimeMillis();
+    final boolean reload = old == null || now - old.loadTime >= reloadInterval;
+
+    Snapshot next;
+    try {
+      next = databasePool.doCommand(new WinstonConsumer<Snapshot>() {
+        public Snapshot execute(WinstonDatabase winston) throws UtilException {
+          final Channels channels = new Channels(winston);
+          final String signature = channels.getCatalogSignature();
+
+          if (!reload && signature != null && signature.equals(old.signature)) {
+            final List<Channel> updated = channels.updateTimeSpans(old.channels);
+            if (updated == old.channels) {
+              return old;
+            } else if (updated != null) {
+              return new Snapshot(old.version + 1, updated, signature, old.loadTime);
+            }
+          }
+
+          final List<Channel> list = channels.getChannels();
+          if (list == null) {
+            throw new UtilException("Unable to get channels.");
+          }
+          LOGGER.debug("Reloaded {} channels.", list.size());
+          return new Snapshot(old == null ? 1 : old.version + 1, list, signature, now);
+        }
+      });
+    } catch (Exception e) {
+      if (old == null) {
+        throw new UtilException(e.getMessage());
+      }
+      LOGGER.error("Cannot refresh channel catalog, using version {}. ({})", old.version,
+          e.getMessage());
+      next = old;
+    }
+
+    snapshot = next;
+    checkTime = now;
+  }
+}
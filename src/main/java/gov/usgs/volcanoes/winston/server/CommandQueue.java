@@ -0,0 +1,67 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Serializes the commands of a single connection onto the {@link DatabaseExecutor}. Clients may
+ * pipeline requests and expect responses in order, so only one command per connection is handed to
+ * the executor at a time. All methods are called on the channel's event loop.
+ */
+public class CommandQueue {
+  private final DatabaseExecutor executor;
+  private final ChannelHandlerContext ctx;
+  private final Queue<CommandTask> pending;
+  private boolean running;
+
+  /**
+   * Constructor.
+   *
+   * @param executor shared database executor
+   * @param ctx channel context
+   */
+  public CommandQueue(DatabaseExecutor executor, ChannelHandlerContext ctx) {
+    this.executor = executor;
+    this.ctx = ctx;
+    pending = new ArrayDeque<CommandTask>();
+    running = false;
+  }
+
+  /**
+   * Queue a command for execution.
+   *
+   * @param task command
+   */
+  public void submit(CommandTask task) {
+    pending.add(task);
+    if (!running) {
+      runNext();
+    }
+  }
+
+  private void runNext() {
+    final CommandTask task = pending.poll();
+    if (task == null) {
+      running = false;
+      return;
+    }
+
+    running = true;
+    executor.execute(task, new Runnable() {
+      public void run() {
+        ctx.executor().execute(new Runnable() {
+          public void run() {
+            runNext();
+          }
+        });
+      }
+    });
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-command timing statistics. Tracks how long commands wait for a database thread and how long
+ * they take to run once they have one.
+ */
+public class CommandStatistics {
+  private static final String HEADER_FORMAT = "%-16s %10s %10s %12s %12s %12s %12s%n";
+  private static final String ROW_FORMAT = "%-16s %10d %10d %12.1f %12.1f %12.1f %12.1f%n";
+  private static final double NANOS_PER_MS = 1000000.0;
+
+  private final ConcurrentMap<String, Timer> timers;
+
+  /**
+   * Constructor.
+   */
+  public CommandStatistics() {
+    timers = new ConcurrentHashMap<String, Timer>();
+  }
+
+  private Timer getTimer(String command) {
+    Timer timer = timers.get(command);
+    if (timer == null) {
+      timer = new Timer(command);
+      Timer existing = timers.putIfAbsent(command, timer);
+      if (existing != null) {
+        timer = existing;
+      }
+    }
+    return timer;
+  }
+
+  /**
+   * Record time spent waiting for a database thread.
+   *
+   * @param command command name
+   * @param nanos wait time in nanoseconds
+   */
+  public void queued(String command, long nanos) {
+    Timer timer = getTimer(command);
+    timer.count.incrementAndGet();
+    timer.queueNanos.addAndGet(nanos);
+    updateMax(timer.maxQueueNanos, nanos);
+  }
+
+  /**
+   * Record time spent executing a command.
+   *
+   * @param command command name
+   * @param nanos execution time in nanoseconds
+   */
+  public void executed(String command, long nanos) {
+    Timer timer = getTimer(command);
+    timer.execNanos.addAndGet(nanos);
+    updateMax(timer.maxExecNanos, nanos);
+  }
+
+  /**
+   * Record a command refused by the executor.
+   *
+   * @param command command name
+   */
+  public void rejected(String command) {
+    getTimer(command).rejected.incrementAndGet();
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Get formatted string of command timings.
+   *
+   * @return command timings
+   */
+  public String printCommands() {
+    String header = String.format(HEADER_FORMAT, "Command", "Count", "Rejected", "Avg wait ms",
+        "Max wait ms", "Avg exec ms", "Max exec ms");
+
+    List<String> names = new ArrayList<String>(timers.keySet());
+    Collections.sort(names);
+
+    StringBuffer sb = new StringBuffer();
+    sb.append("------- Commands --------\n");
+    sb.append(header);
+    for (String name : names) {
+      Timer timer = timers.get(name);
+      long count = Math.max(timer.count.get(), 1);
+      sb.append(String.format(ROW_FORMAT, name, timer.count.get(), timer.rejected.get(),
+          timer.queueNanos.get() / count / NANOS_PER_MS, timer.maxQueueNanos.get() / NANOS_PER_MS,
+          timer.execNanos.get() / count / NANOS_PER_MS, timer.maxExecNanos.get() / NANOS_PER_MS));
+    }
+    sb.append(header);
+    return sb.toString();
+  }
+
+  private static class Timer {
+    @SuppressWarnings("unused")
+    final String command;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong queueNanos = new AtomicLong();
+    final AtomicLong maxQueueNanos = new AtomicLong();
+    final AtomicLong execNanos = new AtomicLong();
+    final AtomicLong maxExecNanos = new AtomicLong();
+
+    Timer(String command) {
+      this.command = command;
+    }
+  }
+}
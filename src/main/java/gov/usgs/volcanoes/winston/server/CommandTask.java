@@ -0,0 +1,31 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+/**
+ * A unit of work submitted to the {@link DatabaseExecutor}.
+ */
+public abstract class CommandTask implements Runnable {
+
+  /** name used when recording timings */
+  public final String name;
+
+  long queueTime;
+
+  /**
+   * Constructor.
+   *
+   * @param name command name
+   */
+  protected CommandTask(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Called in place of run() when the executor refuses the task.
+   */
+  public abstract void reject();
+}
@@ -0,0 +1,156 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of threads used to run commands which touch the database. Keeps blocking JDBC
+ * calls off of the Netty event loop.
+ */
+public class DatabaseExecutor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseExecutor.class);
+
+  /** What to do with a command when the queue is full. */
+  public enum RejectionPolicy {
+    /** refuse the command */
+    ABORT,
+
+    /** run the command on the submitting thread */
+    CALLER_RUNS;
+
+    /**
+     * Parse a policy from a config value.
+     *
+     * @param value config value, may be null
+     * @param defaultPolicy returned when value is null or not recognized
+     * @return policy
+     */
+    public static RejectionPolicy parse(String value, RejectionPolicy defaultPolicy) {
+      if (value == null) {
+        return defaultPolicy;
+      } else if ("abort".equalsIgnoreCase(value)) {
+        return ABORT;
+      } else if ("callerRuns".equalsIgnoreCase(value)) {
+        return CALLER_RUNS;
+      } else {
+        LOGGER.warn("Unknown rejection policy {}, using {}", value, defaultPolicy);
+        return defaultPolicy;
+      }
+    }
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final RejectionPolicy rejectionPolicy;
+  private final CommandStatistics commandStatistics;
+  private final long slowCommandNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param threads number of worker threads
+   * @param queueSize maximum number of commands waiting for a thread
+   * @param rejectionPolicy what to do when the queue is full
+   * @param slowCommandMs commands taking longer than this are logged, zero to disable
+   */
+  public DatabaseExecutor(int threads, int queueSize, RejectionPolicy rejectionPolicy,
+      long slowCommandMs) {
+    this.rejectionPolicy = rejectionPolicy;
+    this.slowCommandNanos = TimeUnit.MILLISECONDS.toNanos(slowCommandMs);
+    commandStatistics = new CommandStatistics();
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "wws-db-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Run a task on a database thread.
+   *
+   * @param task task to run
+   * @param onComplete run after the task has completed or been rejected, may be null
+   */
+  public void execute(final CommandTask task, final Runnable onComplete) {
+    task.queueTime = System.nanoTime();
+
+    final Runnable timedTask = new Runnable() {
+      public void run() {
+        final long start = System.nanoTime();
+        commandStatistics.queued(task.name, start - task.queueTime);
+        try {
+          task.run();
+        } finally {
+          final long elapsed = System.nanoTime() - start;
+          commandStatistics.executed(task.name, elapsed);
+          if (slowCommandNanos > 0 && elapsed > slowCommandNanos) {
+            LOGGER.warn("Slow command: {} took {} ms", task.name,
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+          }
+          if (onComplete != null) {
+            onComplete.run();
+          }
+        }
+      }
+    };
+
+    try {
+      executor.execute(timedTask);
+    } catch (RejectedExecutionException e) {
+      commandStatistics.rejected(task.name);
+      if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !executor.isShutdown()) {
+        LOGGER.debug("Database queue full, running {} on caller thread", task.name);
+        timedTask.run();
+      } else {
+        LOGGER.info("Database queue full, rejecting {}", task.name);
+        try {
+          task.reject();
+        } finally {
+          if (onComplete != null) {
+            onComplete.run();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Get command timings.
+   *
+   * @return command statistics
+   */
+  public CommandStatistics getCommandStatistics() {
+    return commandStatistics;
+  }
+
+  /**
+   * Stop accepting commands and wait briefly for running commands to finish.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -21,7 +21,10 @@ import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Version;
+import gov.usgs.volcanoes.winston.db.DayTableIndex;
+import gov.usgs.volcanoes.winston.db.RecentDataCache;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+import gov.usgs.volcanoes.winston.server.http.PlotCache;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -46,6 +49,11 @@ import io.netty.util.concurrent.Future;
 public class WWS {
   private static final Logger LOGGER = LoggerFactory.getLogger(WWS.class);
   private static final int DEFAULT_DB_CONNECTIONS = 5;
+  private static final int DEFAULT_EXECUTOR_QUEUE_SIZE = 1000;
+  private static final long DEFAULT_SLOW_COMMAND_TIME = 0;
+  private static final int DEFAULT_CACHE_WINDOW = 0;
+  private static final long DEFAULT_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+  private static final int DEFAULT_CACHE_OVERLAP = 60;
 
   /**
    * Launch the WWS.
@@ -93,8 +101,10 @@ public class WWS {
         wws.shutdownGracefully();
       } else if (s.startsWith("c")) {
         System.out.println(wws.connectionStatistics.printConnections(s));
-        // } else if (s.startsWith("m")) {
-        // wws.printCommands(s);
+      } else if (s.startsWith("m")) {
+        System.out.println(wws.databaseExecutor.getCommandStatistics().printCommands());
+        System.out.println(WinstonDatabase.getStatementCacheStatus());
+        System.out.println(PlotCache.getInstance().getStatus());
         // } else if (s.equals("d")) {
         // wws.dropConnections(wws.idleTime);
         // } else if (s.startsWith("t")) {
@@ -131,6 +141,7 @@ public class WWS {
     sb.append("       cR: print connections sorted by bytes received\n");
     sb.append("       cT: print connections sorted by bytes transmited\n");
     sb.append("         : append '-' to sort in descending order.\n");
+    sb.append("        m: print command times and prepared statement cache use\n");
 
     System.out.println(sb);
   }
@@ -141,6 +152,7 @@ public class WWS {
   private final int serverPort;
   private NioEventLoopGroup group;
   private final ConnectionStatistics connectionStatistics;
+  private final DatabaseExecutor databaseExecutor;
 
   /**
    * Constructor.
@@ -182,6 +194,69 @@ public class WWS {
     dbConnections =
         StringUtils.stringToInt(configFile.getString("wws.dbConnections"), DEFAULT_DB_CONNECTIONS);
     LOGGER.info("config: wws.dbConnections={}.", dbConnections);
+
+    final int executorThreads =
+        StringUtils.stringToInt(configFile.getString("wws.executorThreads"), dbConnections);
+    LOGGER.info("config: wws.executorThreads={}.", executorThreads);
+
+    final int executorQueueSize = StringUtils.stringToInt(
+        configFile.getString("wws.executorQueueSize"), DEFAULT_EXECUTOR_QUEUE_SIZE);
+    LOGGER.info("config: wws.executorQueueSize={}.", executorQueueSize);
+
+    final DatabaseExecutor.RejectionPolicy rejectionPolicy = DatabaseExecutor.RejectionPolicy
+        .parse(configFile.getString("wws.executorRejectionPolicy"),
+            DatabaseExecutor.RejectionPolicy.ABORT);
+    LOGGER.info("config: wws.executorRejectionPolicy={}.", rejectionPolicy);
+
+    final long slowCommandTime =
+        configFile.getLong("wws.slowCommandTime", DEFAULT_SLOW_COMMAND_TIME);
+    LOGGER.info("config: wws.slowCommandTime={}.", slowCommandTime);
+
+    databaseExecutor = new DatabaseExecutor(executorThreads, executorQueueSize, rejectionPolicy,
+        slowCommandTime);
+
+    final int cacheWindow =
+        StringUtils.stringToInt(configFile.getString("wws.cacheWindow"), DEFAULT_CACHE_WINDOW);
+    LOGGER.info("config: wws.cacheWindow={}.", cacheWindow);
+
+    final long cacheMaxBytes = configFile.getLong("wws.cacheMaxBytes", DEFAULT_CACHE_MAX_BYTES);
+    LOGGER.info("config: wws.cacheMaxBytes={}.", cacheMaxBytes);
+
+    final int cacheOverlap =
+        StringUtils.stringToInt(configFile.getString("wws.cacheOverlap"), DEFAULT_CACHE_OVERLAP);
+    LOGGER.info("config: wws.cacheOverlap={}.", cacheOverlap);
+
+    RecentDataCache.getInstance().configure(cacheWindow, cacheOverlap, cacheMaxBytes);
+
+    final int channelRefreshInterval =
+        StringUtils.stringToInt(configFile.getString("wws.channelRefreshInterval"),
+            ChannelCatalog.DEFAULT_REFRESH_INTERVAL);
+    LOGGER.info("config: wws.channelRefreshInterval={}.", channelRefreshInterval);
+
+    final int channelReloadInterval =
+        StringUtils.stringToInt(configFile.getString("wws.channelReloadInterval"),
+            ChannelCatalog.DEFAULT_RELOAD_INTERVAL);
+    LOGGER.info("config: wws.channelReloadInterval={}.", channelReloadInterval);
+
+    ChannelCatalog.getInstance().configure(channelRefreshInterval, channelReloadInterval);
+
+    final int dayTableRefreshInterval =
+        StringUtils.stringToInt(configFile.getString("wws.dayTableRefreshInterval"),
+            DayTableIndex.DEFAULT_REFRESH_INTERVAL);
+    LOGGER.info("config: wws.dayTableRefreshInterval={}.", dayTableRefreshInterval);
+
+    DayTableIndex.getInstance().configure(dayTableRefreshInterval);
+
+    final int plotCacheSize = StringUtils.stringToInt(configFile.getString("wws.plotCacheSize"),
+        PlotCache.DEFAULT_MAX_ENTRIES);
+    LOGGER.info("config: wws.plotCacheSize={}.", plotCacheSize);
+
+    final int plotReloadInterval =
+        StringUtils.stringToInt(configFile.getString("wws.plotReloadInterval"),
+            PlotCache.DEFAULT_RELOAD_INTERVAL);
+    LOGGER.info("config: wws.plotReloadInterval={}.", plotReloadInterval);
+
+    PlotCache.getInstance().configure(plotCacheSize, plotReloadInterval);
   }
 
   /**
@@ -219,7 +294,7 @@ public class WWS {
             connectionStatistics.mapChannel(remoteAddress, trafficCounter);
 
             ch.pipeline().addLast(trafficCounter);
-            ch.pipeline().addLast(new PortUnificationDecoder(configFile, databasePool));
+            ch.pipeline().addLast(new PortUnificationDecoder(configFile, databasePool, databaseExecutor));
 
             ch.attr(connectionStatsKey).set(connectionStatistics);
             ch.closeFuture().addListener(new ChannelFutureListener() {
@@ -248,7 +323,10 @@ public class WWS {
     }
   }
 
-  private void shutdownGracefully() {
+  /**
+   * Stop listening and shut down the executor.
+   */
+  public void shutdownGracefully() {
     LOGGER.warn("shutting down");
 
     final Future<?> ff = group.shutdownGracefully();
@@ -257,6 +335,8 @@ public class WWS {
     } catch (final InterruptedException ex) {
       Thread.currentThread().interrupt();
       throw new RuntimeException(ex);
+    } finally {
+      databaseExecutor.shutdown();
     }
   }
 
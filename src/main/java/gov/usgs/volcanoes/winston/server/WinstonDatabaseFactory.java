@@ -26,6 +26,8 @@ public class WinstonDatabaseFactory extends BasePooledObjectFactory<WinstonDatab
   final private String tableEngine;
   final private String url;
   final private long maxDays;
+  final private String store;
+  final private String storePath;
 
   /**
    * Constructor.
@@ -39,11 +41,14 @@ public class WinstonDatabaseFactory extends BasePooledObjectFactory<WinstonDatab
     tableEngine = config.getString("tableEngine");
     statementCacheCap = config.getInt("statementCacheCap");
     maxDays = config.getLong("maxDays");
+    store = config.getString("store");
+    storePath = config.getString("storePath");
   }
 
   @Override
   public WinstonDatabase create() throws Exception {
-    WinstonDatabase winston = new WinstonDatabase(driver, url, prefix, tableEngine, statementCacheCap, maxDays);
+    WinstonDatabase winston = new WinstonDatabase(driver, url, prefix, tableEngine,
+        statementCacheCap, maxDays, store, storePath);
     return winston;
   }
 
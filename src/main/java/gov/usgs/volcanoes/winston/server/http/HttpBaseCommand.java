@@ -25,9 +25,14 @@ import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.server.BaseCommand;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.QueryStringDecoder;
 
 /**
@@ -180,6 +185,41 @@ public abstract class HttpBaseCommand extends BaseCommand implements HttpCommand
   }
 
 
+  /**
+   * Build the response for a cached plot. Browsers which already hold the image are answered with
+   * 304 and no body.
+   *
+   * @param request my request
+   * @param image plot to send
+   * @return response
+   */
+  protected FullHttpResponse imageResponse(final FullHttpRequest request,
+      final PlotCache.Image image) {
+    FullHttpResponse response;
+    if (image.isNotModified(request)) {
+      response = new DefaultFullHttpResponse(request.getProtocolVersion(),
+          HttpResponseStatus.NOT_MODIFIED);
+    } else {
+      response = new DefaultFullHttpResponse(request.getProtocolVersion(), HttpResponseStatus.OK,
+          Unpooled.wrappedBuffer(image.png));
+      response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "image/png");
+    }
+    response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
+    response.headers().set(HttpHeaders.Names.ETAG, image.etag);
+    HttpHeaders.setDateHeader(response, HttpHeaders.Names.LAST_MODIFIED,
+        new Date(image.lastModified));
+    response.headers().set(HttpHeaders.Names.CACHE_CONTROL, HttpHeaders.Values.NO_CACHE);
+
+    int httpRefreshInterval = configFile.getInt("wws.httpRefreshInterval", -1);
+    if (httpRefreshInterval > 0)
+      response.headers().set("Refresh", httpRefreshInterval + "; url=" + request.getUri());
+
+    if (HttpHeaders.isKeepAlive(request)) {
+      response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+    }
+    return response;
+  }
+
   /**
    * Convert a boolean value to an integer as passed in arguments.
    * 
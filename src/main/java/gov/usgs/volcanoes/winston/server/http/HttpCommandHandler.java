@@ -28,8 +28,11 @@ import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.Version;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
+import gov.usgs.volcanoes.winston.server.CommandQueue;
+import gov.usgs.volcanoes.winston.server.CommandTask;
 import gov.usgs.volcanoes.winston.server.ConnectionStatistics;
-import gov.usgs.volcanoes.winston.server.GetChannelsConsumer;
+import gov.usgs.volcanoes.winston.server.DatabaseExecutor;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.WinstonDatabasePool;
@@ -59,6 +62,8 @@ public class HttpCommandHandler extends SimpleChannelInboundHandler<FullHttpRequ
 
   private final WinstonDatabasePool winstonDatabasePool;
   private final ConfigFile configFile;
+  private final DatabaseExecutor databaseExecutor;
+  private CommandQueue commandQueue;
 
   private static final AttributeKey<ConnectionStatistics> connectionStatsKey;
 
@@ -71,14 +76,69 @@ public class HttpCommandHandler extends SimpleChannelInboundHandler<FullHttpRequ
    * 
    * @param configFile my config file
    * @param winstonDatabasePool my database pool
+   * @param databaseExecutor executor used to run commands off of the event loop
    */
-  public HttpCommandHandler(ConfigFile configFile, WinstonDatabasePool winstonDatabasePool) {
+  public HttpCommandHandler(ConfigFile configFile, WinstonDatabasePool winstonDatabasePool,
+      DatabaseExecutor databaseExecutor) {
     this.winstonDatabasePool = winstonDatabasePool;
     this.configFile = configFile;
+    this.databaseExecutor = databaseExecutor;
   }
 
   @Override
-  public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) throws Exception {
+  public void channelRead0(final ChannelHandlerContext ctx, final FullHttpRequest req)
+      throws Exception {
+    if (commandQueue == null) {
+      commandQueue = new CommandQueue(databaseExecutor, ctx);
+    }
+
+    // request is released when channelRead0 returns, hold on to it until the command has run
+    req.retain();
+    commandQueue.submit(new CommandTask("HTTP " + commandName(req.getUri())) {
+      public void run() {
+        try {
+          if (ctx.channel().isActive()) {
+            handleRequest(ctx, req);
+          }
+        } catch (Exception e) {
+          exceptionCaught(ctx, e);
+        } finally {
+          req.release();
+        }
+      }
+
+      public void reject() {
+        try {
+          FullHttpResponse response = buildResponse(req.getProtocolVersion(),
+              HttpResponseStatus.SERVICE_UNAVAILABLE, "Server busy.");
+          ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        } finally {
+          req.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Name a request for timing purposes. Anything which isn't a known command is lumped together so
+   * that clients cannot grow the statistics table without bound.
+   */
+  private static String commandName(String uri) {
+    String command = uri.substring(1);
+    if (command.length() == 0) {
+      return "usage";
+    }
+    for (HttpCommandFactory cmd : HttpCommandFactory.values()) {
+      String name = cmd.toString().toLowerCase();
+      if (command.equals(name) || command.startsWith(name + "?")
+          || command.startsWith(name + "/")) {
+        return name;
+      }
+    }
+    return "file";
+  }
+
+  private void handleRequest(ChannelHandlerContext ctx, FullHttpRequest req) throws Exception {
 
     LOGGER.info("Received HTTP req: {}", req.getUri());
     FullHttpResponse response = null;
@@ -137,6 +197,8 @@ public class HttpCommandHandler extends SimpleChannelInboundHandler<FullHttpRequ
     // If keep-alive is not set, close the connection once the content is fully written.
     if (!HttpHeaders.isKeepAlive(req)) {
       ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+    } else {
+      ctx.flush();
     }
   }
 
@@ -160,13 +222,7 @@ public class HttpCommandHandler extends SimpleChannelInboundHandler<FullHttpRequ
   }
 
   private String sendUsage(String host) throws UtilException {
-    List<Channel> channels;
-    try {
-      channels = winstonDatabasePool.doCommand(new GetChannelsConsumer());
-    } catch (Exception e) {
-      LOGGER.error(e.getClass().getName());
-      throw new UtilException(e.getMessage());
-    }
+    final List<Channel> channels = ChannelCatalog.getInstance().getChannels(winstonDatabasePool);
 
     List<String> channelNames = new ArrayList<String>();
     for (Channel chan : channels) {
@@ -0,0 +1,333 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.http;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.core.util.UtilException;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * A cache of the rows behind, and the images rendered for, recently requested plots. Plots which
+ * are refreshed as time passes, such as a wall of helicorders ending now, read only the rows newer
+ * than those already held rather than the whole span.
+ *
+ * <p>
+ * Entries are keyed by every request parameter which affects the plot other than its start and end
+ * times. Rows are reduced into intervals aligned to multiples of the interval length, so rows read
+ * for different spans agree and can be joined. When a request ends after the cached rows, the rows
+ * from the last interval held, less a margin for late data, onward are read again and replace the
+ * cached tail; rows before the new start are dropped. An entry's rows are read in full again once
+ * they are older than the reload interval, picking up any gaps filled since.
+ *
+ * <p>
+ * The most recent image of each entry is kept with an ETag and Last-Modified time, so requests for
+ * the same span are answered without rendering, and browsers holding the image are answered with
+ * 304.
+ */
+public class PlotCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PlotCache.class);
+  private static final PlotCache INSTANCE = new PlotCache();
+
+  /** default number of plots held */
+  public static final int DEFAULT_MAX_ENTRIES = 200;
+
+  // seconds of cached rows read again when a plot is extended, to pick up late data
+  private static final int REREAD_TIME = 120;
+
+  /** default seconds rows are extended before being read in full again */
+  public static final int DEFAULT_RELOAD_INTERVAL = 3600;
+
+  /**
+   * Reads rows for a plot.
+   */
+  public interface Fetcher {
+    /**
+     * Read rows between two times.
+     *
+     * @param t1 start time
+     * @param t2 end time
+     * @return rows, in time order, or null if there are none
+     * @throws UtilException when things go wrong
+     */
+    List<double[]> fetch(double t1, double t2) throws UtilException;
+  }
+
+  /**
+   * Renders rows as a PNG.
+   */
+  public interface Renderer {
+    /**
+     * Render a plot.
+     *
+     * @param rows rows, which must not be modified
+     * @return PNG image
+     * @throws UtilException when things go wrong
+     */
+    byte[] render(List<double[]> rows) throws UtilException;
+  }
+
+  /**
+   * A rendered plot.
+   */
+  public static class Image {
+    /** PNG image, which must not be modified */
+    public final byte[] png;
+
+    /** entity tag, quoted */
+    public final String etag;
+
+    /** time rendered, in milliseconds, truncated to seconds */
+    public final long lastModified;
+
+    private Image(final byte[] png, final long lastModified) {
+      this.png = png;
+      final CRC32 crc = new CRC32();
+      crc.update(png);
+      etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(png.length)
+          + "\"";
+      this.lastModified = lastModified / 1000 * 1000;
+    }
+
+    /**
+     * Does the browser already hold this image?
+     *
+     * @param request request, checked for If-None-Match and If-Modified-Since
+     * @return true if a 304 response will do
+     */
+    public boolean isNotModified(final FullHttpRequest request) {
+      final String ifNoneMatch = request.headers().get(HttpHeaders.Names.IF_NONE_MATCH);
+      if (ifNoneMatch != null) {
+        return ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*");
+      }
+
+      if (request.headers().contains(HttpHeaders.Names.IF_MODIFIED_SINCE)) {
+        try {
+          final Date since =
+              HttpHeaders.getDateHeader(request, HttpHeaders.Names.IF_MODIFIED_SINCE);
+          return since.getTime() >= lastModified;
+        } catch (final ParseException e) {
+          return false;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static class Entry {
+    List<double[]> rows;
+    double rowsT1;
+    double rowsT2;
+    long loadTime;
+
+    Image image;
+    double imageT1;
+    double imageT2;
+  }
+
+  private final LinkedHashMap<String, Entry> entries;
+  private int maxEntries;
+  private long reloadInterval;
+  private long hits;
+  private long extensions;
+  private long misses;
+
+  private PlotCache() {
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    maxEntries = DEFAULT_MAX_ENTRIES;
+    reloadInterval = DEFAULT_RELOAD_INTERVAL * 1000L;
+  }
+
+  /**
+   * Get the shared cache.
+   *
+   * @return the cache
+   */
+  public static PlotCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Set cache limits. Clears the cache.
+   *
+   * @param maxEntries number of plots held, zero disables the cache
+   * @param reloadInterval seconds rows are extended before being read in full again
+   */
+  public synchronized void configure(final int maxEntries, final int reloadInterval) {
+    this.maxEntries = maxEntries;
+    this.reloadInterval = reloadInterval * 1000L;
+    entries.clear();
+  }
+
+  private synchronized Entry getEntry(final String key) {
+    if (maxEntries <= 0) {
+      return new Entry();
+    }
+
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry();
+      entries.put(key, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Get the rows of a plot. The returned list must not be modified.
+   *
+   * @param key every plot parameter other than the start and end times
+   * @param t1 start time
+   * @param t2 end time
+   * @param interval length of the intervals rows are reduced into, 1 for unreduced rows
+   * @param fetcher reads rows not held
+   * @return rows, or null if there are none
+   * @throws UtilException when things go wrong
+   */
+  public List<double[]> getRows(final String key, final double t1, final double t2,
+      final double interval, final Fetcher fetcher) throws UtilException {
+    final Entry entry = getEntry(key);
+    synchronized (entry) {
+      return updateRows(entry, t1, t2, interval, fetcher);
+    }
+  }
+
+  /**
+   * Get the image of a plot, rendering it only if the rows have changed since it was last
+   * rendered. Concurrent requests for the same plot wait for a single render.
+   *
+   * @param key every plot parameter other than the start and end times
+   * @param t1 start time
+   * @param t2 end time
+   * @param interval length of the intervals rows are reduced into, 1 for unreduced rows
+   * @param fetcher reads rows not held
+   * @param renderer renders rows
+   * @return image, or null if there are no rows
+   * @throws UtilException when things go wrong
+   */
+  public Image getImage(final String key, final double t1, final double t2,
+      final double interval, final Fetcher fetcher, final Renderer renderer)
+      throws UtilException {
+    final Entry entry = getEntry(key);
+    synchronized (entry) {
+      final List<double[]> before = entry.rows;
+      final List<double[]> rows = updateRows(entry, t1, t2, interval, fetcher);
+      if (rows == null) {
+        return null;
+      }
+
+      if (entry.image == null || rows != before || entry.imageT1 != t1 || entry.imageT2 != t2) {
+        entry.image = new Image(renderer.render(rows), System.currentTimeMillis());
+        entry.imageT1 = t1;
+        entry.imageT2 = t2;
+      }
+      return entry.image;
+    }
+  }
+
+  private List<double[]> updateRows(final Entry entry, final double t1, final double t2,
+      final double interval, final Fetcher fetcher) throws UtilException {
+    final long now = System.currentTimeMillis();
+
+    if (entry.rows == null || t1 < entry.rowsT1 || t1 > entry.rowsT2 || t2 < entry.rowsT2
+        || now - entry.loadTime > reloadInterval) {
+      final List<double[]> rows = fetcher.fetch(t1, t2);
+      if (rows == null || rows.isEmpty()) {
+        entry.rows = null;
+        return null;
+      }
+      entry.rows = rows;
+      entry.rowsT1 = t1;
+      entry.rowsT2 = t2;
+      entry.loadTime = now;
+      countMiss();
+      return rows;
+    }
+
+    if (t1 == entry.rowsT1 && t2 == entry.rowsT2) {
+      countHit();
+      return entry.rows;
+    }
+
+    // re-read from the start of the interval holding the last row, or earlier for late data
+    double from = Double.POSITIVE_INFINITY;
+    if (t2 > entry.rowsT2) {
+      from = entry.rowsT2;
+      if (!entry.rows.isEmpty()) {
+        from = Math.min(from, entry.rows.get(entry.rows.size() - 1)[0]);
+      }
+      from = Math.floor(Math.max(t1, from - REREAD_TIME) / interval) * interval;
+    }
+
+    final long first = (long) Math.floor(t1 / interval);
+    final List<double[]> rows = new ArrayList<double[]>(entry.rows.size());
+    for (final double[] row : entry.rows) {
+      if (row[0] >= from) {
+        break;
+      }
+      if ((long) Math.floor(row[0] / interval) >= first) {
+        rows.add(row);
+      }
+    }
+
+    if (from != Double.POSITIVE_INFINITY) {
+      final List<double[]> tail = fetcher.fetch(from, t2);
+      if (tail != null) {
+        for (final double[] row : tail) {
+          if (row[0] >= from) {
+            rows.add(row);
+          }
+        }
+      }
+    }
+
+    LOGGER.debug("Extended plot rows from {}->{} to {}->{}, reading from {}", entry.rowsT1,
+        entry.rowsT2, t1, t2, from);
+    entry.rows = rows;
+    entry.rowsT1 = t1;
+    entry.rowsT2 = t2;
+    countExtension();
+    return rows.isEmpty() ? null : rows;
+  }
+
+  private synchronized void countHit() {
+    hits++;
+  }
+
+  private synchronized void countExtension() {
+    extensions++;
+  }
+
+  private synchronized void countMiss() {
+    misses++;
+  }
+
+  /**
+   * Describe cache use.
+   *
+   * @return one line summary
+   */
+  public synchronized String getStatus() {
+    return String.format("plot cache: %d/%d plots, %d hits, %d extended, %d misses",
+        entries.size(), maxEntries, hits, extensions, misses);
+  }
+}
@@ -120,7 +120,7 @@ public final class FdsnwsCommand extends HttpBaseCommand {
     switch (service) {
       case "dataselect":
         try {
-          DataselectService.dispatch(databasePool, ctx, request);
+          DataselectService.dispatch(databasePool, configFile, ctx, request);
         } catch (FdsnException e) {
           throw new UtilException(e.getLocalizedMessage());
         }
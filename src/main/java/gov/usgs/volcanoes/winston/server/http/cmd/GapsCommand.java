@@ -24,7 +24,6 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
-import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.http.HttpBaseCommand;
@@ -152,7 +151,7 @@ public final class GapsCommand extends HttpBaseCommand {
         gaps = databasePool.doCommand(new WinstonConsumer<List<double[]>>() {
 
           public List<double[]> execute(WinstonDatabase winston) throws UtilException {
-            return new Data(winston).findGaps(code, startTime, endTime);
+            return winston.getWaveStore().findGaps(code, startTime, endTime);
           }
         });
       } catch (Exception e) {
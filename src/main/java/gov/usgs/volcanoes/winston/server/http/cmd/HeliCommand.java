@@ -5,6 +5,8 @@
 
 package gov.usgs.volcanoes.winston.server.http.cmd;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -14,20 +16,15 @@ import gov.usgs.volcanoes.core.legacy.plot.HelicorderSettings;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
-import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.http.HttpBaseCommand;
 import gov.usgs.volcanoes.winston.server.http.HttpConstants;
+import gov.usgs.volcanoes.winston.server.http.PlotCache;
 import gov.usgs.volcanoes.winston.server.http.UnsupportedMethodException;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
-import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.handler.codec.http.HttpResponseStatus;
 
 /**
  * Return the wave server menu. Similar to earthworm getmenu command.
@@ -64,12 +61,54 @@ public final class HeliCommand extends HttpBaseCommand {
     final double startTime = settings.startTime;
     final double endTime = settings.endTime;
 
+    // seconds drawn in each pixel of a helicorder line
+    final int width = StringUtils.stringToInt(params.get("w"), HttpConstants.HELI_WIDTH);
+    final double resolution = settings.timeChunk / width;
+
+    // Align the span to the intervals rows are reduced into. Requests ending within the same
+    // pixel share a plot, and later requests only read rows newer than those cached.
+    final double interval = resolution >= 2 ? Math.floor(resolution) : 1;
+    settings.startTime = Math.floor(startTime / interval) * interval;
+    settings.endTime = Math.floor(endTime / interval) * interval;
+
+    final String key = "heli " + settings.channel + " " + settings.timeZone.getID() + " "
+        + (endTime - startTime) + " " + settings.timeChunk + " " + params.get("w") + " "
+        + params.get("h") + " " + settings.showClip + " " + settings.forceCenter + " "
+        + settings.barRange + " " + settings.clipValue + " " + settings.largeChannelDisplay + " "
+        + settings.minimumAxis;
+
+    final PlotCache.Image image =
+        PlotCache.getInstance().getImage(key, settings.startTime, settings.endTime, interval,
+            new PlotCache.Fetcher() {
+              public List<double[]> fetch(final double t1, final double t2)
+                  throws UtilException {
+                return getRows(scnl, t1, t2, resolution);
+              }
+            }, new PlotCache.Renderer() {
+              public byte[] render(final List<double[]> rows) throws UtilException {
+                try {
+                  return settings.createPlot(new HelicorderData(rows)).getPNGBytes();
+                } catch (PlotException e) {
+                  throw new UtilException(e.getLocalizedMessage());
+                }
+              }
+            });
+
+    if (image == null) {
+      throw new UtilException("Error: could not get helicorder data, check channel (code).");
+    }
+
+    ctx.write(imageResponse(request, image));
+  }
+
+  private List<double[]> getRows(final Scnl scnl, final double t1, final double t2,
+      final double resolution) throws UtilException {
     HelicorderData heliData = null;
     try {
       heliData = databasePool.doCommand(new WinstonConsumer<HelicorderData>() {
 
         public HelicorderData execute(WinstonDatabase winston) throws UtilException {
-          return new Data(winston).getHelicorderData(scnl, startTime, endTime, 0);
+          return winston.getWaveStore().readHelicorder(scnl, t1, t2, 0, resolution);
         }
       });
     } catch (Exception e) {
@@ -77,29 +116,9 @@ public final class HeliCommand extends HttpBaseCommand {
     }
 
     if (heliData == null || heliData.rows() <= 0) {
-      throw new UtilException("Error: could not get helicorder data, check channel (code).");
-    }
-
-    byte[] png = null;
-    try {
-      png = settings.createPlot(heliData).getPNGBytes();
-    } catch (PlotException e) {
-      throw new UtilException(e.getLocalizedMessage());
-    }
-
-    FullHttpResponse response = new DefaultFullHttpResponse(request.getProtocolVersion(),
-        HttpResponseStatus.OK, Unpooled.copiedBuffer(png));
-    response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, png.length);
-    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "image/png");
-
-    int httpRefreshInterval = configFile.getInt("wws.httpRefreshInterval", -1);
-    if (httpRefreshInterval > 0)
-      response.headers().set("Refresh", httpRefreshInterval + "; url=" + request.getUri());
-
-    if (HttpHeaders.isKeepAlive(request)) {
-      response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+      return null;
     }
-    ctx.write(response);
+    return Arrays.asList(heliData.getData().toArray());
   }
 
 
@@ -23,7 +23,7 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
-import gov.usgs.volcanoes.winston.server.GetChannelsConsumer;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.http.HttpBaseCommand;
@@ -125,13 +125,7 @@ public final class MenuCommand extends HttpBaseCommand {
     output.append("</tr>");
 
     // get and sort menu
-    List<Channel> channels;
-    try {
-      channels = databasePool.doCommand(new GetChannelsConsumer());
-    } catch (Exception e) {
-
-      throw new UtilException(e.getMessage());
-    }
+    final List<Channel> channels = ChannelCatalog.getInstance().getChannels(databasePool);
 
     final List<String> list =
         gov.usgs.volcanoes.winston.server.wws.cmd.MenuCommand.generateMenu(channels, true);
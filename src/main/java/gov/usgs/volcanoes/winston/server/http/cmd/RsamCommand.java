@@ -7,6 +7,8 @@ package gov.usgs.volcanoes.winston.server.http.cmd;
 
 import java.awt.Color;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -21,12 +23,12 @@ import gov.usgs.volcanoes.core.math.DownsamplingType;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
-import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.http.HttpBaseCommand;
 import gov.usgs.volcanoes.winston.server.http.HttpConstants;
+import gov.usgs.volcanoes.winston.server.http.PlotCache;
 import gov.usgs.volcanoes.winston.server.http.UnsupportedMethodException;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
@@ -60,7 +62,8 @@ public final class RsamCommand extends HttpBaseCommand {
   private double plotMin;
   private boolean outputData;
   private Scnl scnl;
-  private RSAMData rsamData;
+  private int interval;
+  private String cacheKey;
   private FullHttpRequest request;
 
   /**
@@ -87,7 +90,20 @@ public final class RsamCommand extends HttpBaseCommand {
     if (errorString.length() > 0) {
       throw new MalformedCommandException(errorString);
     }
-    getData();
+
+    // Align the span to the averaging period, widened to whole periods per pixel. Requests ending
+    // within the same step share a plot, and later requests only read rows newer than those cached.
+    interval = rsamPeriod < 2 ? 1 : rsamPeriod;
+    final double pixel = (endTime - startTime) / Math.max(1, width - 140);
+    final double step = interval * Math.max(1, Math.floor(pixel / interval));
+    final double span = endTime - startTime;
+    startTime = Math.floor(startTime / step) * step;
+    endTime = Math.floor(endTime / step) * step;
+
+    cacheKey = "rsam " + scnl + " " + timeZone.getID() + " " + span + " " + rsamPeriod + " "
+        + width + " " + height + " " + detrend + " " + despike + " " + despikePeriod + " "
+        + runningMedian + " " + runningMedianPeriod + " " + plotMax + " " + plotMin;
+
     if (outputData)
       ctx.write(sendData());
     else
@@ -95,53 +111,64 @@ public final class RsamCommand extends HttpBaseCommand {
 
   }
 
+  private final PlotCache.Fetcher fetcher = new PlotCache.Fetcher() {
+    public List<double[]> fetch(final double t1, final double t2) throws UtilException {
+      return getRows(t1, t2);
+    }
+  };
+
+  private List<double[]> getRows(final double t1, final double t2) throws UtilException {
+    final DownsamplingType dst;
+    final int dsInt;
+    if (rsamPeriod < 2) {
+      dst = DownsamplingType.NONE;
+      dsInt = 0;
+    } else {
+      dst = DownsamplingType.MEAN;
+      dsInt = rsamPeriod;
+    }
 
-  private void getData() throws UtilException {
-    rsamData = null;
+    RSAMData data = null;
     try {
+      data = databasePool.doCommand(new WinstonConsumer<RSAMData>() {
 
-      final DownsamplingType dst;
-      final int dsInt;
-      if (rsamPeriod < 2) {
-        dst = DownsamplingType.NONE;
-        dsInt = 0;
-      } else {
-        dst = DownsamplingType.MEAN;
-        dsInt = rsamPeriod;
-      }
+        public RSAMData execute(WinstonDatabase winston) throws UtilException {
+          return winston.getWaveStore().readRsam(scnl, t1, t2, 0, dst, dsInt);
+        }
+      });
+    } catch (Exception e) {
+      throw new UtilException(
+          "Error: could not get RSAM data, check channel (code). e = " + e.toString());
+    }
 
-      try {
-        rsamData = databasePool.doCommand(new WinstonConsumer<RSAMData>() {
+    if (data == null || data.rows() <= 0) {
+      return null;
+    }
+    return Arrays.asList(data.getData().toArray());
+  }
 
-          public RSAMData execute(WinstonDatabase winston) throws UtilException {
-            return new Data(winston).getRSAMData(scnl, startTime, endTime, 0, dst, dsInt);
-          }
-        });
-      } catch (Exception e) {
-        throw new UtilException(e.getMessage());
-      }
+  /**
+   * Apply the requested adjustments to a copy of the cached rows.
+   */
+  private RSAMData process(final List<double[]> rows) throws UtilException {
+    if (rows == null) {
+      throw new UtilException(
+          "Error: could not get RSAM data, check channel (code). Empty result.");
+    }
 
-      if (rsamData != null && rsamData.rows() > 0) {
-        rsamData.adjustTime(timeZoneOffset);
+    final RSAMData data = new RSAMData(rows);
+    data.adjustTime(timeZoneOffset);
 
-        if (despike)
-          rsamData.despike(1, despikePeriod);
+    if (despike)
+      data.despike(1, despikePeriod);
 
-        if (detrend)
-          rsamData.detrend(1);
+    if (detrend)
+      data.detrend(1);
 
-        if (runningMedian)
-          rsamData.set2median(1, runningMedianPeriod);
-      } else {
-        throw new UtilException(
-            "Error: could not get RSAM data, check channel (code). Empty result.");
+    if (runningMedian)
+      data.set2median(1, runningMedianPeriod);
 
-      }
-
-    } catch (final UtilException e) {
-      throw new UtilException(
-          "Error: could not get RSAM data, check channel (code). e = " + e.toString());
-    }
+    return data;
   }
 
   private String validateParams(Map<String, String> arguments) throws MalformedCommandException {
@@ -202,11 +229,22 @@ public final class RsamCommand extends HttpBaseCommand {
   }
 
   private FullHttpResponse sendPlot() throws UtilException {
-    // if (wws.httpRefreshInterval() > 0)
-    // response.setHeader("Refresh:", wws.httpRefreshInterval() + "; url=" + request.getResource());
+    final PlotCache.Image image = PlotCache.getInstance().getImage(cacheKey, startTime, endTime,
+        interval, fetcher, new PlotCache.Renderer() {
+          public byte[] render(final List<double[]> rows) throws UtilException {
+            return plot(process(rows));
+          }
+        });
 
-    byte[] png;
+    if (image == null) {
+      throw new UtilException(
+          "Error: could not get RSAM data, check channel (code). Empty result.");
+    }
+
+    return imageResponse(request, image);
+  }
 
+  private byte[] plot(final RSAMData rsamData) throws UtilException {
     final Plot plot = new Plot();
     plot.setSize(width, height);
     plot.setBackgroundColor(new Color(0.97f, 0.97f, 0.97f));
@@ -234,28 +272,15 @@ public final class RsamCommand extends HttpBaseCommand {
     // mr.setExtents(startTime, endTime, gdm.min(1), gdm.max(1));
     plot.addRenderer(mr);
     try {
-      png = plot.getPNGBytes();
+      return plot.getPNGBytes();
     } catch (PlotException e) {
       throw new UtilException(e.getLocalizedMessage());
     }
-
-    FullHttpResponse response = new DefaultFullHttpResponse(request.getProtocolVersion(),
-        HttpResponseStatus.OK, Unpooled.copiedBuffer(png));
-    response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, png.length);
-    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "image/png");
-
-    int httpRefreshInterval = configFile.getInt("wws.httpRefreshInterval", -1);
-    if (httpRefreshInterval > 0)
-      response.headers().set("Refresh", httpRefreshInterval + "; url=" + request.getUri());
-
-    if (HttpHeaders.isKeepAlive(request)) {
-      response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
-    }
-
-    return response;
   }
 
-  private FullHttpResponse sendData() {
+  private FullHttpResponse sendData() throws UtilException {
+    final RSAMData rsamData =
+        process(PlotCache.getInstance().getRows(cacheKey, startTime, endTime, interval, fetcher));
     final String html = rsamData.toCSV();
     final String fileName = scnl.toString("_") + "-RSAM.csv";
 
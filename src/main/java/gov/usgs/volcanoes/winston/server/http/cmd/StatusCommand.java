@@ -24,8 +24,8 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
 import gov.usgs.volcanoes.winston.server.ConnectionStatistics;
-import gov.usgs.volcanoes.winston.server.GetChannelsConsumer;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.http.HttpBaseCommand;
 import gov.usgs.volcanoes.winston.server.http.HttpTemplateConfiguration;
@@ -66,12 +66,7 @@ public final class StatusCommand extends HttpBaseCommand {
     final DecimalFormat formatter = new DecimalFormat("#.##");
 
     // get and sort menu
-    List<Channel> sts;
-    try {
-      sts = databasePool.doCommand(new GetChannelsConsumer());
-    } catch (Exception e) {
-      throw new UtilException(e.getMessage());
-    }
+    final List<Channel> sts = ChannelCatalog.getInstance().getChannels(databasePool);
 
     final double now = J2kSec.fromEpoch(System.currentTimeMillis());
     Channel midChan = sts.get(sts.size() / 2);
@@ -9,22 +9,31 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
-import gov.usgs.volcanoes.winston.db.Data;
-import gov.usgs.volcanoes.winston.db.WinstonDatabase;
-import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.WinstonDatabasePool;
 import gov.usgs.volcanoes.winston.server.http.cmd.fdsnws.constraint.ChannelConstraint;
 import gov.usgs.volcanoes.winston.server.http.cmd.fdsnws.constraint.TimeSimpleConstraint;
+import gov.usgs.volcanoes.winston.server.wws.cmd.ChunkedWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
 
 /**
  * FDSN WS dataselect service.
@@ -36,9 +45,16 @@ public class DataselectService extends FdsnwsService {
 
   private static final String VERSION = "1.1.2";
   private static final String SERVICE = "dataselect";
+  private static final String CONTENT_TYPE = "application/vnd.fdsn.mseed";
+
+  /** default number of channels read concurrently by each request */
+  public static final int DEFAULT_THREADS = 4;
+
+  private static final int CHUNK_SIZE = 65536;
+  private static final long POLL_INTERVAL = 1000;
 
-  @SuppressWarnings("unused")
   private static final Logger LOGGER = LoggerFactory.getLogger(DataselectService.class);
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
 
   static {
     version = VERSION;
@@ -49,14 +65,15 @@ public class DataselectService extends FdsnwsService {
    * Constructor.
    * 
    * @param databasePool winston database pool
+   * @param configFile server configuration
    * @param ctx handler context
    * @param request the request
    * @throws UtilException when things go wrong
    * @throws FdsnException when FDSN-WS spec violated
    */
   @SuppressWarnings("deprecation")
-  public static void dispatch(WinstonDatabasePool databasePool, ChannelHandlerContext ctx,
-      FullHttpRequest request) throws FdsnException, UtilException {
+  public static void dispatch(WinstonDatabasePool databasePool, ConfigFile configFile,
+      ChannelHandlerContext ctx, FullHttpRequest request) throws FdsnException, UtilException {
     String method = request.getUri().split("/")[4];
 
     switch (method) {
@@ -67,7 +84,7 @@ public class DataselectService extends FdsnwsService {
         sendWadl(ctx, request);
         break;
       case "query":
-        sendQueryResponse(databasePool, ctx, request);
+        sendQueryResponse(databasePool, configFile, ctx, request);
         break;
       default:
         ErrorResponse error = new ErrorResponse(ctx);
@@ -81,17 +98,47 @@ public class DataselectService extends FdsnwsService {
   }
 
   @SuppressWarnings("deprecation")
-  private static void sendQueryResponse(WinstonDatabasePool databasePool, ChannelHandlerContext ctx,
-      FullHttpRequest request) throws FdsnException, UtilException {
+  private static void sendQueryResponse(WinstonDatabasePool databasePool, ConfigFile configFile,
+      ChannelHandlerContext ctx, FullHttpRequest request) throws FdsnException, UtilException {
     Map<String, String> arguments = parseRequest(request);
 
-
-    List<ChannelConstraint> chanConstraints = new ArrayList<ChannelConstraint>();
-    chanConstraints.add(ChannelConstraint.build(arguments));
-    chanConstraints.addAll(ChannelConstraint.buildMulti(arguments));
+    List<ChannelConstraint> chanConstraints = ChannelConstraint.buildMulti(arguments);
+    if (chanConstraints.isEmpty()) {
+      chanConstraints.add(ChannelConstraint.build(arguments));
+    }
 
     List<Channel> channels = getChannels(databasePool);
-    if (channels == null) {
+    List<MiniSeedStream> streams = new ArrayList<MiniSeedStream>();
+    // each request reads with its own threads, so a slow client stalls only its own streams
+    ExecutorService executor = createExecutor(configFile);
+    if (channels != null) {
+      int recordLength = getRecordLength(configFile);
+      for (ChannelConstraint chanConstraint : chanConstraints) {
+        TimeSimpleConstraint timeConstraint = chanConstraint.getTimeSimpleConstraint();
+        for (Channel c : channels) {
+          if (chanConstraint.nameMatches(c)) {
+            MiniSeedStream stream = new MiniSeedStream(databasePool, c,
+                timeConstraint.startTimeJ2k, timeConstraint.endTimeJ2k, recordLength);
+            streams.add(stream);
+            executor.execute(stream);
+          }
+        }
+      }
+    }
+
+    boolean sentData;
+    try {
+      sentData = sendStreams(streams, ctx, request);
+    } catch (InterruptedException e) {
+      throw new UtilException("Interrupted while sending data");
+    } finally {
+      for (MiniSeedStream stream : streams) {
+        stream.cancel();
+      }
+      executor.shutdownNow();
+    }
+
+    if (!sentData) {
       ErrorResponse error = new ErrorResponse(ctx);
       error.request(request);
       error.version(VERSION);
@@ -99,78 +146,99 @@ public class DataselectService extends FdsnwsService {
       error.shortDescription("No data");
       error.detailedDescription("No matching data found.");
       error.sendError();
-      return;
-    }
-
-    for (ChannelConstraint chanConstraint : chanConstraints) {
-      sendChannel(chanConstraint, channels, databasePool, ctx);
     }
   }
 
-  private static void sendChannel(ChannelConstraint chanConstraint, List<Channel> channels,
-      WinstonDatabasePool databasePool, ChannelHandlerContext ctx) throws UtilException {
-    for (final Channel c : channels) {
-      if (!chanConstraint.nameMatches(c)) {
-        continue;
+  /**
+   * Send records from each stream in turn. Streams are read concurrently; the response header is
+   * held back until the first record is ready so an empty result can still be reported as an
+   * error.
+   *
+   * @return true if any data was sent
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean sendStreams(List<MiniSeedStream> streams, ChannelHandlerContext ctx,
+      FullHttpRequest request) throws InterruptedException {
+    boolean started = false;
+    CompositeByteBuf chunk = null;
+
+    for (MiniSeedStream stream : streams) {
+      while (true) {
+        ByteBuf record = stream.take(POLL_INTERVAL);
+        if (record == null) {
+          if (!ctx.channel().isActive()) {
+            // client has gone away, there is nobody left to send an error to
+            if (chunk != null) {
+              chunk.release();
+            }
+            return true;
+          }
+          continue;
+        }
+        if (MiniSeedStream.isEnd(record)) {
+          break;
+        }
+
+        if (!started) {
+          HttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(),
+              HttpResponseStatus.OK);
+          response.headers().set(HttpHeaders.Names.CONTENT_TYPE, CONTENT_TYPE);
+          HttpHeaders.setTransferEncodingChunked(response);
+          if (HttpHeaders.isKeepAlive(request)) {
+            response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+          }
+          ctx.write(response);
+          started = true;
+        }
+
+        if (chunk == null) {
+          chunk = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+        }
+        chunk.addComponent(record);
+        chunk.writerIndex(chunk.writerIndex() + record.readableBytes());
+        if (chunk.readableBytes() >= CHUNK_SIZE) {
+          ChunkedWriter.write(ctx, new DefaultHttpContent(chunk));
+          chunk = null;
+        }
       }
+    }
 
-      TimeSimpleConstraint timeConstraint = chanConstraint.getTimeSimpleConstraint();
-      final double st = timeConstraint.startTimeJ2k;
-      final double et = timeConstraint.endTimeJ2k;
+    if (chunk != null) {
+      ctx.write(new DefaultHttpContent(chunk));
+    }
+    if (started) {
+      ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+    return started;
+  }
 
-      Wave wave;
-      try {
-        wave = databasePool.doCommand(new WinstonConsumer<Wave>() {
-          public Wave execute(WinstonDatabase winston) throws UtilException {
-            Data data = new Data(winston);
-            return data.getWave(c.sid, st, et, 0);
-          }
-        });
-      } catch (Exception e1) {
-        throw new UtilException(e1.getMessage());
-      }
+  private static int getRecordLength(ConfigFile configFile) {
+    int recordLength = MiniSeedWriter.DEFAULT_RECORD_LENGTH;
+    if (configFile != null) {
+      recordLength = configFile.getInt("wws.dataselectRecordLength", recordLength);
+    }
 
+    if (recordLength != 512 && recordLength != 4096) {
+      LOGGER.error("wws.dataselectRecordLength must be 512 or 4096, using {}",
+          MiniSeedWriter.DEFAULT_RECORD_LENGTH);
+      recordLength = MiniSeedWriter.DEFAULT_RECORD_LENGTH;
+    }
+    return recordLength;
+  }
 
-//      DataHeader header = new DataHeader(seq++, 'D', false);
-//
-//      header.setStationIdentifier(c.station);
-//      header.setChannelIdentifier(c.channel);
-//      header.setNetworkCode(c.network);
-//      header.setLocationIdentifier(c.location);
-//
-//      header.setNumSamples((short) wave.numSamples());
-//      header.setSampleRate(wave.getSamplingRate());
-//      Btime btime = new Btime(Util.j2KToDate(wave.getStartTime()));
-//      header.setStartBtime(btime);
-//
-//      DataRecord record = new DataRecord(header);
-//
-//      try {
-//        Blockette1000 blockette1000 = new Blockette1000();
-//        blockette1000.setEncodingFormat((byte) B1000Types.STEIM2);
-//        blockette1000.setWordOrder((byte) 1);
-//
-//        // todo:fix this
-//        // pad data or split
-//        blockette1000.setDataRecordLength(
-//            (byte) (Math.ceil(Math.log(wave.buffer.length * 5) / Math.log(2))));
-//
-//        record.addBlockette(blockette1000);
-//
-//        SteimFrameBlock data = null;
-//
-//        try {
-//          data = Steim2.encode(wave.buffer, 63);
-//          record.setData(data.getEncodedData());
-//          // record.write(dos);
-//        } catch (SteimException e) {
-//          e.printStackTrace();
-//        }
-//      } catch (SeedFormatException e) {
-//        e.printStackTrace();
-//      } finally {
-//      }
+  private static ExecutorService createExecutor(ConfigFile configFile) {
+    int threads = DEFAULT_THREADS;
+    if (configFile != null) {
+      threads = configFile.getInt("wws.dataselectThreads", threads);
     }
+
+    return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "wws-dataselect-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
   }
 
   protected static boolean pruneChannel(List<ChannelConstraint> constraints, final Channel c) {
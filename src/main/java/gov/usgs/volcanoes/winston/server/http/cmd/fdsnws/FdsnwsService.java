@@ -28,9 +28,7 @@ import freemarker.template.TemplateException;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.Version;
-import gov.usgs.volcanoes.winston.db.Channels;
-import gov.usgs.volcanoes.winston.db.WinstonDatabase;
-import gov.usgs.volcanoes.winston.server.WinstonConsumer;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
 import gov.usgs.volcanoes.winston.server.WinstonDatabasePool;
 import gov.usgs.volcanoes.winston.server.http.HttpTemplateConfiguration;
 import io.netty.buffer.Unpooled;
@@ -178,19 +176,7 @@ abstract public class FdsnwsService {
 
   protected static List<Channel> getChannels(WinstonDatabasePool databasePool)
       throws UtilException {
-    List<Channel> channels;
-    try {
-      channels = databasePool.doCommand(new WinstonConsumer<List<Channel>>() {
-
-        public List<Channel> execute(WinstonDatabase winston) throws UtilException {
-          return new Channels(winston).getChannels();
-        }
-
-      });
-    } catch (Exception e) {
-      throw new UtilException(e.getMessage());
-    }
-    return channels;
+    return ChannelCatalog.getInstance().getChannels(databasePool);
   }
 
 
@@ -0,0 +1,215 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.http.cmd.fdsnws;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.core.data.TraceBuf;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.winston.Channel;
+import gov.usgs.volcanoes.winston.db.Channels;
+import gov.usgs.volcanoes.winston.db.Data;
+import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+import gov.usgs.volcanoes.winston.server.WinstonConsumer;
+import gov.usgs.volcanoes.winston.server.WinstonDatabasePool;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Reads one channel from the database a window at a time and encodes it as miniSEED. Records are
+ * handed to the consumer through a small queue so only a few records per channel are held in
+ * memory, no matter how long the request.
+ */
+public class MiniSeedStream implements Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MiniSeedStream.class);
+
+  /** length of time read from the database at once, in seconds */
+  public static final double FETCH_WINDOW = 600;
+
+  /** records buffered per channel before the reader waits for the consumer */
+  public static final int QUEUE_SIZE = 16;
+
+  private static final ByteBuf END = Unpooled.EMPTY_BUFFER;
+  private static final long OFFER_TIMEOUT = 1;
+
+  private final WinstonDatabasePool databasePool;
+  private final Channel channel;
+  private final double startTime;
+  private final double endTime;
+  private final int recordLength;
+  private final BlockingQueue<ByteBuf> queue;
+
+  private volatile boolean cancelled;
+
+  /**
+   * Constructor.
+   *
+   * @param databasePool winston database pool
+   * @param channel channel to read
+   * @param startTime start of request, J2K seconds
+   * @param endTime end of request, J2K seconds
+   * @param recordLength miniSEED record length
+   */
+  public MiniSeedStream(WinstonDatabasePool databasePool, Channel channel, double startTime,
+      double endTime, int recordLength) {
+    this.databasePool = databasePool;
+    this.channel = channel;
+    this.recordLength = recordLength;
+    this.startTime = clamp(startTime, J2kSec.fromEpoch(channel.timeSpan.startTime), true);
+    this.endTime = clamp(endTime, J2kSec.fromEpoch(channel.timeSpan.endTime), false);
+    queue = new ArrayBlockingQueue<ByteBuf>(QUEUE_SIZE);
+  }
+
+  private static double clamp(double time, double channelTime, boolean start) {
+    if (Double.isNaN(channelTime)) {
+      return time;
+    }
+    return start ? Math.max(time, channelTime) : Math.min(time, channelTime);
+  }
+
+  /**
+   * Read and encode the channel.
+   */
+  public void run() {
+    try {
+      if (cancelled) {
+        return;
+      }
+
+      final String code = databasePool.doCommand(new WinstonConsumer<String>() {
+        public String execute(WinstonDatabase winston) throws UtilException {
+          return new Channels(winston).getChannelCode(channel.sid);
+        }
+      });
+      if (code == null) {
+        return;
+      }
+
+      final MiniSeedWriter writer =
+          new MiniSeedWriter(channel.scnl, recordLength, new MiniSeedWriter.RecordHandler() {
+            public void record(ByteBuf record) throws UtilException {
+              put(record);
+            }
+          });
+
+      // time of the next sample expected, anything earlier has already been written
+      double next = startTime;
+      for (double t1 = startTime; t1 < endTime && !cancelled; t1 += FETCH_WINDOW) {
+        final List<TraceBuf> traceBufs = fetch(code, t1, Math.min(t1 + FETCH_WINDOW, endTime));
+        if (traceBufs == null) {
+          continue;
+        }
+
+        for (TraceBuf tb : traceBufs) {
+          next = write(writer, tb, next);
+        }
+      }
+      writer.flush();
+    } catch (Exception e) {
+      if (!cancelled) {
+        LOGGER.error("Cannot stream {}: {}", channel.scnl, e.getLocalizedMessage());
+      }
+    } finally {
+      try {
+        put(END);
+      } catch (UtilException e) {
+        // request was cancelled, nobody is waiting for the end
+      }
+    }
+  }
+
+  private List<TraceBuf> fetch(final String code, final double t1, final double t2)
+      throws UtilException {
+    try {
+      return databasePool.doCommand(new WinstonConsumer<List<TraceBuf>>() {
+        public List<TraceBuf> execute(WinstonDatabase winston) throws UtilException {
+          return new Data(winston).getTraceBufs(code, t1, t2, 0);
+        }
+      });
+    } catch (Exception e) {
+      throw new UtilException(e.getMessage());
+    }
+  }
+
+  /**
+   * Write the samples of a TraceBuf which fall within the request and have not already been
+   * written.
+   *
+   * @return time of the next sample expected
+   */
+  private double write(MiniSeedWriter writer, TraceBuf tb, double next) throws UtilException {
+    final double rate = tb.samplingRate();
+    if (!(rate > 0)) {
+      return next;
+    }
+
+    final double start = tb.getStartTimeJ2K();
+    final int[] samples = tb.samples();
+    final double halfSample = 0.5 / rate;
+
+    final int from = (int) Math.max(0, Math.ceil((next - halfSample - start) * rate));
+    final int to = (int) Math.min(samples.length, Math.ceil((endTime - start) * rate));
+    if (to <= from) {
+      return next;
+    }
+
+    writer.write(start + from / rate, rate, samples, from, to);
+    return start + to / rate;
+  }
+
+  private void put(ByteBuf record) throws UtilException {
+    try {
+      while (!queue.offer(record, OFFER_TIMEOUT, TimeUnit.SECONDS)) {
+        if (cancelled) {
+          record.release();
+          throw new UtilException("Request cancelled");
+        }
+      }
+    } catch (InterruptedException e) {
+      record.release();
+      throw new UtilException("Interrupted");
+    }
+  }
+
+  /**
+   * Take the next record, waiting for one to be encoded.
+   *
+   * @param timeout how long to wait, in milliseconds
+   * @return the next record, an empty buffer at the end of the channel, or null on timeout
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public ByteBuf take(long timeout) throws InterruptedException {
+    return queue.poll(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Is this the marker which follows the last record of a stream?
+   *
+   * @param record buffer returned by {@link #take(long)}
+   * @return true at the end of the stream
+   */
+  public static boolean isEnd(ByteBuf record) {
+    return record == END;
+  }
+
+  /**
+   * Stop reading and discard any buffered records.
+   */
+  public void cancel() {
+    cancelled = true;
+    ByteBuf record;
+    while ((record = queue.poll()) != null) {
+      record.release();
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.http.cmd.fdsnws;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import gov.usgs.volcanoes.core.data.Scnl;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.core.util.UtilException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Packs a stream of samples from a single channel into Steim2 compressed miniSEED records. Samples
+ * are buffered until a record can be filled; a gap or a change of sample rate closes the current
+ * record early.
+ */
+public class MiniSeedWriter {
+  /** smallest supported record length */
+  public static final int MIN_RECORD_LENGTH = 512;
+
+  /** default record length */
+  public static final int DEFAULT_RECORD_LENGTH = 4096;
+
+  /** largest supported record length */
+  public static final int MAX_RECORD_LENGTH = 4096;
+
+  private static final int HEADER_LENGTH = 48;
+
+  // data begins on the first 64-byte boundary after the fixed header and blockette 1000
+  private static final int FRAME_OFFSET = 64;
+
+  private static final int BLOCKETTE_1000 = 1000;
+  private static final int STEIM2 = 11;
+  private static final int BIG_ENDIAN = 1;
+  private static final int MAX_SEQUENCE = 999999;
+
+  /**
+   * Receives completed records.
+   */
+  public interface RecordHandler {
+    /**
+     * Accept a record. The handler takes ownership of the buffer.
+     *
+     * @param record a complete miniSEED record
+     * @throws UtilException when the record cannot be accepted
+     */
+    void record(ByteBuf record) throws UtilException;
+  }
+
+  private final byte[] identifier;
+  private final int recordLength;
+  private final int frames;
+  private final int fullRecord;
+  private final RecordHandler handler;
+
+  private int sequence;
+  private int[] pending;
+  private int count;
+  private double startTime;
+  private double sampleRate;
+
+  /**
+   * Constructor.
+   *
+   * @param scnl channel written to record headers
+   * @param recordLength record length in bytes, a power of two between 512 and 4096
+   * @param handler receiver of completed records
+   */
+  public MiniSeedWriter(Scnl scnl, int recordLength, RecordHandler handler) {
+    if (recordLength < MIN_RECORD_LENGTH || recordLength > MAX_RECORD_LENGTH
+        || Integer.bitCount(recordLength) != 1) {
+      throw new IllegalArgumentException("Unsupported record length " + recordLength);
+    }
+
+    this.recordLength = recordLength;
+    this.handler = handler;
+    frames = (recordLength - FRAME_OFFSET) / Steim2Encoder.FRAME_SIZE;
+    fullRecord = Steim2Encoder.maxSamples(frames);
+    pending = new int[fullRecord * 2];
+    sequence = 1;
+
+    identifier = new byte[12];
+    Arrays.fill(identifier, (byte) ' ');
+    putField(identifier, 0, 5, scnl.station);
+    putField(identifier, 5, 2, scnl.location);
+    putField(identifier, 7, 3, scnl.channel);
+    putField(identifier, 10, 2, scnl.network);
+  }
+
+  private static void putField(byte[] dest, int offset, int length, String value) {
+    if (value == null || "--".equals(value)) {
+      return;
+    }
+
+    final byte[] bytes = value.getBytes(CharsetUtil.US_ASCII);
+    System.arraycopy(bytes, 0, dest, offset, Math.min(length, bytes.length));
+  }
+
+  /**
+   * Append samples. Samples which are not contiguous with those already written start a new
+   * record.
+   *
+   * @param start time of the first sample, J2K seconds
+   * @param rate sample rate, Hz
+   * @param samples source of samples
+   * @param from index of the first sample
+   * @param to index after the last sample
+   * @throws UtilException when a record cannot be written
+   */
+  public void write(double start, double rate, int[] samples, int from, int to)
+      throws UtilException {
+    if (to <= from) {
+      return;
+    }
+
+    if (count > 0) {
+      final double expected = startTime + count / sampleRate;
+      if (rate != sampleRate || Math.abs(start - expected) > 0.5 / rate) {
+        flush();
+      }
+    }
+
+    if (count == 0) {
+      startTime = start;
+      sampleRate = rate;
+    }
+
+    final int length = to - from;
+    if (count + length > pending.length) {
+      pending = Arrays.copyOf(pending, Math.max(pending.length * 2, count + length));
+    }
+    System.arraycopy(samples, from, pending, count, length);
+    count += length;
+
+    while (count >= fullRecord) {
+      writeRecord();
+    }
+  }
+
+  /**
+   * Write any buffered samples.
+   *
+   * @throws UtilException when a record cannot be written
+   */
+  public void flush() throws UtilException {
+    while (count > 0) {
+      writeRecord();
+    }
+  }
+
+  private void writeRecord() throws UtilException {
+    final byte[] record = new byte[recordLength];
+    final ByteBuffer bb = ByteBuffer.wrap(record);
+
+    bb.position(FRAME_OFFSET);
+    final int encoded = Steim2Encoder.encode(pending, 0, count, frames, bb);
+
+    bb.position(0);
+    bb.put(String.format("%06d", sequence).getBytes(CharsetUtil.US_ASCII));
+    bb.put((byte) 'D');
+    bb.put((byte) ' ');
+    bb.put(identifier);
+    putBtime(bb, startTime);
+    bb.putShort((short) encoded);
+    putSampleRate(bb, sampleRate);
+    bb.put((byte) 0); // activity flags
+    bb.put((byte) 0); // I/O flags
+    bb.put((byte) 0); // data quality flags
+    bb.put((byte) 1); // number of blockettes
+    bb.putInt(0); // time correction
+    bb.putShort((short) FRAME_OFFSET);
+    bb.putShort((short) HEADER_LENGTH);
+
+    bb.putShort((short) BLOCKETTE_1000);
+    bb.putShort((short) 0); // no more blockettes
+    bb.put((byte) STEIM2);
+    bb.put((byte) BIG_ENDIAN);
+    bb.put((byte) Integer.numberOfTrailingZeros(recordLength));
+    bb.put((byte) 0);
+
+    count -= encoded;
+    System.arraycopy(pending, encoded, pending, 0, count);
+    startTime += encoded / sampleRate;
+    sequence = sequence % MAX_SEQUENCE + 1;
+
+    handler.record(Unpooled.wrappedBuffer(record));
+  }
+
+  private static void putBtime(ByteBuffer bb, double time) {
+    final double seconds = Math.floor(time);
+    int ticks = (int) Math.round((time - seconds) * 10000);
+    long whole = (long) seconds;
+    if (ticks == 10000) {
+      ticks = 0;
+      whole++;
+    }
+
+    final Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    cal.setTime(J2kSec.asDate(whole));
+    bb.putShort((short) cal.get(Calendar.YEAR));
+    bb.putShort((short) cal.get(Calendar.DAY_OF_YEAR));
+    bb.put((byte) cal.get(Calendar.HOUR_OF_DAY));
+    bb.put((byte) cal.get(Calendar.MINUTE));
+    bb.put((byte) cal.get(Calendar.SECOND));
+    bb.put((byte) 0);
+    bb.putShort((short) ticks);
+  }
+
+  private static void putSampleRate(ByteBuffer bb, double rate) {
+    int factor;
+    int multiplier;
+    if (rate >= 1 && rate == Math.rint(rate) && rate <= Short.MAX_VALUE) {
+      factor = (int) rate;
+      multiplier = 1;
+    } else if (rate > 0 && rate < 1 && 1 / rate == Math.rint(1 / rate)) {
+      // a negative factor is a sample period
+      factor = (int) -Math.rint(1 / rate);
+      multiplier = 1;
+    } else {
+      // a negative multiplier is a divisor
+      factor = (int) Math.min(Short.MAX_VALUE, Math.round(rate * 100));
+      multiplier = -100;
+    }
+    bb.putShort((short) factor);
+    bb.putShort((short) multiplier);
+  }
+}
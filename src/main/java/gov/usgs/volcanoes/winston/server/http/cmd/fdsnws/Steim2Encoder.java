@@ -0,0 +1,139 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.http.cmd.fdsnws;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Steim2 compression of integer samples into 64-byte frames, as described in appendix B of the
+ * SEED manual. Frames are written big-endian.
+ */
+public final class Steim2Encoder {
+  /** bytes in a Steim frame */
+  public static final int FRAME_SIZE = 64;
+
+  /** 32-bit words in a Steim frame */
+  public static final int WORDS_PER_FRAME = FRAME_SIZE / 4;
+
+  /** most differences which can be packed into a single word */
+  public static final int MAX_DIFFERENCES_PER_WORD = 7;
+
+  // {differences per word, bits per difference, control nibble, dnib}, most differences first
+  private static final int[][] PACKINGS = {{7, 4, 3, 2}, {6, 5, 3, 1}, {5, 6, 3, 0}, {4, 8, 1, -1},
+      {3, 10, 2, 3}, {2, 15, 2, 2}, {1, 30, 2, 1}};
+
+  private Steim2Encoder() {}
+
+  /**
+   * Most samples which could be encoded in a number of frames.
+   *
+   * @param frames number of frames
+   * @return sample count
+   */
+  public static int maxSamples(int frames) {
+    // the first word of each frame holds control nibbles and the first frame holds the forward and
+    // reverse integration constants
+    return MAX_DIFFERENCES_PER_WORD * (frames * (WORDS_PER_FRAME - 1) - 2);
+  }
+
+  /**
+   * Encode as many samples as will fit into a fixed number of frames. Unused frames are zero
+   * filled. Encoding stops early if two consecutive samples differ by more than 30 bits can hold;
+   * the remaining samples should be encoded in a new record.
+   *
+   * @param samples source of samples
+   * @param offset index of first sample to encode
+   * @param length number of samples available
+   * @param frames number of frames to write
+   * @param out destination, exactly frames * FRAME_SIZE bytes will be written at its position
+   * @return number of samples encoded
+   */
+  public static int encode(int[] samples, int offset, int length, int frames, ByteBuffer out) {
+    final int end = offset + length;
+    final int start = out.position();
+    final int[] words = new int[WORDS_PER_FRAME];
+    int pos = offset;
+    boolean full = length == 0;
+
+    for (int f = 0; f < frames; f++) {
+      int control = 0;
+      int w = 1;
+      if (f == 0) {
+        // forward integration constant, reverse integration constant is filled in below
+        words[1] = length > 0 ? samples[offset] : 0;
+        words[2] = 0;
+        w = 3;
+      }
+
+      for (; w < WORDS_PER_FRAME; w++) {
+        int[] packing = null;
+        if (!full && pos < end) {
+          packing = choosePacking(samples, offset, pos, end);
+        }
+
+        if (packing == null) {
+          full = true;
+          words[w] = 0;
+          continue;
+        }
+
+        words[w] = pack(samples, offset, pos, packing);
+        control |= packing[2] << (30 - 2 * w);
+        pos += packing[0];
+      }
+      words[0] = control;
+
+      for (int word : words) {
+        out.putInt(word);
+      }
+    }
+
+    if (pos > offset) {
+      out.putInt(start + 8, samples[pos - 1]);
+    }
+    return pos - offset;
+  }
+
+  private static long difference(int[] samples, int offset, int i) {
+    // the first difference is never used when decoding, the forward integration constant is
+    return i == offset ? 0 : (long) samples[i] - samples[i - 1];
+  }
+
+  private static int[] choosePacking(int[] samples, int offset, int pos, int end) {
+    for (int[] packing : PACKINGS) {
+      final int count = packing[0];
+      if (pos + count > end) {
+        continue;
+      }
+
+      final long max = (1L << (packing[1] - 1)) - 1;
+      final long min = -max - 1;
+      boolean fits = true;
+      for (int i = pos; i < pos + count && fits; i++) {
+        final long d = difference(samples, offset, i);
+        fits = d >= min && d <= max;
+      }
+
+      if (fits) {
+        return packing;
+      }
+    }
+    return null;
+  }
+
+  private static int pack(int[] samples, int offset, int pos, int[] packing) {
+    final int count = packing[0];
+    final int bits = packing[1];
+    final int mask = (int) ((1L << bits) - 1);
+
+    int word = packing[3] < 0 ? 0 : packing[3] << 30;
+    for (int j = 0; j < count; j++) {
+      final int d = (int) difference(samples, offset, pos + j);
+      word |= (d & mask) << (bits * (count - 1 - j));
+    }
+    return word;
+  }
+}
@@ -12,6 +12,7 @@ import java.text.NumberFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.server.BaseCommand;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
@@ -27,6 +28,8 @@ abstract public class WwsBaseCommand extends BaseCommand implements WwsCommand {
   protected final static int ONE_HOUR_S = 60 * 60;
   protected final static int ONE_DAY_S = 24 * ONE_HOUR_S;
 
+  protected ConfigFile configFile;
+
   /**
    * Constructor.
    */
@@ -63,4 +66,13 @@ abstract public class WwsBaseCommand extends BaseCommand implements WwsCommand {
   protected String prettyRequest(WwsCommandString req) {
     return req.commandString;
   }
+
+  /**
+   * Config file mutator.
+   * 
+   * @param configFile my new config file
+   */
+  public void setConfig(ConfigFile configFile) {
+    this.configFile = configFile;
+  }
 }
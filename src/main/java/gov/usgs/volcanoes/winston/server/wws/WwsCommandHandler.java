@@ -12,7 +12,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.winston.server.CommandQueue;
+import gov.usgs.volcanoes.winston.server.CommandTask;
 import gov.usgs.volcanoes.winston.server.ConnectionStatistics;
+import gov.usgs.volcanoes.winston.server.DatabaseExecutor;
 import gov.usgs.volcanoes.winston.server.WinstonDatabasePool;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
@@ -30,8 +33,11 @@ public class WwsCommandHandler extends SimpleChannelInboundHandler<WwsCommandStr
 
   private static final Logger LOGGER = LoggerFactory.getLogger(WwsCommandHandler.class);
 
+  private final ConfigFile configFile;
   private final WinstonDatabasePool winstonDatabasePool;
+  private final DatabaseExecutor databaseExecutor;
   private ConnectionStatistics connectionStatistics;
+  private CommandQueue commandQueue;
 
   private static final AttributeKey<ConnectionStatistics> connectionStatsKey;
 
@@ -44,23 +50,52 @@ public class WwsCommandHandler extends SimpleChannelInboundHandler<WwsCommandStr
    * 
    * @param configFile my config file
    * @param winstonDatabasePool my database pool
+   * @param databaseExecutor executor used to run commands off of the event loop
    */
-  public WwsCommandHandler(ConfigFile configFile, WinstonDatabasePool winstonDatabasePool) {
+  public WwsCommandHandler(ConfigFile configFile, WinstonDatabasePool winstonDatabasePool,
+      DatabaseExecutor databaseExecutor) {
+    this.configFile = configFile;
     this.winstonDatabasePool = winstonDatabasePool;
+    this.databaseExecutor = databaseExecutor;
   }
 
   @Override
-  public void channelRead0(ChannelHandlerContext ctx, WwsCommandString request) throws Exception {
+  public void channelRead0(final ChannelHandlerContext ctx, final WwsCommandString request)
+      throws Exception {
     connectionStatistics = ctx.channel().attr(connectionStatsKey).get();
 
+    final WwsBaseCommand wwsWorker;
     try {
-      final WwsBaseCommand wwsWorker = WwsCommandFactory.get(winstonDatabasePool, request);
+      wwsWorker = WwsCommandFactory.get(winstonDatabasePool, request);
+      wwsWorker.setConfig(configFile);
       connectionStatistics.incrWwsCount(ctx.channel().remoteAddress());
-      wwsWorker.respond(ctx, request);
     } catch (final UnsupportedCommandException e) {
       LOGGER.info(e.getLocalizedMessage());
       ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+      return;
     }
+
+    if (commandQueue == null) {
+      commandQueue = new CommandQueue(databaseExecutor, ctx);
+    }
+
+    commandQueue.submit(new CommandTask("WWS " + request.command) {
+      public void run() {
+        if (!ctx.channel().isActive()) {
+          return;
+        }
+        try {
+          wwsWorker.respond(ctx, request);
+          ctx.flush();
+        } catch (Exception e) {
+          exceptionCaught(ctx, e);
+        }
+      }
+
+      public void reject() {
+        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+      }
+    });
   }
 
   @Override
@@ -69,7 +104,7 @@ public class WwsCommandHandler extends SimpleChannelInboundHandler<WwsCommandStr
   }
 
   @Override
-  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
     // Normal and expected client connections can cause both of these. Nothing to be done about it
     if (!(cause instanceof IOException || cause instanceof NullPointerException)) {
       try {
@@ -0,0 +1,107 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.wws.cmd;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Formats wave samples as space separated ASCII integers directly into pooled buffers. Buffers are
+ * written in fixed size chunks through {@link ChunkedWriter}.
+ */
+public class AsciiSampleEncoder {
+  /** default size of each chunk written to the channel */
+  public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+  // longest int is 11 characters plus a trailing space
+  private static final int MAX_SAMPLE_LENGTH = 12;
+  private static final byte SPACE = ' ';
+  private static final byte MINUS = '-';
+
+  private final int chunkSize;
+  private final byte[] digits;
+
+  /**
+   * Constructor.
+   */
+  public AsciiSampleEncoder() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param chunkSize approximate number of bytes written to the channel at once
+   */
+  public AsciiSampleEncoder(int chunkSize) {
+    this.chunkSize = Math.max(chunkSize, MAX_SAMPLE_LENGTH);
+    digits = new byte[MAX_SAMPLE_LENGTH];
+  }
+
+  /**
+   * Write a header, all samples, each followed by a space, and a trailing newline.
+   *
+   * @param ctx channel to write to
+   * @param header text preceding the samples
+   * @param wave samples
+   * @param fillValue written in place of missing samples
+   */
+  public void encode(ChannelHandlerContext ctx, String header, Wave wave, String fillValue) {
+    final byte[] fill = fillValue.getBytes(CharsetUtil.US_ASCII);
+    final int maxLength = Math.max(MAX_SAMPLE_LENGTH, fill.length + 1);
+
+    ByteBuf buf = ctx.alloc().buffer(chunkSize);
+    buf.writeBytes(header.getBytes(CharsetUtil.US_ASCII));
+
+    final int[] samples = wave.buffer;
+    final int numSamples = wave.numSamples();
+    for (int i = 0; i < numSamples; i++) {
+      if (buf.writableBytes() < maxLength) {
+        ChunkedWriter.write(ctx, buf);
+        buf = ctx.alloc().buffer(chunkSize);
+      }
+
+      final int sample = samples[i];
+      if (sample == Wave.NO_DATA) {
+        buf.writeBytes(fill);
+      } else {
+        writeInt(buf, sample);
+      }
+      buf.writeByte(SPACE);
+    }
+
+    buf.writeByte('\n');
+    ctx.writeAndFlush(buf);
+  }
+
+  /**
+   * Append the decimal representation of value.
+   *
+   * @param buf destination
+   * @param value value to write
+   */
+  void writeInt(ByteBuf buf, int value) {
+    if (value == Integer.MIN_VALUE) {
+      buf.writeBytes(Integer.toString(value).getBytes(CharsetUtil.US_ASCII));
+      return;
+    }
+
+    if (value < 0) {
+      buf.writeByte(MINUS);
+      value = -value;
+    }
+
+    int pos = digits.length;
+    do {
+      digits[--pos] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+
+    buf.writeBytes(digits, pos, digits.length - pos);
+  }
+}
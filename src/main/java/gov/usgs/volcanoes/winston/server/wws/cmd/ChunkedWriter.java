@@ -0,0 +1,35 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0 Universal
+ * public domain dedication. https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.winston.server.wws.cmd;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Writes part of a large response. If the channel is no longer writable, the chunk is flushed and,
+ * when called off of the event loop, the caller waits for it to drain before producing more.
+ */
+public final class ChunkedWriter {
+
+  private ChunkedWriter() {}
+
+  /**
+   * Write a chunk of a response.
+   *
+   * @param ctx channel to write to
+   * @param buf chunk, a ByteBuf or any other message the pipeline can encode
+   */
+  public static void write(ChannelHandlerContext ctx, Object buf) {
+    if (ctx.channel().isWritable()) {
+      ctx.write(buf);
+    } else {
+      final ChannelFuture future = ctx.writeAndFlush(buf);
+      if (!ctx.executor().inEventLoop()) {
+        future.awaitUninterruptibly();
+      }
+    }
+  }
+}
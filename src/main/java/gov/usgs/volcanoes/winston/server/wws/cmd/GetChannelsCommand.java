@@ -14,12 +14,13 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
-import gov.usgs.volcanoes.winston.server.GetChannelsConsumer;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.wws.WwsBaseCommand;
 import gov.usgs.volcanoes.winston.server.wws.WwsCommandString;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
 
 /**
  * Return Channel details.
@@ -46,26 +47,26 @@ public class GetChannelsCommand extends WwsBaseCommand {
 
     final boolean metadata = wantsMetadata(cmd);
 
-    List<Channel> chs = null;
-    try {
-      chs = databasePool.doCommand(new GetChannelsConsumer());
-    } catch (Exception e) {
-      throw new UtilException("Unable to get channels.");
-    }
-
-    final StringBuilder sb = new StringBuilder(chs.size() * 60);
-    sb.append(String.format("%s %d%n", cmd.id, chs.size()));
-    if (metadata) {
-      for (Channel ch : chs) {
-        sb.append(ch.toMetadataString() + "\n");
-      }
-    } else {
-      for (Channel ch : chs) {
-        sb.append(ch.toPV2String() + "\n");
-      }
-    }
-
-    ctx.writeAndFlush(sb.toString());
+    final ChannelCatalog.Snapshot snapshot = ChannelCatalog.getInstance().getSnapshot(databasePool);
+    final byte[] body = snapshot.getResponse(metadata ? "GETCHANNELS METADATA" : "GETCHANNELS",
+        new ChannelCatalog.Renderer() {
+          public byte[] render(List<Channel> chs) {
+            final StringBuilder sb = new StringBuilder(chs.size() * 60);
+            if (metadata) {
+              for (Channel ch : chs) {
+                sb.append(ch.toMetadataString() + "\n");
+              }
+            } else {
+              for (Channel ch : chs) {
+                sb.append(ch.toPV2String() + "\n");
+              }
+            }
+            return sb.toString().getBytes(CharsetUtil.UTF_8);
+          }
+        });
+
+    ctx.write(String.format("%s %d%n", cmd.id, snapshot.channels.size()));
+    ctx.writeAndFlush(body);
   }
 
 
@@ -112,17 +112,7 @@ public class GetScnlCommand extends EwDataRequest {
     String header = String.format("%sF s4 %f %.1f ", hdrPreamble, Time.j2kToEw(wave.getStartTime()),
         wave.getSamplingRate());
 
-    ctx.write(header);
-    for (int i = 0; i < wave.numSamples(); i++) {
-      int sample = wave.buffer[i];
-      if (sample == Wave.NO_DATA) {
-        ctx.write(fillValue);
-      } else {
-        ctx.write(Integer.toString(wave.buffer[i]));
-      }
-      ctx.writeAndFlush(" ");
-    }
-    ctx.writeAndFlush("\n");
+    new AsciiSampleEncoder().encode(ctx, header, wave, fillValue);
   }
 
   protected String prettyRequest(WwsCommandString cmd) {
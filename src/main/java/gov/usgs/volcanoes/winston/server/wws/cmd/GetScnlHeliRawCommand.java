@@ -16,7 +16,6 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.time.TimeSpan;
 import gov.usgs.volcanoes.core.util.UtilException;
-import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
@@ -55,9 +54,8 @@ public class GetScnlHeliRawCommand extends WwsBaseCommand {
     try {
       heli = databasePool.doCommand(new WinstonConsumer<HelicorderData>() {
         public HelicorderData execute(WinstonDatabase winston) throws UtilException {
-          Data data = new Data(winston);
           try {
-            return data.getHelicorderData(cmd.getScnl(), st, et, 0);
+            return winston.getWaveStore().readHelicorder(cmd.getScnl(), st, et, 0, 0);
           } catch (MalformedCommandException e) {
             throw new UtilException(
                 String.format("Cannot find SCNL in command. (%s)", cmd.commandString));
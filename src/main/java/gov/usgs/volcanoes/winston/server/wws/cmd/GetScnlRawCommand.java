@@ -6,8 +6,6 @@
 package gov.usgs.volcanoes.winston.server.wws.cmd;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Iterator;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -20,12 +18,13 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.time.TimeSpan;
 import gov.usgs.volcanoes.core.util.UtilException;
-import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.DbUtils;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.wws.WwsCommandString;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
 /**
@@ -37,6 +36,7 @@ import io.netty.channel.ChannelHandlerContext;
 public class GetScnlRawCommand extends EwDataRequest {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GetScnlRawCommand.class);
+  private static final int DEFAULT_CHUNK_SIZE = 65536;
 
   protected Scnl scnl;
   protected TimeSpan timeSpan;
@@ -98,6 +98,7 @@ public class GetScnlRawCommand extends EwDataRequest {
       return;
     }
 
+    // the header carries the total length, so every TraceBuf is read before any is written
     final List<byte[]> bufs;
     try {
       bufs = databasePool.doCommand(new WinstonConsumer<List<byte[]>>() {
@@ -107,7 +108,7 @@ public class GetScnlRawCommand extends EwDataRequest {
           if (et < endTime) {
             LOGGER.debug("Trimming end time: " + J2kSec.toDateString(endTime) + " -> " + J2kSec.toDateString(et) + "\n");
           }
-          return new Data(winston).getTraceBufBytes(code, st, et, 0);
+          return winston.getWaveStore().readRaw(code, st, et, 0);
         }
       });
     } catch (Exception e) {
@@ -138,13 +139,38 @@ public class GetScnlRawCommand extends EwDataRequest {
         firstBuf.getStartTime(), lastBuf.getEndTime(), total);
     ctx.writeAndFlush(hdr + "\n");
     LOGGER.debug("Returning header: {}", hdr);
-    final ByteBuffer bb = ByteBuffer.allocate(total);
-    for (final Iterator<byte[]> it = bufs.iterator(); it.hasNext();) {
-      bb.put((byte[]) it.next());
+
+    writeBufs(ctx, bufs, getChunkSize());
+    LOGGER.debug("GETSCNLRAW returning {} bytes", total);
+  }
+
+  /**
+   * Write TraceBufs, wrapping rather than copying them, no more than chunkSize bytes at a time. This
+   * bounds what is queued on the socket, not what is held in memory.
+   *
+   * @param ctx channel to write to
+   * @param bufs TraceBufs
+   * @param chunkSize bytes written at once
+   */
+  static void writeBufs(ChannelHandlerContext ctx, List<byte[]> bufs, int chunkSize) {
+    CompositeByteBuf chunk = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+    for (final byte[] buf : bufs) {
+      chunk.addComponent(Unpooled.wrappedBuffer(buf));
+      chunk.writerIndex(chunk.writerIndex() + buf.length);
+      if (chunk.readableBytes() >= chunkSize) {
+        ChunkedWriter.write(ctx, chunk);
+        chunk = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+      }
+    }
+    ctx.write(chunk);
+  }
+
+  private int getChunkSize() {
+    if (configFile == null) {
+      return DEFAULT_CHUNK_SIZE;
+    } else {
+      return configFile.getInt("wws.rawChunkSize", DEFAULT_CHUNK_SIZE);
     }
-    bb.flip();
-    LOGGER.debug("GETSCNLRAW returning {} bytes", bb.capacity());
-    ctx.write(bb.array());
   }
 
   @Override
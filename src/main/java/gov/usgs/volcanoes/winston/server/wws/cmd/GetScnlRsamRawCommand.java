@@ -18,7 +18,6 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.time.TimeSpan;
 import gov.usgs.volcanoes.core.util.UtilException;
-import gov.usgs.volcanoes.winston.db.Data;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
@@ -59,7 +58,7 @@ public class GetScnlRsamRawCommand extends WwsBaseCommand {
     try {
       rsam = databasePool.doCommand(new WinstonConsumer<RSAMData>() {
         public RSAMData execute(WinstonDatabase winston) throws UtilException {
-          return new Data(winston).getRSAMData(scnl, st, et, 0, dst, ds);
+          return winston.getWaveStore().readRsam(scnl, st, et, 0, dst, ds);
         }
 
       });
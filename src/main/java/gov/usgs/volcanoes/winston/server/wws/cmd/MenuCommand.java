@@ -20,12 +20,13 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
-import gov.usgs.volcanoes.winston.server.GetChannelsConsumer;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.wws.WwsBaseCommand;
 import gov.usgs.volcanoes.winston.server.wws.WwsCommandString;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
 
 /**
  * Return the server menu
@@ -59,19 +60,21 @@ public class MenuCommand extends WwsBaseCommand {
         throw new MalformedCommandException();
       }
     }
-    ctx.write(cmd.id + ' ');
-
-    List<Channel> channels;
-    try {
-      channels = databasePool.doCommand(new GetChannelsConsumer());
-    } catch (Exception e) {
-      throw new UtilException(e.getMessage());
-    }
+    final boolean scnlMenu = isScnl;
+    final byte[] menu = ChannelCatalog.getInstance().getSnapshot(databasePool)
+        .getResponse(isScnl ? "MENU SCNL" : "MENU", new ChannelCatalog.Renderer() {
+          public byte[] render(List<Channel> channels) throws UtilException {
+            final StringBuilder sb = new StringBuilder();
+            for (String line : generateMenu(channels, scnlMenu)) {
+              sb.append(line);
+            }
+            sb.append('\n');
+            return sb.toString().getBytes(CharsetUtil.US_ASCII);
+          }
+        });
 
-    for (String line : generateMenu(channels, isScnl)) {
-      ctx.write(line);
-    }
-    ctx.writeAndFlush("\n");
+    ctx.write(cmd.id + ' ');
+    ctx.writeAndFlush(menu);
   }
 
   /**
@@ -15,9 +15,10 @@ import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.winston.Channel;
 import gov.usgs.volcanoes.winston.db.Channels;
+import gov.usgs.volcanoes.winston.db.RecentDataCache;
 import gov.usgs.volcanoes.winston.db.WinstonDatabase;
+import gov.usgs.volcanoes.winston.server.ChannelCatalog;
 import gov.usgs.volcanoes.winston.server.ConnectionStatistics;
-import gov.usgs.volcanoes.winston.server.GetChannelsConsumer;
 import gov.usgs.volcanoes.winston.server.MalformedCommandException;
 import gov.usgs.volcanoes.winston.server.WinstonConsumer;
 import gov.usgs.volcanoes.winston.server.wws.WwsBaseCommand;
@@ -61,12 +62,7 @@ public class StatusCommand extends WwsBaseCommand {
     sb.append(String.format("Connection count: %d%n", connectionStatistics.getCount()));
     lines++;
 
-    List<Channel> sts;
-    try {
-      sts = databasePool.doCommand(new GetChannelsConsumer());
-    } catch (Exception e) {
-      throw new UtilException("Unable to get channels for status command");
-    }
+    final List<Channel> sts = ChannelCatalog.getInstance().getChannels(databasePool);
 
     sb.append(String.format("Channel count: %d%n", sts.size()));
     lines++;
@@ -90,6 +86,14 @@ public class StatusCommand extends WwsBaseCommand {
     sb.append(String.format("Median data age: %s%n", d[(d.length - 1) / 2]));
     lines++;
 
+    final RecentDataCache cache = RecentDataCache.getInstance();
+    if (cache.isEnabled()) {
+      for (final String line : cache.getStatus()) {
+        sb.append(line).append('\n');
+        lines++;
+      }
+    }
+
     ctx.write("GC: " + lines + '\n');
     ctx.writeAndFlush(sb.toString());
   }
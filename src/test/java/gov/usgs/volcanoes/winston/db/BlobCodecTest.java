@@ -0,0 +1,100 @@
+package gov.usgs.volcanoes.winston.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import gov.usgs.volcanoes.core.Zip;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.data.file.FileType;
+import gov.usgs.volcanoes.core.data.file.SeismicDataFile;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+public class BlobCodecTest {
+  private static final String SAC_FILE = "SPCP_BHZ_AV_--_20170630160000-20170630161000.sac";
+  private static final BlobCodec[] CODECS =
+      new BlobCodec[] {BlobCodec.DEFLATE, BlobCodec.DELTA, BlobCodec.LZF};
+
+  private static byte[] traceBuf(final int[] samples) {
+    final TraceBuf tb = new TraceBuf("STA$EHZ$AV$--", new Wave(samples, 0, 100));
+    tb.createBytes();
+    final byte[] bytes = new byte[tb.bytes.length - 1];
+    System.arraycopy(tb.bytes, 0, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  @Test
+  public void round_trips() throws IOException {
+    final Random random = new Random(1);
+    final int[] samples = new int[100];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = random.nextInt(2000) - 1000;
+    }
+    samples[10] = Integer.MAX_VALUE;
+    samples[11] = Integer.MIN_VALUE;
+    final byte[] tb = traceBuf(samples);
+
+    for (final BlobCodec codec : CODECS) {
+      assertArrayEquals(codec.getName(), tb, BlobCodec.decode(codec.encode(tb, 0, tb.length)));
+    }
+  }
+
+  @Test
+  public void round_trips_bytes() throws IOException {
+    final byte[] bytes = new byte[10000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (i % 7 == 0 ? i : i % 13);
+    }
+    for (final BlobCodec codec : CODECS) {
+      assertArrayEquals(codec.getName(), bytes,
+          BlobCodec.decode(codec.encode(bytes, 0, bytes.length)));
+    }
+    assertArrayEquals(new byte[0], BlobCodec.decode(BlobCodec.LZF.encode(bytes, 0, 0)));
+  }
+
+  @Test
+  public void reads_legacy_deflate() throws IOException {
+    final byte[] tb = traceBuf(new int[] {1, 2, 3, 4, 5});
+    assertArrayEquals(tb, BlobCodec.decode(Zip.compress(tb)));
+  }
+
+  @Test
+  public void names() {
+    for (final BlobCodec codec : CODECS) {
+      assertEquals(codec, BlobCodec.forName(codec.getName().toUpperCase()));
+    }
+    assertEquals(null, BlobCodec.forName("snappy"));
+  }
+
+  @Test
+  public void sac_round_trip() throws IOException {
+    Assume.assumeTrue(new File(SAC_FILE).exists());
+    final SeismicDataFile file = SeismicDataFile.getFile(SAC_FILE, FileType.SAC);
+    file.read();
+    final Wave wave = file.getWave(file.getChannels().iterator().next());
+
+    final List<byte[]> tbs = new ArrayList<byte[]>();
+    for (final Wave w : wave.split(100)) {
+      tbs.add(traceBuf(w.buffer));
+    }
+
+    for (final BlobCodec codec : CODECS) {
+      long encoded = 0;
+      for (final byte[] tb : tbs) {
+        final byte[] blob = codec.encode(tb, 0, tb.length);
+        encoded += blob.length;
+        assertArrayEquals(tb, BlobCodec.decode(blob));
+      }
+      assertTrue(encoded > 0);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package gov.usgs.volcanoes.winston.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gov.usgs.volcanoes.core.Zip;
+
+public class SegmentTest {
+  private static final double DAY_START = 86400.0 * 1000;
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("segment", Segment.SUFFIX);
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    Segment.unmap(file);
+    file.delete();
+  }
+
+  private static byte[] body(final int i) {
+    final byte[] bytes = new byte[64];
+    for (int j = 0; j < bytes.length; j++) {
+      bytes[j] = (byte) (i + j);
+    }
+    return bytes;
+  }
+
+  private void append(final Segment segment, final int i) throws IOException {
+    segment.append(DAY_START + i, DAY_START + i + 0.99, 100, Zip.compress(body(i)));
+  }
+
+  private List<RecentDataCache.Row> read(final double t1, final double t2) throws IOException {
+    final List<RecentDataCache.Row> rows = new ArrayList<RecentDataCache.Row>();
+    Segment.read(file, DAY_START, DAY_START + t1, DAY_START + t2, rows);
+    return rows;
+  }
+
+  @Test
+  public void reads_overlapping_records() throws IOException {
+    final Segment segment = new Segment(file, DAY_START);
+    for (int i = 0; i < 600; i++) {
+      append(segment, i);
+    }
+    // late data
+    append(segment, 1000);
+    append(segment, 10);
+    segment.close();
+
+    final List<RecentDataCache.Row> rows = read(100.5, 102);
+    assertEquals(3, rows.size());
+    assertEquals(DAY_START + 100, rows.get(0).st, 0);
+    assertArrayEquals(body(102), rows.get(2).buf);
+
+    assertEquals(2, read(10.5, 10.6).size());
+    assertEquals(1, read(999, 2000).size());
+  }
+
+  @Test
+  public void truncates_partial_tail() throws IOException {
+    Segment segment = new Segment(file, DAY_START);
+    append(segment, 0);
+    append(segment, 1);
+    segment.close();
+    final long length = file.length();
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(length + 20);
+      raf.seek(length);
+      raf.writeDouble(DAY_START + 2);
+      raf.writeDouble(DAY_START + 2.99);
+      raf.writeInt(1000);
+    } finally {
+      raf.close();
+    }
+    assertEquals(2, read(0, 10).size());
+
+    segment = new Segment(file, DAY_START);
+    assertEquals(length, file.length());
+    append(segment, 2);
+    segment.close();
+    assertEquals(3, read(0, 10).size());
+  }
+
+  @Test
+  public void two_writers_in_one_process() throws Exception {
+    final Segment a = new Segment(file, DAY_START);
+    final Segment b = new Segment(file, DAY_START);
+    final Exception[] failure = new Exception[1];
+    final Thread other = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 200; i += 2) {
+            append(b, i);
+          }
+        } catch (final Exception e) {
+          failure[0] = e;
+        }
+      }
+    };
+    other.start();
+    for (int i = 1; i < 200; i += 2) {
+      append(a, i);
+    }
+    other.join();
+    a.close();
+    b.close();
+
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    assertEquals(200, read(0, 300).size());
+  }
+}
@@ -0,0 +1,28 @@
+package gov.usgs.volcanoes.winston.in.ew;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void reports_bucket_bounds() {
+    final Histogram histogram = new Histogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50.5, histogram.getMean(), 1e-9);
+    assertEquals(64, histogram.getPercentile(50), 1e-9);
+    assertEquals(100, histogram.getPercentile(99), 1e-9);
+    assertEquals(100, histogram.getMax(), 1e-9);
+  }
+
+  @Test
+  public void empty_is_zero() {
+    final Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getPercentile(50), 1e-9);
+    assertEquals(0, histogram.getMean(), 1e-9);
+  }
+}
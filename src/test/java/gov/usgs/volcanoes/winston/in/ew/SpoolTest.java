@@ -0,0 +1,140 @@
+package gov.usgs.volcanoes.winston.in.ew;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.legacy.ew.message.TraceBuf;
+
+public class SpoolTest {
+  private static final String CODE = "STA$EHZ$AV$--";
+  private static final int FILE_SIZE = 16 * 1024;
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = File.createTempFile("spool", "");
+    dir.delete();
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private static TraceBuf traceBuf(final String code, final int i) {
+    final int[] samples = new int[100];
+    for (int j = 0; j < samples.length; j++) {
+      samples[j] = i * 1000 + j;
+    }
+    final TraceBuf tb = new TraceBuf(code, new Wave(samples, i, 100));
+    tb.createBytes();
+    return tb;
+  }
+
+  @Test
+  public void drains_in_time_order() throws IOException {
+    final Spool spool = new Spool(dir, FILE_SIZE, FILE_SIZE * 10, 3);
+    for (final int i : new int[] {3, 1, 2, 0}) {
+      spool.append(traceBuf(CODE, i));
+    }
+    spool.append(traceBuf("OTHER$EHZ$AV$--", 5));
+    assertEquals(5, spool.getDepth());
+
+    final List<Spool.Entry> entries = spool.take(CODE, 10);
+    assertEquals(4, entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      assertEquals(i, entries.get(i).traceBuf.getStartTimeJ2K(), 1e-6);
+      assertEquals(CODE, entries.get(i).traceBuf.toWinstonString());
+      spool.commit(entries.get(i));
+    }
+    assertFalse(spool.contains(CODE));
+    assertTrue(spool.contains("OTHER$EHZ$AV$--"));
+    assertEquals(4, spool.getDrained());
+  }
+
+  @Test
+  public void recovers_pending_records() throws IOException {
+    Spool spool = new Spool(dir, FILE_SIZE, FILE_SIZE * 10, 3);
+    for (int i = 0; i < 40; i++) {
+      spool.append(traceBuf(CODE, i));
+    }
+    for (final Spool.Entry entry : spool.take(CODE, 10)) {
+      spool.commit(entry);
+    }
+
+    spool = new Spool(dir, FILE_SIZE, FILE_SIZE * 10, 3);
+    assertEquals(30, spool.getDepth());
+    final List<Spool.Entry> entries = spool.take(CODE, 100);
+    assertEquals(30, entries.size());
+    assertEquals(10, entries.get(0).traceBuf.getStartTimeJ2K(), 1e-6);
+    assertFalse(entries.get(0).sendAck);
+    for (final Spool.Entry entry : entries) {
+      spool.commit(entry);
+    }
+    assertEquals(0, spool.getSize());
+  }
+
+  @Test
+  public void reuses_drained_files() throws IOException {
+    final Spool spool = new Spool(dir, FILE_SIZE, FILE_SIZE * 10, 3);
+    Set<String> names = null;
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 100; i++) {
+        spool.append(traceBuf(CODE, round * 100 + i));
+      }
+      for (final Spool.Entry entry : spool.take(CODE, 100)) {
+        spool.commit(entry);
+      }
+      final Set<String> files = new HashSet<String>(Arrays.asList(dir.list()));
+      if (names == null) {
+        names = files;
+      } else {
+        assertEquals(names, files);
+      }
+    }
+    assertEquals(0, spool.getSize());
+
+    spool.append(traceBuf(CODE, 1000));
+    assertEquals(1, new Spool(dir, FILE_SIZE, FILE_SIZE * 10, 3).getDepth());
+  }
+
+  @Test
+  public void drops_after_max_retries() throws IOException {
+    final Spool spool = new Spool(dir, FILE_SIZE, FILE_SIZE * 10, 2);
+    spool.append(traceBuf(CODE, 0));
+
+    assertTrue(spool.putBack(spool.take(CODE, 1).get(0)));
+    assertTrue(spool.putBack(spool.take(CODE, 1).get(0)));
+    assertFalse(spool.putBack(spool.take(CODE, 1).get(0)));
+    assertEquals(0, spool.getDepth());
+    assertEquals(1, spool.getDropped());
+  }
+
+  @Test(expected = IOException.class)
+  public void refuses_when_full() throws IOException {
+    final Spool spool = new Spool(dir, FILE_SIZE, FILE_SIZE, 3);
+    for (int i = 0; i < 1000; i++) {
+      spool.append(traceBuf(CODE, i));
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package gov.usgs.volcanoes.winston.server.http.cmd.fdsnws;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.iris.Fissures.seed.codec.Steim2;
+
+import gov.usgs.volcanoes.core.data.Scnl;
+import io.netty.buffer.ByteBuf;
+
+public class MiniSeedWriterTest {
+
+  @Test
+  public void round_trip_512() throws Exception {
+    roundTrip(512);
+  }
+
+  @Test
+  public void round_trip_4096() throws Exception {
+    roundTrip(4096);
+  }
+
+  private static void roundTrip(int recordLength) throws Exception {
+    final int[] samples = new int[100 * 60 * 10];
+    final Random random = new Random(1);
+    int value = 0;
+    for (int i = 0; i < samples.length; i++) {
+      // mix of small and large steps to exercise every packing
+      final int bits = 1 + random.nextInt(i % 1000 == 0 ? 30 : 12);
+      value += random.nextInt(1 << bits) - (1 << (bits - 1));
+      if (i % 5000 == 4999) {
+        // too large for Steim2, forces a new record
+        value += 1 << 30;
+      }
+      samples[i] = value;
+    }
+
+    final List<ByteBuf> records = new ArrayList<ByteBuf>();
+    MiniSeedWriter writer = new MiniSeedWriter(new Scnl("STA", "EHZ", "AV", "--"), recordLength,
+        new MiniSeedWriter.RecordHandler() {
+          public void record(ByteBuf record) {
+            records.add(record);
+          }
+        });
+    writer.write(0, 100, samples, 0, samples.length);
+    writer.flush();
+
+    // decode with JavaSeedLite's codec rather than our own, so a mirrored bug cannot pass
+    final int[] decoded = new int[samples.length];
+    int count = 0;
+    for (ByteBuf record : records) {
+      assertEquals(recordLength, record.readableBytes());
+      ByteBuffer bb = record.nioBuffer();
+      assertEquals(1000, bb.getShort(48));
+      assertEquals(11, bb.get(52));
+      final int numSamples = bb.getShort(30) & 0xffff;
+      final byte[] frames = new byte[recordLength - 64];
+      bb.position(64);
+      bb.get(frames);
+      final int[] recordSamples = Steim2.decode(frames, numSamples, false);
+      assertEquals(numSamples, recordSamples.length);
+      assertEquals(bb.getInt(64 + 8), recordSamples[numSamples - 1]);
+      System.arraycopy(recordSamples, 0, decoded, count, numSamples);
+      count += numSamples;
+    }
+
+    assertEquals(samples.length, count);
+    assertArrayEquals(samples, decoded);
+  }
+}
@@ -0,0 +1,96 @@
+package gov.usgs.volcanoes.winston.server.wws.cmd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+
+public class AsciiSampleEncoderTest {
+
+  private static final String HEADER = "1 2 STA EHZ AV -- F s4 1.0 100.0 ";
+  private static final String FILL = "NaN";
+
+  @Test
+  public void matches_string_output() {
+    int[] samples = new int[] {0, 1, -1, 42, Wave.NO_DATA, Integer.MAX_VALUE, -123456789};
+    Wave wave = new Wave(samples, 0, 100);
+
+    assertEquals(expected(wave), encode(wave, 16));
+  }
+
+  @Test
+  public void matches_per_sample_writes() {
+    int[] samples = new int[1000];
+    Random random = new Random(1);
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = random.nextInt(20000) - 10000;
+    }
+    samples[500] = Wave.NO_DATA;
+    Wave wave = new Wave(samples, 0, 100);
+
+    assertEquals(encodePerSample(wave), encode(wave, 64));
+  }
+
+  private static String expected(Wave wave) {
+    StringBuilder sb = new StringBuilder(HEADER);
+    for (int i = 0; i < wave.numSamples(); i++) {
+      int sample = wave.buffer[i];
+      sb.append(sample == Wave.NO_DATA ? FILL : Integer.toString(sample)).append(' ');
+    }
+    sb.append('\n');
+    return sb.toString();
+  }
+
+  private static String encode(Wave wave, int chunkSize) {
+    EmbeddedChannel channel = newChannel();
+    new AsciiSampleEncoder(chunkSize).encode(channel.pipeline().lastContext(), HEADER, wave, FILL);
+    return drain(channel);
+  }
+
+  /** The write pattern used before AsciiSampleEncoder. */
+  private static String encodePerSample(Wave wave) {
+    EmbeddedChannel channel = newChannel();
+    ChannelHandlerContext ctx = channel.pipeline().lastContext();
+    StringBuilder sb = new StringBuilder();
+
+    ctx.write(HEADER);
+    for (int i = 0; i < wave.numSamples(); i++) {
+      int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA) {
+        ctx.write(FILL);
+      } else {
+        ctx.write(Integer.toString(sample));
+      }
+      ctx.writeAndFlush(" ");
+      sb.append(drain(channel));
+    }
+    ctx.writeAndFlush("\n");
+    sb.append(drain(channel));
+    return sb.toString();
+  }
+
+  private static EmbeddedChannel newChannel() {
+    return new EmbeddedChannel(new StringEncoder(CharsetUtil.US_ASCII),
+        new ChannelHandlerAdapter() {});
+  }
+
+  private static String drain(EmbeddedChannel channel) {
+    StringBuilder sb = new StringBuilder();
+    Object msg;
+    while ((msg = channel.readOutbound()) != null) {
+      ByteBuf buf = (ByteBuf) msg;
+      sb.append(buf.toString(CharsetUtil.US_ASCII));
+      buf.release();
+    }
+    return sb.toString();
+  }
+}